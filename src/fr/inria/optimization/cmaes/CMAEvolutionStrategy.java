@@ -1,5 +1,8 @@
 package fr.inria.optimization.cmaes;
 
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
 import java.util.*; // Properties, Arrays.sort, Formatter not needed anymore
 
 /* 
@@ -401,7 +404,7 @@ public class CMAEvolutionStrategy implements java.io.Serializable {
 
     int N;
     long seed = System.currentTimeMillis();
-    Random rand = new Random(seed); // Note: it also Serializable
+    Random rand = new SavableRandom(seed); // Note: it also Serializable; its state can be saved, see writeState()
 
     final MyMath math = new MyMath();
     double axisratio; 
@@ -2002,6 +2005,11 @@ public class CMAEvolutionStrategy implements java.io.Serializable {
         return N;
     }
 
+    /** overall step size of the search distribution */
+    public double getSigma() {
+        return sigma;
+    }
+
     /**
      * number of objective function evaluations counted so far
      */
@@ -2233,6 +2241,190 @@ public class CMAEvolutionStrategy implements java.io.Serializable {
         this.rand = rand;
     }
 
+    /** writes the state of a running strategy in a fixed binary layout, so 
+     * that after readState() it continues exactly as if it had not been 
+     * interrupted: counters, step size, mean, evolution paths, covariance 
+     * matrix and its eigendecomposition, best-ever solution, fitness 
+     * history, recent population and the state of the random number 
+     * generator, which must be a SavableRandom (the default). 
+     * Options, strategy parameters, bounds and timings are not written; 
+     * they come from the setup of the strategy given to readState(). 
+     * 
+     * @see #readState(DataInput)
+     */
+    public void writeState(DataOutput out) throws IOException {
+        if (state < 0)
+            error("init() must be called before writeState()");
+        if (!(rand instanceof SavableRandom))
+            error("state of random number generator " + rand.getClass().getName() + " can't be saved");
+        SavableRandom savableRand = (SavableRandom) rand;
+        
+        out.writeInt(N);
+        out.writeInt(sp.getLambda());
+        
+        /* counters */
+        out.writeDouble(state);
+        out.writeLong(countiter);
+        out.writeLong(counteval);
+        out.writeLong(countCupdatesSinceEigenupdate);
+        out.writeLong(citerlastwritten);
+        out.writeLong(countwritten);
+        out.writeBoolean(flgdiag);
+        out.writeBoolean(iniphase);
+        
+        /* random number generator */
+        out.writeLong(seed);
+        out.writeLong(savableRand.getState());
+        out.writeBoolean(savableRand.hasNextNextGaussian());
+        out.writeDouble(savableRand.getNextNextGaussian());
+        
+        /* distribution */
+        out.writeDouble(sigma);
+        out.writeDouble(axisratio);
+        out.writeDouble(maxsqrtdiagC);
+        out.writeDouble(minsqrtdiagC);
+        writeArray(out, xmean);
+        out.writeDouble(xmean_fit);
+        writeArray(out, pc);
+        writeArray(out, ps);
+        for (int i = 0; i < N; ++i)
+            writeArray(out, C[i]);
+        for (int i = 0; i < N; ++i)
+            writeArray(out, B[i]);
+        writeArray(out, diagD);
+        writeArray(out, initialX);
+        writeArray(out, startsigma);
+        
+        /* best-ever solution */
+        writeArray(out, bestever_x);
+        out.writeDouble(bestever_fit);
+        out.writeLong(bestever_eval);
+        
+        /* fitness information */
+        writeArray(out, fit.history);
+        for (int i = 0; i < fit.fitness.length; ++i) {
+            out.writeInt(fit.fitness[i].i);
+            out.writeDouble(fit.fitness[i].val);
+        }
+        for (int i = 0; i < fit.raw.length; ++i) {
+            out.writeInt(fit.raw[i].i);
+            out.writeDouble(fit.raw[i].val);
+        }
+        writeArray(out, fit.deltaFitHist);
+        out.writeInt(fit.idxDeltaFitHist);
+        out.writeDouble(recentFunctionValue);
+        out.writeDouble(recentMaxFunctionValue);
+        out.writeDouble(recentMinFunctionValue);
+        out.writeInt(idxRecentOffspring);
+        
+        /* recent population, read by getBestRecentX() */
+        for (int i = 0; i < arx.length; ++i)
+            writeArray(out, arx[i]);
+        
+        /* termination messages */
+        out.writeInt(stopConditions.index);
+        out.writeDouble(stopConditions.lastcounteval);
+        out.writeInt(stopConditions.messages.length);
+        for (String message : stopConditions.messages)
+            out.writeUTF(message);
+    }
+
+    /** restores state written by writeState(). This strategy must have been 
+     * set up and init() called as for the strategy that was written, in 
+     * particular with the same dimension and population size. 
+     * 
+     * @throws IOException if the data can't be read or doesn't match the 
+     * dimension or population size of this strategy 
+     * @see #writeState(DataOutput)
+     */
+    public void readState(DataInput in) throws IOException {
+        if (state < 0)
+            error("init() must be called before readState()");
+        
+        int savedN = in.readInt();
+        int savedLambda = in.readInt();
+        if (savedN != N || savedLambda != sp.getLambda())
+            throw new IOException("saved state has dimension " + savedN + " and population size " + savedLambda
+                    + ", not " + N + " and " + sp.getLambda());
+        
+        state = in.readDouble();
+        countiter = in.readLong();
+        counteval = in.readLong();
+        countCupdatesSinceEigenupdate = in.readLong();
+        citerlastwritten = in.readLong();
+        countwritten = in.readLong();
+        flgdiag = in.readBoolean();
+        iniphase = in.readBoolean();
+        
+        seed = in.readLong();
+        SavableRandom savableRand = new SavableRandom();
+        savableRand.setState(in.readLong(), in.readBoolean(), in.readDouble());
+        rand = savableRand;
+        
+        sigma = in.readDouble();
+        axisratio = in.readDouble();
+        maxsqrtdiagC = in.readDouble();
+        minsqrtdiagC = in.readDouble();
+        readArray(in, xmean);
+        xmean_fit = in.readDouble();
+        readArray(in, pc);
+        readArray(in, ps);
+        for (int i = 0; i < N; ++i)
+            readArray(in, C[i]);
+        for (int i = 0; i < N; ++i)
+            readArray(in, B[i]);
+        readArray(in, diagD);
+        readArray(in, initialX);
+        readArray(in, startsigma);
+        maxstartsigma = math.max(startsigma);
+        minstartsigma = math.min(startsigma);
+        
+        readArray(in, bestever_x);
+        bestever_fit = in.readDouble();
+        bestever_eval = in.readLong();
+        
+        readArray(in, fit.history);
+        for (int i = 0; i < fit.fitness.length; ++i) {
+            fit.fitness[i].i = in.readInt();
+            fit.fitness[i].val = in.readDouble();
+        }
+        for (int i = 0; i < fit.raw.length; ++i) {
+            fit.raw[i].i = in.readInt();
+            fit.raw[i].val = in.readDouble();
+        }
+        readArray(in, fit.deltaFitHist);
+        fit.idxDeltaFitHist = in.readInt();
+        recentFunctionValue = in.readDouble();
+        recentMaxFunctionValue = in.readDouble();
+        recentMinFunctionValue = in.readDouble();
+        idxRecentOffspring = in.readInt();
+        
+        for (int i = 0; i < arx.length; ++i)
+            readArray(in, arx[i]);
+        population = genoPhenoTransformation(arx, population);
+        
+        stopConditions.index = in.readInt();
+        stopConditions.lastcounteval = in.readDouble();
+        stopConditions.messages = new String[in.readInt()];
+        for (int i = 0; i < stopConditions.messages.length; ++i)
+            stopConditions.messages[i] = in.readUTF();
+    }
+
+    private static void writeArray(DataOutput out, double[] x) throws IOException {
+        out.writeInt(x.length);
+        for (int i = 0; i < x.length; ++i)
+            out.writeDouble(x[i]);
+    }
+
+    /** reads array written by writeArray() into x, which must have the same length */
+    private static void readArray(DataInput in, double[] x) throws IOException {
+        int length = in.readInt();
+        if (length != x.length)
+            throw new IOException("saved array has length " + length + ", not " + x.length);
+        for (int i = 0; i < x.length; ++i)
+            x[i] = in.readDouble();
+    }
+
     /** Setter for the seed for the random number generator
      * java.util.Random(seed). Changing the seed will only take
      * effect before {@link #init()} was called.
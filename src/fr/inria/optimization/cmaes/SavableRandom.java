@@ -0,0 +1,78 @@
+package fr.inria.optimization.cmaes;
+
+import java.util.Random;
+
+/** java.util.Random whose complete state can be read and restored, so that
+ * a saved strategy continues with the same random numbers (see
+ * CMAEvolutionStrategy#writeState(java.io.DataOutput)). Gives exactly the same
+ * sequences as java.util.Random for the same seed: the generator and the
+ * cached second Gaussian of nextGaussian() are those of java.util.Random,
+ * kept here where they can be read.
+ */
+public class SavableRandom extends Random {
+    private static final long serialVersionUID = 1L;
+
+    private static final long MULTIPLIER = 0x5DEECE66DL;
+    private static final long ADDEND = 0xBL;
+    private static final long MASK = (1L << 48) - 1;
+
+    // no initializers: Random's constructor calls setSeed() before they would run
+    private long state;
+    private boolean haveNextNextGaussian;
+    private double nextNextGaussian;
+
+    public SavableRandom() {
+        super();
+    }
+
+    public SavableRandom(long seed) {
+        super(seed);
+    }
+
+    @Override
+    public synchronized void setSeed(long seed) {
+        state = (seed ^ MULTIPLIER) & MASK;
+        haveNextNextGaussian = false;
+    }
+
+    @Override
+    protected synchronized int next(int bits) {
+        state = (state * MULTIPLIER + ADDEND) & MASK;
+        return (int)(state >>> (48 - bits));
+    }
+
+    @Override
+    public synchronized double nextGaussian() {
+        if (haveNextNextGaussian) {
+            haveNextNextGaussian = false;
+            return nextNextGaussian;
+        }
+        double v1, v2, s;
+        do {
+            v1 = 2 * nextDouble() - 1; // between -1 and 1
+            v2 = 2 * nextDouble() - 1; // between -1 and 1
+            s = v1 * v1 + v2 * v2;
+        } while (s >= 1 || s == 0);
+        double multiplier = StrictMath.sqrt(-2 * StrictMath.log(s)/s);
+        nextNextGaussian = v2 * multiplier;
+        haveNextNextGaussian = true;
+        return v1 * multiplier;
+    }
+
+    /** @return 48 bit generator state */
+    public synchronized long getState() { return state; }
+
+    /** @return true if the next call to nextGaussian() returns a cached value */
+    public synchronized boolean hasNextNextGaussian() { return haveNextNextGaussian; }
+
+    /** @return value returned by the next call to nextGaussian(), if cached */
+    public synchronized double getNextNextGaussian() { return nextNextGaussian; }
+
+    /** restores state previously read with getState(), hasNextNextGaussian()
+     * and getNextNextGaussian() */
+    public synchronized void setState(long state, boolean haveNextNextGaussian, double nextNextGaussian) {
+        this.state = state & MASK;
+        this.haveNextNextGaussian = haveNextNextGaussian;
+        this.nextNextGaussian = nextNextGaussian;
+    }
+}
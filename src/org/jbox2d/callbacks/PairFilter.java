@@ -0,0 +1,12 @@
+package org.jbox2d.callbacks;
+
+/**
+ * Lets BroadPhase drop pairs that could never become contacts before they are buffered and
+ * sorted, instead of reporting them to a PairCallback that would ignore them anyway.
+ * Must not change any state, since it may be called more than once for the same pair.
+ *
+ * @author Ben Humberston
+ */
+public interface PairFilter {
+	public boolean shouldPair(Object userDataA, Object userDataB);
+}
@@ -27,6 +27,7 @@ import java.util.Arrays;
 
 import org.jbox2d.callbacks.DebugDraw;
 import org.jbox2d.callbacks.PairCallback;
+import org.jbox2d.callbacks.PairFilter;
 import org.jbox2d.callbacks.TreeCallback;
 import org.jbox2d.callbacks.TreeRayCastCallback;
 import org.jbox2d.collision.AABB;
@@ -47,7 +48,7 @@ public class BroadPhase implements TreeCallback {
 	
 	public static final int NULL_PROXY = -1;
 	
-	private final DynamicTree m_tree;
+	private final BroadPhaseStrategy m_tree;
 	
 	private int m_proxyCount;
 	
@@ -61,7 +62,16 @@ public class BroadPhase implements TreeCallback {
 	
 	private DynamicTreeNode m_queryProxy;
 	
+	private PairFilter m_pairFilter;
+	
 	public BroadPhase() {
+		this(new DynamicTree());
+	}
+	
+	/**
+	 * @param strategy proxy tree to use, eg: DynamicTree or DynamicTreeFlatNodes
+	 */
+	public BroadPhase(BroadPhaseStrategy strategy) {
 		m_proxyCount = 0;
 		
 		m_pairCapacity = 16;
@@ -75,8 +85,19 @@ public class BroadPhase implements TreeCallback {
 		m_moveCount = 0;
 		m_moveBuffer = new DynamicTreeNode[m_moveCapacity];
 		
-		m_tree = new DynamicTree();
+		m_tree = strategy;
 		m_queryProxy = null;
+		m_pairFilter = null;
+	}
+	
+	/**
+	 * Sets filter applied to pairs as they are found, before they are buffered; null keeps all pairs.
+	 * Worth setting when many proxies overlap but can't collide, since every buffered pair is sorted.
+	 * 
+	 * @param filter
+	 */
+	public void setPairFilter(PairFilter filter) {
+		m_pairFilter = filter;
 	}
 	
 	/**
@@ -116,6 +137,14 @@ public class BroadPhase implements TreeCallback {
 		}
 	}
 	
+	/**
+	 * Call to re-test a proxy against the ones it overlaps on the next
+	 * call to UpdatePairs, even though it hasn't moved.
+	 */
+	public final void touchProxy(DynamicTreeNode proxy) {
+		bufferMove(proxy);
+	}
+
 	public boolean testOverlap(DynamicTreeNode proxyA, DynamicTreeNode proxyB) {
 //		return AABB.testOverlap(proxyA.aabb, proxyB.aabb);
 		AABB a = proxyA.aabb;
@@ -276,6 +305,11 @@ public class BroadPhase implements TreeCallback {
 			return true;
 		}
 		
+		// Skip pairs the client would reject anyway.
+		if (m_pairFilter != null && !m_pairFilter.shouldPair(proxy.userData, m_queryProxy.userData)) {
+			return true;
+		}
+		
 		// Grow the pair buffer as needed.
 		if (m_pairCount == m_pairCapacity) {
 			Pair[] oldBuffer = m_pairBuffer;
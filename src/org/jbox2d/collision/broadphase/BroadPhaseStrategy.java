@@ -0,0 +1,39 @@
+package org.jbox2d.collision.broadphase;
+
+import org.jbox2d.callbacks.DebugDraw;
+import org.jbox2d.callbacks.TreeCallback;
+import org.jbox2d.callbacks.TreeRayCastCallback;
+import org.jbox2d.collision.AABB;
+import org.jbox2d.collision.RayCastInput;
+import org.jbox2d.common.Vec2;
+
+/**
+ * Proxy tree used by BroadPhase. Implemented by DynamicTree (node objects) and
+ * DynamicTreeFlatNodes (nodes in flat arrays).
+ *
+ * @author Ben Humberston
+ */
+public interface BroadPhaseStrategy {
+
+	/**
+	 * Create a proxy with a tight fitting AABB. The returned proxy's aabb is the fattened AABB.
+	 */
+	public DynamicTreeNode createProxy(AABB aabb, Object userData);
+
+	public void destroyProxy(DynamicTreeNode proxy);
+
+	/**
+	 * Move a proxy with a swept AABB. Returns true if the proxy was re-inserted.
+	 */
+	public boolean moveProxy(DynamicTreeNode proxy, AABB aabb, Vec2 displacement);
+
+	public void rebalance(int iterations);
+
+	public void query(TreeCallback callback, AABB aabb);
+
+	public void raycast(TreeRayCastCallback callback, RayCastInput input);
+
+	public int computeHeight();
+
+	public void drawTree(DebugDraw draw);
+}
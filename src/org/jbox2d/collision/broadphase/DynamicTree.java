@@ -46,7 +46,7 @@ import org.jbox2d.pooling.normal.OrderedStack;
  * 
  * @author daniel
  */
-public class DynamicTree {
+public class DynamicTree implements BroadPhaseStrategy {
 	public static final int MAX_STACK_SIZE = 64;
 	
 	private DynamicTreeNode m_root;
@@ -0,0 +1,570 @@
+package org.jbox2d.collision.broadphase;
+
+import java.util.Arrays;
+
+import org.jbox2d.callbacks.DebugDraw;
+import org.jbox2d.callbacks.TreeCallback;
+import org.jbox2d.callbacks.TreeRayCastCallback;
+import org.jbox2d.collision.AABB;
+import org.jbox2d.collision.RayCastInput;
+import org.jbox2d.common.Color3f;
+import org.jbox2d.common.MathUtils;
+import org.jbox2d.common.Settings;
+import org.jbox2d.common.Vec2;
+
+/**
+ * Dynamic AABB tree with the same insertion and rebalancing rules as DynamicTree, but with
+ * nodes stored in flat arrays (AABB floats and parent/child indices) instead of node objects.
+ * Queries and ray casts walk the tree with a preallocated int stack rather than recursing,
+ * and free nodes are recycled through an index free list, so steady-state updates and queries
+ * don't allocate.
+ *
+ * Leaves are still handed to BroadPhase and the tree callbacks as DynamicTreeNode handles,
+ * one per array slot, whose aabb is kept equal to the leaf's fat AABB and whose userData holds
+ * the proxy's user data. Handles get the same keys DynamicTree would have given the proxy, so
+ * pairs are reported in the same order with either tree.
+ *
+ * @author Ben Humberston
+ */
+public class DynamicTreeFlatNodes implements BroadPhaseStrategy {
+	public static final int NULL_NODE = -1;
+	private static final int INITIAL_CAPACITY = 16;
+	private static final int INITIAL_STACK_SIZE = 64;
+
+	private int m_root = NULL_NODE;
+	private int m_nodeCount = 0;
+	private int m_nodeCapacity = 0;
+	private int m_freeList = NULL_NODE;
+	private int m_insertionCount = 0;
+	private int m_path = 0;
+	private int nodeCounter = 0;
+
+	//lowerX, lowerY, upperX, upperY of each node
+	private float[] m_aabbs = new float[0];
+	//parent doubles as the next pointer of free nodes
+	private int[] m_parent = new int[0];
+	private int[] m_child1 = new int[0];
+	private int[] m_child2 = new int[0];
+	//Proxy handle of each slot, reused whenever the slot holds a leaf
+	private DynamicTreeNode[] m_proxies = new DynamicTreeNode[0];
+
+	//Traversal stacks
+	private int[] nodeStack = new int[INITIAL_STACK_SIZE];
+	private int[] depthStack = new int[INITIAL_STACK_SIZE];
+
+	public DynamicTreeFlatNodes() {
+		expandBuffers(INITIAL_CAPACITY);
+	}
+
+	public final DynamicTreeNode createProxy(final AABB argAABB, Object argUserData) {
+		int node = allocateNode();
+
+		// Fatten the aabb
+		int i = 4 * node;
+		m_aabbs[i] = argAABB.lowerBound.x - Settings.aabbExtension;
+		m_aabbs[i + 1] = argAABB.lowerBound.y - Settings.aabbExtension;
+		m_aabbs[i + 2] = argAABB.upperBound.x + Settings.aabbExtension;
+		m_aabbs[i + 3] = argAABB.upperBound.y + Settings.aabbExtension;
+
+		DynamicTreeNode proxy = m_proxies[node];
+		if (proxy == null) {
+			proxy = new DynamicTreeNode();
+			m_proxies[node] = proxy;
+		}
+		proxy.id = node;
+		proxy.key = nodeCounter - 1;
+		proxy.userData = argUserData;
+		copyAABB(node, proxy.aabb);
+
+		insertLeaf(node);
+
+		int iterationCount = m_nodeCount >> 4;
+		int tryCount = 0;
+		int height = computeHeight();
+		while (height > 64 && tryCount < 10) {
+			rebalance(iterationCount);
+			height = computeHeight();
+			++tryCount;
+		}
+
+		return proxy;
+	}
+
+	public final void destroyProxy(DynamicTreeNode argProxy) {
+		assert (argProxy != null);
+		assert (isLeaf(argProxy.id));
+
+		removeLeaf(argProxy.id);
+		freeNode(argProxy.id);
+	}
+
+	public final boolean moveProxy(DynamicTreeNode argProxy, final AABB argAABB, Vec2 displacement) {
+		assert (argProxy != null);
+		assert (isLeaf(argProxy.id));
+
+		// Same test as DynamicTree, so proxies are reinserted on the same steps
+		if (argProxy.aabb.contains(argAABB)) {
+			return false;
+		}
+
+		int node = argProxy.id;
+		removeLeaf(node);
+
+		// Extend AABB
+		argAABB.lowerBound.x -= Settings.aabbExtension;
+		argAABB.lowerBound.y -= Settings.aabbExtension;
+		argAABB.upperBound.x += Settings.aabbExtension;
+		argAABB.upperBound.y += Settings.aabbExtension;
+
+		// Predict AABB displacement.
+		float dx = displacement.x * Settings.aabbMultiplier;
+		float dy = displacement.y * Settings.aabbMultiplier;
+		if (dx < 0.0f) {
+			argAABB.lowerBound.x += dx;
+		}
+		else {
+			argAABB.upperBound.x += dx;
+		}
+
+		if (dy < 0.0f) {
+			argAABB.lowerBound.y += dy;
+		}
+		else {
+			argAABB.upperBound.y += dy;
+		}
+
+		int i = 4 * node;
+		m_aabbs[i] = argAABB.lowerBound.x;
+		m_aabbs[i + 1] = argAABB.lowerBound.y;
+		m_aabbs[i + 2] = argAABB.upperBound.x;
+		m_aabbs[i + 3] = argAABB.upperBound.y;
+		argProxy.aabb.set(argAABB);
+
+		insertLeaf(node);
+		return true;
+	}
+
+	/**
+	 * Rebalances the tree for the given iterations by removing and reinserting leaves,
+	 * following the same path through the tree as DynamicTree.rebalance()
+	 */
+	public final void rebalance(int argIterations) {
+		if (m_root == NULL_NODE) {
+			return;
+		}
+		for (int i = 0; i < argIterations; i++) {
+			int node = m_root;
+
+			int bit = 0;
+			while (!isLeaf(node)) {
+				int goLeft = (m_path >> bit) & 1;
+				if (goLeft == 0) {
+					node = m_child1[node];
+				}
+				else {
+					node = m_child2[node];
+				}
+				bit = (bit + 1) & 31;
+			}
+			++m_path;
+
+			removeLeaf(node);
+			insertLeaf(node);
+		}
+	}
+
+	public final void query(TreeCallback argCallback, AABB argAABB) {
+		if (m_root == NULL_NODE) {
+			return;
+		}
+
+		final float lowerX = argAABB.lowerBound.x;
+		final float lowerY = argAABB.lowerBound.y;
+		final float upperX = argAABB.upperBound.x;
+		final float upperY = argAABB.upperBound.y;
+
+		int top = 0;
+		nodeStack[top++] = m_root;
+		while (top > 0) {
+			int node = nodeStack[--top];
+			int i = 4 * node;
+
+			// AABB.testOverlap(argAABB, node aabb)
+			if (m_aabbs[i] - upperX > 0.0f || m_aabbs[i + 1] - upperY > 0.0f) {
+				continue;
+			}
+			if (lowerX - m_aabbs[i + 2] > 0.0f || lowerY - m_aabbs[i + 3] > 0.0f) {
+				continue;
+			}
+
+			if (isLeaf(node)) {
+				if (!argCallback.treeCallback(m_proxies[node])) {
+					return;
+				}
+			}
+			else {
+				// child1 on top, so children are visited in the same order as DynamicTree
+				if (top + 2 > nodeStack.length) {
+					expandStacks();
+				}
+				nodeStack[top++] = m_child2[node];
+				nodeStack[top++] = m_child1[node];
+			}
+		}
+	}
+
+	private final Vec2 r = new Vec2();
+	private final Vec2 v = new Vec2();
+	private final Vec2 absV = new Vec2();
+	private final Vec2 temp = new Vec2();
+	private final AABB segAABB = new AABB();
+	private final RayCastInput subInput = new RayCastInput();
+
+	public void raycast(TreeRayCastCallback argCallback, RayCastInput argInput) {
+		if (m_root == NULL_NODE) {
+			return;
+		}
+
+		final Vec2 p1 = argInput.p1;
+		final Vec2 p2 = argInput.p2;
+		r.set(p2).subLocal(p1);
+		assert (r.lengthSquared() > 0f);
+		r.normalize();
+
+		// v is perpendicular to the segment.
+		Vec2.crossToOut(1f, r, v);
+		absV.set(v).absLocal();
+
+		// Separating axis for segment (Gino, p80).
+		// |dot(v, p1 - c)| > dot(|v|, h)
+
+		float maxFraction = argInput.maxFraction;
+
+		// Build a bounding box for the segment.
+		temp.set(p2).subLocal(p1).mulLocal(maxFraction).addLocal(p1);
+		Vec2.minToOut(p1, temp, segAABB.lowerBound);
+		Vec2.maxToOut(p1, temp, segAABB.upperBound);
+
+		int top = 0;
+		nodeStack[top++] = m_root;
+		while (top > 0) {
+			int node = nodeStack[--top];
+			int i = 4 * node;
+
+			// AABB.testOverlap(node aabb, segAABB)
+			if (segAABB.lowerBound.x - m_aabbs[i + 2] > 0.0f || segAABB.lowerBound.y - m_aabbs[i + 3] > 0.0f) {
+				continue;
+			}
+			if (m_aabbs[i] - segAABB.upperBound.x > 0.0f || m_aabbs[i + 1] - segAABB.upperBound.y > 0.0f) {
+				continue;
+			}
+
+			float cx = (m_aabbs[i] + m_aabbs[i + 2]) * .5f;
+			float cy = (m_aabbs[i + 1] + m_aabbs[i + 3]) * .5f;
+			float hx = (m_aabbs[i + 2] - m_aabbs[i]) * .5f;
+			float hy = (m_aabbs[i + 3] - m_aabbs[i + 1]) * .5f;
+			float tx = p1.x - cx;
+			float ty = p1.y - cy;
+			float separation = MathUtils.abs(v.x * tx + v.y * ty) - (absV.x * hx + absV.y * hy);
+			if (separation > 0f) {
+				continue;
+			}
+
+			if (isLeaf(node)) {
+				subInput.p1.set(p1);
+				subInput.p2.set(p2);
+				subInput.maxFraction = maxFraction;
+
+				float value = argCallback.raycastCallback(subInput, m_proxies[node]);
+
+				if (value == 0f) {
+					// The client has terminated the ray cast.
+					return;
+				}
+
+				if (value > 0f) {
+					// Update segment bounding box
+					maxFraction = value;
+					temp.set(p2).subLocal(p1).mulLocal(value).addLocal(p1);
+					Vec2.minToOut(p1, temp, segAABB.lowerBound);
+					Vec2.maxToOut(p1, temp, segAABB.upperBound);
+				}
+			}
+			else {
+				if (top + 2 > nodeStack.length) {
+					expandStacks();
+				}
+				nodeStack[top++] = m_child2[node];
+				nodeStack[top++] = m_child1[node];
+			}
+		}
+	}
+
+	/**
+	 * Compute the height of the tree.
+	 */
+	public final int computeHeight() {
+		if (m_root == NULL_NODE) {
+			return 0;
+		}
+
+		int height = 0;
+		int top = 0;
+		nodeStack[top] = m_root;
+		depthStack[top++] = 1;
+		while (top > 0) {
+			--top;
+			int node = nodeStack[top];
+			int depth = depthStack[top];
+			height = MathUtils.max(height, depth);
+
+			if (!isLeaf(node)) {
+				if (top + 2 > nodeStack.length) {
+					expandStacks();
+				}
+				nodeStack[top] = m_child1[node];
+				depthStack[top++] = depth + 1;
+				nodeStack[top] = m_child2[node];
+				depthStack[top++] = depth + 1;
+			}
+		}
+		return height;
+	}
+
+	public int getInsertionCount() {
+		return m_insertionCount;
+	}
+
+	private final Vec2[] drawVecs = new Vec2[] {new Vec2(), new Vec2(), new Vec2(), new Vec2()};
+	private final AABB drawAABB = new AABB();
+	private final Color3f color = new Color3f();
+	private final Vec2 textVec = new Vec2();
+
+	public void drawTree(DebugDraw argDraw) {
+		if (m_root == NULL_NODE) {
+			return;
+		}
+		int height = computeHeight();
+
+		int top = 0;
+		nodeStack[top] = m_root;
+		depthStack[top++] = 0;
+		while (top > 0) {
+			--top;
+			int node = nodeStack[top];
+			int spot = depthStack[top];
+
+			copyAABB(node, drawAABB);
+			drawAABB.getVertices(drawVecs);
+
+			color.set(1, (height - spot) * 1f / height, (height - spot) * 1f / height);
+			argDraw.drawPolygon(drawVecs, 4, color);
+
+			argDraw.getViewportTranform().getWorldToScreen(drawAABB.upperBound, textVec);
+			argDraw.drawString(textVec.x, textVec.y, (spot + 1) + "/" + height, color);
+
+			if (!isLeaf(node)) {
+				if (top + 2 > nodeStack.length) {
+					expandStacks();
+				}
+				nodeStack[top] = m_child2[node];
+				depthStack[top++] = spot + 1;
+				nodeStack[top] = m_child1[node];
+				depthStack[top++] = spot + 1;
+			}
+		}
+	}
+
+	private final boolean isLeaf(int node) {
+		return m_child1[node] == NULL_NODE;
+	}
+
+	private final void copyAABB(int node, AABB out) {
+		int i = 4 * node;
+		out.lowerBound.x = m_aabbs[i];
+		out.lowerBound.y = m_aabbs[i + 1];
+		out.upperBound.x = m_aabbs[i + 2];
+		out.upperBound.y = m_aabbs[i + 3];
+	}
+
+	/** Sets AABB of node to the union of those of a and b (as AABB.combine()) */
+	private final void combine(int node, int a, int b) {
+		int i = 4 * node, ia = 4 * a, ib = 4 * b;
+		m_aabbs[i] = m_aabbs[ia] < m_aabbs[ib] ? m_aabbs[ia] : m_aabbs[ib];
+		m_aabbs[i + 1] = m_aabbs[ia + 1] < m_aabbs[ib + 1] ? m_aabbs[ia + 1] : m_aabbs[ib + 1];
+		m_aabbs[i + 2] = m_aabbs[ia + 2] > m_aabbs[ib + 2] ? m_aabbs[ia + 2] : m_aabbs[ib + 2];
+		m_aabbs[i + 3] = m_aabbs[ia + 3] > m_aabbs[ib + 3] ? m_aabbs[ia + 3] : m_aabbs[ib + 3];
+	}
+
+	/** Same comparison as AABB.contains(), so the tree ends up with the same bounds as DynamicTree */
+	private final boolean contains(int a, int b) {
+		int ia = 4 * a, ib = 4 * b;
+		return m_aabbs[ia] > m_aabbs[ib] && m_aabbs[ia + 1] > m_aabbs[ib + 1] && m_aabbs[ib + 2] > m_aabbs[ia + 2]
+				&& m_aabbs[ib + 3] > m_aabbs[ia + 3];
+	}
+
+	private final int allocateNode() {
+		if (m_freeList == NULL_NODE) {
+			expandBuffers(2 * m_nodeCapacity);
+		}
+		int node = m_freeList;
+		m_freeList = m_parent[node];
+		m_parent[node] = NULL_NODE;
+		m_child1[node] = NULL_NODE;
+		m_child2[node] = NULL_NODE;
+		nodeCounter++;
+		m_nodeCount++;
+		return node;
+	}
+
+	private final void freeNode(int node) {
+		assert (node != NULL_NODE);
+		assert (0 < m_nodeCount);
+		m_parent[node] = m_freeList;
+		m_freeList = node;
+		m_nodeCount--;
+	}
+
+	private final void expandBuffers(int newCapacity) {
+		int oldCapacity = m_nodeCapacity;
+		m_aabbs = Arrays.copyOf(m_aabbs, 4 * newCapacity);
+		m_parent = Arrays.copyOf(m_parent, newCapacity);
+		m_child1 = Arrays.copyOf(m_child1, newCapacity);
+		m_child2 = Arrays.copyOf(m_child2, newCapacity);
+		m_proxies = Arrays.copyOf(m_proxies, newCapacity);
+
+		// Link new slots into the free list
+		for (int i = oldCapacity; i < newCapacity - 1; i++) {
+			m_parent[i] = i + 1;
+		}
+		m_parent[newCapacity - 1] = m_freeList;
+		m_freeList = oldCapacity;
+		m_nodeCapacity = newCapacity;
+	}
+
+	private final void expandStacks() {
+		nodeStack = Arrays.copyOf(nodeStack, 2 * nodeStack.length);
+		depthStack = Arrays.copyOf(depthStack, 2 * depthStack.length);
+	}
+
+	private final void insertLeaf(int leaf) {
+		m_insertionCount++;
+
+		if (m_root == NULL_NODE) {
+			m_root = leaf;
+			m_parent[leaf] = NULL_NODE;
+			return;
+		}
+
+		// find the best sibling
+		int il = 4 * leaf;
+		float centerX = (m_aabbs[il] + m_aabbs[il + 2]) * .5f;
+		float centerY = (m_aabbs[il + 1] + m_aabbs[il + 3]) * .5f;
+		int sibling = m_root;
+		while (!isLeaf(sibling)) {
+			int i1 = 4 * m_child1[sibling];
+			int i2 = 4 * m_child2[sibling];
+
+			float norm1 = MathUtils.abs((m_aabbs[i1] + m_aabbs[i1 + 2]) * .5f - centerX)
+					+ MathUtils.abs((m_aabbs[i1 + 1] + m_aabbs[i1 + 3]) * .5f - centerY);
+			float norm2 = MathUtils.abs((m_aabbs[i2] + m_aabbs[i2 + 2]) * .5f - centerX)
+					+ MathUtils.abs((m_aabbs[i2 + 1] + m_aabbs[i2 + 3]) * .5f - centerY);
+
+			if (norm1 < norm2) {
+				sibling = m_child1[sibling];
+			}
+			else {
+				sibling = m_child2[sibling];
+			}
+		}
+
+		// Create a parent for the siblings
+		int node1 = m_parent[sibling];
+		int node2 = allocateNode();
+		m_parent[node2] = node1;
+		combine(node2, leaf, sibling);
+
+		m_child1[node2] = sibling;
+		m_child2[node2] = leaf;
+		m_parent[sibling] = node2;
+		m_parent[leaf] = node2;
+
+		// was that the head node?
+		if (node1 != NULL_NODE) {
+			if (m_child1[node1] == sibling) {
+				m_child1[node1] = node2;
+			}
+			else {
+				m_child2[node1] = node2;
+			}
+
+			// build the aabb's up in case we expanded them out
+			do {
+				if (contains(node1, node2)) {
+					break;
+				}
+
+				combine(node1, m_child1[node1], m_child2[node1]);
+				node2 = node1;
+				node1 = m_parent[node1];
+			}
+			while (node1 != NULL_NODE);
+		}
+		else {
+			m_root = node2;
+		}
+	}
+
+	private final void removeLeaf(int leaf) {
+		if (leaf == m_root) {
+			m_root = NULL_NODE;
+			return;
+		}
+
+		int node2 = m_parent[leaf];
+		int node1 = m_parent[node2];
+		int sibling;
+		if (m_child1[node2] == leaf) {
+			sibling = m_child2[node2];
+		}
+		else {
+			sibling = m_child1[node2];
+		}
+
+		if (node1 != NULL_NODE) {
+			// Destroy node2 and connect node1 to sibling.
+			if (m_child1[node1] == node2) {
+				m_child1[node1] = sibling;
+			}
+			else {
+				m_child2[node1] = sibling;
+			}
+
+			m_parent[sibling] = node1;
+			freeNode(node2);
+
+			// Adjust ancestor bounds. if the old one was larger, we just keep it
+			while (node1 != NULL_NODE) {
+				int i = 4 * node1;
+				float oldLowerX = m_aabbs[i];
+				float oldLowerY = m_aabbs[i + 1];
+				float oldUpperX = m_aabbs[i + 2];
+				float oldUpperY = m_aabbs[i + 3];
+				combine(node1, m_child1[node1], m_child2[node1]);
+
+				// oldAABB.contains(node1 aabb)
+				if (oldLowerX > m_aabbs[i] && oldLowerY > m_aabbs[i + 1] && m_aabbs[i + 2] > oldUpperX
+						&& m_aabbs[i + 3] > oldUpperY) {
+					break;
+				}
+
+				node1 = m_parent[node1];
+			}
+		}
+		else {
+			m_root = sibling;
+			m_parent[sibling] = NULL_NODE;
+			freeNode(node2);
+		}
+	}
+}
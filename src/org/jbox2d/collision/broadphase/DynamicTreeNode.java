@@ -44,6 +44,11 @@ public class DynamicTreeNode {
 	 */
 	public int key;
 	
+	/**
+	 * index of this proxy's node in DynamicTreeFlatNodes
+	 */
+	protected int id;
+	
 	public final boolean isLeaf() {
 		return child1 == null;
 	}
@@ -0,0 +1,711 @@
+package org.jbox2d.dynamics;
+
+import org.jbox2d.common.MathUtils;
+import org.jbox2d.common.Settings;
+import org.jbox2d.common.Vec2;
+import org.jbox2d.dynamics.joints.Joint;
+import org.jbox2d.dynamics.joints.JointEdge;
+import org.jbox2d.dynamics.joints.RevoluteJoint;
+
+/**
+ * Solves islands that are trees of dynamic bodies connected by revolute joints, with no
+ * contacts, in reduced coordinates (root body pose plus one angle per joint) using
+ * Featherstone's articulated-body algorithm. Each step costs O(n) in the number of bodies and
+ * needs no velocity or position iterations: child bodies are placed from their parent's anchor
+ * every step, so joints never separate.
+ *
+ * Body forces and torques (e.g.: from fluid controllers and motors applying equal and opposite
+ * torques) and gravity are used as-is. As with the iterative solver, joint forces never change
+ * the island's total momentum. Joint limits are enforced with joint-space impulses,
+ * solved exactly over the limits that would be crossed during the step, and, as in the iterative
+ * solver, velocities are scaled down if any body would move too far in one step. Motors of
+ * revolute joints, damping and fixed rotation aren't supported; islands using them (or with contacts, static bodies or other joint types) are left to the
+ * iterative solver.
+ *
+ * Spatial quantities are planar: motions are (angular velocity, velocity of body center) and
+ * forces are (torque about body center, force), expressed in world axes.
+ *
+ * @author Ben Humberston
+ */
+class ArticulatedIslandSolver {
+	// Fraction of an existing limit violation that is corrected per step
+	private static final float LIMIT_BAUMGARTE = Settings.contactBaumgarte;
+	private static final int MAX_LIMIT_ITERATIONS = 20;
+
+	// Bodies in tree order (parents before children); body 0 is the root, which has no joint.
+	// Joint i connects body i to its parent; jointSign[i] is 1 if body i is the joint's body B
+	private Body[] bodies = new Body[8];
+	private int[] parents = new int[8];
+	private RevoluteJoint[] joints = new RevoluteJoint[8];
+	private float[] jointSign = new float[8];
+	private int[] treeIndices = new int[8];
+	private int count = 0;
+
+	// Joint anchors relative to body centers, in local coordinates of the parent (p) and child (c)
+	private float[] anchorPX = new float[8], anchorPY = new float[8];
+	private float[] anchorCX = new float[8], anchorCY = new float[8];
+
+	// Body state
+	private float[] angle = new float[8], cx = new float[8], cy = new float[8];
+	private float[] w = new float[8], vx = new float[8], vy = new float[8];
+	private float[] jointAngle = new float[8], jointRate = new float[8];
+
+	// World vectors from parent center to anchor (pa) and anchor to body center (ac)
+	private float[] paX = new float[8], paY = new float[8], acX = new float[8], acY = new float[8];
+	// Velocity-product acceleration of body center
+	private float[] biasX = new float[8], biasY = new float[8];
+
+	// Articulated inertias (symmetric 3x3, stored as 00 01 02 11 12 22) and bias forces
+	private float[] inertias = new float[48];
+	private float[] biasForces = new float[24];
+	private float[] u0 = new float[8], u1 = new float[8], u2 = new float[8];
+	private float[] d = new float[8], u = new float[8];
+
+	// Momentum (angular about the root's initial center, and linear) at the start of the step, and
+	// total external force and torque (about the same point), including gravity
+	private float originX, originY;
+	private float initialMomentumL, initialMomentumX, initialMomentumY;
+	private float externalTorque, externalForceX, externalForceY;
+	private final float[] solution = new float[3];
+
+	// Accelerations from forward dynamics (or velocity changes from a test impulse)
+	private float[] accW = new float[8], accX = new float[8], accY = new float[8];
+	private float[] jointAcc = new float[8];
+
+	// Joint limits that would be crossed this step: joint, direction, bound, impulse and the response to a unit impulse
+	private int[] limitJoints = new int[8];
+	private float[] limitDirs = new float[8];
+	private float[] limitBounds = new float[8];
+	private float[] limitRates = new float[8];
+	private float[] limitImpulses = new float[8];
+	private float[] limitRootResponses = new float[24];
+	private float[] limitRateResponses = new float[64];
+	private float[] limitMatrix = new float[64];
+	private int limitCount = 0;
+
+	/**
+	 * Solves given island if it is supported (see class comment), returning false and leaving
+	 * the island untouched otherwise
+	 */
+	boolean solve(Island island, TimeStep step, Vec2 gravity, boolean allowSleep) {
+		if (!buildTree(island)) {
+			return false;
+		}
+
+		float dt = step.dt;
+		readState();
+		computeKinematics();
+		forwardDynamics(gravity);
+
+		// Momentum after the step, as if each body were integrated on its own; joint forces cancel out
+		float momentumL = initialMomentumL + externalTorque * dt;
+		float momentumX = initialMomentumX + externalForceX * dt;
+		float momentumY = initialMomentumY + externalForceY * dt;
+
+		// Integrate velocities
+		w[0] += accW[0] * dt;
+		vx[0] += accX[0] * dt;
+		vy[0] += accY[0] * dt;
+		for (int i = 1; i < count; i++) {
+			jointRate[i] += jointAcc[i] * dt;
+		}
+
+		solveLimits(dt);
+
+		// Like the iterative solver, keep bodies from moving too far in one step
+		float ratio = clampVelocities(dt);
+		momentumL *= ratio;
+		momentumX *= ratio;
+		momentumY *= ratio;
+
+		// Integrate positions and place bodies along the tree
+		angle[0] += w[0] * dt;
+		cx[0] += vx[0] * dt;
+		cy[0] += vy[0] * dt;
+		for (int i = 1; i < count; i++) {
+			jointAngle[i] += jointRate[i] * dt;
+		}
+		placeBodies();
+		matchMomentum(momentumL, momentumX, momentumY);
+		writeState();
+
+		if (allowSleep) {
+			updateSleep(dt);
+		}
+		return true;
+	}
+
+	/**
+	 * Orders island bodies from a root (the island's first body) outwards, returning false
+	 * if the island isn't a supported tree
+	 */
+	private boolean buildTree(Island island) {
+		int n = island.m_bodyCount;
+		if (n < 2 || island.m_contactCount > 0 || island.m_jointCount != n - 1) {
+			return false;
+		}
+
+		for (int i = 0; i < n; i++) {
+			Body b = island.m_bodies[i];
+			if (b.getType() != BodyType.DYNAMIC || b.m_invMass == 0.0f || b.m_invI == 0.0f
+					|| b.m_linearDamping != 0.0f || b.m_angularDamping != 0.0f) {
+				return false;
+			}
+		}
+		for (int i = 0; i < island.m_jointCount; i++) {
+			Joint j = island.m_joints[i];
+			if (!(j instanceof RevoluteJoint) || ((RevoluteJoint) j).m_enableMotor) {
+				return false;
+			}
+		}
+
+		ensureCapacity(n);
+		for (int i = 0; i < n; i++) {
+			treeIndices[i] = -1;
+		}
+
+		// Breadth first search over joints; each body is added once, after its parent
+		bodies[0] = island.m_bodies[0];
+		parents[0] = -1;
+		joints[0] = null;
+		treeIndices[bodies[0].m_islandIndex] = 0;
+		count = 1;
+		for (int i = 0; i < count; i++) {
+			Body b = bodies[i];
+			for (JointEdge je = b.m_jointList; je != null; je = je.next) {
+				if (je.joint == joints[i]) {
+					continue;
+				}
+				Body other = je.other;
+				int islandIndex = other.m_islandIndex;
+				if (islandIndex < 0 || islandIndex >= n || island.m_bodies[islandIndex] != other) {
+					return false;
+				}
+				if (treeIndices[islandIndex] >= 0) {
+					// Loop in the joint graph
+					return false;
+				}
+
+				RevoluteJoint joint = (RevoluteJoint) je.joint;
+				boolean childIsB = joint.getBodyB() == other;
+				Vec2 parentAnchor = childIsB ? joint.m_localAnchor1 : joint.m_localAnchor2;
+				Vec2 childAnchor = childIsB ? joint.m_localAnchor2 : joint.m_localAnchor1;
+
+				int c = count++;
+				treeIndices[islandIndex] = c;
+				bodies[c] = other;
+				parents[c] = i;
+				joints[c] = joint;
+				jointSign[c] = childIsB ? 1.0f : -1.0f;
+				anchorPX[c] = parentAnchor.x - b.m_sweep.localCenter.x;
+				anchorPY[c] = parentAnchor.y - b.m_sweep.localCenter.y;
+				anchorCX[c] = childAnchor.x - other.m_sweep.localCenter.x;
+				anchorCY[c] = childAnchor.y - other.m_sweep.localCenter.y;
+			}
+		}
+		return count == n;
+	}
+
+	/** Reads root pose and velocity, and joint angles and rates, from the bodies */
+	private void readState() {
+		Body root = bodies[0];
+		angle[0] = root.m_sweep.a;
+		cx[0] = root.m_sweep.c.x;
+		cy[0] = root.m_sweep.c.y;
+		w[0] = root.m_angularVelocity;
+		vx[0] = root.m_linearVelocity.x;
+		vy[0] = root.m_linearVelocity.y;
+
+		for (int i = 1; i < count; i++) {
+			Body b = bodies[i];
+			Body parent = bodies[parents[i]];
+			jointAngle[i] = b.m_sweep.a - parent.m_sweep.a;
+			jointRate[i] = b.m_angularVelocity - parent.m_angularVelocity;
+		}
+	}
+
+	/**
+	 * Places each body at its joint anchor on its parent and computes body velocities from the
+	 * root velocity and joint rates, along with the joint geometry used by forwardDynamics().
+	 * The root velocity is adjusted so that the island keeps the momentum its bodies had.
+	 */
+	private void computeKinematics() {
+		originX = cx[0];
+		originY = cy[0];
+		initialMomentumL = 0.0f;
+		initialMomentumX = 0.0f;
+		initialMomentumY = 0.0f;
+		for (int i = 0; i < count; i++) {
+			Body b = bodies[i];
+			float m = b.m_mass;
+			float rx = b.m_sweep.c.x - originX, ry = b.m_sweep.c.y - originY;
+			Vec2 v = b.m_linearVelocity;
+			initialMomentumL += b.m_I * b.m_angularVelocity + m * (rx * v.y - ry * v.x);
+			initialMomentumX += m * v.x;
+			initialMomentumY += m * v.y;
+		}
+
+		placeBodies();
+		matchMomentum(initialMomentumL, initialMomentumX, initialMomentumY);
+
+		for (int i = 1; i < count; i++) {
+			int p = parents[i];
+
+			// Velocity-product terms of the child's center acceleration
+			float wp2 = w[p] * w[p], wc2 = w[i] * w[i];
+			biasX[i] = -wp2 * paX[i] - wc2 * acX[i];
+			biasY[i] = -wp2 * paY[i] - wc2 * acY[i];
+		}
+	}
+
+	/** Computes body angles, centers and velocities from the root and joint coordinates */
+	private void placeBodies() {
+		for (int i = 1; i < count; i++) {
+			int p = parents[i];
+			angle[i] = angle[p] + jointAngle[i];
+			w[i] = w[p] + jointRate[i];
+
+			float cp = MathUtils.cos(angle[p]), sp = MathUtils.sin(angle[p]);
+			float cc = MathUtils.cos(angle[i]), sc = MathUtils.sin(angle[i]);
+			paX[i] = cp * anchorPX[i] - sp * anchorPY[i];
+			paY[i] = sp * anchorPX[i] + cp * anchorPY[i];
+			acX[i] = -(cc * anchorCX[i] - sc * anchorCY[i]);
+			acY[i] = -(sc * anchorCX[i] + cc * anchorCY[i]);
+
+			cx[i] = cx[p] + paX[i] + acX[i];
+			cy[i] = cy[p] + paY[i] + acY[i];
+			vx[i] = vx[p] - w[p] * paY[i] - w[i] * acY[i];
+			vy[i] = vy[p] + w[p] * paX[i] + w[i] * acX[i];
+		}
+	}
+
+	/**
+	 * Scales root velocity and joint rates down so that no body exceeds the maximum translation
+	 * and rotation per step, returning the scale used (1 if none). Scaling the whole island,
+	 * rather than each body, keeps joints together.
+	 */
+	private float clampVelocities(float dt) {
+		float maxTranslation = 0.0f, maxRotation = 0.0f;
+		for (int i = 0; i < count; i++) {
+			if (i > 0) {
+				int p = parents[i];
+				w[i] = w[p] + jointRate[i];
+				vx[i] = vx[p] - w[p] * paY[i] - w[i] * acY[i];
+				vy[i] = vy[p] + w[p] * paX[i] + w[i] * acX[i];
+			}
+			maxTranslation = MathUtils.max(maxTranslation, (vx[i] * vx[i] + vy[i] * vy[i]) * dt * dt);
+			maxRotation = MathUtils.max(maxRotation, w[i] * w[i] * dt * dt);
+		}
+
+		float ratio = 1.0f;
+		if (maxTranslation > Settings.maxTranslationSquared) {
+			ratio = Settings.maxTranslation / MathUtils.sqrt(maxTranslation);
+		}
+		if (maxRotation > Settings.maxRotationSquared) {
+			ratio = MathUtils.min(ratio, Settings.maxRotation / MathUtils.sqrt(maxRotation));
+		}
+		if (ratio < 1.0f) {
+			w[0] *= ratio;
+			vx[0] *= ratio;
+			vy[0] *= ratio;
+			for (int i = 1; i < count; i++) {
+				jointRate[i] *= ratio;
+			}
+		}
+		return ratio;
+	}
+
+	/**
+	 * Adds the same rigid motion to every body (ie: changes the root velocity only), so that the
+	 * island's angular momentum about the origin point and its linear momentum take given values.
+	 * Generalized velocities only give body velocities that conserve momentum to first order, since
+	 * they are mapped through the new configuration after each step.
+	 */
+	private void matchMomentum(float momentumL, float momentumX, float momentumY) {
+		// Momentum error, and the island's rigid body inertia about the root's center
+		float errorL = momentumL, errorX = momentumX, errorY = momentumY;
+		float a00 = 0.0f, a01 = 0.0f, a02 = 0.0f, mass = 0.0f;
+		for (int i = 0; i < count; i++) {
+			Body b = bodies[i];
+			float m = b.m_mass;
+			errorL -= b.m_I * w[i] + m * ((cx[i] - originX) * vy[i] - (cy[i] - originY) * vx[i]);
+			errorX -= m * vx[i];
+			errorY -= m * vy[i];
+
+			float rx = cx[i] - cx[0], ry = cy[i] - cy[0];
+			a00 += b.m_I + m * (rx * rx + ry * ry);
+			a01 -= m * ry;
+			a02 += m * rx;
+			mass += m;
+		}
+		errorL -= (cx[0] - originX) * errorY - (cy[0] - originY) * errorX;
+
+		solveSymmetric(a00, a01, a02, mass, 0.0f, mass, errorL, errorX, errorY);
+		float dw = solution[0], dvx = solution[1], dvy = solution[2];
+		for (int i = 0; i < count; i++) {
+			w[i] += dw;
+			vx[i] += dvx - dw * (cy[i] - cy[0]);
+			vy[i] += dvy + dw * (cx[i] - cx[0]);
+		}
+	}
+
+	/** Solves a symmetric 3x3 system (given as 00 01 02 11 12 22) into solution */
+	private void solveSymmetric(float a00, float a01, float a02, float a11, float a12, float a22, float b0, float b1, float b2) {
+		float c00 = a11 * a22 - a12 * a12;
+		float c01 = a02 * a12 - a01 * a22;
+		float c02 = a01 * a12 - a02 * a11;
+		float det = a00 * c00 + a01 * c01 + a02 * c02;
+		if (det != 0.0f) {
+			det = 1.0f / det;
+		}
+		float c11 = a00 * a22 - a02 * a02;
+		float c12 = a01 * a02 - a00 * a12;
+		float c22 = a00 * a11 - a01 * a01;
+		solution[0] = det * (c00 * b0 + c01 * b1 + c02 * b2);
+		solution[1] = det * (c01 * b0 + c11 * b1 + c12 * b2);
+		solution[2] = det * (c02 * b0 + c12 * b1 + c22 * b2);
+	}
+
+	/**
+	 * Computes root and joint accelerations from body forces, torques and gravity
+	 */
+	private void forwardDynamics(Vec2 gravity) {
+		externalTorque = 0.0f;
+		externalForceX = 0.0f;
+		externalForceY = 0.0f;
+
+		// Rigid body inertias and external forces (as bias forces, ie: negated)
+		for (int i = 0; i < count; i++) {
+			Body b = bodies[i];
+			int m = 6 * i, f = 3 * i;
+			float fx = b.m_force.x + b.m_mass * gravity.x;
+			float fy = b.m_force.y + b.m_mass * gravity.y;
+			externalTorque += b.m_torque + (cx[i] - originX) * fy - (cy[i] - originY) * fx;
+			externalForceX += fx;
+			externalForceY += fy;
+
+			inertias[m] = b.m_I;
+			inertias[m + 1] = 0.0f;
+			inertias[m + 2] = 0.0f;
+			inertias[m + 3] = b.m_mass;
+			inertias[m + 4] = 0.0f;
+			inertias[m + 5] = b.m_mass;
+			biasForces[f] = -b.m_torque;
+			biasForces[f + 1] = -fx;
+			biasForces[f + 2] = -fy;
+		}
+
+		// Articulated inertias, from the leaves inwards
+		for (int i = count - 1; i > 0; i--) {
+			int m = 6 * i;
+			float a00 = inertias[m], a01 = inertias[m + 1], a02 = inertias[m + 2];
+			float a11 = inertias[m + 3], a12 = inertias[m + 4], a22 = inertias[m + 5];
+
+			// Joint motion axis is (1, sx, sy): rotation about the anchor
+			float sx = -acY[i], sy = acX[i];
+			float U0 = a00 + a01 * sx + a02 * sy;
+			float U1 = a01 + a11 * sx + a12 * sy;
+			float U2 = a02 + a12 * sx + a22 * sy;
+			float D = U0 + sx * U1 + sy * U2;
+			float invD = 1.0f / D;
+			u0[i] = U0;
+			u1[i] = U1;
+			u2[i] = U2;
+			d[i] = D;
+
+			// Inertia passed to the parent, with the joint's freedom removed
+			a00 -= U0 * U0 * invD;
+			a01 -= U0 * U1 * invD;
+			a02 -= U0 * U2 * invD;
+			a11 -= U1 * U1 * invD;
+			a12 -= U1 * U2 * invD;
+			a22 -= U2 * U2 * invD;
+			addToParent(i, a00, a01, a02, a11, a12, a22);
+		}
+
+		propagateForces(true, -1, 0.0f);
+	}
+
+	/**
+	 * Passes bias forces inwards and solves for accelerations outwards, given the articulated
+	 * inertias of forwardDynamics(). If dynamics is false, solves instead for the velocity
+	 * change caused by a single joint impulse of given size (with no other forces), whose
+	 * response is linear in the impulse.
+	 */
+	private void propagateForces(boolean dynamics, int impulseJoint, float impulse) {
+		if (!dynamics) {
+			for (int f = 0; f < 3 * count; f++) {
+				biasForces[f] = 0.0f;
+			}
+		}
+
+		for (int i = count - 1; i > 0; i--) {
+			int m = 6 * i, f = 3 * i;
+			float sx = -acY[i], sy = acX[i];
+			float p0 = biasForces[f], p1 = biasForces[f + 1], p2 = biasForces[f + 2];
+			float tau = (i == impulseJoint) ? impulse : 0.0f;
+			u[i] = tau - (p0 + sx * p1 + sy * p2);
+
+			float k = u[i] / d[i];
+			p0 += u0[i] * k;
+			p1 += u1[i] * k;
+			p2 += u2[i] * k;
+			if (dynamics) {
+				// Articulated inertia times the velocity-product acceleration
+				float invD = 1.0f / d[i];
+				float i01 = inertias[m + 1] - u0[i] * u1[i] * invD;
+				float i02 = inertias[m + 2] - u0[i] * u2[i] * invD;
+				float i11 = inertias[m + 3] - u1[i] * u1[i] * invD;
+				float i12 = inertias[m + 4] - u1[i] * u2[i] * invD;
+				float i22 = inertias[m + 5] - u2[i] * u2[i] * invD;
+				p0 += i01 * biasX[i] + i02 * biasY[i];
+				p1 += i11 * biasX[i] + i12 * biasY[i];
+				p2 += i12 * biasX[i] + i22 * biasY[i];
+			}
+
+			// Move force from child center to parent center
+			int pf = 3 * parents[i];
+			float rx = paX[i] + acX[i], ry = paY[i] + acY[i];
+			biasForces[pf] += p0 - ry * p1 + rx * p2;
+			biasForces[pf + 1] += p1;
+			biasForces[pf + 2] += p2;
+		}
+
+		// Root is free, so its acceleration solves inertia * acc = -bias force
+		solveSymmetric(inertias[0], inertias[1], inertias[2], inertias[3], inertias[4], inertias[5],
+				-biasForces[0], -biasForces[1], -biasForces[2]);
+		accW[0] = solution[0];
+		accX[0] = solution[1];
+		accY[0] = solution[2];
+
+		for (int i = 1; i < count; i++) {
+			int p = parents[i];
+			float rx = paX[i] + acX[i], ry = paY[i] + acY[i];
+			float aw = accW[p];
+			float ax = accX[p] - ry * aw;
+			float ay = accY[p] + rx * aw;
+			if (dynamics) {
+				ax += biasX[i];
+				ay += biasY[i];
+			}
+
+			float qdd = (u[i] - (u0[i] * aw + u1[i] * ax + u2[i] * ay)) / d[i];
+			jointAcc[i] = qdd;
+			accW[i] = aw + qdd;
+			accX[i] = ax - acY[i] * qdd;
+			accY[i] = ay + acX[i] * qdd;
+		}
+	}
+
+	/** Adds X^T * Ia * X to the parent's articulated inertia, where X moves motion from parent center to child center */
+	private void addToParent(int i, float a00, float a01, float a02, float a11, float a12, float a22) {
+		float rx = paX[i] + acX[i], ry = paY[i] + acY[i];
+		float m01 = a01 - ry * a11 + rx * a12;
+		float m02 = a02 - ry * a12 + rx * a22;
+		float m00 = a00 - ry * a01 + rx * a02;
+		m00 = m00 - ry * m01 + rx * m02;
+
+		int pm = 6 * parents[i];
+		inertias[pm] += m00;
+		inertias[pm + 1] += m01;
+		inertias[pm + 2] += m02;
+		inertias[pm + 3] += a11;
+		inertias[pm + 4] += a12;
+		inertias[pm + 5] += a22;
+	}
+
+	/**
+	 * Applies joint impulses that keep limited joints from crossing their limits during the
+	 * step (and correct part of any existing violation), given velocities already updated by
+	 * forces. Impulses are solved together, as a small LCP over the limits involved.
+	 */
+	private void solveLimits(float dt) {
+		limitCount = 0;
+		for (int i = 1; i < count; i++) {
+			RevoluteJoint joint = joints[i];
+			if (!joint.m_enableLimit) {
+				continue;
+			}
+
+			// Joint's own angle convention: bodyB angle - bodyA angle - reference
+			float s = jointSign[i];
+			float q = s * jointAngle[i] - joint.m_referenceAngle;
+			float qRate = s * jointRate[i];
+
+			float lowerError = q - joint.m_lowerAngle;
+			float lowerBound = -(lowerError >= 0.0f ? lowerError : LIMIT_BAUMGARTE * lowerError) / dt;
+			if (qRate < lowerBound) {
+				addLimit(i, s, lowerBound, qRate);
+			}
+
+			float upperError = joint.m_upperAngle - q;
+			float upperBound = -(upperError >= 0.0f ? upperError : LIMIT_BAUMGARTE * upperError) / dt;
+			if (-qRate < upperBound) {
+				addLimit(i, -s, upperBound, -qRate);
+			}
+		}
+		if (limitCount == 0) {
+			return;
+		}
+
+		// Response of every joint rate (and the root) to a unit impulse at each limit
+		for (int l = 0; l < limitCount; l++) {
+			propagateForces(false, limitJoints[l], limitDirs[l]);
+			limitRootResponses[3 * l] = accW[0];
+			limitRootResponses[3 * l + 1] = accX[0];
+			limitRootResponses[3 * l + 2] = accY[0];
+			for (int i = 1; i < count; i++) {
+				limitRateResponses[l * count + i] = jointAcc[i];
+			}
+			for (int k = 0; k < limitCount; k++) {
+				limitMatrix[k * limitCount + l] = limitDirs[k] * jointAcc[limitJoints[k]];
+			}
+		}
+
+		// Projected Gauss-Seidel; exact after one pass when a single limit is involved
+		for (int l = 0; l < limitCount; l++) {
+			limitImpulses[l] = 0.0f;
+		}
+		for (int iter = 0; iter < MAX_LIMIT_ITERATIONS; iter++) {
+			float maxChange = 0.0f;
+			for (int k = 0; k < limitCount; k++) {
+				float kk = limitMatrix[k * limitCount + k];
+				float impulse = MathUtils.max(limitImpulses[k] + (limitBounds[k] - limitRates[k]) / kk, 0.0f);
+				float change = impulse - limitImpulses[k];
+				limitImpulses[k] = impulse;
+				for (int m = 0; m < limitCount; m++) {
+					limitRates[m] += limitMatrix[m * limitCount + k] * change;
+				}
+				maxChange = MathUtils.max(maxChange, MathUtils.abs(change));
+			}
+			if (limitCount == 1 || maxChange <= Settings.EPSILON) {
+				break;
+			}
+		}
+
+		for (int l = 0; l < limitCount; l++) {
+			float impulse = limitImpulses[l];
+			if (impulse == 0.0f) {
+				continue;
+			}
+			w[0] += limitRootResponses[3 * l] * impulse;
+			vx[0] += limitRootResponses[3 * l + 1] * impulse;
+			vy[0] += limitRootResponses[3 * l + 2] * impulse;
+			for (int i = 1; i < count; i++) {
+				jointRate[i] += limitRateResponses[l * count + i] * impulse;
+			}
+		}
+	}
+
+	/** Records a limit on joint i: dir * (joint rate) must be at least bound */
+	private void addLimit(int i, float dir, float bound, float rate) {
+		if (limitCount == limitJoints.length) {
+			int capacity = 2 * limitJoints.length;
+			limitJoints = java.util.Arrays.copyOf(limitJoints, capacity);
+			limitDirs = java.util.Arrays.copyOf(limitDirs, capacity);
+			limitBounds = java.util.Arrays.copyOf(limitBounds, capacity);
+			limitRates = java.util.Arrays.copyOf(limitRates, capacity);
+			limitImpulses = java.util.Arrays.copyOf(limitImpulses, capacity);
+			limitRootResponses = new float[3 * capacity];
+		}
+		limitJoints[limitCount] = i;
+		limitDirs[limitCount] = dir;
+		limitBounds[limitCount] = bound;
+		limitRates[limitCount] = rate;
+		limitCount++;
+
+		if (limitRateResponses.length < limitCount * count) {
+			limitRateResponses = new float[2 * limitCount * count];
+		}
+		if (limitMatrix.length < limitCount * limitCount) {
+			limitMatrix = new float[2 * limitCount * limitCount];
+		}
+	}
+
+	/** Copies solved state back into the bodies */
+	private void writeState() {
+		for (int i = 0; i < count; i++) {
+			Body b = bodies[i];
+
+			// Store positions for continuous collision.
+			b.m_sweep.c0.set(b.m_sweep.c);
+			b.m_sweep.a0 = b.m_sweep.a;
+
+			b.m_sweep.c.set(cx[i], cy[i]);
+			b.m_sweep.a = angle[i];
+			b.m_linearVelocity.set(vx[i], vy[i]);
+			b.m_angularVelocity = w[i];
+			b.synchronizeTransform();
+		}
+	}
+
+	/** Puts the island to sleep if all of its bodies have rested long enough, as in Island.solve() */
+	private void updateSleep(float dt) {
+		float minSleepTime = Float.MAX_VALUE;
+
+		final float linTolSqr = Settings.linearSleepTolerance * Settings.linearSleepTolerance;
+		final float angTolSqr = Settings.angularSleepTolerance * Settings.angularSleepTolerance;
+
+		for (int i = 0; i < count; ++i) {
+			Body b = bodies[i];
+			if ((b.m_flags & Body.e_autoSleepFlag) == 0 ||
+				b.m_angularVelocity * b.m_angularVelocity > angTolSqr ||
+				Vec2.dot(b.m_linearVelocity, b.m_linearVelocity) > linTolSqr) {
+				b.m_sleepTime = 0.0f;
+				minSleepTime = 0.0f;
+			}
+			else {
+				b.m_sleepTime += dt;
+				minSleepTime = MathUtils.min(minSleepTime, b.m_sleepTime);
+			}
+		}
+
+		if (minSleepTime >= Settings.timeToSleep) {
+			for (int i = 0; i < count; ++i) {
+				bodies[i].setAwake(false);
+			}
+		}
+	}
+
+	private void ensureCapacity(int n) {
+		if (bodies.length >= n) {
+			return;
+		}
+
+		int capacity = Math.max(n, 2 * bodies.length);
+		bodies = new Body[capacity];
+		parents = new int[capacity];
+		joints = new RevoluteJoint[capacity];
+		jointSign = new float[capacity];
+		treeIndices = new int[capacity];
+		anchorPX = new float[capacity];
+		anchorPY = new float[capacity];
+		anchorCX = new float[capacity];
+		anchorCY = new float[capacity];
+		angle = new float[capacity];
+		cx = new float[capacity];
+		cy = new float[capacity];
+		w = new float[capacity];
+		vx = new float[capacity];
+		vy = new float[capacity];
+		jointAngle = new float[capacity];
+		jointRate = new float[capacity];
+		paX = new float[capacity];
+		paY = new float[capacity];
+		acX = new float[capacity];
+		acY = new float[capacity];
+		biasX = new float[capacity];
+		biasY = new float[capacity];
+		inertias = new float[6 * capacity];
+		biasForces = new float[3 * capacity];
+		u0 = new float[capacity];
+		u1 = new float[capacity];
+		u2 = new float[capacity];
+		d = new float[capacity];
+		u = new float[capacity];
+		accW = new float[capacity];
+		accX = new float[capacity];
+		accY = new float[capacity];
+		jointAcc = new float[capacity];
+	}
+}
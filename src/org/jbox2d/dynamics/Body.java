@@ -209,7 +209,7 @@ public class Body {
 		
 		// Let the world know we have a new fixture. This will cause new contacts
 		// to be created at the beginning of the next time step.
-		m_world.m_flags |= World.NEW_FIXTURE;
+		m_world.m_flags |= World.NEW_FIXTURE | World.FILTERS_CHANGED;
 		
 		return fixture;
 	}
@@ -256,6 +256,8 @@ public class Body {
 		
 		assert (fixture.m_body == this);
 		
+		m_world.m_flags |= World.FILTERS_CHANGED;
+		
 		// Remove the fixture from this body's singly linked list.
 		assert (m_fixtureCount > 0);
 		Fixture node = m_fixtureList;
@@ -26,7 +26,10 @@ package org.jbox2d.dynamics;
 import org.jbox2d.callbacks.ContactFilter;
 import org.jbox2d.callbacks.ContactListener;
 import org.jbox2d.callbacks.PairCallback;
+import org.jbox2d.callbacks.PairFilter;
 import org.jbox2d.collision.broadphase.BroadPhase;
+import org.jbox2d.collision.broadphase.BroadPhaseStrategy;
+import org.jbox2d.collision.broadphase.DynamicTree;
 import org.jbox2d.collision.broadphase.DynamicTreeNode;
 import org.jbox2d.dynamics.contacts.Contact;
 import org.jbox2d.dynamics.contacts.ContactEdge;
@@ -37,7 +40,7 @@ import org.jbox2d.dynamics.contacts.ContactEdge;
  * 
  * @author Daniel Murphy
  */
-public class ContactManager implements PairCallback {
+public class ContactManager implements PairCallback, PairFilter {
 	
 	public BroadPhase m_broadPhase;
 	public Contact m_contactList;
@@ -48,14 +51,41 @@ public class ContactManager implements PairCallback {
 	private final World pool;
 	
 	public ContactManager(World argPool) {
+		this(argPool, new DynamicTree());
+	}
+	
+	public ContactManager(World argPool, BroadPhaseStrategy strategy) {
 		m_contactList = null;
 		m_contactCount = 0;
 		m_contactFilter = new ContactFilter();
 		m_contactListener = null;
-		m_broadPhase = new BroadPhase();
+		m_broadPhase = new BroadPhase(strategy);
+		m_broadPhase.setPairFilter(this);
 		pool = argPool;
 	}
 	
+	/**
+	 * Broad-phase filter; drops pairs that addPair() would reject regardless of existing contacts,
+	 * so fixtures that never collide (e.g.: overlapping characters in a shared world) aren't buffered
+	 * and sorted every step.
+	 * 
+	 * @param proxyUserDataA
+	 * @param proxyUserDataB
+	 */
+	public boolean shouldPair(Object proxyUserDataA, Object proxyUserDataB) {
+		Fixture fixtureA = (Fixture) proxyUserDataA;
+		Fixture fixtureB = (Fixture) proxyUserDataB;
+		
+		Body bodyA = fixtureA.getBody();
+		Body bodyB = fixtureB.getBody();
+		
+		if (bodyA == bodyB || bodyB.shouldCollide(bodyA) == false) {
+			return false;
+		}
+		
+		return m_contactFilter == null || m_contactFilter.shouldCollide(fixtureA, fixtureB);
+	}
+	
 	/**
 	 * Broad-phase callback.
 	 * 
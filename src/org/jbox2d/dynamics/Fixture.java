@@ -123,6 +123,9 @@ public class Fixture {
 			return;
 		}
 		
+		// Let the world re-check whether any contacts are possible
+		m_body.m_world.m_flags |= World.FILTERS_CHANGED;
+		
 		// Flag associated contacts for filtering.
 		ContactEdge edge = m_body.getContactList();
 		while (edge != null){
@@ -0,0 +1,250 @@
+package org.jbox2d.dynamics;
+
+import java.util.Arrays;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+import org.jbox2d.callbacks.ContactImpulse;
+import org.jbox2d.callbacks.ContactListener;
+import org.jbox2d.collision.Manifold;
+import org.jbox2d.common.Vec2;
+import org.jbox2d.dynamics.contacts.Contact;
+import org.jbox2d.dynamics.joints.Joint;
+import org.jbox2d.pooling.IWorldPool;
+import org.jbox2d.pooling.normal.DefaultWorldPool;
+
+/**
+ * Solves the islands found by World.solve() concurrently on a fork-join pool.
+ *
+ * World finds every island (its bodies, contacts and joints) serially and records it with
+ * addIsland(), then solve() runs the islands as fork-join tasks. Each thread solves with its
+ * own Island (and so its own ContactSolver) and its own world pool, which is swapped into the
+ * island's joints while they are solved.
+ * Islands share no dynamic bodies, so each one is solved exactly as it would be serially and
+ * results don't depend on the number of threads or the order tasks run in. Static bodies can be in
+ * several islands at once, so they are left out of the islands solved by the threads (solving never
+ * moves them) and their sleep state is updated afterwards on the world's thread, in island order.
+ *
+ * Contact listeners aren't called from the solving threads; report() calls them afterwards on
+ * the world's thread, island by island, with the impulses stored in each contact's manifold.
+ *
+ * @author Ben Humberston
+ */
+class ParallelIslandSolver {
+	//Islands with fewer bodies than this are grouped into a single task with their neighbours
+	private static final int MIN_BODIES_PER_TASK = 4;
+
+	private final ForkJoinPool forkJoinPool;
+	private final IWorldPool worldPool;
+
+	//Members of island i are bodies[bodyStarts[i]..bodyStarts[i+1]), and likewise for contacts and joints
+	private Body[] bodies = new Body[16];
+	private Contact[] contacts = new Contact[16];
+	private Joint[] joints = new Joint[16];
+	private int[] bodyStarts = new int[17];
+	private int[] contactStarts = new int[17];
+	private int[] jointStarts = new int[17];
+	private int islandCount = 0;
+	private int bodyCount = 0;
+	private int contactCount = 0;
+	private int jointCount = 0;
+
+	//Per-thread solver state
+	private final ThreadLocal<Island> islands = new ThreadLocal<Island>() {
+		@Override
+		protected Island initialValue() {
+			return new Island();
+		}
+	};
+	private final ThreadLocal<ArticulatedIslandSolver> articulatedSolvers = new ThreadLocal<ArticulatedIslandSolver>() {
+		@Override
+		protected ArticulatedIslandSolver initialValue() {
+			return new ArticulatedIslandSolver();
+		}
+	};
+	private final ThreadLocal<IWorldPool> pools = new ThreadLocal<IWorldPool>() {
+		@Override
+		protected IWorldPool initialValue() {
+			return new DefaultWorldPool(World.WORLD_POOL_SIZE, World.WORLD_POOL_CONTAINER_SIZE);
+		}
+	};
+
+	private TimeStep step;
+	private Vec2 gravity;
+	private boolean allowSleep;
+	private boolean articulated;
+
+	/**
+	 * @param forkJoinPool pool that islands are solved on
+	 * @param worldPool pool of the world, restored into joints after they are solved
+	 */
+	ParallelIslandSolver(ForkJoinPool forkJoinPool, IWorldPool worldPool) {
+		this.forkJoinPool = forkJoinPool;
+		this.worldPool = worldPool;
+	}
+
+	ForkJoinPool getForkJoinPool() {
+		return forkJoinPool;
+	}
+
+	/** Forgets all recorded islands */
+	void clear() {
+		islandCount = 0;
+		bodyCount = 0;
+		contactCount = 0;
+		jointCount = 0;
+		bodyStarts[0] = contactStarts[0] = jointStarts[0] = 0;
+	}
+
+	/** Records a copy of the members of given island, which World has just found */
+	void addIsland(Island island) {
+		if (bodyCount + island.m_bodyCount > bodies.length) {
+			bodies = Arrays.copyOf(bodies, Math.max(2 * bodies.length, bodyCount + island.m_bodyCount));
+		}
+		if (contactCount + island.m_contactCount > contacts.length) {
+			contacts = Arrays.copyOf(contacts, Math.max(2 * contacts.length, contactCount + island.m_contactCount));
+		}
+		if (jointCount + island.m_jointCount > joints.length) {
+			joints = Arrays.copyOf(joints, Math.max(2 * joints.length, jointCount + island.m_jointCount));
+		}
+		if (islandCount + 2 > bodyStarts.length) {
+			bodyStarts = Arrays.copyOf(bodyStarts, 2 * bodyStarts.length);
+			contactStarts = Arrays.copyOf(contactStarts, 2 * contactStarts.length);
+			jointStarts = Arrays.copyOf(jointStarts, 2 * jointStarts.length);
+		}
+
+		System.arraycopy(island.m_bodies, 0, bodies, bodyCount, island.m_bodyCount);
+		System.arraycopy(island.m_contacts, 0, contacts, contactCount, island.m_contactCount);
+		System.arraycopy(island.m_joints, 0, joints, jointCount, island.m_jointCount);
+		bodyCount += island.m_bodyCount;
+		contactCount += island.m_contactCount;
+		jointCount += island.m_jointCount;
+
+		islandCount++;
+		bodyStarts[islandCount] = bodyCount;
+		contactStarts[islandCount] = contactCount;
+		jointStarts[islandCount] = jointCount;
+	}
+
+	/**
+	 * Solves all recorded islands, blocking until they are done
+	 * @param articulated if true, joint tree islands are solved in reduced coordinates (see World.setArticulatedSolving())
+	 */
+	void solve(TimeStep step, Vec2 gravity, boolean allowSleep, boolean articulated) {
+		this.step = step;
+		this.gravity = gravity;
+		this.allowSleep = allowSleep;
+		this.articulated = articulated;
+
+		if (islandCount == 1) {
+			solveIsland(0);
+		}
+		else if (islandCount > 1) {
+			forkJoinPool.invoke(new IslandRangeTask(0, islandCount));
+		}
+		updateStaticBodies();
+
+		this.step = null;
+		this.gravity = null;
+	}
+
+	/**
+	 * Calls the listener's postSolve() for every contact of every island, in island order
+	 */
+	void report(ContactListener listener) {
+		if (listener == null) {
+			return;
+		}
+
+		for (int i = 0; i < contactCount; i++) {
+			Contact c = contacts[i];
+			Manifold manifold = c.getManifold();
+			for (int j = 0; j < manifold.pointCount; j++) {
+				impulse.normalImpulses[j] = manifold.points[j].normalImpulse;
+				impulse.tangentImpulses[j] = manifold.points[j].tangentImpulse;
+			}
+			listener.postSolve(c, impulse);
+		}
+	}
+
+	private final ContactImpulse impulse = new ContactImpulse();
+
+	/**
+	 * Puts each island's static bodies to sleep if the island fell asleep, or keeps them awake, as
+	 * Island.solve() would have; islands are visited in the order World found them, so a static body
+	 * shared by several islands ends up as it would after serial solving
+	 */
+	private void updateStaticBodies() {
+		for (int i = 0; i < islandCount; i++) {
+			// The first body is the island's seed, which is never static
+			boolean awake = bodies[bodyStarts[i]].isAwake();
+			for (int j = bodyStarts[i] + 1; j < bodyStarts[i + 1]; j++) {
+				Body b = bodies[j];
+				if (b.getType() == BodyType.STATIC) {
+					b.setAwake(awake);
+				}
+			}
+		}
+	}
+
+	private void solveIsland(int islandIdx) {
+		Island island = islands.get();
+		IWorldPool threadPool = pools.get();
+
+		int bodyStart = bodyStarts[islandIdx], bodyEnd = bodyStarts[islandIdx + 1];
+		int contactStart = contactStarts[islandIdx], contactEnd = contactStarts[islandIdx + 1];
+		int jointStart = jointStarts[islandIdx], jointEnd = jointStarts[islandIdx + 1];
+
+		island.init(bodyEnd - bodyStart, contactEnd - contactStart, jointEnd - jointStart, null);
+		for (int i = bodyStart; i < bodyEnd; i++) {
+			// Static bodies may be shared with islands on other threads; see updateStaticBodies()
+			if (bodies[i].getType() != BodyType.STATIC) {
+				island.add(bodies[i]);
+			}
+		}
+		for (int i = contactStart; i < contactEnd; i++) {
+			island.add(contacts[i]);
+		}
+		for (int i = jointStart; i < jointEnd; i++) {
+			joints[i].setPool(threadPool);
+			island.add(joints[i]);
+		}
+
+		if (!articulated || !articulatedSolvers.get().solve(island, step, gravity, allowSleep)) {
+			island.solve(step, gravity, allowSleep);
+		}
+
+		for (int i = jointStart; i < jointEnd; i++) {
+			joints[i].setPool(worldPool);
+		}
+		// Keep contacts in the order the island solved them (static contacts last), for report()
+		System.arraycopy(island.m_contacts, 0, contacts, contactStart, contactEnd - contactStart);
+	}
+
+	/**
+	 * Solves a range of islands, splitting it while it holds more than one task's worth of bodies
+	 */
+	private class IslandRangeTask extends RecursiveAction {
+		private static final long serialVersionUID = 1L;
+
+		private final int start, end;
+
+		IslandRangeTask(int start, int end) {
+			this.start = start;
+			this.end = end;
+		}
+
+		@Override
+		protected void compute() {
+			if (end - start > 1 && bodyStarts[end] - bodyStarts[start] >= 2 * MIN_BODIES_PER_TASK) {
+				int mid = (start + end) >>> 1;
+				invokeAll(new IslandRangeTask(start, mid), new IslandRangeTask(mid, end));
+			}
+			else {
+				for (int i = start; i < end; i++) {
+					solveIsland(i);
+				}
+			}
+		}
+	}
+}
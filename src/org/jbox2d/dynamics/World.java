@@ -23,6 +23,8 @@
  ******************************************************************************/
 package org.jbox2d.dynamics;
 
+import java.util.concurrent.ForkJoinPool;
+
 import org.jbox2d.callbacks.ContactFilter;
 import org.jbox2d.callbacks.ContactListener;
 import org.jbox2d.callbacks.DebugDraw;
@@ -38,6 +40,8 @@ import org.jbox2d.collision.TimeOfImpact.TOIInput;
 import org.jbox2d.collision.TimeOfImpact.TOIOutput;
 import org.jbox2d.collision.TimeOfImpact.TOIOutputState;
 import org.jbox2d.collision.broadphase.BroadPhase;
+import org.jbox2d.collision.broadphase.BroadPhaseStrategy;
+import org.jbox2d.collision.broadphase.DynamicTree;
 import org.jbox2d.collision.broadphase.DynamicTreeNode;
 import org.jbox2d.collision.shapes.CircleShape;
 import org.jbox2d.collision.shapes.PolygonShape;
@@ -74,6 +78,7 @@ public class World {
 	public static final int NEW_FIXTURE = 0x0001;
 	public static final int LOCKED = 0x0002;
 	public static final int CLEAR_FORCES = 0x0004;
+	public static final int FILTERS_CHANGED = 0x0008;
 	
 	
 	// statistics gathering
@@ -116,6 +121,16 @@ public class World {
 	 */
 	private boolean m_continuousPhysics;
 	
+	/**
+	 * Skips broad-phase, contacts and TOI while no fixtures can collide (see setContactFreeStepping()).
+	 */
+	private boolean m_contactFreeStepping;
+	private boolean m_contactFree;
+	private boolean m_fixturesCanCollide;
+	// One fixture per distinct filter, and whether fixtures on more than one body use that filter
+	private Fixture[] m_filterFixtures = new Fixture[4];
+	private boolean[] m_filterShared = new boolean[4];
+	
 	private ContactRegister[][] contactStacks = new ContactRegister[ShapeType.TYPE_COUNT][ShapeType.TYPE_COUNT];
 	
 	public World(Vec2 gravity, boolean doSleep){
@@ -132,6 +147,21 @@ public class World {
 	 *            improve performance by not simulating inactive bodies.
 	 */
 	public World(Vec2 gravity, boolean doSleep, IWorldPool argPool) {
+		this(gravity, doSleep, argPool, new DynamicTree());
+	}
+	
+	/**
+	 * Construct a world object with the given broad-phase proxy tree.
+	 * 
+	 * @param gravity
+	 *            the world gravity vector.
+	 * @param doSleep
+	 *            improve performance by not simulating inactive bodies.
+	 * @param argPool
+	 * @param strategy
+	 *            proxy tree used by the broad-phase, eg: DynamicTree or DynamicTreeFlatNodes
+	 */
+	public World(Vec2 gravity, boolean doSleep, IWorldPool argPool, BroadPhaseStrategy strategy) {
 		pool = argPool;
 		m_destructionListener = null;
 		m_debugDraw = null;
@@ -145,6 +175,10 @@ public class World {
 		m_warmStarting = true;
 		m_continuousPhysics = true;
 		
+		m_contactFreeStepping = false;
+		m_contactFree = false;
+		m_fixturesCanCollide = true;
+		
 		m_allowSleep = doSleep;
 		m_gravity.set(gravity);
 		
@@ -152,7 +186,7 @@ public class World {
 		
 		m_inv_dt0 = 0f;
 		
-		m_contactManager = new ContactManager(this);
+		m_contactManager = new ContactManager(this, strategy);
 		
 		initializeRegisters();
 	}
@@ -225,6 +259,65 @@ public class World {
 		return pool;
 	}
 	
+	/**
+	 * Sets a fork-join pool that independent islands are solved on, or null to solve
+	 * islands one after another on the stepping thread (the default). Islands are still
+	 * found serially, and results are the same for any number of threads. Contact
+	 * listeners are still called on the stepping thread.
+	 * 
+	 * @param forkJoinPool
+	 */
+	public void setIslandPool(ForkJoinPool forkJoinPool) {
+		islandSolver = forkJoinPool != null ? new ParallelIslandSolver(forkJoinPool, pool) : null;
+	}
+	
+	public ForkJoinPool getIslandPool() {
+		return islandSolver != null ? islandSolver.getForkJoinPool() : null;
+	}
+	
+	/**
+	 * Enable/disable solving islands that are trees of revolute joints without contacts in
+	 * reduced coordinates (see ArticulatedIslandSolver). Joints of such islands are then exact
+	 * and don't use velocity or position iterations; other islands are solved as usual.
+	 * 
+	 * @param flag
+	 */
+	public void setArticulatedSolving(boolean flag) {
+		articulatedSolver = flag ? new ArticulatedIslandSolver() : null;
+	}
+	
+	public boolean isArticulatedSolving() {
+		return articulatedSolver != null;
+	}
+	
+	/**
+	 * Enable/disable skipping broad-phase updates, contact management and TOI while no contact
+	 * can be created, ie: no two fixtures on different bodies pass the default contact filter
+	 * (for instance, all share a negative group index) and no contacts exist. This is checked
+	 * whenever fixtures or filters change, so collisions resume as usual if a collidable fixture
+	 * is added. Custom contact filters disable the skipping. Proxies are brought up to date
+	 * before queries and ray casts, but proxy AABBs drawn by debug draw may lag behind.
+	 * 
+	 * @param flag
+	 */
+	public void setContactFreeStepping(boolean flag) {
+		m_contactFreeStepping = flag;
+		if (!flag) {
+			updateContactFree();
+		}
+	}
+	
+	public boolean isContactFreeStepping() {
+		return m_contactFreeStepping;
+	}
+	
+	/**
+	 * Returns true if the last step skipped broad-phase, contacts and TOI (see setContactFreeStepping())
+	 */
+	public boolean isContactFree() {
+		return m_contactFree;
+	}
+	
 	/**
 	 * Register a destruction listener. The listener is owned by you and must
 	 * remain in scope.
@@ -244,6 +337,7 @@ public class World {
 	 */
 	public void setContactFilter(ContactFilter filter) {
 		m_contactManager.m_contactFilter = filter;
+		m_flags |= FILTERS_CHANGED;
 	}
 	
 	/**
@@ -310,6 +404,8 @@ public class World {
 			return;
 		}
 		
+		m_flags |= FILTERS_CHANGED;
+		
 		// Delete the attached joints.
 		JointEdge je = body.m_jointList;
 		while (je != null) {
@@ -540,6 +636,7 @@ public class World {
 			m_contactManager.findNewContacts();
 			m_flags &= ~NEW_FIXTURE;
 		}
+		updateContactFree();
 		
 		m_flags |= LOCKED;
 		
@@ -558,7 +655,9 @@ public class World {
 		step.warmStarting = m_warmStarting;
 		
 		// Update contacts. This is where some contacts are destroyed.
-		m_contactManager.collide();
+		if (!m_contactFree) {
+			m_contactManager.collide();
+		}
 		
 		// Integrate velocities, solve velocity constraints, and integrate positions.
 		if (step.dt > 0.0f) {
@@ -566,7 +665,7 @@ public class World {
 		}
 		
 		// Handle TOI events.
-		if (m_continuousPhysics && step.dt > 0.0f) {
+		if (m_continuousPhysics && step.dt > 0.0f && !m_contactFree) {
 			solveTOI();
 		}
 		
@@ -596,6 +695,15 @@ public class World {
 		}
 	}
 	
+	/**
+	 * Forgets the time step used on the previous call to step(), so the next step
+	 * behaves like the first step of a newly created world (no warm starting ratio).
+	 * Call this after restoring bodies and joints to a previously saved state.
+	 */
+	public void clearPreviousTimeStep() {
+		m_inv_dt0 = 0f;
+	}
+	
 	private final Color3f color = new Color3f();
 	private final Transform xf = new Transform();
 	private final Vec2 cA = new Vec2();
@@ -704,6 +812,9 @@ public class World {
 	 *            the query box.
 	 */
 	public void queryAABB(QueryCallback callback, AABB aabb) {
+		if (m_contactFree) {
+			synchronizeProxies(false);
+		}
 		wqwrapper.broadPhase = m_contactManager.m_broadPhase;
 		wqwrapper.callback = callback;
 		m_contactManager.m_broadPhase.query(wqwrapper, aabb);
@@ -725,6 +836,9 @@ public class World {
 	 *            the ray ending point
 	 */
 	public void raycast(RayCastCallback callback, Vec2 point1, Vec2 point2) {
+		if (m_contactFree) {
+			synchronizeProxies(false);
+		}
 		wrcwrapper.broadPhase = m_contactManager.m_broadPhase;
 		wrcwrapper.callback = callback;
 		input.maxFraction = 1.0f;
@@ -877,6 +991,10 @@ public class World {
 	}
 	
 	private final Island island = new Island();
+	// Solves islands concurrently when set (see setIslandPool())
+	private ParallelIslandSolver islandSolver = null;
+	// Solves joint tree islands in reduced coordinates when set (see setArticulatedSolving())
+	private ArticulatedIslandSolver articulatedSolver = null;
 	private Body[] stack = new Body[10]; // TODO djm find a good initial stack number;
 	
 	private void solve(TimeStep step) {
@@ -894,6 +1012,10 @@ public class World {
 			j.m_islandFlag = false;
 		}
 		
+		if (islandSolver != null) {
+			islandSolver.clear();
+		}
+		
 		// Build and simulate all awake islands.
 		int stackSize = m_bodyCount;
 		if (stack.length < stackSize) {
@@ -997,7 +1119,13 @@ public class World {
 				}
 			}
 			
-			island.solve(step, m_gravity, m_allowSleep);
+			if (islandSolver != null) {
+				// Solved below, along with all other islands
+				islandSolver.addIsland(island);
+			}
+			else if (articulatedSolver == null || !articulatedSolver.solve(island, step, m_gravity, m_allowSleep)) {
+				island.solve(step, m_gravity, m_allowSleep);
+			}
 			
 			// Post solve cleanup.
 			for (int i = 0; i < island.m_bodyCount; ++i) {
@@ -1009,6 +1137,16 @@ public class World {
 			}
 		}
 		
+		if (islandSolver != null) {
+			islandSolver.solve(step, m_gravity, m_allowSleep, articulatedSolver != null);
+			islandSolver.report(m_contactManager.m_contactListener);
+		}
+		
+		// Without possible contacts, proxies are only brought up to date when needed
+		if (m_contactFree) {
+			return;
+		}
+		
 		// Synchronize fixtures, check for out of range bodies.
 		for (Body b = m_bodyList; b != null; b = b.getNext()) {
 			// If a body was not in an island then it did not move.
@@ -1028,6 +1166,101 @@ public class World {
 		m_contactManager.findNewContacts();
 	}
 	
+	/**
+	 * Updates whether steps can skip broad-phase, contacts and TOI, re-checking fixture filters if
+	 * they changed. When leaving contact-free stepping, proxies are brought up to date and all
+	 * overlapping pairs are re-tested, since filters that now collide weren't tested as proxies moved.
+	 */
+	private void updateContactFree() {
+		if ((m_flags & FILTERS_CHANGED) == FILTERS_CHANGED) {
+			m_fixturesCanCollide = canFixturesCollide();
+			m_flags &= ~FILTERS_CHANGED;
+		}
+		
+		boolean contactFree = m_contactFreeStepping && !m_fixturesCanCollide && m_contactManager.m_contactCount == 0;
+		if (m_contactFree && !contactFree) {
+			synchronizeProxies(true);
+		}
+		m_contactFree = contactFree;
+	}
+	
+	/**
+	 * Returns true if any two fixtures on different bodies pass the default contact filter, or a
+	 * custom contact filter is set. Fixtures are compared by filter, so cost grows with the number
+	 * of distinct filters rather than fixture pairs.
+	 */
+	private boolean canFixturesCollide() {
+		ContactFilter filter = m_contactManager.m_contactFilter;
+		if (filter == null || filter.getClass() != ContactFilter.class) {
+			return true;
+		}
+		
+		int filterCount = 0;
+		for (Body b = m_bodyList; b != null; b = b.getNext()) {
+			for (Fixture f = b.getFixtureList(); f != null; f = f.getNext()) {
+				Filter fd = f.getFilterData();
+				boolean found = false;
+				for (int i = 0; i < filterCount; i++) {
+					Filter other = m_filterFixtures[i].getFilterData();
+					if (fd.groupIndex == other.groupIndex && fd.categoryBits == other.categoryBits
+							&& fd.maskBits == other.maskBits) {
+						found = true;
+						if (m_filterFixtures[i].getBody() != b) {
+							m_filterShared[i] = true;
+						}
+					}
+					else if (filter.shouldCollide(f, m_filterFixtures[i])) {
+						return true;
+					}
+				}
+				
+				if (!found) {
+					if (filterCount == m_filterFixtures.length) {
+						Fixture[] oldFixtures = m_filterFixtures;
+						boolean[] oldShared = m_filterShared;
+						m_filterFixtures = new Fixture[filterCount * 2];
+						m_filterShared = new boolean[filterCount * 2];
+						System.arraycopy(oldFixtures, 0, m_filterFixtures, 0, filterCount);
+						System.arraycopy(oldShared, 0, m_filterShared, 0, filterCount);
+					}
+					m_filterFixtures[filterCount] = f;
+					m_filterShared[filterCount] = false;
+					filterCount++;
+				}
+			}
+		}
+		
+		boolean collide = false;
+		for (int i = 0; i < filterCount; i++) {
+			if (m_filterShared[i] && filter.shouldCollide(m_filterFixtures[i], m_filterFixtures[i])) {
+				collide = true;
+			}
+			m_filterFixtures[i] = null;
+		}
+		return collide;
+	}
+	
+	/**
+	 * Moves proxies of all moving bodies to their current transforms and looks for new contacts.
+	 * If touch is set, every proxy is re-tested against the ones it overlaps.
+	 */
+	private void synchronizeProxies(boolean touch) {
+		BroadPhase broadPhase = m_contactManager.m_broadPhase;
+		for (Body b = m_bodyList; b != null; b = b.getNext()) {
+			if (b.getType() != BodyType.STATIC) {
+				b.synchronizeFixtures();
+			}
+			if (touch) {
+				for (Fixture f = b.getFixtureList(); f != null; f = f.getNext()) {
+					if (f.m_proxy != null) {
+						broadPhase.touchProxy(f.m_proxy);
+					}
+				}
+			}
+		}
+		m_contactManager.findNewContacts();
+	}
+	
 	private void solveTOI() {
 		// Prepare all contacts.
 		for (Contact c = m_contactManager.m_contactList; c != null; c = c.m_next) {
@@ -180,6 +180,18 @@ public abstract class Joint {
 		return m_next;
 	}
 	
+	/**
+	 * Internal: sets the pool used for temporaries while solving. When islands are solved
+	 * in parallel, each solving thread swaps in its own pool (see World.setIslandPool()).
+	 */
+	public void setPool(IWorldPool argPool) {
+		pool = argPool;
+	}
+	
+	public IWorldPool getPool() {
+		return pool;
+	}
+	
 	/**
 	 * get the user data pointer.
 	 */
@@ -0,0 +1,124 @@
+package ubc.swim;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import ubc.swim.benchmark.BenchmarkRunner;
+import ubc.swim.benchmark.BroadPhaseBenchmark;
+import ubc.swim.benchmark.CMACycleBenchmark;
+import ubc.swim.benchmark.DrawBenchmark;
+import ubc.swim.benchmark.FitnessBenchmark;
+import ubc.swim.benchmark.IslandSolveBenchmark;
+import ubc.swim.benchmark.MotorTorqueBenchmark;
+import ubc.swim.benchmark.PopulationFitnessBenchmark;
+import ubc.swim.benchmark.ScenarioStepBenchmark;
+import ubc.swim.benchmark.SubmergedAreaBenchmark;
+import ubc.swim.benchmark.SwimBenchmark;
+
+/**
+ * Entry point for headless performance benchmarks of the simulation and optimizer
+ * @author Ben Humberston
+ *
+ */
+public class SwimBenchmarkMain {
+	
+	private static final String[] CHAR_IDS = {"paddle", "refTrajPaddle", "tadpole", "humanCrawl", "humanFly", 
+		"humanCrawlRefTraj", "humanFlyRefTraj"};
+	//Characters driven by Gaussian torque motors (PaddleChar and HumanChar)
+	private static final String[] MOTOR_CHAR_IDS = {"paddle", "humanCrawl", "humanFly"};
+	//Characters compared with and without contact-free stepping (see World.setContactFreeStepping())
+	private static final String[] CONTACT_FREE_CHAR_IDS = {"tadpole", "humanCrawl", "humanFly"};
+	
+	private static final int[] CMA_DIMENSIONS = {7, 24, 100};
+	
+	//Proxy counts for broad-phase benchmarks; one swimmer is roughly 5-15 proxies
+	private static final int[] BROAD_PHASE_SIZES = {16, 256, 2048};
+	
+	//Characters per world and thread counts for island solving benchmarks (0 = serial)
+	private static final int ISLAND_CHARS = 16;
+	private static final int[] ISLAND_THREADS = {0, 1, 2, 4};
+	
+	//Paddle characters (see LockStepPaddleSimulator) and population size for population evaluation benchmarks
+	private static final String[] PADDLE_CHAR_IDS = {"paddle", "refTrajPaddle"};
+	private static final int POPULATION_SIZE = 16;
+	
+	//Scenes for drawing benchmarks
+	private static final String[] DRAW_SCENE_NAMES = {"paddles", "paddleAndHuman"};
+	private static final String[][] DRAW_SCENE_CHAR_IDS = {{"paddle", "paddle", "paddle"}, {"paddle", "humanFly"}};
+	
+	/**
+	 * @param args optional "--warmup=MILLIS" and "--time=MILLIS" flags, followed by any number
+	 * of filter strings; only benchmarks whose name contains one of the filters are run
+	 */
+	public static void main(String[] args) {
+		BenchmarkRunner runner = new BenchmarkRunner();
+		
+		//Strip out any "--option=value" flags; remaining args are name filters
+		List<String> filters = new ArrayList<String>();
+		for (String arg : args) {
+			if (arg.startsWith("--warmup="))
+				runner.setWarmupMillis(Long.parseLong(arg.substring("--warmup=".length())));
+			else if (arg.startsWith("--time="))
+				runner.setMeasureMillis(Long.parseLong(arg.substring("--time=".length())));
+			else
+				filters.add(arg);
+		}
+		
+		List<SwimBenchmark> benchmarks = new ArrayList<SwimBenchmark>();
+		for (String charID : CHAR_IDS)
+			benchmarks.add(new ScenarioStepBenchmark(charID));
+		for (String charID : CHAR_IDS)
+			benchmarks.add(new ScenarioStepBenchmark(charID, true));
+		for (String charID : CONTACT_FREE_CHAR_IDS)
+			benchmarks.add(new ScenarioStepBenchmark(charID, false, false));
+		benchmarks.add(new SubmergedAreaBenchmark("paddle"));
+		benchmarks.add(new SubmergedAreaBenchmark("humanFly"));
+		for (String charID : MOTOR_CHAR_IDS) {
+			benchmarks.add(new MotorTorqueBenchmark(charID, false));
+			benchmarks.add(new MotorTorqueBenchmark(charID, true));
+		}
+		for (int numProxies : BROAD_PHASE_SIZES) {
+			benchmarks.add(new BroadPhaseBenchmark(numProxies, false));
+			benchmarks.add(new BroadPhaseBenchmark(numProxies, true));
+		}
+		for (int numThreads : ISLAND_THREADS) {
+			benchmarks.add(new IslandSolveBenchmark("tadpole", ISLAND_CHARS, numThreads));
+			benchmarks.add(new IslandSolveBenchmark("humanCrawl", ISLAND_CHARS, numThreads));
+		}
+		for (String charID : CHAR_IDS)
+			benchmarks.add(new FitnessBenchmark(charID));
+		for (String charID : PADDLE_CHAR_IDS) {
+			benchmarks.add(new PopulationFitnessBenchmark(charID, POPULATION_SIZE, false));
+			benchmarks.add(new PopulationFitnessBenchmark(charID, POPULATION_SIZE, true));
+		}
+		for (int dimension : CMA_DIMENSIONS)
+			benchmarks.add(new CMACycleBenchmark(dimension));
+		for (int i = 0; i < DRAW_SCENE_NAMES.length; i++) {
+			for (DrawBenchmark.Mode mode : DrawBenchmark.Mode.values())
+				benchmarks.add(new DrawBenchmark(DRAW_SCENE_NAMES[i], DRAW_SCENE_CHAR_IDS[i], mode));
+		}
+		
+		System.out.println(BenchmarkRunner.RESULT_HEADER);
+		for (SwimBenchmark benchmark : benchmarks) {
+			if (!matchesFilters(benchmark.getName(), filters))
+				continue;
+			
+			System.out.println(runner.run(benchmark));
+		}
+		
+		//Keep benchmark results alive so the JIT can't discard them
+		if (runner.getSink() == Double.MIN_VALUE)
+			System.out.println(runner.getSink());
+	}
+	
+	private static boolean matchesFilters(String name, List<String> filters) {
+		if (filters.isEmpty())
+			return true;
+		
+		for (String filter : filters) {
+			if (name.contains(filter))
+				return true;
+		}
+		return false;
+	}
+}
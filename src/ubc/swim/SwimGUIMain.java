@@ -21,6 +21,10 @@ import ubc.swim.gui.SwimWorldPanel;
 public class SwimGUIMain {
 	private static final Logger log = LoggerFactory.getLogger(SwimGUIMain.class);
 	
+	/**
+	 * @param args optional "--rawFrames" flag, which records frames to a raw RGB stream
+	 * rather than PNG files (see FrameRecorder)
+	 */
 	public static void main(String[] args) {
 		try {
 			UIManager.setLookAndFeel("com.sun.java.swing.plaf.nimbus.NimbusLookAndFeel");
@@ -31,6 +35,13 @@ public class SwimGUIMain {
 		
 		
 		SwimModel model = new SwimModel();
+		for (String arg : args) {
+			if (arg.equals("--rawFrames"))
+				model.getSettings().recordRawFrames = true;
+			else
+				log.warn("Unknown argument: " + arg);
+		}
+		
 		SwimWorldPanel panel = new SwimWorldPanel(model);
 	    SwimTestList.populateModel(model);
 	    JFrame testbed = new SwimFrame(model, panel);
@@ -1,8 +1,18 @@
 package ubc.swim;
 
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import ubc.swim.gui.CompiledSwimSettings;
+import ubc.swim.optimization.CachedSwimFitnessFunction;
+import ubc.swim.optimization.FidelityStage;
+import ubc.swim.optimization.FitnessCache;
+import ubc.swim.optimization.SwimEvaluationWorker;
 import ubc.swim.optimization.SwimFitnessFunctionA;
 import ubc.swim.optimization.SwimmerOptimization;
 
@@ -16,10 +26,111 @@ public class SwimOptimizeMain {
 	
 	private static final String HASHES = "###################";
 	
+	private static final int DEFAULT_CACHE_SIZE = 100000;
+	
 	/**
-	 * @param args
+	 * @param args char ID/suffix pairs, optionally preceded by any of these flags:
+	 * "--threads=N" to evaluate each CMA population on N worker threads;
+	 * "--coordinator=PORT" to evaluate populations on worker processes that connect on given port;
+	 * "--localWorkers=N" to also start N worker processes on this machine (with --coordinator);
+	 * "--worker=HOST:PORT" to run as an evaluation worker for the coordinator at given address;
+	 * "--resume" to continue each optimization from its last checkpoint (see ./controlData/*.checkpoint);
+	 * "--cache=FILE" to load fitness values scored by earlier runs from FILE and save new ones to it;
+	 * "--cacheSize=N" to keep at most N fitness values in the cache;
+	 * "--cacheQuantum=Q" to round control values to multiples of Q when looking them up in the cache, so that
+	 * nearly identical candidates share a value (saved with the cache; a cache file saved with another quantum is ignored);
+	 * "--cutoff" to stop simulating candidates as soon as their cost shows CMA won't select them
+	 * (not with --batch, --lockStep or --coordinator);
+	 * "--motorTables" to have motors read torques from tables precomputed once per candidate;
+	 * "--hz=N" to simulate candidates at N steps per second;
+	 * "--implicitDrag" to integrate fluid drag implicitly (needed for stable runs below 60 Hz);
+	 * "--flatBroadPhase" to use the array-backed broad-phase tree (see DynamicTreeFlatNodes);
+	 * "--articulated" to solve character joints in reduced coordinates, without solver iterations (see World.setArticulatedSolving());
+	 * "--screen=RUNTIMESCALE,HZ,VELITERS,POSITERS,FRACTION" to screen each population with a cheap
+	 * simulation and only fully evaluate the given fraction of best candidates, but never fewer than CMA selects
+	 * (may be repeated; see FidelityStage);
+	 * "--calibration=N" to check screening against full evaluation of a whole population every N iterations;
+	 * "--surrogate" to pre-rank each population with a quadratic model and only simulate the candidates needed;
+	 * "--batch" to simulate each population in a single world, one character per candidate (see BatchSwimFitnessFunction);
+	 *   off by default, since it's usually no faster than one-at-a-time evaluation and slower for human chars;
+	 * "--lockStep" to simulate each population of paddle characters in lock step without a world (implies --batch; see LockStepPaddleSimulator);
+	 * "--record" to record the best candidate of each generation under ./recordings/charID_suffix/ (see PlaybackSwimTest)
 	 */
 	public static void main(String[] args) {
+		//Strip out any "--option=value" flags; remaining args are char ID/suffix pairs
+		int numThreads = 1;
+		int coordinatorPort = -1;
+		int numLocalWorkers = 0;
+		String workerAddress = null;
+		boolean resume = false;
+		boolean useCostCutoff = false;
+		boolean useMotorTables = false;
+		boolean useImplicitDrag = false;
+		boolean useFlatBroadPhase = false;
+		boolean useArticulatedSolver = false;
+		float simulationHz = (float)CompiledSwimSettings.DEFAULT_HZ;
+		List<FidelityStage> fidelityStages = new ArrayList<FidelityStage>();
+		int calibrationInterval = -1;
+		boolean useSurrogate = false;
+		boolean useBatchWorld = false;
+		boolean useLockStep = false;
+		boolean record = false;
+		String cachePath = null;
+		int cacheSize = DEFAULT_CACHE_SIZE;
+		double cacheQuantum = 0;
+		List<String> positionalArgs = new ArrayList<String>();
+		for (String arg : args) {
+			if (arg.startsWith("--threads="))
+				numThreads = Integer.parseInt(arg.substring("--threads=".length()));
+			else if (arg.startsWith("--coordinator="))
+				coordinatorPort = Integer.parseInt(arg.substring("--coordinator=".length()));
+			else if (arg.startsWith("--localWorkers="))
+				numLocalWorkers = Integer.parseInt(arg.substring("--localWorkers=".length()));
+			else if (arg.startsWith("--worker="))
+				workerAddress = arg.substring("--worker=".length());
+			else if (arg.equals("--resume"))
+				resume = true;
+			else if (arg.equals("--cutoff"))
+				useCostCutoff = true;
+			else if (arg.equals("--motorTables"))
+				useMotorTables = true;
+			else if (arg.equals("--implicitDrag"))
+				useImplicitDrag = true;
+			else if (arg.equals("--flatBroadPhase"))
+				useFlatBroadPhase = true;
+			else if (arg.equals("--articulated"))
+				useArticulatedSolver = true;
+			else if (arg.startsWith("--hz="))
+				simulationHz = Float.parseFloat(arg.substring("--hz=".length()));
+			else if (arg.startsWith("--screen="))
+				fidelityStages.add(FidelityStage.parse(arg.substring("--screen=".length())));
+			else if (arg.startsWith("--calibration="))
+				calibrationInterval = Integer.parseInt(arg.substring("--calibration=".length()));
+			else if (arg.equals("--surrogate"))
+				useSurrogate = true;
+			else if (arg.equals("--batch"))
+				useBatchWorld = true;
+			else if (arg.equals("--lockStep"))
+				useLockStep = true;
+			else if (arg.equals("--record"))
+				record = true;
+			else if (arg.startsWith("--cache="))
+				cachePath = arg.substring("--cache=".length());
+			else if (arg.startsWith("--cacheSize="))
+				cacheSize = Integer.parseInt(arg.substring("--cacheSize=".length()));
+			else if (arg.startsWith("--cacheQuantum="))
+				cacheQuantum = Double.parseDouble(arg.substring("--cacheQuantum=".length()));
+			else
+				positionalArgs.add(arg);
+		}
+		args = positionalArgs.toArray(new String[positionalArgs.size()]);
+		
+		//Worker mode: just evaluate candidates sent by the coordinator
+		if (workerAddress != null) {
+			runWorker(workerAddress);
+			return;
+		}
+		
 		int numCharsToOptimize = args.length / 2;
 		
 		//Default just to optimizing paddle char
@@ -48,6 +159,19 @@ public class SwimOptimizeMain {
 		
 		String[] fitnessDetails = new String[numCharsToOptimize];
 		
+		//Fitness values are cached across all optimizations in this run (and across runs, if a cache file is given)
+		FitnessCache cache = new FitnessCache(cacheSize, cacheQuantum);
+		File cacheFile = cachePath == null ? null : new File(cachePath);
+		if (cacheFile != null && cacheFile.exists()) {
+			try {
+				cache.load(cacheFile);
+				log.info("Loaded " + cache.size() + " cached fitness values from " + cacheFile);
+			}
+			catch (IOException e) {
+				log.warn("Ignoring unreadable fitness cache " + cacheFile, e);
+			}
+		}
+		
 		//Run optimization for each character in the list
 		for (int i = 0; i < numCharsToOptimize; i++) {
 			String charID = charIDs[i];
@@ -57,7 +181,27 @@ public class SwimOptimizeMain {
 			if (suffix.length() > 0) finalCharID += "_" + suffix;
 			
 			SwimmerOptimization opt = new SwimmerOptimization();
+			opt.setNumThreads(numThreads);
+			opt.setCoordinatorPort(coordinatorPort);
+			opt.setNumLocalWorkers(numLocalWorkers);
+			opt.setCheckpointFile(new File("./controlData", finalCharID + ".checkpoint"));
+			opt.setResume(resume);
+			opt.setUseCostCutoff(useCostCutoff);
+			for (FidelityStage stage : fidelityStages)
+				opt.addFidelityStage(stage);
+			if (calibrationInterval >= 0)
+				opt.setCalibrationInterval(calibrationInterval);
+			opt.setUseSurrogate(useSurrogate);
+			opt.setUseBatchWorld(useBatchWorld || useLockStep);
+			opt.setUseLockStep(useLockStep);
+			if (record)
+				opt.setRecordingDir(new File("./recordings", finalCharID));
 			SwimFitnessFunctionA fitFun = new SwimFitnessFunctionA(charID);
+			fitFun.setUseMotorTables(useMotorTables);
+			fitFun.setUseImplicitDrag(useImplicitDrag);
+			fitFun.setUseFlatBroadPhase(useFlatBroadPhase);
+			fitFun.setUseArticulatedSolver(useArticulatedSolver);
+			fitFun.setSimulationHz(simulationHz);
 			
 			//Set experiment-specific values
 			if  (charID.equals("paddle")) {
@@ -148,7 +292,9 @@ public class SwimOptimizeMain {
 			
 			log.info(HASHES + " Running optimization for " + finalCharID + "... " + HASHES);
 			
-			double[] control = opt.optimize(fitFun);
+			double[] control = opt.optimize(new CachedSwimFitnessFunction(fitFun, cache));
+			log.info("Fitness cache: " + cache);
+			saveCache(cache, cacheFile);
 			SwimmerOptimization.writeToCSV(control, "./controlData", finalCharID);
 			
 			log.info(HASHES + " OPTIMIZATION COMPLETE FOR " + charID + " " + HASHES);
@@ -165,5 +311,37 @@ public class SwimOptimizeMain {
 			System.out.println(fitnessDetails[i]);
 		}
 	}
+	
+	private static void saveCache(FitnessCache cache, File cacheFile) {
+		if (cacheFile == null)
+			return;
+		
+		try {
+			cache.save(cacheFile);
+		}
+		catch (IOException e) {
+			log.warn("Failed to save fitness cache " + cacheFile, e);
+		}
+	}
+	
+	/**
+	 * Runs as a distributed evaluation worker until the coordinator at given "host:port" finishes
+	 */
+	private static void runWorker(String address) {
+		int sepIdx = address.lastIndexOf(':');
+		if (sepIdx < 0)
+			throw new IllegalArgumentException("Worker address must be of the form host:port");
+		
+		String host = address.substring(0, sepIdx);
+		int port = Integer.parseInt(address.substring(sepIdx + 1));
+		
+		try {
+			new SwimEvaluationWorker(host, port).run();
+		}
+		catch (IOException e) {
+			log.error("Evaluation worker stopped", e);
+			System.exit(1);
+		}
+	}
 
 }
@@ -0,0 +1,192 @@
+package ubc.swim;
+
+import java.io.BufferedReader;
+import java.io.FileReader;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import ubc.swim.gui.ClipRenderer;
+import ubc.swim.gui.FrameRecorder;
+
+/**
+ * Entry point for rendering clips of optimized controllers without a window, eg: to
+ * regenerate all clips for an experiment on a server. Clips are rendered in parallel,
+ * one per worker thread (see ClipRenderer).
+ * @author Ben Humberston
+ *
+ */
+public class SwimRenderMain {
+	private static final Logger log = LoggerFactory.getLogger(SwimRenderMain.class);
+
+	/**
+	 * @param args clips to render, optionally preceded by any of these flags:
+	 * "--list=FILE" to also render the clips listed in FILE, one per line ('#' starts a comment);
+	 * "--threads=N" to render N clips at a time (default is one per processor);
+	 * "--fps=N" to draw N frames per second of simulated time;
+	 * "--seconds=N" to render N seconds of simulated time per clip;
+	 * "--size=WxH" to set frame size in pixels;
+	 * "--camera=X,Y,SCALE" to set camera position and scale (pixels per meter);
+	 * "--follow" to have the camera track the first char in each clip;
+	 * "--rawFrames" to write each clip as a raw RGB stream rather than PNG files (see FrameRecorder).
+	 * A clip is given as one or more "charID" or "charID:suffix" tokens, separated by spaces
+	 * within a list file line, or by '+' on the command line (eg: "paddle:speed1+paddle:speed2")
+	 */
+	public static void main(String[] args) {
+		System.setProperty("java.awt.headless", "true");
+
+		//Strip out any "--option=value" flags; remaining args are clips
+		int numThreads = Runtime.getRuntime().availableProcessors();
+		float fps = ClipRenderer.DEFAULT_FPS;
+		float duration = ClipRenderer.DEFAULT_DURATION;
+		int width = ClipRenderer.DEFAULT_WIDTH, height = ClipRenderer.DEFAULT_HEIGHT;
+		float[] camera = null;
+		boolean follow = false;
+		boolean rawFrames = false;
+		List<String> clipSpecs = new ArrayList<String>();
+		for (String arg : args) {
+			if (arg.startsWith("--list=")) {
+				String listPath = arg.substring("--list=".length());
+				try {
+					clipSpecs.addAll(readClipList(listPath));
+				}
+				catch (IOException e) {
+					log.error("Failed to read clip list " + listPath, e);
+					return;
+				}
+			}
+			else if (arg.startsWith("--threads="))
+				numThreads = Integer.parseInt(arg.substring("--threads=".length()));
+			else if (arg.startsWith("--fps="))
+				fps = Float.parseFloat(arg.substring("--fps=".length()));
+			else if (arg.startsWith("--seconds="))
+				duration = Float.parseFloat(arg.substring("--seconds=".length()));
+			else if (arg.startsWith("--size=")) {
+				String[] dims = arg.substring("--size=".length()).split("x");
+				width = Integer.parseInt(dims[0]);
+				height = Integer.parseInt(dims[1]);
+			}
+			else if (arg.startsWith("--camera=")) {
+				String[] vals = arg.substring("--camera=".length()).split(",");
+				camera = new float[] {Float.parseFloat(vals[0]), Float.parseFloat(vals[1]), Float.parseFloat(vals[2])};
+			}
+			else if (arg.equals("--follow"))
+				follow = true;
+			else if (arg.equals("--rawFrames"))
+				rawFrames = true;
+			else
+				clipSpecs.add(arg.replace('+', ' '));
+		}
+
+		if (clipSpecs.isEmpty()) {
+			log.error("No clips given");
+			return;
+		}
+
+		List<ClipRenderer> renderers = new ArrayList<ClipRenderer>();
+		for (String clipSpec : clipSpecs) {
+			ClipRenderer renderer = parseClip(clipSpec);
+			renderer.setFPS(fps);
+			renderer.setDuration(duration);
+			renderer.setFrameSize(width, height);
+			if (camera != null)
+				renderer.setCamera(camera[0], camera[1], camera[2]);
+			renderer.setFollowCamera(follow);
+			renderer.setFormat(rawFrames ? FrameRecorder.Format.RAW : FrameRecorder.Format.PNG);
+			renderers.add(renderer);
+		}
+
+		ExecutorService executor = Executors.newFixedThreadPool(Math.max(1, numThreads), new ThreadFactory() {
+			private final AtomicInteger threadCount = new AtomicInteger(0);
+
+			@Override
+			public Thread newThread(Runnable r) {
+				Thread thread = new Thread(r, "ClipRenderer-" + threadCount.getAndIncrement());
+				thread.setDaemon(true);
+				return thread;
+			}
+		});
+
+		long startTime = System.currentTimeMillis();
+		List<Future<Integer>> results = new ArrayList<Future<Integer>>();
+		for (ClipRenderer renderer : renderers)
+			results.add(executor.submit(renderer));
+
+		int numFailed = 0;
+		long totalFrames = 0;
+		for (int i = 0; i < renderers.size(); i++) {
+			String clipID = renderers.get(i).getClipID();
+			try {
+				int numFrames = results.get(i).get();
+				totalFrames += numFrames;
+				log.info("Rendered " + clipID + ": " + numFrames + " frames");
+			}
+			catch (ExecutionException e) {
+				numFailed++;
+				log.error("Failed to render " + clipID, e.getCause());
+			}
+			catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				break;
+			}
+		}
+		executor.shutdownNow();
+
+		log.info("Rendered " + (renderers.size() - numFailed) + " of " + renderers.size() + " clips (" + totalFrames
+				+ " frames) in " + (System.currentTimeMillis() - startTime) + " ms on " + numThreads + " threads");
+	}
+
+	/**
+	 * Returns clip specs from given file: one clip per line, ignoring blank lines and '#' comments
+	 */
+	private static List<String> readClipList(String path) throws IOException {
+		List<String> clipSpecs = new ArrayList<String>();
+		BufferedReader reader = new BufferedReader(new FileReader(path));
+		try {
+			String line;
+			while ((line = reader.readLine()) != null) {
+				int commentIdx = line.indexOf('#');
+				if (commentIdx >= 0)
+					line = line.substring(0, commentIdx);
+				line = line.trim();
+				if (line.length() > 0)
+					clipSpecs.add(line);
+			}
+		}
+		finally {
+			reader.close();
+		}
+		return clipSpecs;
+	}
+
+	/**
+	 * Creates renderer for a clip given as space-separated "charID" or "charID:suffix" tokens.
+	 * Clip ID joins the complete char IDs (charID_suffix, as in controlData file names) with '+'.
+	 */
+	private static ClipRenderer parseClip(String clipSpec) {
+		List<String> charIDs = new ArrayList<String>();
+		List<String> suffixes = new ArrayList<String>();
+		StringBuilder clipID = new StringBuilder();
+		for (String token : clipSpec.trim().split("\\s+")) {
+			int sepIdx = token.indexOf(':');
+			String charID = sepIdx >= 0 ? token.substring(0, sepIdx) : token;
+			String suffix = sepIdx >= 0 ? token.substring(sepIdx + 1) : "";
+			charIDs.add(charID);
+			suffixes.add(suffix);
+
+			if (clipID.length() > 0) clipID.append('+');
+			clipID.append(charID);
+			if (suffix.length() > 0) clipID.append('_').append(suffix);
+		}
+		return new ClipRenderer(clipID.toString(), charIDs, suffixes);
+	}
+}
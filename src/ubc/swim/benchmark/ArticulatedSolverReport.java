@@ -0,0 +1,115 @@
+package ubc.swim.benchmark;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.jbox2d.common.Vec2;
+import org.jbox2d.dynamics.joints.Joint;
+
+import ubc.swim.gui.CompiledSwimSettings;
+import ubc.swim.optimization.SwimFitnessFunctionA;
+import ubc.swim.world.characters.SwimCharacter;
+import ubc.swim.world.scenario.Scenario;
+import ubc.swim.world.scenario.ScenarioLibrary;
+
+/**
+ * Compares the reduced-coordinate articulated solver (see World.setArticulatedSolving()) with the
+ * iterative solver at default and low iteration counts. The reference is the iterative solver at
+ * a high simulation rate, since the articulated solver has no iteration error, only step size error.
+ *
+ * Accuracy: mean cost (scaled to 60 Hz step count) and avg speed from SwimFitnessFunctionA over
+ * a fixed set of random control vectors.
+ *
+ * Joint drift: max distance between the anchors of any joint over a run of the character alone.
+ *
+ * @author Ben Humberston
+ *
+ */
+public class ArticulatedSolverReport {
+
+	private static final String[] DEFAULT_CHAR_IDS = {"paddle", "tadpole", "humanCrawl", "humanFly", "humanCrawlRefTraj"};
+	private static final int NUM_CONTROL_SAMPLES = 10;
+	private static final float DRIFT_RUNTIME = 10.0f;
+
+	//Per mode: simulation rate, velocity and position iterations (0 for defaults) and whether the articulated solver is used
+	private static final String[] MODE_NAMES = {"reference", "iterative", "lowIters", "articulated"};
+	private static final float[] MODE_HZ = {480, 60, 60, 60};
+	private static final int[][] MODE_ITERATIONS = {{0, 0}, {0, 0}, {2, 1}, {0, 0}};
+	private static final boolean[] MODE_ARTICULATED = {false, false, false, true};
+
+	/**
+	 * @param args optional list of char IDs to report on
+	 */
+	public static void main(String[] args) {
+		String[] charIDs = args.length > 0 ? args : DEFAULT_CHAR_IDS;
+
+		System.out.println("Accuracy vs iterative at " + MODE_HZ[0] + " Hz (" + NUM_CONTROL_SAMPLES
+				+ " random control vectors per char), joint drift over " + DRIFT_RUNTIME + " s");
+		System.out.println(String.format("%-20s %-12s %5s %12s %9s %10s %10s %11s %11s",
+				"char", "mode", "hz", "cost", "costErr%", "speed", "speedErr", "maxDrift", "ms/eval"));
+		for (String charID : charIDs) {
+			double baseCost = 0, baseSpeed = 0;
+			for (int mode = 0; mode < MODE_NAMES.length; mode++) {
+				double[] result = evaluate(charID, mode);
+				if (mode == 0) {
+					baseCost = result[0];
+					baseSpeed = result[1];
+				}
+				System.out.println(String.format("%-20s %-12s %5.0f %12.2f %9.2f %10.4f %10.4f %11.2e %11.2f",
+						charID, MODE_NAMES[mode], MODE_HZ[mode], result[0], 100 * (result[0] - baseCost) / Math.abs(baseCost),
+						result[1], result[1] - baseSpeed, maxJointDrift(charID, mode), result[2]));
+			}
+		}
+	}
+
+	/**
+	 * Returns mean cost (scaled to 60 Hz step count), mean avg speed and mean ms per evaluation
+	 */
+	private static double[] evaluate(String charID, int mode) {
+		SwimFitnessFunctionA fitFun = new SwimFitnessFunctionA(charID);
+		fitFun.setSimulationHz(MODE_HZ[mode]);
+		fitFun.setSolverIterations(MODE_ITERATIONS[mode][0], MODE_ITERATIONS[mode][1]);
+		fitFun.setUseArticulatedSolver(MODE_ARTICULATED[mode]);
+
+		int numDims = fitFun.getNumControlDimensions();
+		double costScale = CompiledSwimSettings.DEFAULT_HZ / MODE_HZ[mode];
+		double totalCost = 0, totalSpeed = 0;
+		long startTime = System.nanoTime();
+		for (int i = 0; i < NUM_CONTROL_SAMPLES; i++) {
+			totalCost += costScale * fitFun.valueOf(ScenarioStepBenchmark.randomControls(numDims, i));
+			totalSpeed += fitFun.getCharacter().getAvgRootBodySpeed();
+		}
+		double millisPerEval = (System.nanoTime() - startTime) / 1e6 / NUM_CONTROL_SAMPLES;
+
+		return new double[] {totalCost / NUM_CONTROL_SAMPLES, totalSpeed / NUM_CONTROL_SAMPLES, millisPerEval};
+	}
+
+	private static float maxJointDrift(String charID, int mode) {
+		List<String> charIDs = new ArrayList<String>();
+		charIDs.add(charID);
+		Scenario scenario = ScenarioLibrary.getBasicScenario(charIDs);
+		scenario.setUseArticulatedSolver(MODE_ARTICULATED[mode]);
+
+		SwimCharacter character = scenario.getCharacters().get(0);
+		character.setControlParams(ScenarioStepBenchmark.randomControls(character.getNumControlDimensions(), 5));
+
+		CompiledSwimSettings defaults = CompiledSwimSettings.getDefaults();
+		int velocityIterations = MODE_ITERATIONS[mode][0] > 0 ? MODE_ITERATIONS[mode][0] : defaults.velocityIterations;
+		int positionIterations = MODE_ITERATIONS[mode][1] > 0 ? MODE_ITERATIONS[mode][1] : defaults.positionIterations;
+		CompiledSwimSettings settings = new CompiledSwimSettings(MODE_HZ[mode], positionIterations, velocityIterations,
+				defaults.warmStarting, defaults.continuousCollision, defaults.fluidDensity, defaults.fluidDrag, defaults.fluidVelocity);
+
+		Vec2 anchorA = new Vec2(), anchorB = new Vec2();
+		float maxDrift = 0;
+		int numSteps = (int)(DRIFT_RUNTIME * settings.hz);
+		for (int i = 0; i < numSteps; i++) {
+			scenario.step(settings, settings.timeStep);
+			for (Joint joint = scenario.getWorld().getJointList(); joint != null; joint = joint.getNext()) {
+				joint.getAnchorA(anchorA);
+				joint.getAnchorB(anchorB);
+				maxDrift = Math.max(maxDrift, anchorA.sub(anchorB).length());
+			}
+		}
+		return maxDrift;
+	}
+}
@@ -0,0 +1,145 @@
+package ubc.swim.benchmark;
+
+import java.lang.management.GarbageCollectorMXBean;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Runs benchmarks headless and reports time and allocation per operation.
+ * 
+ * Each benchmark is warmed up for a fixed time so the JIT can settle, then run for a fixed
+ * measurement time. Allocation is measured with the per-thread allocation counter of the
+ * HotSpot ThreadMXBean, so only allocations made by the benchmark thread are counted.
+ * 
+ * @author Ben Humberston
+ *
+ */
+public class BenchmarkRunner {
+	
+	/**
+	 * Results of a single benchmark run
+	 */
+	public static class Result {
+		public final String name;
+		public final long numOps;
+		public final double nanosPerOp;
+		/** Bytes allocated per op, or -1 if allocation counting isn't supported by this JVM */
+		public final double bytesPerOp;
+		public final long gcCount;
+		public final long gcTimeMillis;
+		
+		public Result(String name, long numOps, double nanosPerOp, double bytesPerOp, long gcCount, long gcTimeMillis) {
+			this.name = name;
+			this.numOps = numOps;
+			this.nanosPerOp = nanosPerOp;
+			this.bytesPerOp = bytesPerOp;
+			this.gcCount = gcCount;
+			this.gcTimeMillis = gcTimeMillis;
+		}
+		
+		/** Returns allocation rate in MB per second, or -1 if not available */
+		public double getAllocMBPerSec() {
+			if (bytesPerOp < 0) return -1;
+			return bytesPerOp / nanosPerOp * 1e9 / (1024 * 1024);
+		}
+		
+		@Override
+		public String toString() {
+			return String.format("%-32s %10d %14.1f %12s %10s %6d %8d", name, numOps, nanosPerOp / 1000.0, 
+					bytesPerOp < 0 ? "n/a" : String.format("%.1f", bytesPerOp),
+					bytesPerOp < 0 ? "n/a" : String.format("%.2f", getAllocMBPerSec()),
+					gcCount, gcTimeMillis);
+		}
+	}
+	
+	public static final String RESULT_HEADER = String.format("%-32s %10s %14s %12s %10s %6s %8s", 
+			"benchmark", "ops", "us/op", "B/op", "MB/s", "gcs", "gc ms");
+	
+	protected long warmupMillis = 2000;
+	protected long measureMillis = 5000;
+	
+	//Accumulates benchmark results so that no work is optimized away
+	protected double sink = 0;
+	
+	/** Sets how long each benchmark is run before measurement starts */
+	public void setWarmupMillis(long val) { this.warmupMillis = val; }
+	
+	/** Sets how long each benchmark is measured for */
+	public void setMeasureMillis(long val) { this.measureMillis = val; }
+	
+	/**
+	 * Runs each benchmark in turn and returns their results
+	 */
+	public List<Result> run(List<SwimBenchmark> benchmarks) {
+		List<Result> results = new ArrayList<Result>();
+		for (SwimBenchmark benchmark : benchmarks)
+			results.add(run(benchmark));
+		return results;
+	}
+	
+	/**
+	 * Warms up, then measures given benchmark
+	 */
+	public Result run(SwimBenchmark benchmark) {
+		benchmark.setup();
+		
+		//Warm up
+		long warmupEnd = System.nanoTime() + warmupMillis * 1000000L;
+		while (System.nanoTime() < warmupEnd)
+			sink += benchmark.runOp();
+		
+		//Measure
+		long gcCountStart = getTotalGCCount();
+		long gcTimeStart = getTotalGCTime();
+		long bytesStart = getAllocatedBytes();
+		long start = System.nanoTime();
+		long measureEnd = start + measureMillis * 1000000L;
+		long numOps = 0;
+		long now;
+		do {
+			sink += benchmark.runOp();
+			numOps++;
+			now = System.nanoTime();
+		} while (now < measureEnd);
+		long bytesEnd = getAllocatedBytes();
+		
+		benchmark.teardown();
+		
+		double nanosPerOp = (double)(now - start) / numOps;
+		double bytesPerOp = (bytesStart < 0 || bytesEnd < 0) ? -1 : (double)(bytesEnd - bytesStart) / numOps;
+		return new Result(benchmark.getName(), numOps, nanosPerOp, bytesPerOp, 
+				getTotalGCCount() - gcCountStart, getTotalGCTime() - gcTimeStart);
+	}
+	
+	/** Returns accumulated benchmark outputs; print it somewhere to keep the JIT honest */
+	public double getSink() { return sink; }
+	
+	/**
+	 * Returns total bytes allocated by the current thread so far, or -1 if not supported
+	 */
+	protected static long getAllocatedBytes() {
+		ThreadMXBean threadBean = ManagementFactory.getThreadMXBean();
+		if (threadBean instanceof com.sun.management.ThreadMXBean) {
+			com.sun.management.ThreadMXBean hotspotBean = (com.sun.management.ThreadMXBean) threadBean;
+			if (hotspotBean.isThreadAllocatedMemorySupported() && hotspotBean.isThreadAllocatedMemoryEnabled())
+				return hotspotBean.getThreadAllocatedBytes(Thread.currentThread().getId());
+		}
+		return -1;
+	}
+	
+	protected static long getTotalGCCount() {
+		long count = 0;
+		for (GarbageCollectorMXBean gcBean : ManagementFactory.getGarbageCollectorMXBeans())
+			count += Math.max(0, gcBean.getCollectionCount());
+		return count;
+	}
+	
+	protected static long getTotalGCTime() {
+		long time = 0;
+		for (GarbageCollectorMXBean gcBean : ManagementFactory.getGarbageCollectorMXBeans())
+			time += Math.max(0, gcBean.getCollectionTime());
+		return time;
+	}
+}
@@ -0,0 +1,114 @@
+package ubc.swim.benchmark;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.jbox2d.callbacks.PairCallback;
+import org.jbox2d.callbacks.TreeCallback;
+import org.jbox2d.collision.AABB;
+import org.jbox2d.collision.broadphase.BroadPhase;
+import org.jbox2d.collision.broadphase.DynamicTree;
+import org.jbox2d.collision.broadphase.DynamicTreeFlatNodes;
+import org.jbox2d.collision.broadphase.DynamicTreeNode;
+import org.jbox2d.common.MathUtils;
+import org.jbox2d.common.Vec2;
+
+/**
+ * Times one broad-phase update (moving every proxy, then updatePairs()) plus a GUI-style
+ * point query, for a grid of proxies that drift back and forth like swimmer segments
+ *
+ * @author Ben Humberston
+ *
+ */
+public class BroadPhaseBenchmark extends SwimBenchmark {
+	protected static final float SPACING = 1.0f;
+	protected static final float HALF_SIZE = 0.4f;
+	protected static final float AMPLITUDE = 0.3f;
+	protected static final float TIME_STEP = 1.0f / 60;
+
+	protected final int numProxies;
+	protected final boolean useFlatTree;
+	protected BroadPhase broadPhase;
+	protected final List<DynamicTreeNode> proxies = new ArrayList<DynamicTreeNode>();
+	protected final AABB aabb = new AABB();
+	protected final AABB queryAABB = new AABB();
+	protected final Vec2 displacement = new Vec2();
+	protected float time = 0;
+	protected int numPairs = 0;
+	protected int numHits = 0;
+
+	protected final PairCallback pairCallback = new PairCallback() {
+		public void addPair(Object userDataA, Object userDataB) {
+			numPairs++;
+		}
+	};
+
+	protected final TreeCallback queryCallback = new TreeCallback() {
+		public boolean treeCallback(DynamicTreeNode node) {
+			numHits++;
+			return true;
+		}
+	};
+
+	public BroadPhaseBenchmark(int numProxies, boolean useFlatTree) {
+		this.numProxies = numProxies;
+		this.useFlatTree = useFlatTree;
+	}
+
+	@Override
+	public String getName() {
+		return "broadPhase/" + numProxies + (useFlatTree ? "/flat" : "");
+	}
+
+	@Override
+	public void setup() {
+		broadPhase = new BroadPhase(useFlatTree ? new DynamicTreeFlatNodes() : new DynamicTree());
+		proxies.clear();
+		time = 0;
+
+		int gridWidth = (int)Math.ceil(Math.sqrt(numProxies));
+		for (int i = 0; i < numProxies; i++) {
+			computeAABB(i, gridWidth, 0, aabb);
+			proxies.add(broadPhase.createProxy(aabb, Integer.valueOf(i)));
+		}
+		broadPhase.updatePairs(pairCallback);
+	}
+
+	@Override
+	public double runOp() {
+		int gridWidth = (int)Math.ceil(Math.sqrt(numProxies));
+		float nextTime = time + TIME_STEP;
+		for (int i = 0; i < numProxies; i++) {
+			computeAABB(i, gridWidth, time, aabb);
+			float x0 = aabb.lowerBound.x;
+			computeAABB(i, gridWidth, nextTime, aabb);
+			displacement.set(aabb.lowerBound.x - x0, 0);
+			broadPhase.moveProxy(proxies.get(i), aabb, displacement);
+		}
+		time = nextTime;
+
+		numPairs = 0;
+		broadPhase.updatePairs(pairCallback);
+
+		//Mouse pick near the middle of the grid
+		float center = 0.5f * gridWidth * SPACING;
+		queryAABB.lowerBound.set(center - .001f, center - .001f);
+		queryAABB.upperBound.set(center + .001f, center + .001f);
+		broadPhase.query(queryCallback, queryAABB);
+
+		return numPairs + numHits;
+	}
+
+	@Override
+	public void teardown() {
+		broadPhase = null;
+		proxies.clear();
+	}
+
+	protected void computeAABB(int i, int gridWidth, float t, AABB out) {
+		float x = (i % gridWidth) * SPACING + AMPLITUDE * MathUtils.sin(t + i);
+		float y = (i / gridWidth) * SPACING;
+		out.lowerBound.set(x - HALF_SIZE, y - HALF_SIZE);
+		out.upperBound.set(x + HALF_SIZE, y + HALF_SIZE);
+	}
+}
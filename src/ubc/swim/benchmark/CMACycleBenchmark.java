@@ -0,0 +1,69 @@
+package ubc.swim.benchmark;
+
+import fr.inria.optimization.cmaes.CMAEvolutionStrategy;
+
+/**
+ * Times one CMA samplePopulation()/updateDistribution() cycle at a given dimension,
+ * using a cheap sphere function so that only optimizer overhead is measured
+ * 
+ * @author Ben Humberston
+ *
+ */
+public class CMACycleBenchmark extends SwimBenchmark {
+	protected final int dimension;
+	protected CMAEvolutionStrategy cma;
+	protected double[] fitness;
+	
+	public CMACycleBenchmark(int dimension) {
+		this.dimension = dimension;
+	}
+	
+	@Override
+	public String getName() {
+		return "cmaCycle/" + dimension;
+	}
+	
+	@Override
+	public void setup() {
+		initCMA();
+	}
+	
+	/**
+	 * Creates a fresh strategy, set up the same way as SwimmerOptimization but without
+	 * any console or file output
+	 */
+	protected void initCMA() {
+		cma = new CMAEvolutionStrategy();
+		cma.options.verbosity = -1;
+		cma.options.writeDisplayToFile = 0;
+		cma.setDimension(dimension);
+		cma.setInitialX(0.05);
+		cma.setInitialStandardDeviation(0.2);
+		cma.options.diagonalCovarianceMatrix = 1;
+		cma.setSeed(5);
+		fitness = cma.init();
+	}
+	
+	@Override
+	public double runOp() {
+		//Start over once the sphere has been solved so that cycles stay representative
+		if (cma.stopConditions.getNumber() != 0)
+			initCMA();
+		
+		double[][] pop = cma.samplePopulation();
+		for (int i = 0; i < pop.length; i++) {
+			double sum = 0;
+			for (double x : pop[i])
+				sum += x * x;
+			fitness[i] = sum;
+		}
+		cma.updateDistribution(fitness);
+		
+		return fitness[0];
+	}
+	
+	@Override
+	public void teardown() {
+		cma = null;
+	}
+}
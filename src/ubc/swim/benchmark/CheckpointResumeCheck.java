@@ -0,0 +1,109 @@
+package ubc.swim.benchmark;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Arrays;
+
+import fr.inria.optimization.cmaes.CMAEvolutionStrategy;
+
+import ubc.swim.optimization.CMACheckpoint;
+import ubc.swim.optimization.SwimFitnessFunctionA;
+
+/**
+ * Checks that a CMA run resumed from a checkpoint (see CMACheckpoint) continues exactly as an
+ * uninterrupted one: for each char, NUM_GENERATIONS generations are run straight through, with a
+ * checkpoint written after RESUME_GENERATION. A second strategy, set up the same way but seeded
+ * differently, reads the checkpoint and runs the remaining generations. Mean, step size and best
+ * solution must then be bit-identical. Both diagonal and full covariance runs are checked.
+ * Exits with status 1 if any run differs.
+ *
+ * @author Ben Humberston
+ *
+ */
+public class CheckpointResumeCheck {
+
+	private static final String[] DEFAULT_CHAR_IDS = {"paddle", "tadpole"};
+	private static final int NUM_GENERATIONS = 12;
+	private static final int RESUME_GENERATION = 5;
+	//Shorter than the default runtime, so the check runs quickly; the cost only has to be deterministic
+	private static final float RUNTIME = 3.0f;
+
+	/**
+	 * @param args optional list of char IDs to check
+	 */
+	public static void main(String[] args) throws IOException {
+		String[] charIDs = args.length > 0 ? args : DEFAULT_CHAR_IDS;
+
+		File checkpointFile = File.createTempFile("resumeCheck", ".checkpoint");
+		checkpointFile.deleteOnExit();
+
+		boolean allMatch = true;
+		System.out.println(String.format("%-20s %-9s %22s %22s %16s %8s", "char", "cov", "straight sigma", "resumed sigma", "best", "match"));
+		for (String charID : charIDs) {
+			for (boolean diagonal : new boolean[] {true, false}) {
+				SwimFitnessFunctionA fitFun = createFitnessFunction(charID);
+				CMAEvolutionStrategy straight = createStrategy(fitFun.getNumControlDimensions(), diagonal, 1);
+				while (straight.getCountIter() < NUM_GENERATIONS) {
+					runGeneration(straight, fitFun);
+					if (straight.getCountIter() == RESUME_GENERATION)
+						CMACheckpoint.write(straight, checkpointFile);
+				}
+
+				SwimFitnessFunctionA resumedFitFun = createFitnessFunction(charID);
+				CMAEvolutionStrategy resumed = createStrategy(resumedFitFun.getNumControlDimensions(), diagonal, 2);
+				CMACheckpoint.read(resumed, checkpointFile);
+				while (resumed.getCountIter() < NUM_GENERATIONS)
+					runGeneration(resumed, resumedFitFun);
+
+				boolean match = Arrays.equals(straight.getMeanX(), resumed.getMeanX())
+						&& straight.getSigma() == resumed.getSigma()
+						&& straight.getBestFunctionValue() == resumed.getBestFunctionValue()
+						&& Arrays.equals(straight.getBestX(), resumed.getBestX());
+				allMatch &= match;
+
+				System.out.println(String.format("%-20s %-9s %22s %22s %16.6f %8s", charID, diagonal ? "diagonal" : "full",
+						Double.toString(straight.getSigma()), Double.toString(resumed.getSigma()), straight.getBestFunctionValue(), match ? "yes" : "NO"));
+			}
+		}
+
+		if (!allMatch) {
+			System.out.println("Resumed run differs from uninterrupted one");
+			System.exit(1);
+		}
+	}
+
+	private static SwimFitnessFunctionA createFitnessFunction(String charID) {
+		SwimFitnessFunctionA fitFun = new SwimFitnessFunctionA(charID);
+		fitFun.setMaxRuntime(RUNTIME);
+		return fitFun;
+	}
+
+	/**
+	 * Returns an initialized strategy set up as in SwimmerOptimization, without reading a properties file
+	 */
+	private static CMAEvolutionStrategy createStrategy(int numDims, boolean diagonal, long seed) {
+		CMAEvolutionStrategy cma = new CMAEvolutionStrategy();
+		cma.options.verbosity = -1;
+		cma.setSeed(seed);
+		cma.setDimension(numDims);
+		cma.setInitialX(0.05);
+		cma.setInitialStandardDeviation(0.2);
+		cma.options.diagonalCovarianceMatrix = diagonal ? 1 : 0;
+		cma.init();
+		return cma;
+	}
+
+	/**
+	 * Samples, evaluates and updates one generation, as SwimmerOptimization does
+	 */
+	private static void runGeneration(CMAEvolutionStrategy cma, SwimFitnessFunctionA fitFun) {
+		double[][] pop = cma.samplePopulation();
+		double[] fitness = new double[pop.length];
+		for (int i = 0; i < pop.length; i++) {
+			while (!fitFun.isFeasible(pop[i]))
+				pop[i] = cma.resampleSingle(i);
+			fitness[i] = fitFun.valueOf(pop[i]);
+		}
+		cma.updateDistribution(fitness);
+	}
+}
@@ -0,0 +1,120 @@
+package ubc.swim.benchmark;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.jbox2d.dynamics.Body;
+
+import ubc.swim.gui.CompiledSwimSettings;
+import ubc.swim.optimization.SwimFitnessFunctionA;
+import ubc.swim.world.characters.SwimCharacter;
+import ubc.swim.world.scenario.Scenario;
+import ubc.swim.world.scenario.ScenarioLibrary;
+
+/**
+ * Compares explicit and implicit fluid drag integration (see FluidController.implicitDrag)
+ * at reduced simulation rates against the 60 Hz explicit baseline.
+ *
+ * Accuracy: mean cost and avg speed from SwimFitnessFunctionA over a fixed set of random
+ * control vectors. Costs are summed per step, so they are scaled to the 60 Hz step count
+ * before comparing.
+ *
+ * Stability: max body speed over a 10 second run with raised fluid drag. Runs that blow up
+ * are capped near the solver's max translation per step (2 / dt).
+ *
+ * @author Ben Humberston
+ *
+ */
+public class DragIntegrationReport {
+
+	private static final String[] DEFAULT_CHAR_IDS = {"paddle", "tadpole", "humanCrawl", "humanFly", "humanCrawlRefTraj"};
+	private static final float[] HZ_VALUES = {60, 30, 20, 15};
+	private static final float[] STABILITY_DRAG_VALUES = {10, 100};
+	private static final int NUM_CONTROL_SAMPLES = 10;
+	private static final float STABILITY_RUNTIME = 10.0f;
+
+	/**
+	 * @param args optional list of char IDs to report on
+	 */
+	public static void main(String[] args) {
+		String[] charIDs = args.length > 0 ? args : DEFAULT_CHAR_IDS;
+
+		System.out.println("Accuracy vs 60 Hz explicit (" + NUM_CONTROL_SAMPLES + " random control vectors per char)");
+		System.out.println(String.format("%-20s %-9s %5s %12s %9s %10s %10s %11s",
+				"char", "mode", "hz", "cost", "costErr%", "speed", "speedErr", "ms/eval"));
+		for (String charID : charIDs) {
+			double baseCost = 0, baseSpeed = 0;
+			for (boolean implicit : new boolean[] {false, true}) {
+				for (float hz : HZ_VALUES) {
+					double[] result = evaluate(charID, implicit, hz);
+					if (!implicit && hz == CompiledSwimSettings.DEFAULT_HZ) {
+						baseCost = result[0];
+						baseSpeed = result[1];
+					}
+					System.out.println(String.format("%-20s %-9s %5.0f %12.2f %9.2f %10.4f %10.4f %11.2f",
+							charID, implicit ? "implicit" : "explicit", hz, result[0],
+							100 * (result[0] - baseCost) / Math.abs(baseCost), result[1], result[1] - baseSpeed, result[2]));
+				}
+			}
+		}
+
+		System.out.println();
+		System.out.println("Stability: max body speed over " + STABILITY_RUNTIME + " s");
+		System.out.println(String.format("%-20s %6s %-9s %10s %10s %10s %10s",
+				"char", "drag", "mode", "60 Hz", "30 Hz", "20 Hz", "15 Hz"));
+		for (String charID : charIDs) {
+			for (float drag : STABILITY_DRAG_VALUES) {
+				for (boolean implicit : new boolean[] {false, true}) {
+					String line = String.format("%-20s %6.1f %-9s", charID, drag, implicit ? "implicit" : "explicit");
+					for (float hz : HZ_VALUES)
+						line += String.format(" %10.3f", maxBodySpeed(charID, implicit, hz, drag));
+					System.out.println(line);
+				}
+			}
+		}
+	}
+
+	/**
+	 * Returns mean cost (scaled to 60 Hz step count), mean avg speed and mean ms per evaluation
+	 */
+	private static double[] evaluate(String charID, boolean implicit, float hz) {
+		SwimFitnessFunctionA fitFun = new SwimFitnessFunctionA(charID);
+		fitFun.setUseImplicitDrag(implicit);
+		fitFun.setSimulationHz(hz);
+
+		int numDims = fitFun.getNumControlDimensions();
+		double costScale = CompiledSwimSettings.DEFAULT_HZ / hz;
+		double totalCost = 0, totalSpeed = 0;
+		long startTime = System.nanoTime();
+		for (int i = 0; i < NUM_CONTROL_SAMPLES; i++) {
+			totalCost += costScale * fitFun.valueOf(ScenarioStepBenchmark.randomControls(numDims, i));
+			totalSpeed += fitFun.getCharacter().getAvgRootBodySpeed();
+		}
+		double millisPerEval = (System.nanoTime() - startTime) / 1e6 / NUM_CONTROL_SAMPLES;
+
+		return new double[] {totalCost / NUM_CONTROL_SAMPLES, totalSpeed / NUM_CONTROL_SAMPLES, millisPerEval};
+	}
+
+	private static float maxBodySpeed(String charID, boolean implicit, float hz, float drag) {
+		List<String> charIDs = new ArrayList<String>();
+		charIDs.add(charID);
+		Scenario scenario = ScenarioLibrary.getBasicScenario(charIDs);
+		scenario.setUseImplicitDrag(implicit);
+
+		SwimCharacter character = scenario.getCharacters().get(0);
+		character.setControlParams(ScenarioStepBenchmark.randomControls(character.getNumControlDimensions(), 5));
+
+		CompiledSwimSettings defaults = CompiledSwimSettings.getDefaults();
+		CompiledSwimSettings settings = new CompiledSwimSettings(hz, defaults.positionIterations, defaults.velocityIterations,
+				defaults.warmStarting, defaults.continuousCollision, defaults.fluidDensity, drag, defaults.fluidVelocity);
+
+		float maxSpeed = 0;
+		int numSteps = (int)(STABILITY_RUNTIME * hz);
+		for (int i = 0; i < numSteps; i++) {
+			scenario.step(settings, settings.timeStep);
+			for (Body body = scenario.getWorld().getBodyList(); body != null; body = body.getNext())
+				maxSpeed = Math.max(maxSpeed, body.getLinearVelocity().length());
+		}
+		return maxSpeed;
+	}
+}
@@ -0,0 +1,121 @@
+package ubc.swim.benchmark;
+
+import java.awt.Color;
+import java.awt.Graphics2D;
+import java.awt.image.BufferedImage;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.jbox2d.callbacks.DebugDraw;
+import org.jbox2d.common.Color3f;
+import org.jbox2d.dynamics.Body;
+import org.jbox2d.dynamics.World;
+
+import ubc.swim.gui.CompiledSwimSettings;
+import ubc.swim.gui.FrameSnapshot;
+import ubc.swim.gui.SwimDraw;
+import ubc.swim.world.characters.SwimCharacter;
+import ubc.swim.world.scenario.Scenario;
+import ubc.swim.world.scenario.ScenarioLibrary;
+
+/**
+ * Times drawing one frame of body shapes into an off-screen image, either straight from the
+ * world as ClipRenderer does (World.drawDebugData() and SwimCharacter.debugDraw()), or from a
+ * FrameSnapshot as the GUI does, with per-vertex polygons or with cached, batched outlines
+ * (see SwimDraw.drawSolidShapes())
+ *
+ * @author Ben Humberston
+ *
+ */
+public class DrawBenchmark extends SwimBenchmark {
+	public enum Mode {WORLD, SNAPSHOT, CACHED}
+
+	protected static final int SIZE = 700;
+	//Steps simulated before timing, so chars are spread out as in a typical frame
+	protected static final int WARMUP_STEPS = 120;
+
+	protected final String sceneName;
+	protected final List<String> charIDs;
+	protected final Mode mode;
+	protected Scenario scenario;
+	protected BufferedImage image;
+	protected Graphics2D g;
+	protected SwimDraw draw;
+	protected final FrameSnapshot snapshot = new FrameSnapshot();
+
+	/**
+	 * @param sceneName used in benchmark name
+	 * @param charIDs chars in scene
+	 * @param mode
+	 */
+	public DrawBenchmark(String sceneName, String[] charIDs, Mode mode) {
+		this.sceneName = sceneName;
+		this.charIDs = Arrays.asList(charIDs);
+		this.mode = mode;
+	}
+
+	@Override
+	public String getName() {
+		return "draw/" + sceneName + "/" + mode.name().toLowerCase();
+	}
+
+	@Override
+	public void setup() {
+		scenario = ScenarioLibrary.getBasicScenario(charIDs);
+		for (SwimCharacter character : scenario.getCharacters())
+			character.setControlParams(ScenarioStepBenchmark.randomControls(character.getNumControlDimensions(), 5));
+
+		CompiledSwimSettings settings = CompiledSwimSettings.getDefaults();
+		World world = scenario.getWorld();
+		for (int i = 0; i < WARMUP_STEPS; i++) {
+			if (i == WARMUP_STEPS - 1)
+				snapshot.capturePrevPoses(world);
+			scenario.step(settings, settings.timeStep);
+		}
+
+		image = new BufferedImage(SIZE, SIZE, BufferedImage.TYPE_INT_RGB);
+		g = image.createGraphics();
+		draw = new SwimDraw(g, SIZE, SIZE);
+		draw.setFlags(DebugDraw.e_shapeBit);
+		draw.setCamera(0, 10, 100);
+		world.setDebugDraw(draw);
+
+		//Same bodies and colors as SwimTest.captureFrame()
+		snapshot.clear();
+		Color3f color = new Color3f(0.9f, 0.7f, 0.7f);
+		for (Body b = world.getBodyList(); b != null; b = b.getNext())
+			snapshot.addWorldBody(b, color);
+		List<Body> bodies = new ArrayList<Body>();
+		List<Color3f> colors = new ArrayList<Color3f>();
+		for (SwimCharacter character : scenario.getCharacters())
+			character.getDebugBodies(bodies, colors);
+		for (int i = 0; i < bodies.size(); i++)
+			snapshot.addCharacterBody(bodies.get(i), colors.get(i));
+	}
+
+	@Override
+	public double runOp() {
+		g.setColor(Color.black);
+		g.fillRect(0, 0, SIZE, SIZE);
+
+		if (mode == Mode.WORLD) {
+			scenario.getWorld().drawDebugData();
+			for (SwimCharacter character : scenario.getCharacters())
+				character.debugDraw(draw);
+		}
+		else
+			snapshot.draw(draw, System.nanoTime(), mode == Mode.CACHED);
+
+		return image.getRGB(SIZE / 2, SIZE / 2);
+	}
+
+	@Override
+	public void teardown() {
+		g.dispose();
+		g = null;
+		image = null;
+		draw = null;
+		scenario = null;
+	}
+}
@@ -0,0 +1,41 @@
+package ubc.swim.benchmark;
+
+import ubc.swim.optimization.SwimFitnessFunctionA;
+
+/**
+ * Times a full SwimFitnessFunctionA.valueOf() call, ie: the cost of evaluating 
+ * one CMA candidate
+ * 
+ * @author Ben Humberston
+ *
+ */
+public class FitnessBenchmark extends SwimBenchmark {
+	protected final String charID;
+	protected SwimFitnessFunctionA fitFun;
+	protected double[] controls;
+	
+	public FitnessBenchmark(String charID) {
+		this.charID = charID;
+	}
+	
+	@Override
+	public String getName() {
+		return "fitness/" + charID;
+	}
+	
+	@Override
+	public void setup() {
+		fitFun = new SwimFitnessFunctionA(charID);
+		controls = ScenarioStepBenchmark.randomControls(fitFun.getNumControlDimensions(), 5);
+	}
+	
+	@Override
+	public double runOp() {
+		return fitFun.valueOf(controls);
+	}
+	
+	@Override
+	public void teardown() {
+		fitFun = null;
+	}
+}
@@ -0,0 +1,106 @@
+package ubc.swim.benchmark;
+
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.List;
+
+import ubc.swim.dynamics.controllers.DynamicsController;
+import ubc.swim.dynamics.controllers.FluidController;
+import ubc.swim.gui.CompiledSwimSettings;
+import ubc.swim.world.characters.SwimCharacter;
+import ubc.swim.world.scenario.Scenario;
+import ubc.swim.world.scenario.ScenarioLibrary;
+
+/**
+ * Checks that FluidController.step() doesn't allocate once warmed up, with drag force drawing
+ * off (as in optimization). Bytes allocated by this thread are read from the JVM's
+ * ThreadMXBean before and after a run of calls; any difference fails the check, which exits
+ * with status 1.
+ *
+ * The JIT can allocate a few bytes on the calling thread when it deoptimizes step() (objects that
+ * compiled code kept off the heap are created for the interpreter), so each case is measured over
+ * several rounds and the smallest count is kept; allocation by step() itself would show in every round.
+ *
+ * @author Ben Humberston
+ *
+ */
+public class FluidAllocationCheck {
+
+	private static final String[] DEFAULT_CHAR_IDS = {"paddle", "tadpole", "humanCrawl", "humanFly", "humanCrawlRefTraj"};
+	//Scenario steps before measuring, so chars are moving
+	private static final int WARMUP_STEPS = 2000;
+	//Calls to step() before measuring, so the JIT has recompiled it for this char's shapes
+	private static final int WARMUP_CALLS = 10000;
+	private static final int NUM_CALLS = 10000;
+	private static final int NUM_ROUNDS = 5;
+
+	/**
+	 * @param args optional list of char IDs to check
+	 */
+	public static void main(String[] args) {
+		String[] charIDs = args.length > 0 ? args : DEFAULT_CHAR_IDS;
+
+		com.sun.management.ThreadMXBean threadBean = (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+		if (!threadBean.isThreadAllocatedMemorySupported()) {
+			System.out.println("Thread allocation counting isn't supported by this JVM");
+			System.exit(1);
+		}
+		threadBean.setThreadAllocatedMemoryEnabled(true);
+		long threadID = Thread.currentThread().getId();
+
+		//Defaults have drag force drawing off
+		CompiledSwimSettings settings = CompiledSwimSettings.getDefaults();
+
+		boolean allPass = true;
+		System.out.println(String.format("%-20s %-9s %8s %14s", "char", "mode", "calls", "bytes"));
+		for (String charID : charIDs) {
+			for (boolean implicit : new boolean[] {false, true}) {
+				FluidController fluid = createFluidScenario(charID, implicit, settings);
+				for (int i = 0; i < WARMUP_CALLS; i++)
+					fluid.step(settings);
+
+				long allocated = Long.MAX_VALUE;
+				for (int r = 0; r < NUM_ROUNDS && allocated > 0; r++) {
+					//Read twice so any allocation by the counter itself is measured and removed
+					long before = threadBean.getThreadAllocatedBytes(threadID);
+					long overhead = threadBean.getThreadAllocatedBytes(threadID) - before;
+					before = threadBean.getThreadAllocatedBytes(threadID);
+					for (int i = 0; i < NUM_CALLS; i++)
+						fluid.step(settings);
+					allocated = Math.min(allocated, threadBean.getThreadAllocatedBytes(threadID) - before - overhead);
+				}
+				allPass &= allocated == 0;
+
+				System.out.println(String.format("%-20s %-9s %8d %14d%s",
+						charID, implicit ? "implicit" : "explicit", NUM_CALLS, allocated, allocated == 0 ? "" : "  FAIL"));
+			}
+		}
+
+		if (!allPass) {
+			System.out.println("FluidController.step() allocated memory");
+			System.exit(1);
+		}
+	}
+
+	/**
+	 * Builds a basic scenario for given char, steps it through warm up, and returns its fluid controller
+	 */
+	private static FluidController createFluidScenario(String charID, boolean implicit, CompiledSwimSettings settings) {
+		List<String> charIDs = new ArrayList<String>();
+		charIDs.add(charID);
+		Scenario scenario = ScenarioLibrary.getBasicScenario(charIDs);
+		scenario.setUseImplicitDrag(implicit);
+
+		SwimCharacter character = scenario.getCharacters().get(0);
+		character.setControlParams(ScenarioStepBenchmark.randomControls(character.getNumControlDimensions(), 5));
+
+		for (int i = 0; i < WARMUP_STEPS; i++)
+			scenario.step(settings, settings.timeStep);
+
+		for (DynamicsController controller : scenario.getDynamicsControllers()) {
+			if (controller instanceof FluidController)
+				return (FluidController) controller;
+		}
+		throw new IllegalStateException("Scenario for " + charID + " has no FluidController");
+	}
+}
@@ -0,0 +1,87 @@
+package ubc.swim.benchmark;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+
+import ubc.swim.gui.CompiledSwimSettings;
+import ubc.swim.world.characters.SwimCharacter;
+import ubc.swim.world.scenario.Scenario;
+import ubc.swim.world.scenario.ScenarioLibrary;
+
+/**
+ * Times one simulation step of a scenario holding several copies of a character, with
+ * islands (one per character) solved serially or on a fork-join pool (see World.setIslandPool())
+ *
+ * @author Ben Humberston
+ *
+ */
+public class IslandSolveBenchmark extends SwimBenchmark {
+	protected static final int STEPS_PER_RESET = 600;
+
+	protected final String charID;
+	protected final int numChars;
+	protected final int numThreads;
+	protected Scenario scenario;
+	protected ForkJoinPool forkJoinPool;
+	protected CompiledSwimSettings settings = CompiledSwimSettings.getDefaults();
+	protected int stepsSinceReset = 0;
+
+	/**
+	 * @param charID
+	 * @param numChars number of copies of the character in the world
+	 * @param numThreads threads used to solve islands; 0 solves them serially without a pool
+	 */
+	public IslandSolveBenchmark(String charID, int numChars, int numThreads) {
+		this.charID = charID;
+		this.numChars = numChars;
+		this.numThreads = numThreads;
+	}
+
+	@Override
+	public String getName() {
+		return "islands/" + charID + "x" + numChars + "/" + (numThreads > 0 ? numThreads + "threads" : "serial");
+	}
+
+	@Override
+	public void setup() {
+		List<String> charIDs = new ArrayList<String>();
+		for (int i = 0; i < numChars; i++)
+			charIDs.add(charID);
+		scenario = ScenarioLibrary.getBasicScenario(charIDs);
+
+		if (numThreads > 0) {
+			forkJoinPool = new ForkJoinPool(numThreads);
+			scenario.setIslandPool(forkJoinPool);
+		}
+
+		//Different fixed random controls per character, so runs are comparable
+		for (int i = 0; i < numChars; i++) {
+			SwimCharacter character = scenario.getCharacters().get(i);
+			character.setControlParams(ScenarioStepBenchmark.randomControls(character.getNumControlDimensions(), 5 + i));
+		}
+		stepsSinceReset = 0;
+	}
+
+	@Override
+	public double runOp() {
+		if (stepsSinceReset == STEPS_PER_RESET) {
+			scenario.reset();
+			stepsSinceReset = 0;
+		}
+
+		scenario.step(settings, settings.timeStep);
+		stepsSinceReset++;
+
+		return scenario.getCharacters().get(0).getRootBody().getPosition().x;
+	}
+
+	@Override
+	public void teardown() {
+		scenario = null;
+		if (forkJoinPool != null) {
+			forkJoinPool.shutdown();
+			forkJoinPool = null;
+		}
+	}
+}
@@ -0,0 +1,86 @@
+package ubc.swim.benchmark;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import ubc.swim.gui.CompiledSwimSettings;
+import ubc.swim.world.characters.SwimCharacter;
+import ubc.swim.world.motors.TorqueMotor;
+import ubc.swim.world.scenario.Scenario;
+import ubc.swim.world.scenario.ScenarioLibrary;
+
+/**
+ * Times one step's worth of torque evaluation for every motor of a character,
+ * either evaluating motor functions directly or reading precomputed torque tables.
+ *
+ * Control params are set again at the start of every simulated evaluation (same length
+ * as a default fitness evaluation), so table build cost is included in the per-step time.
+ *
+ * @author Ben Humberston
+ *
+ */
+public class MotorTorqueBenchmark extends SwimBenchmark {
+	//Simulated time per fitness evaluation (SwimFitnessFunctionA default)
+	protected static final float EVALUATION_RUNTIME = 5.0f;
+
+	protected final String charID;
+	protected final boolean useMotorTables;
+	protected Scenario scenario;
+	protected SwimCharacter character;
+	protected List<TorqueMotor> motors;
+	protected double[] controls;
+	protected float dt = CompiledSwimSettings.getDefaults().timeStep;
+	//Steps per simulated fitness evaluation at the default time step
+	protected int stepsPerEvaluation = Math.round(EVALUATION_RUNTIME / dt);
+	protected float runtime = 0.0f;
+	protected int step = 0;
+
+	public MotorTorqueBenchmark(String charID, boolean useMotorTables) {
+		this.charID = charID;
+		this.useMotorTables = useMotorTables;
+	}
+
+	@Override
+	public String getName() {
+		return "motorTorque/" + charID + (useMotorTables ? "/table" : "");
+	}
+
+	@Override
+	public void setup() {
+		List<String> charIDs = new ArrayList<String>();
+		charIDs.add(charID);
+		scenario = ScenarioLibrary.getBasicScenario(charIDs);
+
+		character = scenario.getCharacters().get(0);
+		character.setMotorTables(useMotorTables ? dt : 0, true);
+		motors = character.getMotors();
+		controls = ScenarioStepBenchmark.randomControls(character.getNumControlDimensions(), 5);
+		step = 0;
+	}
+
+	@Override
+	public double runOp() {
+		if (step % stepsPerEvaluation == 0) {
+			character.setControlParams(controls);
+			runtime = 0.0f;
+
+			//Torques accumulate on bodies since the world is never stepped
+			scenario.getWorld().clearForces();
+		}
+
+		float torque = 0.0f;
+		for (int i = 0; i < motors.size(); i++)
+			torque += Math.abs(motors.get(i).applyTorque(runtime));
+
+		runtime += dt;
+		step++;
+		return torque;
+	}
+
+	@Override
+	public void teardown() {
+		scenario = null;
+		character = null;
+		motors = null;
+	}
+}
@@ -0,0 +1,173 @@
+package ubc.swim.benchmark;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.jbox2d.dynamics.Body;
+import org.jbox2d.dynamics.World;
+
+import ubc.swim.dynamics.controllers.DynamicsController;
+import ubc.swim.dynamics.controllers.FluidController;
+import ubc.swim.dynamics.controllers.PackedFluidControllerDef;
+import ubc.swim.gui.CompiledSwimSettings;
+import ubc.swim.optimization.SwimFitnessFunctionA;
+import ubc.swim.world.characters.SwimCharacter;
+import ubc.swim.world.scenario.Scenario;
+import ubc.swim.world.scenario.ScenarioLibrary;
+
+/**
+ * Compares the packed fluid kernel (PackedFluidController) against the original per-body
+ * path (FluidController), with explicit and implicit drag.
+ *
+ * Forces: both controllers are stepped on the same world state at intervals through a run of the
+ * original kernel; the largest difference in any body's fluid force or torque is reported relative
+ * to the largest force or torque on any body at that step. Only summation order differs, so this
+ * must stay under FORCE_TOLERANCE.
+ *
+ * Cost: mean relative difference in SwimFitnessFunctionA cost over a fixed set of random control
+ * vectors. Rounding differences grow over a run, so this is reported but not checked; for scale,
+ * the original kernel's cost difference when one control parameter is changed by 1e-6 is shown too.
+ *
+ * Exits with status 1 if any force error is over tolerance.
+ *
+ * @author Ben Humberston
+ *
+ */
+public class PackedFluidKernelCheck {
+
+	private static final String[] DEFAULT_CHAR_IDS = {"paddle", "tadpole", "humanCrawl", "humanFly", "humanCrawlRefTraj"};
+	private static final int NUM_STEPS = 600;
+	private static final int STEPS_PER_SAMPLE = 20;
+	private static final int NUM_CONTROL_SAMPLES = 10;
+	private static final double FORCE_TOLERANCE = 1e-4;
+	private static final double CONTROL_PERTURBATION = 1e-6;
+
+	/**
+	 * @param args optional list of char IDs to check
+	 */
+	public static void main(String[] args) {
+		String[] charIDs = args.length > 0 ? args : DEFAULT_CHAR_IDS;
+
+		boolean allPass = true;
+		System.out.println(String.format("%-20s %-9s %12s %12s %12s %12s", "char", "mode", "forceErr", "torqueErr", "costDiff%", "perturbDiff%"));
+		for (String charID : charIDs) {
+			for (boolean implicit : new boolean[] {false, true}) {
+				double[] forceErrors = compareForces(charID, implicit);
+				double[] costDiffs = compareCosts(charID, implicit);
+				boolean pass = forceErrors[0] <= FORCE_TOLERANCE && forceErrors[1] <= FORCE_TOLERANCE;
+				allPass &= pass;
+
+				System.out.println(String.format("%-20s %-9s %12.3e %12.3e %12.6f %12.6f%s", charID, implicit ? "implicit" : "explicit",
+						forceErrors[0], forceErrors[1], 100 * costDiffs[0], 100 * costDiffs[1], pass ? "" : "  FAIL"));
+			}
+		}
+
+		if (!allPass) {
+			System.out.println("Packed fluid forces differ from FluidController by more than " + FORCE_TOLERANCE);
+			System.exit(1);
+		}
+	}
+
+	/**
+	 * Returns largest relative force and torque error of packed kernel over a run of the original one
+	 */
+	private static double[] compareForces(String charID, boolean implicit) {
+		List<String> charIDs = new ArrayList<String>();
+		charIDs.add(charID);
+		Scenario scenario = ScenarioLibrary.getBasicScenario(charIDs, false);
+		scenario.setUseImplicitDrag(implicit);
+
+		SwimCharacter character = scenario.getCharacters().get(0);
+		character.setControlParams(ScenarioStepBenchmark.randomControls(character.getNumControlDimensions(), 5));
+
+		FluidController fluid = null;
+		for (DynamicsController controller : scenario.getDynamicsControllers()) {
+			if (controller instanceof FluidController)
+				fluid = (FluidController) controller;
+		}
+		DynamicsController packedFluid = createPackedCopy(fluid);
+
+		World world = scenario.getWorld();
+		List<Body> bodies = fluid.getBodyList();
+		float[] forces = new float[3 * bodies.size()];
+		CompiledSwimSettings settings = CompiledSwimSettings.getDefaults();
+		double maxForceError = 0, maxTorqueError = 0;
+		for (int i = 0; i < NUM_STEPS; i++) {
+			if (i % STEPS_PER_SAMPLE == 0) {
+				//Forces are cleared after each world step, so each controller's forces can be read alone
+				fluid.step(settings);
+				float maxForce = 0, maxTorque = 0;
+				for (int b = 0; b < bodies.size(); b++) {
+					Body body = bodies.get(b);
+					forces[3 * b] = body.m_force.x;
+					forces[3 * b + 1] = body.m_force.y;
+					forces[3 * b + 2] = body.m_torque;
+					maxForce = Math.max(maxForce, body.m_force.length());
+					maxTorque = Math.max(maxTorque, Math.abs(body.m_torque));
+				}
+				world.clearForces();
+
+				packedFluid.step(settings);
+				for (int b = 0; b < bodies.size(); b++) {
+					Body body = bodies.get(b);
+					float dx = body.m_force.x - forces[3 * b], dy = body.m_force.y - forces[3 * b + 1];
+					if (maxForce > 0)
+						maxForceError = Math.max(maxForceError, Math.sqrt(dx * dx + dy * dy) / maxForce);
+					if (maxTorque > 0)
+						maxTorqueError = Math.max(maxTorqueError, Math.abs(body.m_torque - forces[3 * b + 2]) / maxTorque);
+				}
+				world.clearForces();
+			}
+
+			scenario.step(settings, settings.timeStep);
+		}
+
+		return new double[] {maxForceError, maxTorqueError};
+	}
+
+	/**
+	 * Returns a packed fluid controller with the same parameters and bodies as given one
+	 */
+	private static DynamicsController createPackedCopy(FluidController fluid) {
+		PackedFluidControllerDef def = new PackedFluidControllerDef();
+		def.normal = fluid.normal.clone();
+		def.offset = fluid.fluidSurfaceOffset;
+		def.density = fluid.fluidDensity;
+		def.velocity = fluid.fluidVel.clone();
+		def.linearDrag = fluid.linearDrag;
+		def.useDensity = fluid.useDensity;
+		def.useWorldGravity = fluid.useWorldGravity;
+		def.gravity = fluid.gravity.clone();
+		def.implicitDrag = fluid.implicitDrag;
+
+		DynamicsController packedFluid = def.create();
+		packedFluid.world = fluid.getWorld();
+		for (Body body : fluid.getBodyList())
+			packedFluid.addBody(body);
+		return packedFluid;
+	}
+
+	/**
+	 * Returns mean relative difference between packed and original kernel costs, and between original
+	 * kernel costs with and without a small change to the first control parameter
+	 */
+	private static double[] compareCosts(String charID, boolean implicit) {
+		SwimFitnessFunctionA fitFun = new SwimFitnessFunctionA(charID);
+		fitFun.setUseImplicitDrag(implicit);
+		SwimFitnessFunctionA packedFitFun = new SwimFitnessFunctionA(charID);
+		packedFitFun.setUseImplicitDrag(implicit);
+		packedFitFun.setUsePackedFluidKernel(true);
+
+		int numDims = fitFun.getNumControlDimensions();
+		double totalDiff = 0, totalPerturbDiff = 0;
+		for (int i = 0; i < NUM_CONTROL_SAMPLES; i++) {
+			double[] controls = ScenarioStepBenchmark.randomControls(numDims, i);
+			double cost = fitFun.valueOf(controls);
+			totalDiff += Math.abs(packedFitFun.valueOf(controls) - cost) / Math.abs(cost);
+
+			controls[0] *= 1 + CONTROL_PERTURBATION;
+			totalPerturbDiff += Math.abs(fitFun.valueOf(controls) - cost) / Math.abs(cost);
+		}
+		return new double[] {totalDiff / NUM_CONTROL_SAMPLES, totalPerturbDiff / NUM_CONTROL_SAMPLES};
+	}
+}
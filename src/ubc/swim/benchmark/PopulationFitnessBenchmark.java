@@ -0,0 +1,52 @@
+package ubc.swim.benchmark;
+
+import ubc.swim.optimization.BatchSwimFitnessFunction;
+import ubc.swim.optimization.SwimFitnessFunctionA;
+
+/**
+ * Times evaluation of a whole CMA population with a BatchSwimFitnessFunction, either in a
+ * shared world or in lock step (see LockStepPaddleSimulator)
+ *
+ * @author Ben Humberston
+ *
+ */
+public class PopulationFitnessBenchmark extends SwimBenchmark {
+	protected final String charID;
+	protected final int popSize;
+	protected final boolean useLockStep;
+	protected BatchSwimFitnessFunction batchFitFun;
+	protected double[][] pop;
+
+	public PopulationFitnessBenchmark(String charID, int popSize, boolean useLockStep) {
+		this.charID = charID;
+		this.popSize = popSize;
+		this.useLockStep = useLockStep;
+	}
+
+	@Override
+	public String getName() {
+		return "population/" + charID + "x" + popSize + "/" + (useLockStep ? "lockStep" : "world");
+	}
+
+	@Override
+	public void setup() {
+		SwimFitnessFunctionA fitFun = new SwimFitnessFunctionA(charID);
+		batchFitFun = new BatchSwimFitnessFunction(fitFun);
+		batchFitFun.setUseLockStep(useLockStep);
+
+		pop = new double[popSize][];
+		for (int i = 0; i < popSize; i++)
+			pop[i] = ScenarioStepBenchmark.randomControls(fitFun.getNumControlDimensions(), 5 + i);
+	}
+
+	@Override
+	public double runOp() {
+		return batchFitFun.valuesOf(pop)[0];
+	}
+
+	@Override
+	public void teardown() {
+		batchFitFun.shutdown();
+		batchFitFun = null;
+	}
+}
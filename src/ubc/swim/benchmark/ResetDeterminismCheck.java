@@ -0,0 +1,79 @@
+package ubc.swim.benchmark;
+
+import java.util.List;
+
+import org.jbox2d.dynamics.Body;
+
+import ubc.swim.optimization.SwimFitnessFunctionA;
+
+/**
+ * Checks that Scenario.reset() restores a scenario exactly: for each char, a control vector is
+ * evaluated by SwimFitnessFunctionA on a freshly built scenario and again on one that was reset
+ * after simulating a different control vector. Costs and final body transforms must be
+ * bit-identical. Exits with status 1 if any char differs.
+ *
+ * @author Ben Humberston
+ *
+ */
+public class ResetDeterminismCheck {
+
+	private static final String[] DEFAULT_CHAR_IDS = {"paddle", "refTrajPaddle", "tadpole", "humanCrawl", "humanFly", "humanCrawlRefTraj", "humanFlyRefTraj"};
+	//Shorter than the default runtime; long enough for bodies to hit each other and the fluid to act
+	private static final float RUNTIME = 5.0f;
+
+	/**
+	 * @param args optional list of char IDs to check
+	 */
+	public static void main(String[] args) {
+		String[] charIDs = args.length > 0 ? args : DEFAULT_CHAR_IDS;
+
+		boolean allMatch = true;
+		System.out.println(String.format("%-20s %14s %14s %8s %8s", "char", "fresh cost", "reset cost", "bodies", "match"));
+		for (String charID : charIDs) {
+			//Fresh: first valueOf() call builds the scenario
+			SwimFitnessFunctionA freshFitFun = createFitnessFunction(charID);
+			double[] controls = ScenarioStepBenchmark.randomControls(freshFitFun.getNumControlDimensions(), 1);
+			double freshCost = freshFitFun.valueOf(controls);
+			float[] freshTransforms = getTransforms(freshFitFun.getCharacter().getBodies());
+
+			//Reset: scenario is dirtied by another control vector first, then reset by valueOf()
+			SwimFitnessFunctionA resetFitFun = createFitnessFunction(charID);
+			resetFitFun.valueOf(ScenarioStepBenchmark.randomControls(resetFitFun.getNumControlDimensions(), 2));
+			double resetCost = resetFitFun.valueOf(controls);
+			float[] resetTransforms = getTransforms(resetFitFun.getCharacter().getBodies());
+
+			boolean match = freshCost == resetCost && freshTransforms.length == resetTransforms.length;
+			for (int i = 0; match && i < freshTransforms.length; i++)
+				match = freshTransforms[i] == resetTransforms[i];
+			allMatch &= match;
+
+			System.out.println(String.format("%-20s %14.6f %14.6f %8d %8s",
+					charID, freshCost, resetCost, freshTransforms.length / 3, match ? "yes" : "NO"));
+		}
+
+		if (!allMatch) {
+			System.out.println("Reset scenario differs from fresh one");
+			System.exit(1);
+		}
+	}
+
+	private static SwimFitnessFunctionA createFitnessFunction(String charID) {
+		SwimFitnessFunctionA fitFun = new SwimFitnessFunctionA(charID);
+		fitFun.setMaxRuntime(RUNTIME);
+		return fitFun;
+	}
+
+	/**
+	 * Returns x, y and angle of each given body
+	 */
+	private static float[] getTransforms(List<Body> bodies) {
+		float[] transforms = new float[3 * bodies.size()];
+		for (int i = 0; i < bodies.size(); i++) {
+			Body body = bodies.get(i);
+			transforms[3 * i] = body.getPosition().x;
+			transforms[3 * i + 1] = body.getPosition().y;
+			transforms[3 * i + 2] = body.getAngle();
+		}
+		return transforms;
+	}
+}
@@ -0,0 +1,97 @@
+package ubc.swim.benchmark;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import org.jbox2d.dynamics.Body;
+
+import ubc.swim.gui.CompiledSwimSettings;
+import ubc.swim.world.characters.SwimCharacter;
+import ubc.swim.world.scenario.Scenario;
+import ubc.swim.world.scenario.ScenarioLibrary;
+
+/**
+ * Times one simulation step (fluid controller, character controls and World.step)
+ * of the basic scenario with a single character
+ * 
+ * @author Ben Humberston
+ *
+ */
+public class ScenarioStepBenchmark extends SwimBenchmark {
+	//Scenario is reset periodically so that long runs don't drift into unrepresentative states
+	protected static final int STEPS_PER_RESET = 600;
+	
+	protected final String charID;
+	protected final boolean usePackedFluidKernel;
+	protected final boolean useContactFreeStepping;
+	protected Scenario scenario;
+	protected CompiledSwimSettings settings = CompiledSwimSettings.getDefaults();
+	protected int stepsSinceReset = 0;
+	
+	public ScenarioStepBenchmark(String charID) {
+		this(charID, false);
+	}
+	
+	public ScenarioStepBenchmark(String charID, boolean usePackedFluidKernel) {
+		this(charID, usePackedFluidKernel, true);
+	}
+	
+	/**
+	 * @param useContactFreeStepping if false, the world runs broad-phase, contacts and TOI every step
+	 * even though characters can't collide (see World.setContactFreeStepping())
+	 */
+	public ScenarioStepBenchmark(String charID, boolean usePackedFluidKernel, boolean useContactFreeStepping) {
+		this.charID = charID;
+		this.usePackedFluidKernel = usePackedFluidKernel;
+		this.useContactFreeStepping = useContactFreeStepping;
+	}
+	
+	@Override
+	public String getName() {
+		return "step/" + charID + (usePackedFluidKernel ? "/packed" : "") + (useContactFreeStepping ? "" : "/collisions");
+	}
+	
+	@Override
+	public void setup() {
+		List<String> charIDs = new ArrayList<String>();
+		charIDs.add(charID);
+		scenario = ScenarioLibrary.getBasicScenario(charIDs, usePackedFluidKernel);
+		scenario.setUseContactFreeStepping(useContactFreeStepping);
+		
+		//Fixed random controls, so runs are comparable
+		SwimCharacter character = scenario.getCharacters().get(0);
+		character.setControlParams(randomControls(character.getNumControlDimensions(), 5));
+		stepsSinceReset = 0;
+	}
+	
+	@Override
+	public double runOp() {
+		if (stepsSinceReset == STEPS_PER_RESET) {
+			scenario.reset();
+			stepsSinceReset = 0;
+		}
+		
+		scenario.step(settings, settings.timeStep);
+		stepsSinceReset++;
+		
+		Body rootBody = scenario.getCharacters().get(0).getRootBody();
+		return rootBody.getPosition().x;
+	}
+	
+	@Override
+	public void teardown() {
+		scenario = null;
+	}
+	
+	/**
+	 * Returns control parameters drawn from a seeded normal distribution
+	 */
+	protected static double[] randomControls(int numDims, long seed) {
+		Random rand = new Random(seed);
+		double[] x = new double[numDims];
+		for (int i = 0; i < numDims; i++)
+			x[i] = 0.3 * rand.nextGaussian();
+		return x;
+	}
+}
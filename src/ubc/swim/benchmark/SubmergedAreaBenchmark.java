@@ -0,0 +1,80 @@
+package ubc.swim.benchmark;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.jbox2d.common.Transform;
+import org.jbox2d.common.Vec2;
+import org.jbox2d.dynamics.Body;
+import org.jbox2d.dynamics.BodyType;
+import org.jbox2d.dynamics.Fixture;
+
+import ubc.swim.dynamics.controllers.FluidUtil;
+import ubc.swim.world.EdgeList;
+import ubc.swim.world.scenario.Scenario;
+import ubc.swim.world.scenario.ScenarioLibrary;
+
+/**
+ * Times FluidUtil.computeSubmergedArea() over every fixture of a character, 
+ * with the fluid surface placed so that shapes are partially submerged
+ * 
+ * @author Ben Humberston
+ *
+ */
+public class SubmergedAreaBenchmark extends SwimBenchmark {
+	protected final String charID;
+	
+	protected final List<Fixture> fixtures = new ArrayList<Fixture>();
+	protected final List<Transform> transforms = new ArrayList<Transform>();
+	protected final Vec2 normal = new Vec2(0, 1);
+	protected final Vec2 subCenter = new Vec2();
+	protected final EdgeList subEdges = new EdgeList();
+	protected float surfaceOffset;
+	
+	public SubmergedAreaBenchmark(String charID) {
+		this.charID = charID;
+	}
+	
+	@Override
+	public String getName() {
+		return "computeSubmergedArea/" + charID;
+	}
+	
+	@Override
+	public void setup() {
+		List<String> charIDs = new ArrayList<String>();
+		charIDs.add(charID);
+		Scenario scenario = ScenarioLibrary.getBasicScenario(charIDs);
+		
+		//Put the surface through the middle of the character so most shapes are split by it
+		float minY = Float.MAX_VALUE, maxY = -Float.MAX_VALUE;
+		for (Body body = scenario.getWorld().getBodyList(); body != null; body = body.getNext()) {
+			if (body.getType() == BodyType.STATIC) continue;
+			
+			for (Fixture fixture = body.getFixtureList(); fixture != null; fixture = fixture.getNext()) {
+				fixtures.add(fixture);
+				transforms.add(body.getTransform());
+			}
+			minY = Math.min(minY, body.getPosition().y);
+			maxY = Math.max(maxY, body.getPosition().y);
+		}
+		surfaceOffset = 0.5f * (minY + maxY);
+	}
+	
+	@Override
+	public double runOp() {
+		float area = 0;
+		subEdges.clear();
+		for (int i = 0; i < fixtures.size(); i++) {
+			subCenter.setZero();
+			area += FluidUtil.computeSubmergedArea(fixtures.get(i).getShape(), normal, surfaceOffset, transforms.get(i), subCenter, subEdges);
+		}
+		return area + subEdges.size();
+	}
+	
+	@Override
+	public void teardown() {
+		fixtures.clear();
+		transforms.clear();
+	}
+}
@@ -0,0 +1,117 @@
+package ubc.swim.benchmark;
+
+import fr.inria.optimization.cmaes.CMAEvolutionStrategy;
+import fr.inria.optimization.cmaes.fitness.FunctionCollector;
+import fr.inria.optimization.cmaes.fitness.IObjectiveFunction;
+import fr.inria.optimization.cmaes.fitness.IObjectiveFunctionParallel;
+import ubc.swim.optimization.SurrogateAssistedEvaluator;
+import ubc.swim.optimization.SwimFitnessFunctionA;
+
+/**
+ * Compares the number of true function evaluations used by plain CMA and by CMA with
+ * SurrogateAssistedEvaluator, on FunctionCollector test functions (run to a target value)
+ * and on swimmer characters (run for a fixed number of iterations).
+ *
+ * @author Ben Humberston
+ *
+ */
+public class SurrogateReport {
+
+	private static final int[] SEEDS = {1, 2, 3};
+
+	//FunctionCollector function numbers and names
+	private static final int[] TEST_FUNCTIONS = {10, 30, 50, 80};
+	private static final String[] TEST_FUNCTION_NAMES = {"sphere", "cigar", "elli", "rosen"};
+	private static final int TEST_DIMENSION = 10;
+	private static final double TEST_TARGET = 1e-8;
+	private static final int TEST_MAX_ITERS = 5000;
+
+	private static final String[] CHAR_IDS = {"paddle", "tadpole"};
+	private static final int CHAR_ITERS = 40;
+
+	public static void main(String[] args) {
+		System.out.println("Test functions (dimension " + TEST_DIMENSION + ", evaluations to reach f < " + TEST_TARGET
+				+ ", mean of " + SEEDS.length + " seeds)");
+		System.out.println(String.format("%-10s %12s %12s %9s", "function", "plain", "surrogate", "saved%"));
+		for (int f = 0; f < TEST_FUNCTIONS.length; f++) {
+			double plainEvals = 0, surrogateEvals = 0;
+			for (int seed : SEEDS) {
+				IObjectiveFunction fun = new FunctionCollector(TEST_FUNCTIONS[f], 0, 0);
+				plainEvals += run(fun, TEST_DIMENSION, false, seed, false, TEST_MAX_ITERS)[0];
+				surrogateEvals += run(fun, TEST_DIMENSION, false, seed, true, TEST_MAX_ITERS)[0];
+			}
+			System.out.println(String.format("%-10s %12.0f %12.0f %9.1f", TEST_FUNCTION_NAMES[f],
+					plainEvals / SEEDS.length, surrogateEvals / SEEDS.length, 100 * (1 - surrogateEvals / plainEvals)));
+		}
+
+		System.out.println();
+		System.out.println("Characters (" + CHAR_ITERS + " iterations, final cost is that of the mean, mean of " + SEEDS.length + " seeds)");
+		System.out.println(String.format("%-10s %12s %12s %9s %14s %14s", "char", "plain", "surrogate", "saved%", "plain cost", "surrogate cost"));
+		for (String charID : CHAR_IDS) {
+			double plainEvals = 0, surrogateEvals = 0, plainCost = 0, surrogateCost = 0;
+			for (int seed : SEEDS) {
+				SwimFitnessFunctionA fitFun = new SwimFitnessFunctionA(charID);
+				int dimension = fitFun.getNumControlDimensions();
+				double[] plain = run(fitFun, dimension, true, seed, false, CHAR_ITERS);
+				double[] assisted = run(fitFun, dimension, true, seed, true, CHAR_ITERS);
+				plainEvals += plain[0];
+				plainCost += plain[1];
+				surrogateEvals += assisted[0];
+				surrogateCost += assisted[1];
+			}
+			System.out.println(String.format("%-10s %12.0f %12.0f %9.1f %14.3f %14.3f", charID,
+					plainEvals / SEEDS.length, surrogateEvals / SEEDS.length, 100 * (1 - surrogateEvals / plainEvals),
+					plainCost / SEEDS.length, surrogateCost / SEEDS.length));
+		}
+	}
+
+	/**
+	 * Runs CMA on given function until the target value is reached (test functions) or for maxIters.
+	 * Returns number of true evaluations and the true value at the final mean.
+	 */
+	private static double[] run(final IObjectiveFunction fun, int dimension, boolean swimmerSetup, long seed,
+			boolean useSurrogate, int maxIters) {
+		CMAEvolutionStrategy cma = new CMAEvolutionStrategy();
+		cma.options.verbosity = -1;
+		cma.options.writeDisplayToFile = 0;
+		cma.setDimension(dimension);
+		cma.setSeed(seed);
+		if (swimmerSetup) {
+			//Same as SwimmerOptimization
+			cma.setInitialX(0.05);
+			cma.setInitialStandardDeviation(0.2);
+			cma.options.diagonalCovarianceMatrix = 1;
+		}
+		else {
+			cma.setInitialX(0.5);
+			cma.setInitialStandardDeviation(0.3);
+			cma.options.stopFitness = TEST_TARGET;
+		}
+		cma.options.stopMaxIter = maxIters;
+		double[] fitness = cma.init();
+
+		//Serial evaluator counting true evaluations
+		final long[] numEvals = new long[1];
+		IObjectiveFunctionParallel trueEvaluator = new IObjectiveFunctionParallel() {
+			@Override
+			public double[] valuesOf(double[][] pop) {
+				double[] values = new double[pop.length];
+				for (int i = 0; i < pop.length; i++)
+					values[i] = fun.valueOf(pop[i]);
+				numEvals[0] += pop.length;
+				return values;
+			}
+		};
+		IObjectiveFunctionParallel evaluator = useSurrogate
+				? new SurrogateAssistedEvaluator(trueEvaluator, dimension, cma.parameters.getMu())
+				: trueEvaluator;
+
+		while (cma.stopConditions.getNumber() == 0) {
+			double[][] pop = cma.samplePopulation();
+			fitness = evaluator.valuesOf(pop);
+			cma.updateDistribution(fitness);
+		}
+
+		return new double[] {numEvals[0], fun.valueOf(cma.getMeanX())};
+	}
+}
@@ -0,0 +1,29 @@
+package ubc.swim.benchmark;
+
+/**
+ * A single benchmarked operation, run repeatedly by BenchmarkRunner
+ * 
+ * @author Ben Humberston
+ *
+ */
+public abstract class SwimBenchmark {
+	
+	/** Returns name used to identify this benchmark in reports and filters */
+	public abstract String getName();
+	
+	/** 
+	 * Prepares any state needed by runOp(). Called once before warmup; not timed. 
+	 */
+	public void setup() {}
+	
+	/**
+	 * Executes one operation of this benchmark. Returns some value derived from the result
+	 * so that the JIT can't eliminate the work as dead code.
+	 */
+	public abstract double runOp();
+	
+	/**
+	 * Releases any state created in setup(). Called once after measurement; not timed.
+	 */
+	public void teardown() {}
+}
@@ -0,0 +1,155 @@
+package ubc.swim.benchmark;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import ubc.swim.optimization.DistributedSwimFitnessFunction;
+import ubc.swim.optimization.SwimEvaluationWorker;
+import ubc.swim.optimization.SwimFitnessFunctionA;
+
+/**
+ * Checks that distributed evaluation (see DistributedSwimFitnessFunction) survives losing a worker
+ * partway through a generation. NUM_WORKERS local worker processes evaluate a few warm up
+ * generations, then one of them is either suspended with SIGSTOP (as a hung or unreachable
+ * worker would be; only the coordinator's result timeout can catch this) or killed, shortly after
+ * the next generation starts. That generation must still finish, with exactly the costs of local
+ * evaluation, and the coordinator must have dropped the lost worker. Needs a Unix "kill" command
+ * for SIGSTOP. Exits with status 1 if either case fails.
+ *
+ * @author Ben Humberston
+ *
+ */
+public class WorkerLossCheck {
+
+	private static final String DEFAULT_CHAR_ID = "humanCrawl";
+	private static final int NUM_WORKERS = 3;
+	private static final int POP_SIZE = 48;
+	//Generations before the loss, so every worker has answered and the short result timeout applies
+	private static final int WARMUP_GENERATIONS = 2;
+	//Delay between the start of the generation and the loss of the worker
+	private static final long LOSS_DELAY_MILLIS = 100;
+	private static final long CONNECT_TIMEOUT_MILLIS = 60000;
+	private static final long GENERATION_TIMEOUT_MILLIS = 120000;
+
+	/**
+	 * @param args optional char ID to evaluate
+	 */
+	public static void main(String[] args) throws Exception {
+		String charID = args.length > 0 ? args[0] : DEFAULT_CHAR_ID;
+
+		SwimFitnessFunctionA fitFun = new SwimFitnessFunctionA(charID);
+		double[][] pop = new double[POP_SIZE][];
+		double[] expected = new double[POP_SIZE];
+		for (int i = 0; i < POP_SIZE; i++) {
+			pop[i] = ScenarioStepBenchmark.randomControls(fitFun.getNumControlDimensions(), i);
+			expected[i] = fitFun.valueOf(pop[i]);
+		}
+
+		boolean allPass = true;
+		System.out.println(String.format("%-6s %12s %12s %8s %8s", "loss", "genMillis", "timeoutMs", "workers", "match"));
+		for (boolean suspend : new boolean[] {true, false}) {
+			DistributedSwimFitnessFunction distFitFun = new DistributedSwimFitnessFunction(fitFun, 0);
+			List<Process> workers = new ArrayList<Process>();
+			try {
+				for (int i = 0; i < NUM_WORKERS; i++)
+					workers.add(SwimEvaluationWorker.launchLocalWorker(distFitFun.getPort()));
+				if (!waitForWorkers(distFitFun, NUM_WORKERS, CONNECT_TIMEOUT_MILLIS)) {
+					System.out.println("Workers failed to connect");
+					System.exit(1);
+				}
+
+				for (int i = 0; i < WARMUP_GENERATIONS; i++)
+					distFitFun.valuesOf(pop);
+				long timeoutMillis = distFitFun.getResultTimeoutMillis(false);
+
+				GenerationThread generation = new GenerationThread(distFitFun, pop);
+				long startMillis = System.currentTimeMillis();
+				generation.start();
+				Thread.sleep(LOSS_DELAY_MILLIS);
+				if (suspend)
+					signal(workers.get(0), "STOP");
+				else
+					workers.get(0).destroyForcibly();
+
+				generation.join(GENERATION_TIMEOUT_MILLIS);
+				long genMillis = System.currentTimeMillis() - startMillis;
+				if (generation.isAlive()) {
+					System.out.println("Generation didn't finish within " + GENERATION_TIMEOUT_MILLIS + " ms");
+					System.exit(1);
+				}
+
+				//The lost worker's connection is closed just after its candidate is handed on
+				boolean dropped = waitForWorkers(distFitFun, NUM_WORKERS - 1, 1000);
+				boolean match = generation.failure == null && Arrays.equals(generation.values, expected);
+				boolean pass = match && dropped;
+				allPass &= pass;
+
+				System.out.println(String.format("%-6s %12d %12d %8d %8s%s", suspend ? "stop" : "kill", genMillis, timeoutMillis,
+						distFitFun.getNumWorkers(), match ? "yes" : "NO", dropped ? "" : "  FAIL: worker wasn't dropped"));
+				if (generation.failure != null)
+					System.out.println("Generation failed: " + generation.failure);
+			}
+			finally {
+				distFitFun.shutdown();
+				for (Process worker : workers) {
+					worker.destroyForcibly();
+					worker.waitFor(5, TimeUnit.SECONDS);
+				}
+			}
+		}
+
+		if (!allPass) {
+			System.out.println("Distributed evaluation didn't recover from a lost worker");
+			System.exit(1);
+		}
+	}
+
+	/**
+	 * Waits until given number of workers are connected; returns false if it times out
+	 */
+	private static boolean waitForWorkers(DistributedSwimFitnessFunction distFitFun, int numWorkers, long timeoutMillis) throws InterruptedException {
+		long deadline = System.currentTimeMillis() + timeoutMillis;
+		while (distFitFun.getNumWorkers() != numWorkers) {
+			if (System.currentTimeMillis() > deadline)
+				return false;
+			Thread.sleep(10);
+		}
+		return true;
+	}
+
+	/** Sends given signal (eg: "STOP") to given process */
+	private static void signal(Process process, String signal) throws IOException, InterruptedException {
+		Process kill = new ProcessBuilder("kill", "-" + signal, String.valueOf(process.pid())).start();
+		if (kill.waitFor() != 0)
+			throw new IOException("Failed to send SIG" + signal + " to worker " + process.pid());
+	}
+
+	/**
+	 * Evaluates one population on the coordinator, off the main thread so a worker can be lost meanwhile
+	 */
+	private static class GenerationThread extends Thread {
+		private final DistributedSwimFitnessFunction distFitFun;
+		private final double[][] pop;
+		private volatile double[] values = null;
+		private volatile Throwable failure = null;
+
+		private GenerationThread(DistributedSwimFitnessFunction distFitFun, double[][] pop) {
+			super("WorkerLossCheck-generation");
+			this.distFitFun = distFitFun;
+			this.pop = pop;
+		}
+
+		@Override
+		public void run() {
+			try {
+				values = distFitFun.valuesOf(pop);
+			}
+			catch (RuntimeException e) {
+				failure = e;
+			}
+		}
+	}
+}
@@ -10,7 +10,7 @@ import org.jbox2d.callbacks.DebugDraw;
 import org.jbox2d.dynamics.Body;
 import org.jbox2d.dynamics.World;
 
-import ubc.swim.gui.SwimSettings;
+import ubc.swim.gui.CompiledSwimSettings;
 
 /**
  * Base class for controllers. Controllers are a convenience for encapsulating
@@ -30,10 +30,10 @@ public class DynamicsController {
 	}
 	
 	/** Controllers override this to implement per-step functionality. */
-	public void step(SwimSettings settings) {;}
+	public void step(CompiledSwimSettings settings) {;}
 
 	/** Controllers override this to provide debug drawing. */
-	public void draw(DebugDraw debugDraw, SwimSettings settings) {;}
+	public void draw(DebugDraw debugDraw, CompiledSwimSettings settings) {;}
 
 	/** Adds a body to the controller list. */
 	public void addBody(Body body) {
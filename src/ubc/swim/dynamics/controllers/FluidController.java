@@ -3,19 +3,20 @@
  */
 package ubc.swim.dynamics.controllers;
 
-import java.util.ArrayList;
-
 import org.jbox2d.callbacks.DebugDraw;
 import org.jbox2d.collision.shapes.Shape;
 import org.jbox2d.common.Color3f;
+import org.jbox2d.common.Mat33;
 import org.jbox2d.common.Settings;
 import org.jbox2d.common.Vec2;
+import org.jbox2d.common.Vec3;
 import org.jbox2d.dynamics.Body;
 import org.jbox2d.dynamics.BodyType;
 import org.jbox2d.dynamics.Fixture;
 
-import ubc.swim.gui.SwimSettings;
+import ubc.swim.gui.CompiledSwimSettings;
 import ubc.swim.world.Edge;
+import ubc.swim.world.EdgeList;
 
 /**
  * Applies various fluid forces to a list of bodies per time step.
@@ -39,6 +40,7 @@ public class FluidController extends DynamicsController {
 		useDensity = def.useDensity;
 		useWorldGravity = def.useWorldGravity;
 		gravity = def.gravity.clone();
+		implicitDrag = def.implicitDrag;
 	}
 	
 	/** The outer surface normal */
@@ -57,19 +59,55 @@ public class FluidController extends DynamicsController {
 	public boolean useWorldGravity;
 	/** Gravity vector, if the world's gravity is not used */
 	public Vec2 gravity = new Vec2();
+	/** 
+	 * If true, linear drag is integrated implicitly: drag on each body is linearized at the 
+	 * current velocity and solved with a backward Euler step over the coming time step, then 
+	 * applied as the force that produces that velocity change. Unlike explicit drag forces, this
+	 * stays stable when linearDrag * dt / mass is large, so larger time steps can be used.
+	 */
+	public boolean implicitDrag;
 	
 	/** A list of edges below the water line for all bodies; updated on each step */
-	ArrayList<Edge> subEdges = new ArrayList<Edge>();
-	/** List of drag forces from last step of this controller, represented as edges (difference of point is direction, length is magnitude) */
-	ArrayList<Edge> dragForces = new ArrayList<Edge>();
+	EdgeList subEdges = new EdgeList();
+	/** List of drag forces from last step of this controller, represented as edges (difference of point is direction, length is magnitude).
+	 * Only filled when drag force drawing is enabled. */
+	EdgeList dragForces = new EdgeList();
+	
+	//Scratch vectors reused on every step so stepping does not allocate
+	private final Vec2 subCenter = new Vec2();
+	private final Vec2 subCenterOfMass = new Vec2();
+	private final Vec2 subCenterOfShape = new Vec2();
+	private final Vec2 buoyancyForce = new Vec2();
+	private final Vec2 edgeDir = new Vec2();
+	private final Vec2 edgeNorm = new Vec2();
+	private final Vec2 velRelToFluid = new Vec2();
+	//A vector perpendicular to the relative fluid velocity for a submerged edge (used in drag calcs)
+	private final Vec2 perpToVelRelToFluid = new Vec2();
+	//Vector giving component of relative fluid velocity normal to a submerged edge (used in drag calcs)
+	private final Vec2 velRelToFluidAlongNormal = new Vec2();
+	//Vector giving a specific drag force (used in drag calcs)
+	private final Vec2 dragForce = new Vec2();
+	
+	//Drag coefficient matrix of current body for implicit drag (see addDragCoefficients())
+	private final float[] dragCoeffs = new float[NUM_DRAG_COEFFS];
+	//Scratch values for implicit drag solve
+	private final Mat33 implicitSystem = new Mat33();
+	private final Vec3 implicitRhs = new Vec3();
+	private final Vec3 implicitVel = new Vec3();
+	private final Vec2 implicitForce = new Vec2();
+	
+	/** Number of unique entries in the symmetric 3x3 drag coefficient matrix of a body */
+	protected static final int NUM_DRAG_COEFFS = 6;
 	
 	@Override
-	public void step(SwimSettings settings) {
+	public void step(CompiledSwimSettings settings) {
 		
 		//Update world from given settings
-		fluidDensity = (float)settings.getSetting(SwimSettings.FluidDensity).value;
-		linearDrag = (float)settings.getSetting(SwimSettings.FluidDrag).value;
-		fluidVel.x = (float)settings.getSetting(SwimSettings.FluidVelocity).value;
+		fluidDensity = settings.fluidDensity;
+		linearDrag = settings.fluidDrag;
+		fluidVel.x = settings.fluidVelocity;
+		boolean recordDragForces = settings.drawDragForces;
+		float dt = settings.timeStep;
 		
 		if(bodies == null) return;
 		if(useWorldGravity)
@@ -78,21 +116,11 @@ public class FluidController extends DynamicsController {
 		subEdges.clear();
 		dragForces.clear();
 		
-		ArrayList<Edge> subEdgesForShape = new ArrayList<Edge>();
-		
-		//A vector perpendicular to the relative fluid velocity for a submerged edge (used in drag calcs)
-		Vec2 perpToVelRelToFluid = new Vec2();
-		//Vector giving component of relative fluid velocity normal to a submerged edge (used in drag calcs)
-		Vec2 velRelToFluidAlongNormal = new Vec2();
-		//Vector giving a specific drag force (used in drag calcs)
-		Vec2 dragForce = new Vec2();
-		
-		for (Body body : bodies) {
+		for (int b = 0; b < bodies.size(); b++) {
+			Body body = bodies.get(b);
 			if (body.m_type == BodyType.STATIC)
 				continue;
 			
-			subEdgesForShape.clear();
-			
 			//DISABLING FOR NOW. Causes bugs when fluid vel or other params change at runtime. -bh, 12.15.2011
 //			//If density is unchanged and body is at long term rest (sleeping),
 //			//we can safely ignore it since buoyancy as a force is constant if position is unchanging
@@ -101,17 +129,19 @@ public class FluidController extends DynamicsController {
 			
 			//NOTE: "sub" prefix indicates the submerged portion/version of a given quantity
 			
-			Vec2 subCenter = new Vec2(0,0);
-			Vec2 subCenterOfMass = new Vec2(0,0);
+			subCenter.setZero();
+			subCenterOfMass.setZero();
 			float subArea = 0;
 			float subMass = 0;
+			if (implicitDrag)
+				clearDragCoefficients(dragCoeffs, 0);
 			for (Fixture fixture = body.getFixtureList(); fixture != null; fixture = fixture.getNext()) {
 				Shape shape = fixture.getShape();
-				Vec2 subCenterOfShape = new Vec2(0,0);
-				
-				float subAreaOfShape = FluidUtil.computeSubmergedArea(shape, normal, fluidSurfaceOffset, fixture.getBody().getTransform(), subCenterOfShape, subEdgesForShape);
+				subCenterOfShape.setZero();
 				
-				subEdges.addAll(subEdgesForShape);
+				//Submerged edges of this shape are appended to the end of subEdges
+				int firstEdgeIdx = subEdges.size();
+				float subAreaOfShape = FluidUtil.computeSubmergedArea(shape, normal, fluidSurfaceOffset, fixture.getBody().getTransform(), subCenterOfShape, subEdges);
 				
 				subArea += subAreaOfShape;
 				subCenter.x += subAreaOfShape * subCenterOfShape.x;
@@ -132,20 +162,18 @@ public class FluidController extends DynamicsController {
 				//varying distances from the center or rotation. To approximate total variation of drag across the
 				//edge, we break the edge into a number of points and apply point-specific drag forces.
 				//Here, we'll just break the edge into the two endpoints and apply the scaled forces at each end.
-				for (Edge edge : subEdgesForShape) {
+				for (int e = firstEdgeIdx; e < subEdges.size(); e++) {
+					Edge edge = subEdges.get(e);
 					int numEdgePoints = 2;
 					float invNumEdgePoints = 1.0f / numEdgePoints;
-					Vec2[] edgePoints = new Vec2[numEdgePoints];
-					edgePoints[0] = edge.pA;
-					edgePoints[1] = edge.pB;
 					
-					Vec2 edgeDir = edge.pB.sub(edge.pA);
-					Vec2 edgeNorm = new Vec2(edge.pB.y - edge.pA.y, -(edge.pB.x - edge.pA.x));
+					edgeDir.set(edge.pB).subLocal(edge.pA);
+					edgeNorm.set(edge.pB.y - edge.pA.y, -(edge.pB.x - edge.pA.x));
 					
 					//Apply force at each sampled edge point
-					for (int i = 0; i < edgePoints.length; i++) {
-						Vec2 edgePoint = edgePoints[i];
-						Vec2 velRelToFluid = body.getLinearVelocityFromWorldPoint(edgePoint);
+					for (int i = 0; i < numEdgePoints; i++) {
+						Vec2 edgePoint = (i == 0) ? edge.pA : edge.pB;
+						body.getLinearVelocityFromWorldPointToOut(edgePoint, velRelToFluid);
 						velRelToFluid.subLocal(fluidVel);
 						float velDotNorm = Vec2.dot(velRelToFluid, edgeNorm);
 						if (velDotNorm > 0) {
@@ -162,17 +190,28 @@ public class FluidController extends DynamicsController {
 							dragForce.set(velRelToFluidAlongNormal);
 							//TODO: use force proportional to vel squared? (if so, normalize drag force before multiplying by lenSqrd)
 							dragForce.mulLocal(-linearDrag*projectedEdgeLength*invNumEdgePoints);
-							body.applyForce(dragForce,edgePoint);
+							
+							if (implicitDrag) {
+								//Drag is solved for below, once all edges of the body are known
+								float rx = edgePoint.x - body.m_sweep.c.x;
+								float ry = edgePoint.y - body.m_sweep.c.y;
+								addDragCoefficients(dragCoeffs, 0, linearDrag*projectedEdgeLength*invNumEdgePoints, 
+										edgeNorm.x, edgeNorm.y, rx * edgeNorm.y - ry * edgeNorm.x);
+							}
+							else
+								body.applyForce(dragForce,edgePoint);
 							
 							//DEBUGGING: Save force for debug drawing later
-							Vec2 dragForcePoint = dragForce.mul(0.1f);
-							dragForcePoint.addLocal(edgePoint);
-							dragForces.add(new Edge(edgePoint.x, edgePoint.y, dragForcePoint.x, dragForcePoint.y));
+							if (recordDragForces)
+								dragForces.add(edgePoint.x, edgePoint.y, edgePoint.x + dragForce.x * 0.1f, edgePoint.y + dragForce.y * 0.1f);
 						}
 					}
 				}
 			}
 			
+			if (implicitDrag)
+				applyImplicitDrag(body, dragCoeffs, 0, dt);
+			
 			subCenter.x/=subArea;
 			subCenter.y/=subArea;
 			
@@ -184,7 +223,7 @@ public class FluidController extends DynamicsController {
 				continue;
 			
 			//Buoyancy
-			Vec2 buoyancyForce = gravity.mul(-fluidDensity*subArea);
+			buoyancyForce.set(gravity).mulLocal(-fluidDensity*subArea);
 			body.applyForce(buoyancyForce,subCenterOfMass);
 			
 			//Linear drag
@@ -200,9 +239,66 @@ public class FluidController extends DynamicsController {
 		}
 	}
 	
+	/** Zeroes drag coefficient matrix stored at given offset */
+	protected static void clearDragCoefficients(float[] coeffs, int offset) {
+		for (int i = 0; i < NUM_DRAG_COEFFS; i++)
+			coeffs[offset + i] = 0;
+	}
+	
+	/**
+	 * Adds the drag of one edge point to a body's drag coefficient matrix C, stored at given
+	 * offset as its unique entries (xx, xy, xw, yy, yw, ww). With u = (vx, vy, w) the body's velocity
+	 * relative to the fluid, the point's drag force and torque are -C*u, where C = k * J^T * J and 
+	 * J = (nx, ny, rn) maps u to velocity along the edge normal.
+	 * @param k drag coefficient of the point
+	 * @param nx edge normal x
+	 * @param ny edge normal y
+	 * @param rn cross product of point offset from body center and edge normal
+	 */
+	protected static void addDragCoefficients(float[] coeffs, int offset, float k, float nx, float ny, float rn) {
+		coeffs[offset]     += k * nx * nx;
+		coeffs[offset + 1] += k * nx * ny;
+		coeffs[offset + 2] += k * nx * rn;
+		coeffs[offset + 3] += k * ny * ny;
+		coeffs[offset + 4] += k * ny * rn;
+		coeffs[offset + 5] += k * rn * rn;
+	}
+	
+	/**
+	 * Solves (M + dt*C) u' = M u for the body's velocity u' (relative to the fluid) after one 
+	 * backward Euler step of drag alone, and applies the force and torque at the body's center 
+	 * that give that velocity change over dt. M is the body's mass matrix and C its drag 
+	 * coefficient matrix (see addDragCoefficients()).
+	 */
+	protected void applyImplicitDrag(Body body, float[] coeffs, int offset, float dt) {
+		if (dt <= 0 || body.m_invMass == 0)
+			return;
+		
+		float mass = body.m_mass;
+		float inertia = body.m_I;
+		float cxx = dt * coeffs[offset], cxy = dt * coeffs[offset + 1], cxw = dt * coeffs[offset + 2];
+		float cyy = dt * coeffs[offset + 3], cyw = dt * coeffs[offset + 4], cww = dt * coeffs[offset + 5];
+		if (cxx == 0 && cyy == 0 && cww == 0)
+			return;
+		
+		implicitSystem.col1.set(mass + cxx, cxy, cxw);
+		implicitSystem.col2.set(cxy, mass + cyy, cyw);
+		implicitSystem.col3.set(cxw, cyw, inertia + cww);
+		
+		float vx = body.m_linearVelocity.x - fluidVel.x;
+		float vy = body.m_linearVelocity.y - fluidVel.y;
+		float w = body.m_angularVelocity;
+		implicitRhs.set(mass * vx, mass * vy, inertia * w);
+		implicitSystem.solve33ToOut(implicitRhs, implicitVel);
+		
+		implicitForce.set(mass * (implicitVel.x - vx) / dt, mass * (implicitVel.y - vy) / dt);
+		body.applyForce(implicitForce, body.m_sweep.c);
+		body.applyTorque(inertia * (implicitVel.z - w) / dt);
+	}
+	
 	@Override
-	public void draw(DebugDraw debugDraw, SwimSettings settings) {
-		boolean drawDragForces = settings.getSetting(SwimSettings.DrawDragForces).enabled;
+	public void draw(DebugDraw debugDraw, CompiledSwimSettings settings) {
+		boolean drawDragForces = settings.drawDragForces;
 		
 		float r = 1000;
 		Vec2 p1 = normal.mul(fluidSurfaceOffset).addLocal(Vec2.cross(normal, r));
@@ -216,13 +312,13 @@ public class FluidController extends DynamicsController {
 		
 		
 //		//DEBUG: Draw submerged edges
-//		for (Edge subEdge : subEdges)
-//			debugDraw.drawSegment(subEdge.pA, subEdge.pB, new Color3f(0,0.2f,1));
+//		for (int i = 0; i < subEdges.size(); i++)
+//			debugDraw.drawSegment(subEdges.get(i).pA, subEdges.get(i).pB, new Color3f(0,0.2f,1));
 		
 		if (drawDragForces) {
 			//DEBUG: Draw drag forces
-			for (Edge dragForce : dragForces)
-				debugDraw.drawSegment(dragForce.pA, dragForce.pB, new Color3f(1,1,0));
+			for (int i = 0; i < dragForces.size(); i++)
+				debugDraw.drawSegment(dragForces.get(i).pA, dragForces.get(i).pB, new Color3f(1,1,0));
 		}
 	}
 }
@@ -30,6 +30,8 @@ public class FluidControllerDef extends DynamicsControllerDef {
 	public boolean useWorldGravity;
 	/// Gravity vector, if the world's gravity is not used
 	public Vec2 gravity;
+	/// If true, linear drag is integrated implicitly (see FluidController.implicitDrag)
+	public boolean implicitDrag;
 
 	public FluidControllerDef() {
 		normal = new Vec2(0,1);
@@ -40,6 +42,7 @@ public class FluidControllerDef extends DynamicsControllerDef {
 		useDensity = false;
 		useWorldGravity = true;
 		gravity = new Vec2(0,0);
+		implicitDrag = false;
 	}
 
 	/**
@@ -1,7 +1,5 @@
 package ubc.swim.dynamics.controllers;
 
-import java.util.List;
-
 import org.jbox2d.collision.shapes.MassData;
 import org.jbox2d.collision.shapes.PolygonShape;
 import org.jbox2d.collision.shapes.Shape;
@@ -13,6 +11,7 @@ import org.jbox2d.pooling.TLMassData;
 import org.jbox2d.pooling.TLVec2;
 
 import ubc.swim.world.Edge;
+import ubc.swim.world.EdgeList;
 
 /**
  * Static functions used for fluid calculations
@@ -32,6 +31,12 @@ public class FluidUtil {
 	private static final TLVec2 tlE1 = new TLVec2();
 	private static final TLVec2 tlE2 = new TLVec2();
 	private static final TLVec2 tlCenter = new TLVec2();
+	
+	private static final ThreadLocal<float[]> tlDepths = new ThreadLocal<float[]>() {
+		protected float[] initialValue() {
+			return new float[Settings.maxPolygonVertices];
+		}
+	};
 
 	/**
 	 * Computes the volume and cetroid of part of shape that intersects with fluid half-plane 
@@ -46,11 +51,12 @@ public class FluidUtil {
 	 * @param normal the fluid surface normal
 	 * @param offset the fluid surface offset along normal
 	 * @param outputSubmergedCenter set to be the centerpoint of the submerged part of the given shape
-	 * @param outputSubmergedEdges all edges that are under water are added to this list (where edges on the original shape that are entering/exiting the fluid surface are spliced at the point of entry/exit)
+	 * @param outputSubmergedEdges all edges that are under water are appended to this list in world coords (where edges on the original shape that are entering/exiting the fluid surface are spliced at the point of entry/exit)
 	 * @return the total volume less than offset along normal
 	 */
-	public static float computeSubmergedArea(Shape shape, Vec2 normal, float offset, Transform transform, Vec2 outputSubmergedCenter, List<Edge> outputSubmergedEdges) {
+	public static float computeSubmergedArea(Shape shape, Vec2 normal, float offset, Transform transform, Vec2 outputSubmergedCenter, EdgeList outputSubmergedEdges) {
 		float area = 0;
+		int firstEdgeIdx = outputSubmergedEdges.size();
 		final Vec2 subCenter = tlCenter.get();
 		subCenter.setZero();
 		
@@ -65,7 +71,7 @@ public class FluidUtil {
 			Mat22.mulTransToOut(transform.R, normal, normalL);
 			float offsetL = offset - Vec2.dot(normal, transform.position);
 	
-			float[] depths = new float[Settings.maxPolygonVertices];
+			float[] depths = tlDepths.get();
 			int diveCount = 0;
 			int intoIndex = -1;
 			int outoIndex = -1;
@@ -104,7 +110,7 @@ public class FluidUtil {
 						int nextVertInd = (j < pshape.m_vertexCount - 1) ? j+1 : 0;
 						Vec2 vertA = pshape.m_vertices[j];
 						Vec2 vertB = pshape.m_vertices[nextVertInd];
-						outputSubmergedEdges.add(new Edge(vertA.x, vertA.y, vertB.x, vertB.y));
+						outputSubmergedEdges.add(vertA.x, vertA.y, vertB.x, vertB.y);
 					}
 					
 					area = md.mass; //ie: area, since mass == area with 1.0 density
@@ -180,9 +186,9 @@ public class FluidUtil {
 					
 					//Add initial submerged edge on first iteration
 					if (i == startingInd)
-						outputSubmergedEdges.add(new Edge(intoPoint.x, intoPoint.y, p2.x, p2.y));
+						outputSubmergedEdges.add(intoPoint.x, intoPoint.y, p2.x, p2.y);
 					//Add current submerged edge to list on each iteration
-					outputSubmergedEdges.add(new Edge(p2.x, p2.y, p3.x, p3.y));
+					outputSubmergedEdges.add(p2.x, p2.y, p3.x, p3.y);
 	
 					p2.set(p3);
 				}
@@ -197,7 +203,8 @@ public class FluidUtil {
 		
 		//Transform submerged center and edges to world coords
 		Transform.mulToOut(transform, subCenter, outputSubmergedCenter);
-		for (Edge subEdge : outputSubmergedEdges) {
+		for (int i = firstEdgeIdx; i < outputSubmergedEdges.size(); i++) {
+			Edge subEdge = outputSubmergedEdges.get(i);
 			Transform.mulToOut(transform, subEdge.pA, subEdge.pA);
 			Transform.mulToOut(transform, subEdge.pB, subEdge.pB);
 		}
@@ -0,0 +1,281 @@
+/**
+ *
+ */
+package ubc.swim.dynamics.controllers;
+
+import org.jbox2d.collision.shapes.Shape;
+import org.jbox2d.common.MathUtils;
+import org.jbox2d.common.Settings;
+import org.jbox2d.common.Vec2;
+import org.jbox2d.dynamics.Body;
+import org.jbox2d.dynamics.BodyType;
+import org.jbox2d.dynamics.Fixture;
+
+import ubc.swim.gui.CompiledSwimSettings;
+import ubc.swim.world.Edge;
+
+/**
+ * Fluid controller that computes the same buoyancy and per-edge drag model as
+ * FluidController, but packs body state and all submerged edges into flat float arrays
+ * before evaluating drag. Drag for every edge is computed in one tight loop and the
+ * resulting forces are accumulated per body, then applied once per body.
+ *
+ * Useful for characters with many segments, where walking bodies, fixtures and edge
+ * objects for every drag sample dominates the cost of the controller. Results match
+ * FluidController up to floating point summation order.
+ *
+ * @author Ben Humberston
+ *
+ */
+public class PackedFluidController extends FluidController {
+
+	/**
+	 * @param def
+	 */
+	protected PackedFluidController(FluidControllerDef def) {
+		super(def);
+	}
+
+	//Packed per-body state: center of mass, linear & angular velocity and accumulated drag force/torque
+	protected int numPackedBodies = 0;
+	protected float[] bodyCx = new float[0];
+	protected float[] bodyCy = new float[0];
+	protected float[] bodyVx = new float[0];
+	protected float[] bodyVy = new float[0];
+	protected float[] bodyW = new float[0];
+	protected float[] bodyFx = new float[0];
+	protected float[] bodyFy = new float[0];
+	protected float[] bodyTorque = new float[0];
+	//Drag coefficient matrices for implicit drag, NUM_DRAG_COEFFS entries per body
+	protected float[] bodyDragCoeffs = new float[0];
+
+	//Packed submerged edges: endpoints and index of owning body in the packed body arrays
+	protected int numPackedEdges = 0;
+	protected float[] edgeAx = new float[0];
+	protected float[] edgeAy = new float[0];
+	protected float[] edgeBx = new float[0];
+	protected float[] edgeBy = new float[0];
+	protected int[] edgeBody = new int[0];
+
+	private final Vec2 subCenterOfShape = new Vec2();
+	private final Vec2 subCenterOfMass = new Vec2();
+	private final Vec2 force = new Vec2();
+
+	@Override
+	public void step(CompiledSwimSettings settings) {
+
+		//Update world from given settings
+		fluidDensity = settings.fluidDensity;
+		linearDrag = settings.fluidDrag;
+		fluidVel.x = settings.fluidVelocity;
+		boolean recordDragForces = settings.drawDragForces;
+
+		if(bodies == null) return;
+		if(useWorldGravity)
+			gravity = world.getGravity();
+
+		subEdges.clear();
+		dragForces.clear();
+
+		gatherBodies();
+		computeDrag(recordDragForces);
+		scatterForces(settings.timeStep);
+	}
+
+	/**
+	 * Finds submerged geometry of each body, applies buoyancy, and packs body state
+	 * and submerged edges into the flat arrays used by computeDrag()
+	 */
+	protected void gatherBodies() {
+		ensureBodyCapacity(bodies.size());
+		numPackedBodies = 0;
+		numPackedEdges = 0;
+
+		for (int b = 0; b < bodies.size(); b++) {
+			Body body = bodies.get(b);
+			if (body.m_type == BodyType.STATIC)
+				continue;
+
+			int bodyIdx = numPackedBodies++;
+			bodyCx[bodyIdx] = body.m_sweep.c.x;
+			bodyCy[bodyIdx] = body.m_sweep.c.y;
+			bodyVx[bodyIdx] = body.m_linearVelocity.x;
+			bodyVy[bodyIdx] = body.m_linearVelocity.y;
+			bodyW[bodyIdx] = body.m_angularVelocity;
+			bodyFx[bodyIdx] = 0;
+			bodyFy[bodyIdx] = 0;
+			bodyTorque[bodyIdx] = 0;
+			if (implicitDrag)
+				clearDragCoefficients(bodyDragCoeffs, bodyIdx * NUM_DRAG_COEFFS);
+
+			subCenterOfMass.setZero();
+			float subArea = 0;
+			float subMass = 0;
+			for (Fixture fixture = body.getFixtureList(); fixture != null; fixture = fixture.getNext()) {
+				Shape shape = fixture.getShape();
+				subCenterOfShape.setZero();
+
+				int firstEdgeIdx = subEdges.size();
+				float subAreaOfShape = FluidUtil.computeSubmergedArea(shape, normal, fluidSurfaceOffset, body.getTransform(), subCenterOfShape, subEdges);
+
+				float shapeDensity = useDensity ? fixture.getDensity() : 1;
+
+				subArea += subAreaOfShape;
+				subMass += subAreaOfShape * shapeDensity;
+				subCenterOfMass.x += subAreaOfShape * subCenterOfShape.x * shapeDensity;
+				subCenterOfMass.y += subAreaOfShape * subCenterOfShape.y * shapeDensity;
+
+				//Pack submerged edges of this shape
+				ensureEdgeCapacity(subEdges.size());
+				for (int e = firstEdgeIdx; e < subEdges.size(); e++) {
+					Edge edge = subEdges.get(e);
+					edgeAx[numPackedEdges] = edge.pA.x;
+					edgeAy[numPackedEdges] = edge.pA.y;
+					edgeBx[numPackedEdges] = edge.pB.x;
+					edgeBy[numPackedEdges] = edge.pB.y;
+					edgeBody[numPackedEdges] = bodyIdx;
+					numPackedEdges++;
+				}
+			}
+
+			//Ignore if total submerged area is small
+			if(subArea<Settings.EPSILON)
+				continue;
+
+			//Buoyancy
+			subCenterOfMass.x/=subMass;
+			subCenterOfMass.y/=subMass;
+			force.set(gravity).mulLocal(-fluidDensity*subArea);
+			body.applyForce(force, subCenterOfMass);
+		}
+	}
+
+	/**
+	 * Computes drag at both endpoints of every packed edge and accumulates it into
+	 * the packed body force and torque arrays. See FluidController.step() for the drag model.
+	 * With implicit drag, each point's drag coefficients are accumulated instead.
+	 */
+	protected void computeDrag(boolean recordDragForces) {
+		final float invNumEdgePoints = 0.5f; //drag is sampled at the 2 edge endpoints
+		final float fluidVx = fluidVel.x;
+		final float fluidVy = fluidVel.y;
+
+		for (int e = 0; e < numPackedEdges; e++) {
+			int b = edgeBody[e];
+			float cx = bodyCx[b], cy = bodyCy[b];
+			float vx = bodyVx[b], vy = bodyVy[b], w = bodyW[b];
+
+			float dirX = edgeBx[e] - edgeAx[e];
+			float dirY = edgeBy[e] - edgeAy[e];
+
+			//Outward edge normal
+			float normX = dirY;
+			float normY = -dirX;
+			float normLen = MathUtils.sqrt(normX * normX + normY * normY);
+			if (normLen >= Settings.EPSILON) {
+				normX /= normLen;
+				normY /= normLen;
+			}
+
+			for (int i = 0; i < 2; i++) {
+				float px = (i == 0) ? edgeAx[e] : edgeBx[e];
+				float py = (i == 0) ? edgeAy[e] : edgeBy[e];
+
+				//Velocity of edge point relative to fluid
+				float relVx = vx - w * (py - cy) - fluidVx;
+				float relVy = vy + w * (px - cx) - fluidVy;
+
+				float velDotNorm = relVx * normX + relVy * normY;
+				if (velDotNorm <= 0)
+					continue;
+
+				//Find length of the edge when projected onto perpendicular to fluid vel
+				float perpX = relVy;
+				float perpY = -relVx;
+				float relVLen = MathUtils.sqrt(relVx * relVx + relVy * relVy);
+				if (relVLen >= Settings.EPSILON) {
+					perpX /= relVLen;
+					perpY /= relVLen;
+				}
+				float projectedEdgeLength = Math.abs(dirX * perpX + dirY * perpY);
+
+				//Drag directed along velocity component normal to the edge
+				float dragScale = -linearDrag * projectedEdgeLength * invNumEdgePoints * velDotNorm;
+				float fx = normX * dragScale;
+				float fy = normY * dragScale;
+
+				if (implicitDrag) {
+					addDragCoefficients(bodyDragCoeffs, b * NUM_DRAG_COEFFS, linearDrag * projectedEdgeLength * invNumEdgePoints,
+							normX, normY, (px - cx) * normY - (py - cy) * normX);
+				}
+				else {
+					bodyFx[b] += fx;
+					bodyFy[b] += fy;
+					bodyTorque[b] += (px - cx) * fy - (py - cy) * fx;
+				}
+
+				//DEBUGGING: Save force for debug drawing later
+				if (recordDragForces)
+					dragForces.add(px, py, px + fx * 0.1f, py + fy * 0.1f);
+			}
+		}
+	}
+
+	/**
+	 * Applies accumulated drag forces and torques (or implicit drag over time step dt) back to bodies
+	 */
+	protected void scatterForces(float dt) {
+		int bodyIdx = 0;
+		for (int b = 0; b < bodies.size(); b++) {
+			Body body = bodies.get(b);
+			if (body.m_type == BodyType.STATIC)
+				continue;
+
+			if (bodyFx[bodyIdx] != 0 || bodyFy[bodyIdx] != 0 || bodyTorque[bodyIdx] != 0) {
+				//Force at center of mass adds no torque; torque is applied separately
+				force.set(bodyFx[bodyIdx], bodyFy[bodyIdx]);
+				body.applyForce(force, body.m_sweep.c);
+				body.applyTorque(bodyTorque[bodyIdx]);
+			}
+			if (implicitDrag)
+				applyImplicitDrag(body, bodyDragCoeffs, bodyIdx * NUM_DRAG_COEFFS, dt);
+			bodyIdx++;
+		}
+	}
+
+	protected void ensureBodyCapacity(int capacity) {
+		if (bodyCx.length >= capacity)
+			return;
+
+		bodyCx = new float[capacity];
+		bodyCy = new float[capacity];
+		bodyVx = new float[capacity];
+		bodyVy = new float[capacity];
+		bodyW = new float[capacity];
+		bodyFx = new float[capacity];
+		bodyFy = new float[capacity];
+		bodyTorque = new float[capacity];
+		bodyDragCoeffs = new float[capacity * NUM_DRAG_COEFFS];
+	}
+
+	protected void ensureEdgeCapacity(int capacity) {
+		if (edgeAx.length >= capacity)
+			return;
+
+		int newCapacity = Math.max(capacity, edgeAx.length * 2);
+		edgeAx = copyOf(edgeAx, newCapacity);
+		edgeAy = copyOf(edgeAy, newCapacity);
+		edgeBx = copyOf(edgeBx, newCapacity);
+		edgeBy = copyOf(edgeBy, newCapacity);
+
+		int[] newEdgeBody = new int[newCapacity];
+		System.arraycopy(edgeBody, 0, newEdgeBody, 0, edgeBody.length);
+		edgeBody = newEdgeBody;
+	}
+
+	private static float[] copyOf(float[] array, int newLength) {
+		float[] newArray = new float[newLength];
+		System.arraycopy(array, 0, newArray, 0, array.length);
+		return newArray;
+	}
+}
@@ -0,0 +1,22 @@
+/**
+ * 
+ */
+package ubc.swim.dynamics.controllers;
+
+/**
+ * Definition for a fluid controller that uses the packed (structure of arrays) drag kernel.
+ * Takes the same parameters as FluidControllerDef.
+ * 
+ * @author Ben Humberston
+ *
+ */
+public class PackedFluidControllerDef extends FluidControllerDef {
+
+	/**
+	 * @see ubc.swim.dynamics.controllers.FluidControllerDef#create()
+	 */
+	@Override
+	public DynamicsController create() {
+		return new PackedFluidController(this);
+	}
+}
@@ -0,0 +1,202 @@
+package ubc.swim.gui;
+
+import java.awt.Color;
+import java.awt.Graphics2D;
+import java.awt.image.BufferedImage;
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.text.DecimalFormat;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.Callable;
+
+import javax.imageio.ImageIO;
+import javax.imageio.ImageWriter;
+
+import org.jbox2d.callbacks.DebugDraw;
+import org.jbox2d.common.Color3f;
+import org.jbox2d.common.Vec2;
+
+import ubc.swim.dynamics.controllers.DynamicsController;
+import ubc.swim.gui.FrameRecorder.Format;
+import ubc.swim.optimization.SwimmerOptimization;
+import ubc.swim.world.characters.SwimCharacter;
+import ubc.swim.world.scenario.Scenario;
+import ubc.swim.world.scenario.ScenarioLibrary;
+
+/**
+ * Renders a clip of one or more characters running their optimized controls without a window.
+ * Sets up the same scene as BasicSwimTest, simulates it as fast as possible at the default
+ * simulation rate and draws a frame into an off-screen image (through SwimDraw, as the GUI does)
+ * every 1/fps seconds of simulated time. Frames are written as in FrameRecorder: numbered PNG
+ * files under IMAGE_DIR/clipID/, or a single raw RGB stream.
+ *
+ * Each renderer has its own scenario and image, so separate clips can be rendered in parallel
+ * (see SwimRenderMain). Java should be run with -Djava.awt.headless=true on machines without a display.
+ *
+ * @author Ben Humberston
+ *
+ */
+public class ClipRenderer implements Callable<Integer> {
+	public static final int DEFAULT_WIDTH = SwimWorldPanel.INIT_WIDTH;
+	public static final int DEFAULT_HEIGHT = SwimWorldPanel.INIT_HEIGHT;
+	public static final float DEFAULT_FPS = 30;
+	public static final float DEFAULT_DURATION = 10;
+
+	//Same debug colors as BasicSwimTest
+	private static final Color3f[] DEBUG_COLORS = new Color3f[] {
+		new Color3f(1.0f, 0.0f, 0.0f),
+		new Color3f(0.0f, 1.0f, 0.0f),
+		new Color3f(0.0f, 0.0f, 1.0f)
+	};
+
+	protected final String clipID;
+	protected final List<String> charIDs;
+	protected final List<String> suffixes;
+
+	protected int width = DEFAULT_WIDTH;
+	protected int height = DEFAULT_HEIGHT;
+	protected float fps = DEFAULT_FPS;
+	protected float duration = DEFAULT_DURATION;
+	protected Format format = Format.PNG;
+	protected String controlDir = "./controlData";
+	protected final Vec2 cameraPos = new Vec2(0, 10); //at default fluid height, as in SwimTest
+	protected float cameraScale = 100;
+	protected boolean followCamera = false;
+
+	/**
+	 * @param clipID used to name output files
+	 * @param charIDs
+	 * @param suffixes control strategy variant for each char, as in BasicSwimTest; must be same length as charIDs
+	 */
+	public ClipRenderer(String clipID, List<String> charIDs, List<String> suffixes) {
+		if (charIDs.size() != suffixes.size())
+			throw new IllegalArgumentException("Need one suffix per char ID");
+
+		this.clipID = clipID;
+		this.charIDs = new ArrayList<String>(charIDs);
+		this.suffixes = new ArrayList<String>(suffixes);
+	}
+
+	public String getClipID() { return clipID; }
+
+	/** Sets size of output frames, in pixels */
+	public void setFrameSize(int width, int height) {
+		this.width = width;
+		this.height = height;
+	}
+
+	/** Sets number of frames drawn per second of simulated time */
+	public void setFPS(float fps) { this.fps = fps; }
+
+	/** Sets length of clip, in seconds of simulated time */
+	public void setDuration(float duration) { this.duration = duration; }
+
+	public void setFormat(Format format) { this.format = format; }
+
+	/** Sets directory that control params are read from */
+	public void setControlDir(String controlDir) { this.controlDir = controlDir; }
+
+	/** Sets camera center (world coords) and scale (pixels per meter) */
+	public void setCamera(float x, float y, float scale) {
+		cameraPos.set(x, y);
+		cameraScale = scale;
+	}
+
+	/** If true, camera tracks horizontal position of first char's root body */
+	public void setFollowCamera(boolean followCamera) { this.followCamera = followCamera; }
+
+	/**
+	 * Renders the whole clip, returning number of frames written
+	 */
+	@Override
+	public Integer call() throws IOException {
+		Scenario scenario = ScenarioLibrary.getBasicScenario(charIDs, false, true);
+
+		List<SwimCharacter> characters = scenario.getCharacters();
+		for (int i = 0; i < characters.size(); i++) {
+			SwimCharacter character = characters.get(i);
+			character.setDebugColor(DEBUG_COLORS[i % DEBUG_COLORS.length]);
+
+			String completeCharID = charIDs.get(i);
+			if (suffixes.get(i).length() > 0) completeCharID += "_" + suffixes.get(i);
+			if (!new File(controlDir, completeCharID + ".csv").exists())
+				throw new IOException("No control data for " + completeCharID + " in " + controlDir);
+			character.setControlParams(SwimmerOptimization.readFromCSV(controlDir, completeCharID));
+		}
+
+		BufferedImage image = new BufferedImage(width, height, BufferedImage.TYPE_INT_RGB);
+		Graphics2D g = image.createGraphics();
+		SwimDraw draw = new SwimDraw(g, width, height);
+		draw.setFlags(DebugDraw.e_shapeBit);
+		draw.setCamera(cameraPos.x, cameraPos.y, cameraScale);
+		scenario.getWorld().setDebugDraw(draw);
+
+		File dir = new File(FrameRecorder.IMAGE_DIR, clipID);
+		if (!dir.isDirectory() && !dir.mkdirs())
+			throw new IOException("Can't create " + dir);
+
+		ImageWriter pngWriter = null;
+		OutputStream rawStream = null;
+		byte[] rawBytes = null;
+		if (format == Format.PNG) {
+			Iterator<ImageWriter> imageWriters = ImageIO.getImageWritersByFormatName("png");
+			if (!imageWriters.hasNext())
+				throw new IOException("No PNG image writer");
+			pngWriter = imageWriters.next();
+		}
+		else {
+			File rawFile = new File(dir, clipID + "_" + width + "x" + height + ".rgb");
+			rawStream = new BufferedOutputStream(new FileOutputStream(rawFile), 1 << 16);
+		}
+
+		CompiledSwimSettings settings = CompiledSwimSettings.getDefaults();
+		scenario.getWorld().setWarmStarting(settings.warmStarting);
+		scenario.getWorld().setContinuousPhysics(settings.continuousCollision);
+
+		DecimalFormat frameNumFormat = new DecimalFormat("0000");
+		int numFrames = (int)(duration * fps);
+		int numWritten = 0;
+		long numSteps = 0;
+		try {
+			for (int frame = 0; frame < numFrames; frame++) {
+				//Step simulation up to this frame's time
+				double frameTime = frame / (double)fps;
+				while ((numSteps + 0.5) * settings.timeStep < frameTime) {
+					scenario.step(settings, settings.timeStep);
+					numSteps++;
+				}
+
+				if (followCamera)
+					draw.setCamera(characters.get(0).getRootBody().getPosition().x, cameraPos.y, cameraScale);
+
+				g.setColor(Color.black);
+				g.fillRect(0, 0, width, height);
+				scenario.getWorld().drawDebugData();
+				for (DynamicsController controller : scenario.getDynamicsControllers())
+					controller.draw(draw, settings);
+				for (SwimCharacter character : characters)
+					character.debugDraw(draw);
+
+				if (format == Format.PNG)
+					FrameRecorder.writePNG(pngWriter, image, new File(dir, clipID + frameNumFormat.format(frame) + ".png"));
+				else
+					rawBytes = FrameRecorder.writeRaw(rawStream, image, rawBytes);
+				numWritten++;
+			}
+		}
+		finally {
+			g.dispose();
+			if (pngWriter != null)
+				pngWriter.dispose();
+			if (rawStream != null)
+				rawStream.close();
+		}
+
+		return numWritten;
+	}
+}
@@ -0,0 +1,94 @@
+package ubc.swim.gui;
+
+/**
+ * Immutable snapshot of the settings read by the simulation loop, stored as primitive
+ * fields so that physics code doesn't need to do a name lookup (and double to float
+ * conversion) on SwimSettings every step.
+ *
+ * The GUI rebuilds a snapshot from SwimSettings whenever a setting is changed (see
+ * SwimSettings.recompile()). Headless code, such as the optimizer, can use
+ * getDefaults() or the primitive constructor and never create a SwimSettings.
+ *
+ * @author Ben Humberston
+ *
+ */
+public final class CompiledSwimSettings {
+	//Default values; SwimSettings is populated from these as well
+	public static final double DEFAULT_HZ = 60;
+	public static final int DEFAULT_POSITION_ITERATIONS = 3;
+	public static final int DEFAULT_VELOCITY_ITERATIONS = 8;
+	public static final boolean DEFAULT_WARM_STARTING = true;
+	public static final boolean DEFAULT_CONTINUOUS_COLLISION = true;
+	public static final double DEFAULT_FLUID_DENSITY = 1.1;
+	public static final double DEFAULT_FLUID_DRAG = 0.7;
+	public static final double DEFAULT_FLUID_VELOCITY = 0;
+
+	private static final CompiledSwimSettings defaults = new CompiledSwimSettings(
+			(float)DEFAULT_HZ, DEFAULT_POSITION_ITERATIONS, DEFAULT_VELOCITY_ITERATIONS,
+			DEFAULT_WARM_STARTING, DEFAULT_CONTINUOUS_COLLISION,
+			(float)DEFAULT_FLUID_DENSITY, (float)DEFAULT_FLUID_DRAG, (float)DEFAULT_FLUID_VELOCITY);
+
+	public final float hz;
+	/** Simulation step size implied by hz (0 if hz is not positive) */
+	public final float timeStep;
+	public final int positionIterations;
+	public final int velocityIterations;
+	public final boolean warmStarting;
+	public final boolean continuousCollision;
+
+	public final float fluidDensity;
+	public final float fluidDrag;
+	public final float fluidVelocity;
+
+	public final boolean drawDragForces;
+	public final boolean drawDebugChars;
+
+	/**
+	 * Creates a snapshot of the current values in given settings
+	 * @param settings
+	 */
+	public CompiledSwimSettings(SwimSettings settings) {
+		this((float)settings.getSetting(SwimSettings.Hz).value,
+				settings.getSetting(SwimSettings.PositionIterations).getIntValue(),
+				settings.getSetting(SwimSettings.VelocityIterations).getIntValue(),
+				settings.getSetting(SwimSettings.WarmStarting).enabled,
+				settings.getSetting(SwimSettings.ContinuousCollision).enabled,
+				(float)settings.getSetting(SwimSettings.FluidDensity).value,
+				(float)settings.getSetting(SwimSettings.FluidDrag).value,
+				(float)settings.getSetting(SwimSettings.FluidVelocity).value,
+				settings.getSetting(SwimSettings.DrawDragForces).enabled,
+				settings.getSetting(SwimSettings.DrawDebugChars).enabled);
+	}
+
+	/**
+	 * Creates a headless snapshot with given engine values and all debug drawing disabled
+	 */
+	public CompiledSwimSettings(float hz, int positionIterations, int velocityIterations,
+			boolean warmStarting, boolean continuousCollision,
+			float fluidDensity, float fluidDrag, float fluidVelocity) {
+		this(hz, positionIterations, velocityIterations, warmStarting, continuousCollision,
+				fluidDensity, fluidDrag, fluidVelocity, false, false);
+	}
+
+	public CompiledSwimSettings(float hz, int positionIterations, int velocityIterations,
+			boolean warmStarting, boolean continuousCollision,
+			float fluidDensity, float fluidDrag, float fluidVelocity,
+			boolean drawDragForces, boolean drawDebugChars) {
+		this.hz = hz;
+		this.timeStep = hz > 0f ? 1f / hz : 0;
+		this.positionIterations = positionIterations;
+		this.velocityIterations = velocityIterations;
+		this.warmStarting = warmStarting;
+		this.continuousCollision = continuousCollision;
+		this.fluidDensity = fluidDensity;
+		this.fluidDrag = fluidDrag;
+		this.fluidVelocity = fluidVelocity;
+		this.drawDragForces = drawDragForces;
+		this.drawDebugChars = drawDebugChars;
+	}
+
+	/** Returns a shared snapshot holding the default engine settings, with debug drawing disabled */
+	public static CompiledSwimSettings getDefaults() {
+		return defaults;
+	}
+}
@@ -0,0 +1,209 @@
+package ubc.swim.gui;
+
+import java.util.ArrayList;
+
+import org.jbox2d.callbacks.DebugDraw;
+import org.jbox2d.common.Color3f;
+import org.jbox2d.common.OBBViewportTransform;
+import org.jbox2d.common.Transform;
+import org.jbox2d.common.Vec2;
+import org.jbox2d.pooling.arrays.Vec2Array;
+
+/**
+ * Debug draw that records draw calls, to be replayed later into another debug draw.
+ * Lets the physics thread describe what to draw (text, controller overlays, etc.) without
+ * touching the world panel, which is drawn on the render thread (see SwimController).
+ * Coordinates are recorded as given, so world space primitives are transformed to screen
+ * space on replay, with the camera at that time.
+ *
+ * Storage is reused across frames; recording again after clear() doesn't allocate.
+ *
+ * @author Ben Humberston
+ *
+ */
+public class DrawRecorder extends DebugDraw {
+	private static final int POINT = 0, SEGMENT = 1, POLYGON = 2, SOLID_POLYGON = 3, CIRCLE = 4,
+		SOLID_CIRCLE = 5, TRANSFORM = 6, STRING = 7;
+
+	//Recorded ops; each op's values (coords, colors, etc.) are stored in order in vals
+	private int[] ops = new int[64];
+	private int numOps = 0;
+	private float[] vals = new float[512];
+	private int numVals = 0;
+	private final ArrayList<String> strings = new ArrayList<String>();
+
+	//Used on replay
+	private final Vec2Array vec2Array = new Vec2Array();
+	private final Color3f color = new Color3f();
+	private final Vec2 v1 = new Vec2(), v2 = new Vec2(), v3 = new Vec2();
+	private final Transform xf = new Transform();
+
+	public DrawRecorder() {
+		super(new OBBViewportTransform());
+	}
+
+	/** Discards all recorded draw calls */
+	public void clear() {
+		numOps = 0;
+		numVals = 0;
+		strings.clear();
+	}
+
+	/**
+	 * Replays recorded draw calls, in order, into given debug draw
+	 */
+	public void replay(DebugDraw draw) {
+		int v = 0, s = 0;
+		for (int i = 0; i < numOps; i++) {
+			switch (ops[i]) {
+			case POINT:
+				v1.set(vals[v], vals[v+1]);
+				color.set(vals[v+3], vals[v+4], vals[v+5]);
+				draw.drawPoint(v1, vals[v+2], color);
+				v += 6;
+				break;
+			case SEGMENT:
+				v1.set(vals[v], vals[v+1]);
+				v2.set(vals[v+2], vals[v+3]);
+				color.set(vals[v+4], vals[v+5], vals[v+6]);
+				draw.drawSegment(v1, v2, color, vals[v+7] != 0);
+				v += 8;
+				break;
+			case POLYGON:
+			case SOLID_POLYGON: {
+				int vertexCount = (int) vals[v];
+				boolean inWorldSpace = vals[v+1] != 0;
+				color.set(vals[v+2], vals[v+3], vals[v+4]);
+				v += 5;
+				Vec2[] vertices = vec2Array.get(vertexCount);
+				for (int j = 0; j < vertexCount; j++, v += 2)
+					vertices[j].set(vals[v], vals[v+1]);
+				if (ops[i] == POLYGON)
+					draw.drawPolygon(vertices, vertexCount, color, inWorldSpace);
+				else
+					draw.drawSolidPolygon(vertices, vertexCount, color, inWorldSpace);
+				break;
+			}
+			case CIRCLE:
+				v1.set(vals[v], vals[v+1]);
+				color.set(vals[v+3], vals[v+4], vals[v+5]);
+				draw.drawCircle(v1, vals[v+2], color);
+				v += 6;
+				break;
+			case SOLID_CIRCLE:
+				v1.set(vals[v], vals[v+1]);
+				v3.set(vals[v+3], vals[v+4]);
+				color.set(vals[v+6], vals[v+7], vals[v+8]);
+				draw.drawSolidCircle(v1, vals[v+2], vals[v+5] != 0 ? v3 : null, color);
+				v += 9;
+				break;
+			case TRANSFORM:
+				xf.position.set(vals[v], vals[v+1]);
+				xf.R.set(vals[v+2]);
+				draw.drawTransform(xf);
+				v += 3;
+				break;
+			case STRING:
+				color.set(vals[v+2], vals[v+3], vals[v+4]);
+				draw.drawString(vals[v], vals[v+1], strings.get(s++), color);
+				v += 5;
+				break;
+			}
+		}
+	}
+
+	@Override
+	public void drawPoint(Vec2 argPoint, float argRadiusOnScreen, Color3f argColor) {
+		beginOp(POINT, 6);
+		addVal(argPoint.x); addVal(argPoint.y); addVal(argRadiusOnScreen);
+		addColor(argColor);
+	}
+
+	@Override
+	public void drawSegment(Vec2 p1, Vec2 p2, Color3f color, boolean vertsInWorldSpace) {
+		beginOp(SEGMENT, 8);
+		addVal(p1.x); addVal(p1.y); addVal(p2.x); addVal(p2.y);
+		addColor(color);
+		addVal(vertsInWorldSpace ? 1 : 0);
+	}
+
+	//Recorded as a single op rather than one segment per side
+	@Override
+	public void drawPolygon(Vec2[] vertices, int vertexCount, Color3f color, boolean vertsInWorldSpace) {
+		addPolygon(POLYGON, vertices, vertexCount, color, vertsInWorldSpace);
+	}
+
+	@Override
+	public void drawSolidPolygon(Vec2[] vertices, int vertexCount, Color3f color) {
+		drawSolidPolygon(vertices, vertexCount, color, true);
+	}
+
+	@Override
+	public void drawSolidPolygon(Vec2[] vertices, int vertexCount, Color3f color, boolean vertsInWorldSpace) {
+		addPolygon(SOLID_POLYGON, vertices, vertexCount, color, vertsInWorldSpace);
+	}
+
+	@Override
+	public void drawCircle(Vec2 center, float radius, Color3f color) {
+		beginOp(CIRCLE, 6);
+		addVal(center.x); addVal(center.y); addVal(radius);
+		addColor(color);
+	}
+
+	@Override
+	public void drawSolidCircle(Vec2 center, float radius, Vec2 axis, Color3f color) {
+		beginOp(SOLID_CIRCLE, 9);
+		addVal(center.x); addVal(center.y); addVal(radius);
+		addVal(axis != null ? axis.x : 0); addVal(axis != null ? axis.y : 0); addVal(axis != null ? 1 : 0);
+		addColor(color);
+	}
+
+	@Override
+	public void drawTransform(Transform xf) {
+		beginOp(TRANSFORM, 3);
+		addVal(xf.position.x); addVal(xf.position.y); addVal(xf.getAngle());
+	}
+
+	@Override
+	public void drawString(float x, float y, String s, Color3f color) {
+		beginOp(STRING, 5);
+		addVal(x); addVal(y);
+		addColor(color);
+		strings.add(s);
+	}
+
+	private void addPolygon(int op, Vec2[] vertices, int vertexCount, Color3f color, boolean vertsInWorldSpace) {
+		beginOp(op, 5 + 2 * vertexCount);
+		addVal(vertexCount);
+		addVal(vertsInWorldSpace ? 1 : 0);
+		addColor(color);
+		for (int i = 0; i < vertexCount; i++) {
+			addVal(vertices[i].x);
+			addVal(vertices[i].y);
+		}
+	}
+
+	/** Adds op, making room for given number of values */
+	private void beginOp(int op, int numOpVals) {
+		if (numOps == ops.length) {
+			int[] oldOps = ops;
+			ops = new int[2 * oldOps.length];
+			System.arraycopy(oldOps, 0, ops, 0, numOps);
+		}
+		ops[numOps++] = op;
+
+		if (numVals + numOpVals > vals.length) {
+			float[] oldVals = vals;
+			vals = new float[Math.max(2 * oldVals.length, numVals + numOpVals)];
+			System.arraycopy(oldVals, 0, vals, 0, numVals);
+		}
+	}
+
+	private void addVal(float val) {
+		vals[numVals++] = val;
+	}
+
+	private void addColor(Color3f color) {
+		addVal(color.x); addVal(color.y); addVal(color.z);
+	}
+}
@@ -0,0 +1,283 @@
+package ubc.swim.gui;
+
+import java.awt.Graphics;
+import java.awt.Image;
+import java.awt.image.BufferedImage;
+import java.awt.image.DataBufferInt;
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.text.DecimalFormat;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.imageio.IIOImage;
+import javax.imageio.ImageIO;
+import javax.imageio.ImageWriter;
+import javax.imageio.stream.ImageOutputStream;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Writes frames captured by the GUI loop to disk on background threads, so that recording
+ * doesn't slow down the simulation. The render thread copies each frame into one of a few
+ * pooled images and queues it for the encoders. If every pooled image is still waiting to be
+ * written (ie: the disk or encoders can't keep up), the frame is dropped rather than stalling
+ * the render thread; dropped frames are counted and logged when recording stops.
+ *
+ * Frames are written either as numbered PNG files (as before, under ./images/testID/), or
+ * appended to a raw RGB stream per test and frame size (replacing any stream from an earlier
+ * recorder), to be muxed later by an external tool,
+ * e.g.: ffmpeg -f rawvideo -pix_fmt rgb24 -s WxH -r 60 -i testID_WxH.rgb out.mp4
+ *
+ * @author Ben Humberston
+ *
+ */
+public class FrameRecorder {
+	private static final Logger log = LoggerFactory.getLogger(FrameRecorder.class);
+
+	public static final String IMAGE_DIR = "./images";
+	public static final int DEFAULT_POOL_SIZE = 8;
+
+	public enum Format {PNG, RAW}
+
+	//A captured frame and the file it goes to; a frame with no image tells an encoder to stop
+	protected static class Frame {
+		final BufferedImage image;
+		final File file;
+
+		Frame(BufferedImage image, File file) {
+			this.image = image;
+			this.file = file;
+		}
+	}
+
+	protected final Format format;
+	protected final int numEncoders;
+	protected final BlockingQueue<BufferedImage> freeImages;
+	protected final BlockingQueue<Frame> frames;
+	protected final int poolSize;
+	protected int numImages = 0;
+	protected boolean closed = false;
+
+	protected final DecimalFormat frameNumFormat = new DecimalFormat("0000");
+
+	protected final AtomicLong submittedCount = new AtomicLong();
+	protected final AtomicLong droppedCount = new AtomicLong();
+	protected final AtomicLong writtenCount = new AtomicLong();
+	protected final AtomicLong failedCount = new AtomicLong();
+	protected final AtomicInteger runningEncoders = new AtomicInteger();
+
+	public FrameRecorder(Format format) {
+		this(format, DEFAULT_POOL_SIZE, format == Format.RAW ? 1 : Math.max(1, Runtime.getRuntime().availableProcessors() / 2));
+	}
+
+	/**
+	 * @param format
+	 * @param poolSize max number of frames waiting to be written before new frames are dropped
+	 * @param numEncoders number of encoder threads; raw streams always use one, so frames stay in order
+	 */
+	public FrameRecorder(Format format, int poolSize, int numEncoders) {
+		this.format = format;
+		this.poolSize = poolSize;
+		this.numEncoders = format == Format.RAW ? 1 : numEncoders;
+
+		freeImages = new ArrayBlockingQueue<BufferedImage>(poolSize);
+		//Room for every pooled image plus one stop marker per encoder, so offers never fail
+		frames = new ArrayBlockingQueue<Frame>(poolSize + this.numEncoders);
+
+		for (int i = 0; i < this.numEncoders; i++) {
+			Thread encoder = new Thread(new Runnable() {
+				@Override
+				public void run() {
+					encode();
+				}
+			}, "FrameRecorder-" + i);
+			encoder.setDaemon(true);
+			runningEncoders.incrementAndGet();
+			encoder.start();
+		}
+	}
+
+	/**
+	 * Copies given frame and queues it to be written, returning false if it was dropped because
+	 * earlier frames are still being written. Called from the render thread.
+	 * @param image current contents of the world panel
+	 * @param testID ID of test being recorded; frames go under IMAGE_DIR/testID/
+	 * @param frameNum frame number within the test, used to name PNG files
+	 */
+	public boolean submit(Image image, String testID, long frameNum) {
+		if (closed)
+			return false;
+
+		submittedCount.incrementAndGet();
+		int width = image.getWidth(null), height = image.getHeight(null);
+		if (width <= 0 || height <= 0)
+			return false;
+
+		BufferedImage copy = freeImages.poll();
+		if (copy == null) {
+			if (numImages == poolSize) {
+				droppedCount.incrementAndGet();
+				return false;
+			}
+			numImages++;
+		}
+		if (copy == null || copy.getWidth() != width || copy.getHeight() != height)
+			copy = new BufferedImage(width, height, BufferedImage.TYPE_INT_RGB);
+
+		Graphics g = copy.getGraphics();
+		g.drawImage(image, 0, 0, null);
+		g.dispose();
+
+		File dir = new File(IMAGE_DIR, testID);
+		File file;
+		if (format == Format.RAW)
+			file = new File(dir, testID + "_" + width + "x" + height + ".rgb");
+		else
+			file = new File(dir, testID + frameNumFormat.format(frameNum) + ".png");
+
+		frames.add(new Frame(copy, file));
+		return true;
+	}
+
+	/**
+	 * Stops accepting frames; encoders finish writing queued frames in the background, then
+	 * log recording statistics
+	 */
+	public void close() {
+		if (closed)
+			return;
+
+		closed = true;
+		for (int i = 0; i < numEncoders; i++)
+			frames.add(new Frame(null, null));
+	}
+
+	/** Returns number of frames submitted so far */
+	public long getSubmittedFrames() {return submittedCount.get();}
+	/** Returns number of frames dropped because the encoders fell behind */
+	public long getDroppedFrames() {return droppedCount.get();}
+	/** Returns number of frames written to disk */
+	public long getWrittenFrames() {return writtenCount.get();}
+	/** Returns number of frames that couldn't be written */
+	public long getFailedFrames() {return failedCount.get();}
+	/** Returns number of frames waiting to be written */
+	public int getQueuedFrames() {return frames.size();}
+
+	/**
+	 * Encoder loop: writes queued frames until a stop marker is found
+	 */
+	protected void encode() {
+		ImageWriter pngWriter = null;
+		if (format == Format.PNG) {
+			Iterator<ImageWriter> imageWriters = ImageIO.getImageWritersByFormatName("png");
+			if (imageWriters.hasNext())
+				pngWriter = imageWriters.next();
+			else
+				log.error("No PNG image writer available; frames won't be written");
+		}
+
+		File rawFile = null;
+		OutputStream rawStream = null;
+		byte[] rawBytes = null;
+		//Raw files already started by this recorder; any other file is truncated, so frames from an earlier session are dropped
+		Set<File> startedRawFiles = new HashSet<File>();
+
+		try {
+			while (true) {
+				Frame frame = frames.take();
+				if (frame.image == null)
+					break;
+
+				try {
+					frame.file.getParentFile().mkdirs();
+
+					if (format == Format.PNG) {
+						if (pngWriter == null)
+							throw new IOException("No PNG image writer");
+						writePNG(pngWriter, frame.image, frame.file);
+					}
+					else {
+						if (!frame.file.equals(rawFile)) {
+							if (rawStream != null)
+								rawStream.close();
+							rawFile = frame.file;
+							rawStream = new BufferedOutputStream(new FileOutputStream(rawFile, !startedRawFiles.add(rawFile)), 1 << 16);
+						}
+						rawBytes = writeRaw(rawStream, frame.image, rawBytes);
+					}
+					writtenCount.incrementAndGet();
+				}
+				catch (IOException e) {
+					if (failedCount.getAndIncrement() == 0)
+						log.error("Failed to write frame " + frame.file, e);
+				}
+
+				freeImages.offer(frame.image);
+			}
+		}
+		catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+		finally {
+			if (rawStream != null) {
+				try {
+					rawStream.close();
+				}
+				catch (IOException e) {
+					log.error("Failed to close raw frame stream " + rawFile, e);
+				}
+			}
+			if (pngWriter != null)
+				pngWriter.dispose();
+
+			if (runningEncoders.decrementAndGet() == 0)
+				log.info("Recording finished: " + writtenCount.get() + " of " + submittedCount.get() + " frames written, "
+						+ droppedCount.get() + " dropped, " + failedCount.get() + " failed");
+		}
+	}
+
+	protected static void writePNG(ImageWriter writer, BufferedImage image, File file) throws IOException {
+		ImageOutputStream stream = ImageIO.createImageOutputStream(file);
+		if (stream == null)
+			throw new IOException("Can't create " + file);
+
+		try {
+			writer.setOutput(stream);
+			writer.write(null, new IIOImage(image, null, null), writer.getDefaultWriteParam());
+			stream.flush();
+		}
+		finally {
+			writer.reset();
+			stream.close();
+		}
+	}
+
+	/**
+	 * Appends given image as 8-bit RGB triples, row by row. Returns the byte buffer used, for reuse.
+	 */
+	protected static byte[] writeRaw(OutputStream stream, BufferedImage image, byte[] bytes) throws IOException {
+		int[] pixels = ((DataBufferInt) image.getRaster().getDataBuffer()).getData();
+		int numPixels = image.getWidth() * image.getHeight();
+		if (bytes == null || bytes.length != 3 * numPixels)
+			bytes = new byte[3 * numPixels];
+
+		for (int i = 0, j = 0; i < numPixels; i++) {
+			int rgb = pixels[i];
+			bytes[j++] = (byte)(rgb >> 16);
+			bytes[j++] = (byte)(rgb >> 8);
+			bytes[j++] = (byte)rgb;
+		}
+		stream.write(bytes);
+		return bytes;
+	}
+}
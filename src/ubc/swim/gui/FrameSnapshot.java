@@ -0,0 +1,251 @@
+package ubc.swim.gui;
+
+import org.jbox2d.callbacks.DebugDraw;
+import org.jbox2d.collision.shapes.CircleShape;
+import org.jbox2d.collision.shapes.PolygonShape;
+import org.jbox2d.collision.shapes.Shape;
+import org.jbox2d.collision.shapes.ShapeType;
+import org.jbox2d.common.Color3f;
+import org.jbox2d.common.Settings;
+import org.jbox2d.common.Transform;
+import org.jbox2d.common.Vec2;
+import org.jbox2d.dynamics.Body;
+import org.jbox2d.dynamics.Fixture;
+import org.jbox2d.dynamics.World;
+
+/**
+ * What the render thread needs to draw one frame of a test, published by the physics thread
+ * (see SwimController). Holds the pose of each drawn body before and after the last simulation
+ * step, so the render thread can interpolate between them, plus a recording of everything else
+ * drawn for the frame (text, fluid, drag forces, etc.; see DrawRecorder).
+ *
+ * Body shapes are drawn in two layers: world shapes, under the recorded overlay, and character
+ * shapes, over it, matching the draw order of SwimTest.debugDraw().
+ *
+ * Snapshots are reused: the physics thread fills one while the render thread draws another,
+ * so nothing here is read by both threads at once. Shapes of drawn fixtures are collected on the
+ * physics thread and read on the render thread, which is safe since shapes don't change once created.
+ *
+ * @author Ben Humberston
+ *
+ */
+public class FrameSnapshot {
+	private static final int INITIAL_CAPACITY = 32;
+
+	/** Test that this frame is from */
+	public String testID;
+	/** Frames simulated by the test when this frame was captured */
+	public long frameCount;
+	/** Time (System.nanoTime()) at which the pose after the last step is due to be shown */
+	public long dueNanos;
+	/** Length of a simulation step, in nanoseconds; bodies are interpolated over the step before dueNanos */
+	public long stepNanos;
+	/** Set when published by the physics thread, cleared when taken by the render thread (see SwimController) */
+	boolean fresh = false;
+
+	//Poses of world bodies captured before last step, used as start of interpolation
+	private int numPrev = 0;
+	private Body[] prevBodies = new Body[INITIAL_CAPACITY];
+	private float[] prevPoses = new float[3 * INITIAL_CAPACITY];
+	private int prevHint = 0; //bodies are usually added in world list order, so search from after last match
+
+	//Drawn bodies; the first numWorldBodies are world shapes, the rest are character shapes
+	private int numBodies = 0;
+	private int numWorldBodies = 0;
+	private int[] shapeEnds = new int[INITIAL_CAPACITY]; //shapes of body i end at shapeEnds[i]
+	private float[] poses = new float[6 * INITIAL_CAPACITY]; //x, y, angle before and after step
+	private float[] colors = new float[3 * INITIAL_CAPACITY];
+	private int numShapes = 0;
+	private Shape[] shapes = new Shape[INITIAL_CAPACITY];
+
+	private final DrawRecorder overlay = new DrawRecorder();
+
+	//Used when drawing
+	private final Transform xf = new Transform();
+	private final Vec2 position = new Vec2();
+	private final Vec2 center = new Vec2();
+	private final Vec2 axis = new Vec2();
+	private final Vec2[] vertices = new Vec2[Settings.maxPolygonVertices];
+	private final Color3f color = new Color3f();
+
+	public FrameSnapshot() {
+		for (int i = 0; i < vertices.length; i++)
+			vertices[i] = new Vec2();
+	}
+
+	/** Returns debug draw that records the part of the frame that isn't interpolated */
+	public DrawRecorder getOverlay() { return overlay; }
+
+	/**
+	 * Saves poses of all bodies in given world; call before the last step of a frame
+	 */
+	public void capturePrevPoses(World world) {
+		numPrev = 0;
+		for (Body body = world.getBodyList(); body != null; body = body.getNext()) {
+			if (numPrev == prevBodies.length) {
+				prevBodies = grow(prevBodies);
+				prevPoses = grow(prevPoses, 3 * prevBodies.length);
+			}
+			prevBodies[numPrev] = body;
+			prevPoses[3*numPrev] = body.getPosition().x;
+			prevPoses[3*numPrev + 1] = body.getPosition().y;
+			prevPoses[3*numPrev + 2] = body.getAngle();
+			numPrev++;
+		}
+	}
+
+	/**
+	 * Clears drawn bodies and overlay, keeping poses saved by capturePrevPoses()
+	 */
+	public void clear() {
+		numBodies = 0;
+		numWorldBodies = 0;
+		numShapes = 0;
+		prevHint = 0;
+		overlay.clear();
+	}
+
+	/**
+	 * Adds a body to be drawn as a world shape, with given color
+	 */
+	public void addWorldBody(Body body, Color3f color) {
+		if (numWorldBodies != numBodies)
+			throw new IllegalStateException("World bodies must be added before character bodies");
+
+		addBody(body, color);
+		numWorldBodies++;
+	}
+
+	/**
+	 * Adds a body to be drawn as a character shape, with given color
+	 */
+	public void addCharacterBody(Body body, Color3f color) {
+		addBody(body, color);
+	}
+
+	private void addBody(Body body, Color3f color) {
+		if (numBodies == shapeEnds.length) {
+			shapeEnds = grow(shapeEnds);
+			poses = grow(poses, 6 * shapeEnds.length);
+			colors = grow(colors, 3 * shapeEnds.length);
+		}
+
+		int p = 6 * numBodies;
+		poses[p+3] = body.getPosition().x;
+		poses[p+4] = body.getPosition().y;
+		poses[p+5] = body.getAngle();
+
+		//Bodies created during the last step don't move until the next one
+		int prevIdx = findPrev(body, prevHint);
+		if (prevIdx >= 0) {
+			System.arraycopy(prevPoses, 3 * prevIdx, poses, p, 3);
+			prevHint = prevIdx + 1;
+		}
+		else
+			System.arraycopy(poses, p + 3, poses, p, 3);
+
+		colors[3*numBodies] = color.x;
+		colors[3*numBodies + 1] = color.y;
+		colors[3*numBodies + 2] = color.z;
+
+		for (Fixture fixture = body.getFixtureList(); fixture != null; fixture = fixture.getNext()) {
+			if (numShapes == shapes.length)
+				shapes = grow(shapes);
+			shapes[numShapes++] = fixture.getShape();
+		}
+		shapeEnds[numBodies++] = numShapes;
+	}
+
+	/** Returns index of given body in saved poses, starting search at given index; -1 if not found */
+	private int findPrev(Body body, int startIdx) {
+		for (int i = 0; i < numPrev; i++) {
+			int idx = (startIdx + i) % numPrev;
+			if (prevBodies[idx] == body)
+				return idx;
+		}
+		return -1;
+	}
+
+	/**
+	 * Draws frame as it should look at given time (System.nanoTime()): world shapes,
+	 * then overlay, then character shapes
+	 */
+	public void draw(DebugDraw draw, long nowNanos) {
+		draw(draw, nowNanos, false);
+	}
+
+	/**
+	 * Draws frame as it should look at given time (System.nanoTime()): world shapes,
+	 * then overlay, then character shapes
+	 * @param draw
+	 * @param nowNanos
+	 * @param useCachedShapes if true and draw is a SwimDraw, bodies are drawn from cached outlines (see SwimDraw.drawSolidShapes())
+	 */
+	public void draw(DebugDraw draw, long nowNanos, boolean useCachedShapes) {
+		float alpha = stepNanos > 0 ? (float)(nowNanos - dueNanos) / stepNanos + 1 : 1;
+		alpha = Math.max(0, Math.min(1, alpha));
+		SwimDraw shapeDraw = useCachedShapes && draw instanceof SwimDraw ? (SwimDraw) draw : null;
+
+		for (int i = 0; i < numWorldBodies; i++)
+			drawBody(draw, shapeDraw, i, alpha);
+		if (shapeDraw != null)
+			shapeDraw.flushShapes();
+		overlay.replay(draw);
+		for (int i = numWorldBodies; i < numBodies; i++)
+			drawBody(draw, shapeDraw, i, alpha);
+		if (shapeDraw != null)
+			shapeDraw.flushShapes();
+	}
+
+	private void drawBody(DebugDraw draw, SwimDraw shapeDraw, int idx, float alpha) {
+		int p = 6 * idx;
+		position.set(poses[p] + alpha * (poses[p+3] - poses[p]), poses[p+1] + alpha * (poses[p+4] - poses[p+1]));
+		xf.set(position, poses[p+2] + alpha * (poses[p+5] - poses[p+2]));
+		color.set(colors[3*idx], colors[3*idx + 1], colors[3*idx + 2]);
+
+		int start = idx > 0 ? shapeEnds[idx - 1] : 0;
+		if (shapeDraw != null) {
+			shapeDraw.drawSolidShapes(shapes, start, shapeEnds[idx], xf, color);
+			return;
+		}
+
+		for (int s = start; s < shapeEnds[idx]; s++) {
+			if (shapes[s].getType() == ShapeType.CIRCLE) {
+				CircleShape circle = (CircleShape) shapes[s];
+				Transform.mulToOut(xf, circle.m_p, center);
+				axis.set(xf.R.col1);
+				draw.drawSolidCircle(center, circle.m_radius, axis, color);
+			}
+			else if (shapes[s].getType() == ShapeType.POLYGON) {
+				PolygonShape poly = (PolygonShape) shapes[s];
+				for (int i = 0; i < poly.m_vertexCount; i++)
+					Transform.mulToOut(xf, poly.m_vertices[i], vertices[i]);
+				draw.drawSolidPolygon(vertices, poly.m_vertexCount, color);
+			}
+		}
+	}
+
+	private static Body[] grow(Body[] array) {
+		Body[] newArray = new Body[2 * array.length];
+		System.arraycopy(array, 0, newArray, 0, array.length);
+		return newArray;
+	}
+
+	private static Shape[] grow(Shape[] array) {
+		Shape[] newArray = new Shape[2 * array.length];
+		System.arraycopy(array, 0, newArray, 0, array.length);
+		return newArray;
+	}
+
+	private static int[] grow(int[] array) {
+		int[] newArray = new int[2 * array.length];
+		System.arraycopy(array, 0, newArray, 0, array.length);
+		return newArray;
+	}
+
+	private static float[] grow(float[] array, int newLength) {
+		float[] newArray = new float[newLength];
+		System.arraycopy(array, 0, newArray, 0, array.length);
+		return newArray;
+	}
+}
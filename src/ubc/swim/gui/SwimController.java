@@ -23,31 +23,13 @@
  ******************************************************************************/
 package ubc.swim.gui;
 
-import java.awt.Graphics;
-import java.awt.GraphicsConfiguration;
-import java.awt.GraphicsDevice;
-import java.awt.GraphicsEnvironment;
-import java.awt.HeadlessException;
 import java.awt.Image;
-import java.awt.Transparency;
 import java.awt.event.KeyEvent;
 import java.awt.event.KeyListener;
 import java.awt.event.MouseAdapter;
 import java.awt.event.MouseEvent;
 import java.awt.event.MouseMotionListener;
-import java.awt.image.BufferedImage;
-import java.awt.image.ColorModel;
-import java.awt.image.PixelGrabber;
-import java.io.File;
-import java.text.DecimalFormat;
-import java.util.Iterator;
-
-import javax.imageio.IIOImage;
-import javax.imageio.ImageIO;
-import javax.imageio.ImageWriteParam;
-import javax.imageio.ImageWriter;
-import javax.imageio.stream.ImageOutputStream;
-import javax.swing.ImageIcon;
+import java.util.concurrent.atomic.AtomicReference;
 
 import org.jbox2d.common.Vec2;
 import org.slf4j.Logger;
@@ -59,6 +41,12 @@ import ubc.swim.tests.SwimTest;
  * Controls GUI update loop for Swimmer App. Modeled on
  * org.jbox2d.testbed.framework.TestbedController by Daniel Murphy
  * 
+ * The current test is simulated on a physics thread at the rate given by the settings, independent
+ * of the frame rate. After each batch of steps, the physics thread captures what's needed to draw the
+ * test into a FrameSnapshot and publishes it; the render thread (this runnable) draws the latest snapshot,
+ * interpolating bodies between their poses before and after the last step. Snapshots are triple
+ * buffered, so neither thread waits on the other.
+ * 
  * @author Ben Humberston
  * 
  */
@@ -66,25 +54,43 @@ public class SwimController implements Runnable {
 	private static final Logger log = LoggerFactory.getLogger(SwimController.class);
 
 	public static final int DEFAULT_FPS = 60;
+	
+	//Max steps simulated between published frames; if the physics thread falls further behind, the simulation slows down
+	private static final int MAX_STEPS_PER_FRAME = 8;
 
-	private SwimTest currTest = null;
-	private SwimTest nextTest = null;
+	private volatile SwimTest currTest = null;
+	private volatile SwimTest nextTest = null;
 
 	private long startTime;
 	private long frameCount;
 	private int targetFrameRate;
 	private float frameRate = 0;
-	private boolean animating = false;
+	private volatile boolean animating = false;
 	private Thread animator;
+	private Thread physics;
+	
+	//Latest frame published by the physics thread; the physics thread fills back, the render thread draws front
+	private final AtomicReference<FrameSnapshot> latestFrame = new AtomicReference<FrameSnapshot>(new FrameSnapshot());
+	private FrameSnapshot backFrame = new FrameSnapshot();
+	private FrameSnapshot frontFrame = new FrameSnapshot();
 
 	private final SwimModel model;
 	private final SwimPanel panel;
+	
+	//Writes frames while recording; created when recording starts
+	private FrameRecorder recorder = null;
 
 	public SwimController(SwimModel argModel, SwimWorldPanel argPanel) {
 		model = argModel;
 		setFrameRate(DEFAULT_FPS);
 		panel = argPanel;
 		animator = new Thread(this, "SwimController");
+		physics = new Thread(new Runnable() {
+			@Override
+			public void run() {
+				runPhysics();
+			}
+		}, "SwimPhysics");
 		addListeners();
 	}
 
@@ -124,9 +130,7 @@ public class SwimController implements Runnable {
 				}
 				model.getCodedKeys()[code] = true;
 
-				if (key == ' ' && model.getCurrTest() != null) {
-					model.getCurrTest().lanchBomb();
-				} else if (key == '[') {
+				if (key == '[') {
 					lastTest();
 				} else if (key == ']') {
 					nextTest();
@@ -208,10 +212,6 @@ public class SwimController implements Runnable {
 
 	protected void loopInit() {
 		panel.grabFocus();
-
-		if (currTest != null) {
-			currTest.init(model);
-		}
 	}
 
 	protected void update() {
@@ -294,6 +294,8 @@ public class SwimController implements Runnable {
 	public synchronized void start() {
 		if (animating != true) {
 			frameCount = 0;
+			animating = true;
+			physics.start();
 			animator.start();
 		} else {
 			log.warn("Animation is already animating.");
@@ -304,24 +306,83 @@ public class SwimController implements Runnable {
 		animating = false;
 	}
 
-	public void run() {
-		long beforeTime, afterTime, updateTime, timeDiff, sleepTime, timeSpent;
-		float timeInSecs;
-		beforeTime = startTime = updateTime = System.nanoTime();
-		sleepTime = 0;
-
-		animating = true;
-		loopInit();
+	/**
+	 * Physics loop: simulates current test at the configured rate and publishes a snapshot
+	 * for the render thread after each batch of steps
+	 */
+	protected void runPhysics() {
+		long nextStepTime = System.nanoTime();
+		
 		while (animating) {
-
 			if (nextTest != null) {
 				if (currTest != null) {
 					currTest.exit();
 				}
 				currTest = nextTest;
-				currTest.init(model);
 				nextTest = null;
+				currTest.setDrawingEnabled(false); //drawn from snapshots instead
+				currTest.init(model);
+				nextStepTime = System.nanoTime();
+			}
+			
+			if (currTest == null) {
+				try {
+					Thread.sleep(10);
+				} catch (InterruptedException ex) {
+				}
+				continue;
+			}
+			
+			long stepNanos = (long)(1e9 * model.getSettings().getCompiled().timeStep);
+			long now = System.nanoTime();
+			
+			int numSteps = 0;
+			while (nextStepTime <= now && numSteps < MAX_STEPS_PER_FRAME) {
+				numSteps++;
+				nextStepTime += stepNanos;
+			}
+			if (nextStepTime <= now)
+				nextStepTime = now + stepNanos;
+			
+			if (numSteps > 0) {
+				for (int i = 0; i < numSteps; i++) {
+					if (i == numSteps - 1)
+						backFrame.capturePrevPoses(currTest.getWorld());
+					update();
+				}
+				
+				currTest.captureFrame(model.getSettings(), backFrame);
+				backFrame.dueNanos = nextStepTime;
+				backFrame.stepNanos = stepNanos;
+				backFrame.fresh = true;
+				backFrame = latestFrame.getAndSet(backFrame);
+			}
+			
+			long sleepNanos = nextStepTime - System.nanoTime();
+			if (sleepNanos > 0) {
+				try {
+					Thread.sleep(sleepNanos / 1000000, (int)(sleepNanos % 1000000));
+				} catch (InterruptedException ex) {
+				}
 			}
+		}
+		
+		if (currTest != null) {
+			currTest.exit();
+		}
+	}
+
+	/**
+	 * Render loop: draws latest frame published by the physics thread
+	 */
+	public void run() {
+		long beforeTime, afterTime, updateTime, timeDiff, sleepTime, timeSpent;
+		float timeInSecs;
+		beforeTime = startTime = updateTime = System.nanoTime();
+		sleepTime = 0;
+
+		loopInit();
+		while (animating) {
 
 			timeSpent = beforeTime - updateTime;
 			if (timeSpent > 0) {
@@ -333,45 +394,37 @@ public class SwimController implements Runnable {
 				updateTime = System.nanoTime();
 			}
 
+			//Take newest frame, if any; swapping in the old one leaves it for the physics thread to refill
+			boolean newFrame = false;
+			if (latestFrame.get().fresh) {
+				frontFrame = latestFrame.getAndSet(frontFrame);
+				frontFrame.fresh = false;
+				newFrame = true;
+			}
+			
 			panel.render();
-			update();
+			if (frontFrame.testID != null && panel.getBufferedImage() != null) {
+				boolean useCachedShapes = model.getSettings().getSetting(SwimSettings.DrawCachedShapes).enabled;
+				frontFrame.draw(model.getDebugDraw(), System.nanoTime(), useCachedShapes);
+			}
 			panel.paintScreen();
 			
-			//Write current world image to disk if recording
-			//Probably not the best place for this, but ....
-			if (model.getSettings().recording && currTest != null) {
-				Image img = panel.getBufferedImage();
-				
-				//Create filename
-				String testID = currTest.getTestID();
-				DecimalFormat leadingZeroesFormat = new java.text.DecimalFormat("0000");
-				long testFrameCount = currTest.getFrameCount();
-				String frameNumSuffix = leadingZeroesFormat.format(new Long(testFrameCount));
-				String fileName = testID + frameNumSuffix;
-				String fullFileName = "./images/" + testID + "/" + fileName + ".png";
+			//Hand current world image to the recorder, which writes it on background threads
+			if (model.getSettings().recording && frontFrame.testID != null) {
+				if (recorder == null) {
+					FrameRecorder.Format format = model.getSettings().recordRawFrames ? FrameRecorder.Format.RAW : FrameRecorder.Format.PNG;
+					recorder = new FrameRecorder(format);
+				}
 				
-				if (img != null) {
-					try {
-						BufferedImage bi = getBufferedImage(img);
-						
-						File imgFile = new File(fullFileName);
-						
-						Iterator<ImageWriter> imageWriters = ImageIO.getImageWritersByFormatName("png");
-						if ( imageWriters.hasNext() ) {
-						    ImageWriter writer = (ImageWriter)imageWriters.next();
-						    ImageOutputStream stream = ImageIO.createImageOutputStream(imgFile);
-						    writer.setOutput(stream);
-						    ImageWriteParam param = writer.getDefaultWriteParam();
-						    writer.write(null, new IIOImage(bi, null, null), param);
-						    
-						    stream.flush();
-						    stream.close();
-						}
-					} catch (Exception exception) {
-				      exception.printStackTrace();
-				    }
+				Image img = panel.getBufferedImage();
+				if (img != null && newFrame) {
+					recorder.submit(img, frontFrame.testID, frontFrame.frameCount);
 				}
 			}
+			else if (recorder != null) {
+				recorder.close();
+				recorder = null;
+			}
 			
 			frameCount++;
 
@@ -388,89 +441,10 @@ public class SwimController implements Runnable {
 
 			beforeTime = System.nanoTime();
 		} // end of run loop
-	}
-	
-	//////////////////////////////////////// OUTPUT RENDERING STUFF BELOW ////////////////////////////////////////
-	
-	/**
-	 * Returns BufferedImage with contents of given image
-	 * Source: http://www.exampledepot.com/egs/java.awt.image/image2buf.html
-	 * @param image
-	 * @return
-	 */
-	private static BufferedImage getBufferedImage(Image image) {
-	    if (image instanceof BufferedImage) {
-	        return (BufferedImage)image;
-	    }
-
-	    // This code ensures that all the pixels in the image are loaded
-	    image = new ImageIcon(image).getImage();
-
-	    // Determine if the image has transparent pixels; for this method's
-	    // implementation, see Determining If an Image Has Transparent Pixels
-	    boolean hasAlpha = hasAlpha(image);
-
-	    // Create a buffered image with a format that's compatible with the screen
-	    BufferedImage bimage = null;
-	    GraphicsEnvironment ge = GraphicsEnvironment.getLocalGraphicsEnvironment();
-	    try {
-	        // Determine the type of transparency of the new buffered image
-	        int transparency = Transparency.OPAQUE;
-	        if (hasAlpha) {
-	            transparency = Transparency.BITMASK;
-	        }
-
-	        // Create the buffered image
-	        GraphicsDevice gs = ge.getDefaultScreenDevice();
-	        GraphicsConfiguration gc = gs.getDefaultConfiguration();
-	        bimage = gc.createCompatibleImage(
-	            image.getWidth(null), image.getHeight(null), transparency);
-	    } catch (HeadlessException e) {
-	        // The system does not have a screen
-	    }
-
-	    if (bimage == null) {
-	        // Create a buffered image using the default color model
-	        int type = BufferedImage.TYPE_INT_RGB;
-	        if (hasAlpha) {
-	            type = BufferedImage.TYPE_INT_ARGB;
-	        }
-	        bimage = new BufferedImage(image.getWidth(null), image.getHeight(null), type);
-	    }
-
-	    // Copy image to buffered image
-	    Graphics g = bimage.createGraphics();
-
-	    // Paint the image onto the buffered image
-	    g.drawImage(image, 0, 0, null);
-	    g.dispose();
-
-	    return bimage;
-	}
-	
-	/**
-	 * Returns true if the specified image has transparent pixels
-	 * Source: http://www.exampledepot.com/egs/java.awt.image/HasAlpha.html
-	 * @param image
-	 * @return
-	 */
-	private static boolean hasAlpha(Image image) {
-	    // If buffered image, the color model is readily available
-	    if (image instanceof BufferedImage) {
-	        BufferedImage bimage = (BufferedImage)image;
-	        return bimage.getColorModel().hasAlpha();
-	    }
-
-	    // Use a pixel grabber to retrieve the image's color model;
-	    // grabbing a single pixel is usually sufficient
-	     PixelGrabber pg = new PixelGrabber(image, 0, 0, 1, 1, false);
-	    try {
-	        pg.grabPixels();
-	    } catch (InterruptedException e) {
-	    }
-
-	    // Get the image's color model
-	    ColorModel cm = pg.getColorModel();
-	    return cm.hasAlpha();
+		
+		if (recorder != null) {
+			recorder.close();
+			recorder = null;
+		}
 	}
 }
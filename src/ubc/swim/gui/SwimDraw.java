@@ -28,9 +28,17 @@ package ubc.swim.gui;
 
 import java.awt.Color;
 import java.awt.Graphics2D;
+import java.awt.geom.AffineTransform;
+import java.awt.geom.Path2D;
+import java.util.Map;
+import java.util.WeakHashMap;
 
 import org.jbox2d.callbacks.DebugDraw;
 import org.jbox2d.collision.AABB;
+import org.jbox2d.collision.shapes.CircleShape;
+import org.jbox2d.collision.shapes.PolygonShape;
+import org.jbox2d.collision.shapes.Shape;
+import org.jbox2d.collision.shapes.ShapeType;
 import org.jbox2d.common.Color3f;
 import org.jbox2d.common.MathUtils;
 import org.jbox2d.common.OBBViewportTransform;
@@ -51,6 +59,7 @@ public class SwimDraw extends DebugDraw {
 	public static int circlePoints = 13;
 
 	private final SwimWorldPanel panel;
+	private final Graphics2D graphics;
 	private final ColorPool cpool = new ColorPool();
 
 	/**
@@ -60,6 +69,22 @@ public class SwimDraw extends DebugDraw {
 		super(new OBBViewportTransform());
 		viewportTransform.setYFlip(true);
 		panel = argTestPanel;
+		graphics = null;
+	}
+
+	/**
+	 * Creates a debug draw that renders into given graphics (eg: of an off-screen image) rather
+	 * than a world panel; used to render without a window (see ClipRenderer)
+	 * @param argGraphics
+	 * @param width width of drawing area, in pixels
+	 * @param height height of drawing area, in pixels
+	 */
+	public SwimDraw(Graphics2D argGraphics, int width, int height) {
+		super(new OBBViewportTransform());
+		viewportTransform.setYFlip(true);
+		viewportTransform.setExtents(width / 2, height / 2);
+		panel = null;
+		graphics = argGraphics;
 	}
 
 	private final Vec2Array vec2Array = new Vec2Array();
@@ -120,8 +145,9 @@ public class SwimDraw extends DebugDraw {
 
 	// TODO change IntegerArray to a specific class for int[] arrays
 	private final Vec2 temp = new Vec2();
-	private final static IntArray xIntsPool = new IntArray();
-	private final static IntArray yIntsPool = new IntArray();
+	//Per instance, so separate draws can render on separate threads
+	private final IntArray xIntsPool = new IntArray();
+	private final IntArray yIntsPool = new IntArray();
 
 	@Override
 	public void drawSolidPolygon(Vec2[] vertices, int vertexCount, Color3f color) {
@@ -163,7 +189,9 @@ public class SwimDraw extends DebugDraw {
 	}
 
 	private Graphics2D getGraphics() {
-		return panel.getDBGraphics();
+		if (panel != null)
+			return panel.getDBGraphics();
+		return graphics;
 	}
 
 	private final Vec2 temp2 = new Vec2();
@@ -191,6 +219,97 @@ public class SwimDraw extends DebugDraw {
 		g.drawLine((int) temp.x, (int) temp.y, (int) temp2.x, (int) temp2.y);
 	}
 
+	// CACHED SHAPES
+
+	//Body-local outlines of shapes, built on first use; weak keys, so shapes of destroyed bodies can be collected
+	private final Map<Shape, Path2D.Float> shapePaths = new WeakHashMap<Shape, Path2D.Float>();
+	//Consecutive shapes in the same color are combined in screen space and drawn with one fill and one outline
+	private final Path2D.Float batchPath = new Path2D.Float();
+	private final Color3f batchColor = new Color3f();
+	private boolean batchEmpty = true;
+	private final AffineTransform bodyToScreen = new AffineTransform();
+	private final AffineTransform bodyToWorld = new AffineTransform();
+	private final Vec2 screenOrigin = new Vec2();
+	private final Vec2 screenX = new Vec2();
+	private final Vec2 screenY = new Vec2();
+
+	/**
+	 * Draws shapes of a body with given transform, as drawSolidPolygon() and drawSolidCircle() would, but
+	 * from cached outlines placed with a single transform per body. Drawing is deferred so consecutive shapes
+	 * of the same color are batched; call flushShapes() before drawing anything else and at the end of a frame.
+	 * @param shapes
+	 * @param start index of first shape to draw
+	 * @param end index after last shape to draw
+	 * @param xf body transform
+	 * @param color
+	 */
+	public void drawSolidShapes(Shape[] shapes, int start, int end, Transform xf, Color3f color) {
+		if (!batchEmpty && (batchColor.x != color.x || batchColor.y != color.y || batchColor.z != color.z))
+			flushShapes();
+
+		//World to screen mapping is affine, so it's fully described by where the origin and unit axes land
+		getWorldToScreenToOut(0, 0, screenOrigin);
+		getWorldToScreenToOut(1, 0, screenX);
+		getWorldToScreenToOut(0, 1, screenY);
+		screenX.subLocal(screenOrigin);
+		screenY.subLocal(screenOrigin);
+		bodyToScreen.setTransform(screenX.x, screenX.y, screenY.x, screenY.y, screenOrigin.x, screenOrigin.y);
+		bodyToWorld.setTransform(xf.R.col1.x, xf.R.col1.y, xf.R.col2.x, xf.R.col2.y, xf.position.x, xf.position.y);
+		bodyToScreen.concatenate(bodyToWorld);
+
+		for (int i = start; i < end; i++)
+			batchPath.append(getShapePath(shapes[i]).getPathIterator(bodyToScreen), false);
+
+		batchColor.set(color);
+		batchEmpty = false;
+	}
+
+	/**
+	 * Draws shapes batched by drawSolidShapes()
+	 */
+	public void flushShapes() {
+		if (batchEmpty)
+			return;
+
+		Graphics2D g = getGraphics();
+		g.setColor(cpool.getColor(batchColor.x, batchColor.y, batchColor.z, .4f));
+		g.fill(batchPath);
+		g.setColor(cpool.getColor(batchColor.x, batchColor.y, batchColor.z));
+		g.draw(batchPath);
+
+		batchPath.reset();
+		batchEmpty = true;
+	}
+
+	/** Returns body-local outline of given shape; circles get the same polygon and axis as drawSolidCircle() */
+	private Path2D.Float getShapePath(Shape shape) {
+		Path2D.Float path = shapePaths.get(shape);
+		if (path != null)
+			return path;
+
+		path = new Path2D.Float();
+		if (shape.getType() == ShapeType.POLYGON) {
+			PolygonShape poly = (PolygonShape) shape;
+			path.moveTo(poly.m_vertices[0].x, poly.m_vertices[0].y);
+			for (int i = 1; i < poly.m_vertexCount; i++)
+				path.lineTo(poly.m_vertices[i].x, poly.m_vertices[i].y);
+			path.closePath();
+		}
+		else if (shape.getType() == ShapeType.CIRCLE) {
+			CircleShape circle = (CircleShape) shape;
+			Vec2[] vecs = vec2Array.get(circlePoints);
+			generateCirle(circle.m_p, circle.m_radius, vecs, circlePoints);
+			path.moveTo(vecs[0].x, vecs[0].y);
+			for (int i = 1; i < circlePoints; i++)
+				path.lineTo(vecs[i].x, vecs[i].y);
+			path.closePath();
+			path.moveTo(circle.m_p.x, circle.m_p.y);
+			path.lineTo(circle.m_p.x + circle.m_radius, circle.m_p.y);
+		}
+		shapePaths.put(shape, path);
+		return path;
+	}
+
 	// CIRCLE GENERATOR
 
 	private void generateCirle(Vec2 argCenter, float argRadius, Vec2[] argPoints, int argNumPoints) {
@@ -58,6 +58,7 @@ public class SwimSettings {
   
   public static final String DrawDragForces = "Draw Drag Forces";
   public static final String DrawDebugChars = "Draw Character Debug Data";
+  public static final String DrawCachedShapes = "Draw Cached Shapes";
   
   public static final String FluidDensity = "Fluid Density";
   public static final String FluidDrag = "Fluid Drag";
@@ -65,23 +66,28 @@ public class SwimSettings {
 
   public boolean pause = false;
   public boolean recording = false; //if true, world images are written to disk; use sparingly
+  public boolean recordRawFrames = false; //if true, recorded frames go to a raw RGB stream rather than PNG files (see FrameRecorder)
   public boolean singleStep = false;
 
   private ArrayList<SwimSetting> settings;
   private final HashMap<String, SwimSetting> settingsMap;
+  
+  //Snapshot of current values read by the simulation loop; rebuilt by recompile()
+  private volatile CompiledSwimSettings compiled;
 
   public SwimSettings() {
     settings = new ArrayList<SwimSetting>();
     settingsMap = new HashMap<String, SwimSetting>();
     populateDefaultSettings();
+    recompile();
   }
 
   private void populateDefaultSettings() {
-    addSetting(new SwimSetting(Hz, SettingType.ENGINE, 60, 1, 400));
-    addSetting(new SwimSetting(PositionIterations, SettingType.ENGINE, 3, 0, 100));
-    addSetting(new SwimSetting(VelocityIterations, SettingType.ENGINE, 8, 1, 100));
-    addSetting(new SwimSetting(WarmStarting, SettingType.ENGINE, true));
-    addSetting(new SwimSetting(ContinuousCollision, SettingType.ENGINE, true));
+    addSetting(new SwimSetting(Hz, SettingType.ENGINE, CompiledSwimSettings.DEFAULT_HZ, 1, 400));
+    addSetting(new SwimSetting(PositionIterations, SettingType.ENGINE, CompiledSwimSettings.DEFAULT_POSITION_ITERATIONS, 0, 100));
+    addSetting(new SwimSetting(VelocityIterations, SettingType.ENGINE, CompiledSwimSettings.DEFAULT_VELOCITY_ITERATIONS, 1, 100));
+    addSetting(new SwimSetting(WarmStarting, SettingType.ENGINE, CompiledSwimSettings.DEFAULT_WARM_STARTING));
+    addSetting(new SwimSetting(ContinuousCollision, SettingType.ENGINE, CompiledSwimSettings.DEFAULT_CONTINUOUS_COLLISION));
     addSetting(new SwimSetting(DrawShapes, SettingType.DRAWING, true));
     addSetting(new SwimSetting(DrawJoints, SettingType.DRAWING, false));
     addSetting(new SwimSetting(DrawAABBs, SettingType.DRAWING, false));
@@ -95,10 +101,11 @@ public class SwimSettings {
     
     addSetting(new SwimSetting(DrawDragForces, SettingType.DRAWING, false));
     addSetting(new SwimSetting(DrawDebugChars, SettingType.DRAWING, true));
+    addSetting(new SwimSetting(DrawCachedShapes, SettingType.DRAWING, true)); //draw bodies from cached outlines, batched by color (see SwimDraw.drawSolidShapes())
     
-    addSetting(new SwimSetting(FluidDensity, SettingType.ENGINE, 1.1, 0, 5, 100));
-    addSetting(new SwimSetting(FluidDrag, SettingType.ENGINE, 0.7, 0, 100, 400));
-    addSetting(new SwimSetting(FluidVelocity, SettingType.ENGINE, 0, -10, 10, 200));
+    addSetting(new SwimSetting(FluidDensity, SettingType.ENGINE, CompiledSwimSettings.DEFAULT_FLUID_DENSITY, 0, 5, 100));
+    addSetting(new SwimSetting(FluidDrag, SettingType.ENGINE, CompiledSwimSettings.DEFAULT_FLUID_DRAG, 0, 100, 400));
+    addSetting(new SwimSetting(FluidVelocity, SettingType.ENGINE, CompiledSwimSettings.DEFAULT_FLUID_VELOCITY, -10, 10, 200));
   }
 
   /**
@@ -130,4 +137,20 @@ public class SwimSettings {
   public SwimSetting getSetting(String argName) {
     return settingsMap.get(argName);
   }
+
+  /**
+   * Gets snapshot of current setting values for use by the simulation loop.
+   * Does not reflect changes made to individual settings until recompile() is called.
+   * @return
+   */
+  public CompiledSwimSettings getCompiled() {
+    return compiled;
+  }
+
+  /**
+   * Rebuilds the compiled snapshot from current setting values. Call after changing any setting.
+   */
+  public void recompile() {
+    compiled = new CompiledSwimSettings(this);
+  }
 }
@@ -312,6 +312,8 @@ public class SwimSidePanel extends JPanel implements ChangeListener, ActionListe
         label.setText(setting.name + ": " + setting.value);
         break;
     }
+    
+    model.getSettings().recompile();
   }
 
   public void actionPerformed(ActionEvent e) {
@@ -30,6 +30,7 @@ import java.util.Arrays;
 
 import ubc.swim.tests.BasicSwimTest;
 import ubc.swim.tests.PaddleTest;
+import ubc.swim.tests.PlaybackSwimTest;
 import ubc.swim.tests.SwimTest;
 
 
@@ -72,6 +73,13 @@ public class SwimTestList {
       orientationPaddleTest.setDefaultCameraPos(5, 10);
       argModel.addTest(orientationPaddleTest);
       
+      //Best candidate of each generation, recorded by SwimOptimizeMain --record; 'n'/'p' switch generations
+      argModel.addCategory("Playback");
+      argModel.addTest(new PlaybackSwimTest("paddle_generations", "./recordings/paddle"));
+      argModel.addTest(new PlaybackSwimTest("tadpole_generations", "./recordings/tadpole"));
+      argModel.addTest(new PlaybackSwimTest("humanFly_generations", "./recordings/humanFly"));
+      argModel.addTest(new PlaybackSwimTest("humanFlyRefTraj_generations", "./recordings/humanFlyRefTraj"));
+      
       argModel.addCategory("Debugging");
       argModel.addTest(new PaddleTest());
   }
@@ -0,0 +1,82 @@
+package ubc.swim.optimization;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+
+import fr.inria.optimization.cmaes.CMAEvolutionStrategy;
+
+/**
+ * Saves and restores the state of a running CMAEvolutionStrategy so that an interrupted
+ * optimization can be continued exactly where it left off.
+ *
+ * The file is a short header identifying the format and its version, followed by the
+ * strategy's state in the fixed binary layout of CMAEvolutionStrategy.writeState(): mean, step
+ * size, covariance and its eigendecomposition, evolution paths, fitness history, counters and the
+ * RNG state. Options and strategy parameters aren't saved; a checkpoint is read into a strategy
+ * set up and initialized the same way as the one that was saved. VERSION must be bumped whenever
+ * the layout changes, so older checkpoints are refused rather than misread.
+ *
+ * @author Ben Humberston
+ *
+ */
+public class CMACheckpoint {
+	protected static final int MAGIC = 0x53574350; //"SWCP"
+	protected static final int VERSION = 2;
+
+	/**
+	 * Writes state of given strategy to given file. The file is replaced atomically, so
+	 * an interruption while writing leaves the previous checkpoint intact.
+	 * @param cma
+	 * @param file
+	 * @throws IOException
+	 */
+	public static void write(CMAEvolutionStrategy cma, File file) throws IOException {
+		File tempFile = new File(file.getPath() + ".tmp");
+
+		DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(tempFile)));
+		try {
+			out.writeInt(MAGIC);
+			out.writeInt(VERSION);
+			cma.writeState(out);
+		}
+		finally {
+			out.close();
+		}
+
+		Files.move(tempFile.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+	}
+
+	/**
+	 * Restores state saved by write() into given strategy, which must have been set up and
+	 * initialized (see CMAEvolutionStrategy.init()) like the one that was saved
+	 * @param cma
+	 * @param file
+	 * @throws IOException if file is missing, unreadable, not a checkpoint, or saved for a
+	 * different dimension or population size
+	 */
+	public static void read(CMAEvolutionStrategy cma, File file) throws IOException {
+		DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)));
+		try {
+			if (in.readInt() != MAGIC)
+				throw new IOException(file + " is not a CMA checkpoint");
+			int version = in.readInt();
+			if (version != VERSION)
+				throw new IOException("Unsupported checkpoint version " + version + " in " + file);
+
+			cma.readState(in);
+			if (in.read() != -1)
+				throw new IOException("Unexpected data after state in checkpoint " + file);
+		}
+		finally {
+			in.close();
+		}
+	}
+}
@@ -0,0 +1,108 @@
+package ubc.swim.optimization;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+
+/**
+ * Wraps a fitness function so that control vectors that were already scored (by this 
+ * function, any of its copies, or an earlier run if the cache was loaded from disk)
+ * aren't simulated again.
+ * 
+ * Cache keys combine the full fitness function configuration (character, goals, weights)
+ * with the control vector, so differently configured functions can safely share one cache.
+ * Controls are compared exactly unless the cache has a quantum (see FitnessCache), in which case
+ * vectors that round to the same multiples of the quantum share a result.
+ * 
+ * Note that getCharacter() reflects the last evaluation that actually ran a simulation. Values of 
+ * evaluations stopped early by a cost cutoff are not cached.
+ * 
+ * @author Ben Humberston
+ *
+ */
+public class CachedSwimFitnessFunction extends SwimFitnessFunction {
+	protected final SwimFitnessFunctionA fitFun;
+	protected final FitnessCache cache;
+	
+	/**
+	 * @param fitFun function used to compute values not yet in cache
+	 * @param cache cache shared with other functions
+	 */
+	public CachedSwimFitnessFunction(SwimFitnessFunctionA fitFun, FitnessCache cache) {
+		this.fitFun = fitFun;
+		this.cache = cache;
+	}
+	
+	public FitnessCache getCache() { return cache; }
+	
+	/** Returns the wrapped fitness function */
+	public SwimFitnessFunctionA getFitnessFunction() { return fitFun; }
+	
+	@Override
+	public double valueOf(double[] x) {
+		byte[] key = makeKey(x);
+		
+		lastEvaluationCutOff = false;
+		lastStepsSaved = 0;
+		
+		//Set even on a hit, so the wrapped function never keeps a cutoff from an earlier call
+		fitFun.setCostCutoff(costCutoff);
+		
+		Double value = cache.get(key);
+		if (value != null)
+			return value;
+		
+		double result = fitFun.valueOf(x);
+		
+		//Values from evaluations stopped by the cutoff are only bounds, so they aren't cached
+		lastEvaluationCutOff = fitFun.wasLastEvaluationCutOff();
+		lastStepsSaved = fitFun.getLastStepsSaved();
+		if (!lastEvaluationCutOff)
+			cache.put(key, result);
+		return result;
+	}
+	
+	@Override
+	public boolean isFeasible(double[] x) {
+		return fitFun.isFeasible(x);
+	}
+	
+	@Override
+	public ubc.swim.world.characters.SwimCharacter getCharacter() {
+		return fitFun.getCharacter();
+	}
+	
+	@Override
+	public int getNumControlDimensions() {
+		return fitFun.getNumControlDimensions();
+	}
+	
+	/**
+	 * Returns a wrapper around a copy of the wrapped function, sharing this function's cache
+	 */
+	@Override
+	public SwimFitnessFunction copy() {
+		return new CachedSwimFitnessFunction((SwimFitnessFunctionA) fitFun.copy(), cache);
+	}
+	
+	protected byte[] makeKey(double[] x) {
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream(64 + 8 * x.length);
+		DataOutputStream out = new DataOutputStream(bytes);
+		try {
+			double quantum = cache.getQuantum();
+			fitFun.writeConfig(out);
+			out.writeDouble(quantum);
+			out.writeInt(x.length);
+			for (double val : x) {
+				if (quantum > 0)
+					out.writeLong(Math.round(val / quantum));
+				else
+					out.writeLong(Double.doubleToLongBits(val));
+			}
+		}
+		catch (IOException e) {
+			throw new RuntimeException("Failed to build fitness cache key", e); //can't happen with in-memory stream
+		}
+		return bytes.toByteArray();
+	}
+}
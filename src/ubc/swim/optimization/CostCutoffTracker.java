@@ -0,0 +1,85 @@
+package ubc.swim.optimization;
+
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.Set;
+
+/**
+ * Finds the cost above which a candidate of one CMA generation can't be among the mu best,
+ * ie: can't be selected for recombination.
+ * 
+ * The cutoff is fixed by the first mu candidates evaluated: once they're all in, any later
+ * candidate costing more than the worst of them can't be selected. Later values don't tighten
+ * the cutoff, so the result of each later candidate doesn't depend on the order in which the
+ * others finish; evaluators must finish the first mu candidates before starting the rest (see
+ * ParallelSwimFitnessFunction) for serial and threaded runs to give identical values.
+ * 
+ * One tracker covers a whole generation, and must only be given values that CMA will see
+ * unchanged. Evaluators that call the simulation in several batches per generation (see
+ * SurrogateAssistedEvaluator, MultiFidelityEvaluator) share it, so the cutoff isn't reset per
+ * batch. Candidates that were cut off are recorded, since their values are only extrapolated
+ * bounds; candidates are matched by array identity.
+ * 
+ * Safe for use by several evaluation threads at once.
+ * 
+ * @author Ben Humberston
+ *
+ */
+public class CostCutoffTracker {
+	protected final int numSelected;
+	protected int numValues = 0;
+	protected double cutoff = Double.NEGATIVE_INFINITY;
+	protected final Set<double[]> cutOffCandidates = Collections.newSetFromMap(new IdentityHashMap<double[], Boolean>());
+	protected long stepsSaved = 0;
+	
+	/**
+	 * @param numSelected number of candidates CMA selects from each generation (mu)
+	 */
+	public CostCutoffTracker(int numSelected) {
+		if (numSelected < 1)
+			throw new IllegalArgumentException("Number of selected candidates must be at least 1");
+		
+		this.numSelected = numSelected;
+	}
+	
+	/** Returns number of candidates that must be evaluated before the cutoff is fixed (mu) */
+	public int getNumSelected() { return numSelected; }
+	
+	/** Returns number of values still needed before the cutoff is fixed */
+	public synchronized int getNumRemaining() { return numSelected - numValues; }
+	
+	/**
+	 * Returns cost above which a candidate will not be selected, or positive infinity
+	 * if fewer than numSelected candidates have been evaluated so far
+	 */
+	public synchronized double getCutoff() {
+		if (numValues < numSelected)
+			return Double.POSITIVE_INFINITY;
+		return cutoff;
+	}
+	
+	/**
+	 * Records fitness value of an evaluated candidate; only the first numSelected values count
+	 */
+	public synchronized void add(double value) {
+		if (numValues < numSelected) {
+			cutoff = Math.max(cutoff, value);
+			numValues++;
+		}
+	}
+	
+	/**
+	 * Records that evaluation of given candidate was stopped by the cutoff, saving given number
+	 * of simulation steps
+	 */
+	public synchronized void addCutOff(double[] candidate, long numStepsSaved) {
+		cutOffCandidates.add(candidate);
+		stepsSaved += numStepsSaved;
+	}
+	
+	/** Returns true if evaluation of given candidate (the same array) was stopped by the cutoff */
+	public synchronized boolean isCutOff(double[] candidate) { return cutOffCandidates.contains(candidate); }
+	
+	/** Returns total number of simulation steps skipped by the cutoff so far */
+	public synchronized long getStepsSaved() { return stepsSaved; }
+}
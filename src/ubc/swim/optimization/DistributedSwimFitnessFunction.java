@@ -0,0 +1,324 @@
+package ubc.swim.optimization;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.SocketException;
+import java.net.SocketTimeoutException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.LinkedBlockingDeque;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Coordinator side of distributed fitness evaluation. Listens on a socket for 
+ * SwimEvaluationWorker connections (possibly from other machines) and spreads each
+ * CMA population across all connected workers.
+ * 
+ * Workers may join at any time. If a worker dies or disconnects mid-generation, the 
+ * candidate it was evaluating is put back in the queue and dispatched to another worker,
+ * so a generation only stalls if no workers at all are left. A worker that hangs (or is
+ * stopped, or loses its network silently) is treated the same way once it has gone without
+ * answering for much longer than any evaluation so far has taken (see getResultTimeoutMillis()).
+ * 
+ * @author Ben Humberston
+ *
+ */
+public class DistributedSwimFitnessFunction implements SwimPopulationEvaluator {
+	private static final Logger log = LoggerFactory.getLogger(DistributedSwimFitnessFunction.class);
+	
+	//How often an idle connection checks whether the evaluator has been shut down
+	protected static final long POLL_MILLIS = 200;
+	//How often to complain while a generation is waiting with no workers connected
+	protected static final long NO_WORKER_WARNING_MILLIS = 10000;
+	//How long a worker may take over its first candidate, which includes scenario setup and JIT warm up
+	protected static final long FIRST_RESULT_TIMEOUT_MILLIS = 300000;
+	//After that, how many times the slowest evaluation so far a worker may take before it's presumed hung
+	protected static final long RESULT_TIMEOUT_FACTOR = 10;
+	protected static final long MIN_RESULT_TIMEOUT_MILLIS = 10000;
+	
+	/**
+	 * One population, as passed to valuesOf()
+	 */
+	protected static class Batch {
+		protected final double[][] pop;
+		protected final double[] values;
+		protected final String[] stats;
+		protected final CountDownLatch remaining;
+		protected volatile String failure = null;
+		
+		protected Batch(double[][] pop) {
+			this.pop = pop;
+			values = new double[pop.length];
+			stats = new String[pop.length];
+			remaining = new CountDownLatch(pop.length);
+		}
+	}
+	
+	/**
+	 * A single candidate waiting to be evaluated
+	 */
+	protected static class Task {
+		protected final Batch batch;
+		protected final int index;
+		
+		protected Task(Batch batch, int index) {
+			this.batch = batch;
+			this.index = index;
+		}
+	}
+	
+	protected final SwimFitnessFunctionA fitFun;
+	protected final ServerSocket serverSocket;
+	protected final LinkedBlockingDeque<Task> pendingTasks = new LinkedBlockingDeque<Task>();
+	protected final AtomicInteger numConnectedWorkers = new AtomicInteger(0);
+	//Slowest round trip for a single candidate so far, over all workers
+	protected final AtomicLong longestEvaluationMillis = new AtomicLong(0);
+	protected final List<Process> localWorkers = new ArrayList<Process>();
+	protected volatile boolean shutdown = false;
+	protected Batch lastBatch = null;
+	
+	/**
+	 * Creates coordinator listening for workers on given port
+	 * @param fitFun fitness function; its configuration is sent to every worker
+	 * @param port TCP port to listen on (0 picks any free port; see getPort())
+	 * @throws IOException if port can't be opened
+	 */
+	public DistributedSwimFitnessFunction(SwimFitnessFunctionA fitFun, int port) throws IOException {
+		this.fitFun = fitFun;
+		serverSocket = new ServerSocket(port);
+		
+		Thread acceptThread = new Thread(new Runnable() {
+			@Override
+			public void run() {
+				acceptWorkers();
+			}
+		}, "SwimCoordinator-accept");
+		acceptThread.setDaemon(true);
+		acceptThread.start();
+		
+		log.info("Waiting for evaluation workers on port " + getPort());
+	}
+	
+	/** Returns port this coordinator listens on */
+	public int getPort() { return serverSocket.getLocalPort(); }
+	
+	/** Returns number of workers currently connected */
+	public int getNumWorkers() { return numConnectedWorkers.get(); }
+	
+	/**
+	 * Returns how long to wait for a worker's result before dropping the worker and handing its
+	 * candidate to another one
+	 * @param firstResult true if the worker hasn't returned any results yet
+	 */
+	public long getResultTimeoutMillis(boolean firstResult) {
+		if (firstResult)
+			return FIRST_RESULT_TIMEOUT_MILLIS;
+		return Math.max(MIN_RESULT_TIMEOUT_MILLIS, RESULT_TIMEOUT_FACTOR * longestEvaluationMillis.get());
+	}
+	
+	/**
+	 * Starts given number of worker processes on this machine, connected to this coordinator.
+	 * They are stopped when shutdown() is called.
+	 * @param numWorkers
+	 * @throws IOException
+	 */
+	public void launchLocalWorkers(int numWorkers) throws IOException {
+		for (int i = 0; i < numWorkers; i++)
+			localWorkers.add(SwimEvaluationWorker.launchLocalWorker(getPort()));
+	}
+	
+	/**
+	 * Returns fitness values for each control strategy in given population, as computed
+	 * by connected workers. The i-th returned value is the fitness of pop[i].
+	 * Blocks until every candidate has been evaluated.
+	 */
+	@Override
+	public double[] valuesOf(double[][] pop) {
+		Batch batch = new Batch(pop);
+		for (int i = 0; i < pop.length; i++)
+			pendingTasks.addLast(new Task(batch, i));
+		
+		try {
+			while (!batch.remaining.await(NO_WORKER_WARNING_MILLIS, TimeUnit.MILLISECONDS)) {
+				if (numConnectedWorkers.get() == 0)
+					log.warn("No evaluation workers connected; " + batch.remaining.getCount() + " candidates waiting");
+			}
+		}
+		catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new RuntimeException("Interrupted during population evaluation", e);
+		}
+		
+		if (batch.failure != null)
+			throw new RuntimeException("Fitness evaluation failed on worker: " + batch.failure);
+		
+		lastBatch = batch;
+		return batch.values;
+	}
+	
+	/**
+	 * Returns character statistics reported by the worker that evaluated the i-th candidate
+	 * of the last population passed to valuesOf()
+	 */
+	public String getLastStatistics(int i) {
+		return lastBatch == null ? null : lastBatch.stats[i];
+	}
+	
+	/**
+	 * Tells connected workers to exit, stops listening for new ones, and waits for any
+	 * local worker processes to finish
+	 */
+	@Override
+	public void shutdown() {
+		shutdown = true;
+		try {
+			serverSocket.close();
+		}
+		catch (IOException e) {
+			log.warn("Error closing coordinator socket", e);
+		}
+		
+		for (Process worker : localWorkers) {
+			try {
+				if (!worker.waitFor(5, TimeUnit.SECONDS))
+					worker.destroy();
+			}
+			catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				worker.destroy();
+			}
+		}
+		localWorkers.clear();
+	}
+	
+	protected void acceptWorkers() {
+		while (!shutdown) {
+			final Socket socket;
+			try {
+				socket = serverSocket.accept();
+			}
+			catch (SocketException e) {
+				break; //socket closed by shutdown()
+			}
+			catch (IOException e) {
+				log.warn("Failed to accept worker connection", e);
+				continue;
+			}
+			
+			Thread connectionThread = new Thread(new Runnable() {
+				@Override
+				public void run() {
+					serveWorker(socket);
+				}
+			}, "SwimCoordinator-" + socket.getRemoteSocketAddress());
+			connectionThread.setDaemon(true);
+			connectionThread.start();
+		}
+	}
+	
+	/**
+	 * Feeds pending candidates to a single worker, one at a time, until shutdown or
+	 * until the worker's connection fails or it takes too long to answer
+	 */
+	protected void serveWorker(Socket socket) {
+		String workerName = String.valueOf(socket.getRemoteSocketAddress());
+		Task task = null;
+		int numResults = 0;
+		long timeoutMillis = 0;
+		
+		numConnectedWorkers.incrementAndGet();
+		log.info("Evaluation worker connected: " + workerName);
+		try {
+			socket.setTcpNoDelay(true);
+			DataInputStream in = new DataInputStream(new BufferedInputStream(socket.getInputStream()));
+			DataOutputStream out = new DataOutputStream(new BufferedOutputStream(socket.getOutputStream()));
+			
+			out.writeInt(EvaluationProtocol.MSG_CONFIG);
+			out.writeInt(EvaluationProtocol.VERSION);
+			fitFun.writeConfig(out);
+			out.flush();
+			
+			while (!shutdown) {
+				task = pendingTasks.pollFirst(POLL_MILLIS, TimeUnit.MILLISECONDS);
+				if (task == null)
+					continue;
+				
+				//Reads below fail with a SocketTimeoutException if the worker doesn't answer in time
+				timeoutMillis = getResultTimeoutMillis(numResults == 0);
+				socket.setSoTimeout((int)Math.min(timeoutMillis, Integer.MAX_VALUE));
+				long startMillis = System.currentTimeMillis();
+				
+				out.writeInt(EvaluationProtocol.MSG_EVALUATE);
+				out.writeInt(task.index);
+				EvaluationProtocol.writeControls(out, task.batch.pop[task.index]);
+				out.flush();
+				
+				int msgType = in.readInt();
+				int candidateIdx = in.readInt();
+				if (candidateIdx != task.index)
+					throw new IOException("Worker answered for candidate " + candidateIdx + " instead of " + task.index);
+				
+				if (msgType == EvaluationProtocol.MSG_RESULT) {
+					task.batch.values[task.index] = in.readDouble();
+					task.batch.stats[task.index] = in.readUTF();
+				}
+				else if (msgType == EvaluationProtocol.MSG_ERROR) {
+					task.batch.failure = in.readUTF();
+				}
+				else 
+					throw new IOException("Unexpected message type from worker: " + msgType);
+				
+				recordEvaluationTime(System.currentTimeMillis() - startMillis);
+				numResults++;
+				
+				task.batch.remaining.countDown();
+				task = null;
+			}
+			
+			out.writeInt(EvaluationProtocol.MSG_SHUTDOWN);
+			out.flush();
+		}
+		catch (SocketTimeoutException e) {
+			log.warn("Evaluation worker " + workerName + " sent no result in " + timeoutMillis + " ms; dropping it");
+		}
+		catch (IOException e) {
+			log.warn("Lost evaluation worker " + workerName + ": " + e);
+		}
+		catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+		finally {
+			//Hand unfinished candidate to another worker
+			if (task != null)
+				pendingTasks.addFirst(task);
+			
+			numConnectedWorkers.decrementAndGet();
+			try {
+				socket.close();
+			}
+			catch (IOException e) {
+				//nothing more to do with this worker anyway
+			}
+		}
+	}
+	
+	/** Raises longest evaluation time to given one, if longer */
+	protected void recordEvaluationTime(long millis) {
+		long longest;
+		while (millis > (longest = longestEvaluationMillis.get())) {
+			if (longestEvaluationMillis.compareAndSet(longest, millis))
+				break;
+		}
+	}
+}
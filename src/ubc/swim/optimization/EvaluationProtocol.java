@@ -0,0 +1,50 @@
+package ubc.swim.optimization;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+
+/**
+ * Message format shared by DistributedSwimFitnessFunction (coordinator) and 
+ * SwimEvaluationWorker. All messages are sent with DataOutput over a socket:
+ * 
+ * coordinator -> worker:
+ *   CONFIG   version, SwimFitnessFunctionA config  (sent once, right after connecting)
+ *   EVALUATE candidate index, control vector
+ *   SHUTDOWN
+ * 
+ * worker -> coordinator:
+ *   RESULT   candidate index, cost, character statistics
+ *   ERROR    candidate index, error message
+ * 
+ * @author Ben Humberston
+ *
+ */
+final class EvaluationProtocol {
+	static final int VERSION = 6;
+	
+	static final int MSG_CONFIG = 1;
+	static final int MSG_EVALUATE = 2;
+	static final int MSG_SHUTDOWN = 3;
+	static final int MSG_RESULT = 4;
+	static final int MSG_ERROR = 5;
+	
+	private EvaluationProtocol() {}
+	
+	static void writeControls(DataOutput out, double[] x) throws IOException {
+		out.writeInt(x.length);
+		for (double val : x)
+			out.writeDouble(val);
+	}
+	
+	static double[] readControls(DataInput in) throws IOException {
+		int length = in.readInt();
+		if (length < 0)
+			throw new IOException("Invalid control vector length: " + length);
+		
+		double[] x = new double[length];
+		for (int i = 0; i < length; i++)
+			x[i] = in.readDouble();
+		return x;
+	}
+}
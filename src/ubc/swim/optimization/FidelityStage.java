@@ -0,0 +1,83 @@
+package ubc.swim.optimization;
+
+/**
+ * Configuration of one cheap screening stage used by MultiFidelityEvaluator.
+ *
+ * A stage runs the full fitness function with a shorter runtime, a lower simulation rate and/or
+ * fewer constraint solver iterations, then promotes only its best candidates to the next stage.
+ * Non-positive values for hz and solver iterations keep the values of the full function.
+ *
+ * @author Ben Humberston
+ *
+ */
+public class FidelityStage {
+	protected final float runtimeScale;
+	protected final float hz;
+	protected final int velocityIterations;
+	protected final int positionIterations;
+	protected final double promotionFraction;
+
+	/**
+	 * @param runtimeScale fraction of the full function's max runtime that is simulated
+	 * @param hz simulation steps per second
+	 * @param velocityIterations
+	 * @param positionIterations
+	 * @param promotionFraction fraction of candidates that move on to the next stage (at least one always does)
+	 */
+	public FidelityStage(float runtimeScale, float hz, int velocityIterations, int positionIterations, double promotionFraction) {
+		if (runtimeScale <= 0)
+			throw new IllegalArgumentException("Runtime scale must be positive");
+		if (promotionFraction <= 0 || promotionFraction > 1)
+			throw new IllegalArgumentException("Promotion fraction must be in (0, 1]");
+
+		this.runtimeScale = runtimeScale;
+		this.hz = hz;
+		this.velocityIterations = velocityIterations;
+		this.positionIterations = positionIterations;
+		this.promotionFraction = promotionFraction;
+	}
+
+	/**
+	 * Parses a stage from "runtimeScale,hz,velocityIterations,positionIterations,promotionFraction",
+	 * eg: "0.5,30,4,2,0.5"
+	 */
+	public static FidelityStage parse(String str) {
+		String[] vals = str.split(",");
+		if (vals.length != 5)
+			throw new IllegalArgumentException("Expected runtimeScale,hz,velocityIterations,positionIterations,promotionFraction but got " + str);
+
+		return new FidelityStage(Float.parseFloat(vals[0]), Float.parseFloat(vals[1]),
+				Integer.parseInt(vals[2]), Integer.parseInt(vals[3]), Double.parseDouble(vals[4]));
+	}
+
+	public double getPromotionFraction() { return promotionFraction; }
+
+	/** Returns number of candidates promoted out of given number screened by this stage */
+	public int getNumPromoted(int numCandidates) {
+		int numPromoted = (int)Math.ceil(promotionFraction * numCandidates);
+		return Math.max(1, Math.min(numPromoted, numCandidates));
+	}
+
+	/**
+	 * Returns a copy of given full fidelity function configured for this stage
+	 */
+	public SwimFitnessFunctionA createFitnessFunction(SwimFitnessFunctionA fullFitFun) {
+		SwimFitnessFunctionA fitFun = (SwimFitnessFunctionA) fullFitFun.copy();
+		fitFun.setMaxRuntime(fullFitFun.getMaxRuntime() * runtimeScale);
+		if (hz > 0)
+			fitFun.setSimulationHz(hz);
+		fitFun.setSolverIterations(
+				velocityIterations > 0 ? velocityIterations : fullFitFun.velocityIterations,
+				positionIterations > 0 ? positionIterations : fullFitFun.positionIterations);
+		return fitFun;
+	}
+
+	@Override
+	public String toString() {
+		return String.format("runtime x%.2f, %s Hz, %s/%s iterations, promote %.0f%%", runtimeScale,
+				hz > 0 ? String.format("%.0f", hz) : "full",
+				velocityIterations > 0 ? Integer.toString(velocityIterations) : "full",
+				positionIterations > 0 ? Integer.toString(positionIterations) : "full",
+				100 * promotionFraction);
+	}
+}
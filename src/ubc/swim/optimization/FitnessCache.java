@@ -0,0 +1,201 @@
+package ubc.swim.optimization;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Bounded, least-recently-used cache of fitness values, shared by any number of 
+ * CachedSwimFitnessFunction instances (and threads). Keys are opaque byte strings built
+ * by CachedSwimFitnessFunction from the fitness function configuration and control vector.
+ * 
+ * Control values can be rounded to multiples of a quantum when keys are built, so that nearly
+ * identical vectors (eg: resampled candidates) share a result. The quantum belongs to the cache, so
+ * every function sharing it rounds the same way, and it is saved with the cache.
+ * 
+ * Can be saved to and loaded from disk so that results carry over between runs.
+ * 
+ * @author Ben Humberston
+ *
+ */
+public class FitnessCache {
+	protected static final int MAGIC = 0x53574643; //"SWFC"
+	protected static final int VERSION = 2;
+	
+	/**
+	 * Cache key; compares by content
+	 */
+	protected static final class Key {
+		protected final byte[] bytes;
+		protected final int hash;
+		
+		protected Key(byte[] bytes) {
+			this.bytes = bytes;
+			this.hash = Arrays.hashCode(bytes);
+		}
+		
+		@Override
+		public int hashCode() { return hash; }
+		
+		@Override
+		public boolean equals(Object obj) {
+			return obj instanceof Key && Arrays.equals(bytes, ((Key) obj).bytes);
+		}
+	}
+	
+	protected final int capacity;
+	protected final double quantum;
+	protected final LinkedHashMap<Key, Double> entries;
+	protected final AtomicLong numHits = new AtomicLong(0);
+	protected final AtomicLong numMisses = new AtomicLong(0);
+	
+	/**
+	 * Creates empty cache that matches control values exactly
+	 * @param capacity maximum number of entries; least recently used entries are dropped beyond this
+	 */
+	public FitnessCache(int capacity) {
+		this(capacity, 0);
+	}
+	
+	/**
+	 * Creates empty cache
+	 * @param capacity maximum number of entries; least recently used entries are dropped beyond this
+	 * @param quantum resolution to which control values are rounded when building keys (0 means exact match)
+	 */
+	public FitnessCache(final int capacity, double quantum) {
+		if (capacity < 1)
+			throw new IllegalArgumentException("Cache capacity must be at least 1");
+		if (quantum < 0)
+			throw new IllegalArgumentException("Cache quantum can't be negative");
+		
+		this.capacity = capacity;
+		this.quantum = quantum;
+		entries = new LinkedHashMap<Key, Double>(16, 0.75f, true) {
+			private static final long serialVersionUID = 1L;
+			
+			@Override
+			protected boolean removeEldestEntry(Map.Entry<Key, Double> eldest) {
+				return size() > capacity;
+			}
+		};
+	}
+	
+	/**
+	 * Returns cached value for given key, or null if not present. Updates hit/miss counts.
+	 */
+	public Double get(byte[] key) {
+		Double value;
+		synchronized (entries) {
+			value = entries.get(new Key(key));
+		}
+		
+		if (value != null) numHits.incrementAndGet();
+		else numMisses.incrementAndGet();
+		return value;
+	}
+	
+	public void put(byte[] key, double value) {
+		synchronized (entries) {
+			entries.put(new Key(key), value);
+		}
+	}
+	
+	public int size() {
+		synchronized (entries) {
+			return entries.size();
+		}
+	}
+	
+	public int getCapacity() { return capacity; }
+	
+	/** Returns resolution to which control values are rounded when building keys (0 means exact match) */
+	public double getQuantum() { return quantum; }
+	public long getNumHits() { return numHits.get(); }
+	public long getNumMisses() { return numMisses.get(); }
+	
+	/** Clears cached entries and hit/miss counts */
+	public void clear() {
+		synchronized (entries) {
+			entries.clear();
+		}
+		numHits.set(0);
+		numMisses.set(0);
+	}
+	
+	/**
+	 * Writes all entries to given file, least recently used first. The file is replaced atomically.
+	 * @param file
+	 * @throws IOException
+	 */
+	public void save(File file) throws IOException {
+		File tempFile = new File(file.getPath() + ".tmp");
+		
+		DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(tempFile)));
+		try {
+			out.writeInt(MAGIC);
+			out.writeInt(VERSION);
+			out.writeDouble(quantum);
+			synchronized (entries) {
+				out.writeInt(entries.size());
+				for (Map.Entry<Key, Double> entry : entries.entrySet()) {
+					out.writeInt(entry.getKey().bytes.length);
+					out.write(entry.getKey().bytes);
+					out.writeDouble(entry.getValue());
+				}
+			}
+		}
+		finally {
+			out.close();
+		}
+		
+		Files.move(tempFile.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+	}
+	
+	/**
+	 * Adds entries saved by save() to this cache
+	 * @param file
+	 * @throws IOException if file is unreadable, not a fitness cache, or was saved with a different quantum
+	 */
+	public void load(File file) throws IOException {
+		DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)));
+		try {
+			if (in.readInt() != MAGIC)
+				throw new IOException(file + " is not a fitness cache");
+			int version = in.readInt();
+			if (version != VERSION)
+				throw new IOException("Unsupported fitness cache version " + version + " in " + file);
+			double fileQuantum = in.readDouble();
+			if (fileQuantum != quantum)
+				throw new IOException("Fitness cache " + file + " was saved with quantum " + fileQuantum + ", not " + quantum);
+			
+			int numEntries = in.readInt();
+			for (int i = 0; i < numEntries; i++) {
+				byte[] key = new byte[in.readInt()];
+				in.readFully(key);
+				put(key, in.readDouble());
+			}
+		}
+		finally {
+			in.close();
+		}
+	}
+	
+	@Override
+	public String toString() {
+		long hits = getNumHits();
+		long total = hits + getNumMisses();
+		return String.format("%d/%d entries%s, %d hits, %d misses (%.1f%% hit rate)", size(), capacity, 
+				quantum > 0 ? " (quantum " + quantum + ")" : "", hits, total - hits, total == 0 ? 0.0 : 100.0 * hits / total);
+	}
+}
@@ -0,0 +1,343 @@
+package ubc.swim.optimization;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Evaluates CMA populations in stages of increasing fidelity. Each screening stage (see FidelityStage)
+ * scores the candidates that survived the previous stage with a cheap simulation and promotes only its
+ * best ones; the final survivors are scored by the full fidelity evaluator.
+ *
+ * CMA only uses the ranking of a population, so candidates dropped by a stage are given values that
+ * rank them below every candidate that went further, in the order of their screening cost. Every stage
+ * promotes at least mu candidates (whatever its promotion fraction), so CMA's selection only sees full
+ * fidelity values.
+ *
+ * To check that screening is trustworthy, every calibrationInterval'th population is scored at every
+ * fidelity, and the Spearman rank correlation between each stage and the full evaluation is logged,
+ * along with the fraction of the truly best candidates the stage would have promoted.
+ *
+ * @author Ben Humberston
+ *
+ */
+public class MultiFidelityEvaluator implements SwimPopulationEvaluator {
+	private static final Logger log = LoggerFactory.getLogger(MultiFidelityEvaluator.class);
+
+	protected final SwimPopulationEvaluator fullEvaluator;
+	protected final int numSelected;
+	protected final List<FidelityStage> stages = new ArrayList<FidelityStage>();
+	protected final List<SwimPopulationEvaluator> stageEvaluators = new ArrayList<SwimPopulationEvaluator>();
+
+	protected int calibrationInterval = 10;
+	protected int numPopulations = 0;
+	protected boolean warnedPromotionClamp = false;
+
+	//Statistics, per stage
+	protected double[] lastRankCorrelations = new double[0];
+	protected double[] lastCalibrationCorrelations = new double[0];
+	protected double[] lastCalibrationRecalls = new double[0];
+	protected long numFullEvaluations = 0;
+	protected long numCandidates = 0;
+
+	/**
+	 * @param fullEvaluator evaluator used for candidates that pass all screening stages
+	 * @param numSelected number of candidates CMA selects from each population (mu); no stage promotes fewer
+	 */
+	public MultiFidelityEvaluator(SwimPopulationEvaluator fullEvaluator, int numSelected) {
+		if (numSelected < 1)
+			throw new IllegalArgumentException("Number of selected candidates must be at least 1");
+		
+		this.fullEvaluator = fullEvaluator;
+		this.numSelected = numSelected;
+	}
+
+	/**
+	 * Adds a screening stage, run after any stages already added
+	 * @param stage
+	 * @param evaluator evaluator using the stage's fitness function (see FidelityStage.createFitnessFunction())
+	 */
+	public void addStage(FidelityStage stage, SwimPopulationEvaluator evaluator) {
+		stages.add(stage);
+		stageEvaluators.add(evaluator);
+
+		lastRankCorrelations = newNaNArray(stages.size());
+		lastCalibrationCorrelations = newNaNArray(stages.size());
+		lastCalibrationRecalls = newNaNArray(stages.size());
+	}
+
+	/**
+	 * Returns number of candidates given stage promotes out of given number screened: the stage's own
+	 * count (see FidelityStage.getNumPromoted()), raised to numSelected if lower
+	 */
+	public int getNumPromoted(int stageIdx, int numCandidates) {
+		int numPromoted = stages.get(stageIdx).getNumPromoted(numCandidates);
+		if (numPromoted < numSelected && numPromoted < numCandidates) {
+			if (!warnedPromotionClamp) {
+				log.warn("Fidelity stage " + (stageIdx + 1) + " (" + stages.get(stageIdx) + ") promotes " + numPromoted + " of "
+						+ numCandidates + " candidates; promoting " + Math.min(numSelected, numCandidates) + " so all selected candidates get full fidelity values");
+				warnedPromotionClamp = true;
+			}
+			numPromoted = Math.min(numSelected, numCandidates);
+		}
+		return numPromoted;
+	}
+
+	/** Sets how often (in populations) all candidates are scored at all fidelities to measure rank correlation; 0 disables */
+	public void setCalibrationInterval(int val) { this.calibrationInterval = val; }
+
+	/** Returns rank correlation of given stage with full fidelity values, among candidates of the last population that had both */
+	public double getLastRankCorrelation(int stageIdx) { return lastRankCorrelations[stageIdx]; }
+
+	/** Returns rank correlation of given stage with full fidelity values over a whole population, from the last calibration */
+	public double getLastCalibrationCorrelation(int stageIdx) { return lastCalibrationCorrelations[stageIdx]; }
+
+	/** Returns fraction of full fidelity top candidates that given stage promoted, from the last calibration */
+	public double getLastCalibrationRecall(int stageIdx) { return lastCalibrationRecalls[stageIdx]; }
+
+	/** Returns fraction of candidates so far that were evaluated at full fidelity */
+	public double getFullEvaluationFraction() {
+		return numCandidates == 0 ? 0 : (double)numFullEvaluations / numCandidates;
+	}
+
+	@Override
+	public double[] valuesOf(double[][] pop) {
+		boolean calibrate = calibrationInterval > 0 && numPopulations % calibrationInterval == 0;
+		numPopulations++;
+
+		int numStages = stages.size();
+		double[][] stageValues = new double[numStages][];
+		int[] eliminationStage = new int[pop.length]; //stage at which each candidate was dropped (numStages if never)
+		Arrays.fill(eliminationStage, numStages);
+
+		//Screen survivors of each stage in turn
+		int[] survivors = allIndices(pop.length);
+		for (int s = 0; s < numStages; s++) {
+			stageValues[s] = newNaNArray(pop.length);
+			double[] values = stageEvaluators.get(s).valuesOf(subset(pop, survivors));
+			for (int i = 0; i < survivors.length; i++)
+				stageValues[s][survivors[i]] = values[i];
+
+			//When calibrating, every candidate goes on to every stage
+			if (!calibrate) {
+				int[] promoted = best(survivors, stageValues[s], getNumPromoted(s, survivors.length));
+				for (int idx : survivors) {
+					if (!contains(promoted, idx))
+						eliminationStage[idx] = s;
+				}
+				survivors = promoted;
+			}
+		}
+
+		//Score final survivors at full fidelity
+		double[] fullValues = newNaNArray(pop.length);
+		double[] values = fullEvaluator.valuesOf(subset(pop, survivors));
+		for (int i = 0; i < survivors.length; i++)
+			fullValues[survivors[i]] = values[i];
+		numFullEvaluations += survivors.length;
+		numCandidates += pop.length;
+
+		updateStatistics(stageValues, fullValues, calibrate);
+
+		return combineValues(stageValues, fullValues, eliminationStage);
+	}
+
+	/**
+	 * Builds final values for CMA: full fidelity values for candidates that passed every stage, then
+	 * candidates dropped by later stages ranked ahead of those dropped earlier. Dropped candidates are
+	 * ordered by their screening cost, offset to lie above every value ranked ahead of them.
+	 */
+	protected double[] combineValues(double[][] stageValues, double[] fullValues, int[] eliminationStage) {
+		int numStages = stages.size();
+		double[] result = new double[fullValues.length];
+
+		double worst = Double.NEGATIVE_INFINITY;
+		for (int i = 0; i < result.length; i++) {
+			if (eliminationStage[i] == numStages) {
+				result[i] = fullValues[i];
+				worst = Math.max(worst, result[i]);
+			}
+		}
+
+		for (int s = numStages - 1; s >= 0; s--) {
+			double minDropped = Double.POSITIVE_INFINITY;
+			for (int i = 0; i < result.length; i++) {
+				if (eliminationStage[i] == s)
+					minDropped = Math.min(minDropped, stageValues[s][i]);
+			}
+			if (minDropped == Double.POSITIVE_INFINITY)
+				continue;
+
+			//Stay strictly above all values ranked ahead, even when worst is very large
+			double base = worst + Math.max(Math.ulp(worst), Double.MIN_NORMAL);
+			double newWorst = worst;
+			for (int i = 0; i < result.length; i++) {
+				if (eliminationStage[i] == s) {
+					result[i] = base + (stageValues[s][i] - minDropped);
+					newWorst = Math.max(newWorst, result[i]);
+				}
+			}
+			worst = newWorst;
+		}
+
+		return result;
+	}
+
+	protected void updateStatistics(double[][] stageValues, double[] fullValues, boolean calibrate) {
+		int numStages = stages.size();
+		for (int s = 0; s < numStages; s++) {
+			//Candidates with values at both this stage and full fidelity
+			List<Integer> both = new ArrayList<Integer>();
+			for (int i = 0; i < fullValues.length; i++) {
+				if (!Double.isNaN(stageValues[s][i]) && !Double.isNaN(fullValues[i]))
+					both.add(i);
+			}
+			double[] a = new double[both.size()];
+			double[] b = new double[both.size()];
+			for (int i = 0; i < both.size(); i++) {
+				a[i] = stageValues[s][both.get(i)];
+				b[i] = fullValues[both.get(i)];
+			}
+			lastRankCorrelations[s] = rankCorrelation(a, b);
+
+			if (calibrate) {
+				lastCalibrationCorrelations[s] = lastRankCorrelations[s];
+
+				//How many of the true best (by full value) would this stage have promoted?
+				int[] all = allIndices(fullValues.length);
+				int numPromoted = getNumPromoted(s, fullValues.length);
+				int[] promoted = best(all, stageValues[s], numPromoted);
+				int[] trueBest = best(all, fullValues, numPromoted);
+				int numFound = 0;
+				for (int idx : trueBest) {
+					if (contains(promoted, idx))
+						numFound++;
+				}
+				lastCalibrationRecalls[s] = (double)numFound / numPromoted;
+
+				log.info(String.format("Fidelity stage %d (%s): rank correlation %.3f, promoted %.0f%% of true top %d",
+						s + 1, stages.get(s), lastCalibrationCorrelations[s], 100 * lastCalibrationRecalls[s], numPromoted));
+			}
+		}
+	}
+
+	/**
+	 * Returns a string summarizing screening statistics
+	 */
+	public String getStatisticsString() {
+		String stats = String.format("  multi-fidelity: %.0f%% of candidates evaluated at full fidelity", 100 * getFullEvaluationFraction());
+		for (int s = 0; s < stages.size(); s++) {
+			stats += String.format("%n  stage %d: rank correlation %.3f (last calibration %.3f, recall %.0f%%)",
+					s + 1, lastRankCorrelations[s], lastCalibrationCorrelations[s], 100 * lastCalibrationRecalls[s]);
+		}
+		return stats;
+	}
+
+	/**
+	 * Stops all stage evaluators
+	 */
+	@Override
+	public void shutdown() {
+		for (SwimPopulationEvaluator evaluator : stageEvaluators)
+			evaluator.shutdown();
+		fullEvaluator.shutdown();
+	}
+
+	/**
+	 * Returns Spearman rank correlation of given value arrays (average ranks are used for ties),
+	 * or NaN if there are fewer than 3 values
+	 */
+	public static double rankCorrelation(double[] a, double[] b) {
+		int n = a.length;
+		if (n < 3)
+			return Double.NaN;
+
+		double[] rankA = ranks(a);
+		double[] rankB = ranks(b);
+		double mean = (n - 1) / 2.0;
+		double cov = 0, varA = 0, varB = 0;
+		for (int i = 0; i < n; i++) {
+			cov += (rankA[i] - mean) * (rankB[i] - mean);
+			varA += (rankA[i] - mean) * (rankA[i] - mean);
+			varB += (rankB[i] - mean) * (rankB[i] - mean);
+		}
+		if (varA == 0 || varB == 0)
+			return Double.NaN;
+		return cov / Math.sqrt(varA * varB);
+	}
+
+	/** Returns 0-based rank of each value, averaged over ties */
+	protected static double[] ranks(final double[] values) {
+		Integer[] order = new Integer[values.length];
+		for (int i = 0; i < order.length; i++)
+			order[i] = i;
+		Arrays.sort(order, new Comparator<Integer>() {
+			@Override
+			public int compare(Integer i, Integer j) {
+				return Double.compare(values[i], values[j]);
+			}
+		});
+
+		double[] ranks = new double[values.length];
+		int start = 0;
+		while (start < order.length) {
+			int end = start;
+			while (end + 1 < order.length && values[order[end + 1]] == values[order[start]])
+				end++;
+			for (int k = start; k <= end; k++)
+				ranks[order[k]] = (start + end) / 2.0;
+			start = end + 1;
+		}
+		return ranks;
+	}
+
+	/** Returns the numBest indices from given candidates with lowest values */
+	protected static int[] best(int[] candidates, final double[] values, int numBest) {
+		Integer[] sorted = new Integer[candidates.length];
+		for (int i = 0; i < candidates.length; i++)
+			sorted[i] = candidates[i];
+		Arrays.sort(sorted, new Comparator<Integer>() {
+			@Override
+			public int compare(Integer i, Integer j) {
+				return Double.compare(values[i], values[j]);
+			}
+		});
+
+		int[] result = new int[Math.min(numBest, sorted.length)];
+		for (int i = 0; i < result.length; i++)
+			result[i] = sorted[i];
+		return result;
+	}
+
+	protected static double[][] subset(double[][] pop, int[] indices) {
+		double[][] result = new double[indices.length][];
+		for (int i = 0; i < indices.length; i++)
+			result[i] = pop[indices[i]];
+		return result;
+	}
+
+	protected static int[] allIndices(int n) {
+		int[] indices = new int[n];
+		for (int i = 0; i < n; i++)
+			indices[i] = i;
+		return indices;
+	}
+
+	protected static boolean contains(int[] indices, int idx) {
+		for (int i : indices) {
+			if (i == idx)
+				return true;
+		}
+		return false;
+	}
+
+	protected static double[] newNaNArray(int n) {
+		double[] array = new double[n];
+		Arrays.fill(array, Double.NaN);
+		return array;
+	}
+}
@@ -0,0 +1,150 @@
+package ubc.swim.optimization;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Evaluates a whole CMA population at once by spreading candidates across a pool of
+ * worker threads. Each worker owns a private copy of the swimmer fitness function
+ * (and therefore its own Scenario and World), so no simulation state is shared.
+ *
+ * Fitness values are always returned in the same order as the given population, so
+ * results do not depend on the number of workers or on thread scheduling. With a cost
+ * cutoff, the candidates that fix the cutoff are evaluated before the rest are dispatched,
+ * so this holds for cut-off values too.
+ *
+ * @author Ben Humberston
+ *
+ */
+public class ParallelSwimFitnessFunction implements SwimPopulationEvaluator {
+
+	/** One fitness function copy per worker */
+	protected SwimFitnessFunction[] workerFunctions;
+
+	protected ExecutorService executor;
+	
+	//If set, candidates that can't be selected from the current generation are cut off early
+	protected CostCutoffTracker cutoffTracker = null;
+
+	/**
+	 * Creates a parallel evaluator with one worker per available processor
+	 * @param fitFun prototype fitness function; copied once for each worker
+	 */
+	public ParallelSwimFitnessFunction(SwimFitnessFunction fitFun) {
+		this(fitFun, Runtime.getRuntime().availableProcessors());
+	}
+
+	/**
+	 * Creates a parallel evaluator with given number of workers
+	 * @param fitFun prototype fitness function; copied once for each worker
+	 * @param numThreads
+	 */
+	public ParallelSwimFitnessFunction(SwimFitnessFunction fitFun, int numThreads) {
+		if (numThreads < 1)
+			throw new IllegalArgumentException("Number of worker threads must be at least 1");
+
+		workerFunctions = new SwimFitnessFunction[numThreads];
+		for (int i = 0; i < numThreads; i++)
+			workerFunctions[i] = fitFun.copy();
+
+		executor = Executors.newFixedThreadPool(numThreads, new ThreadFactory() {
+			private final AtomicInteger threadCount = new AtomicInteger(0);
+
+			@Override
+			public Thread newThread(Runnable r) {
+				Thread thread = new Thread(r, "SwimEvaluator-" + threadCount.getAndIncrement());
+				thread.setDaemon(true); //don't keep the JVM alive once optimization is done
+				return thread;
+			}
+		});
+	}
+
+	/** Returns number of worker threads used by this evaluator */
+	public int getNumThreads() { return workerFunctions.length; }
+	
+	/**
+	 * Sets tracker of the current generation's cost cutoff; candidates whose cost shows they can't be
+	 * selected are stopped early, and recorded in the tracker. Every valuesOf() call until the tracker
+	 * is replaced counts towards the same generation, so it must be replaced each generation. Null disables.
+	 */
+	public void setCostCutoffTracker(CostCutoffTracker val) { this.cutoffTracker = val; }
+
+	/**
+	 * Returns fitness values for each control strategy in given population.
+	 * The i-th returned value is the fitness of pop[i].
+	 */
+	@Override
+	public double[] valuesOf(final double[][] pop) {
+		final double[] values = new double[pop.length];
+
+		//With a cutoff, any candidates still needed to fix it are evaluated first, then the rest against
+		//the fixed cutoff, so each value is the same whatever order the workers finish in (see CostCutoffTracker)
+		if (cutoffTracker != null) {
+			int numFirst = Math.min(cutoffTracker.getNumRemaining(), pop.length);
+			evaluate(pop, values, 0, numFirst, cutoffTracker);
+			evaluate(pop, values, numFirst, pop.length, cutoffTracker);
+		}
+		else
+			evaluate(pop, values, 0, pop.length, null);
+
+		return values;
+	}
+
+	/**
+	 * Evaluates candidates start to end-1 of given population on the workers, waiting for all of them
+	 */
+	protected void evaluate(final double[][] pop, final double[] values, int start, final int end, final CostCutoffTracker cutoffTracker) {
+		final AtomicInteger nextIdx = new AtomicInteger(start);
+
+		//Each worker pulls the next unevaluated candidate until the range is exhausted
+		List<Future<?>> results = new ArrayList<Future<?>>();
+		int numWorkers = Math.min(workerFunctions.length, end - start);
+		for (int w = 0; w < numWorkers; w++) {
+			final SwimFitnessFunction fitFun = workerFunctions[w];
+			results.add(executor.submit(new Runnable() {
+				@Override
+				public void run() {
+					int i;
+					while ((i = nextIdx.getAndIncrement()) < end) {
+						fitFun.setCostCutoff(cutoffTracker != null ? cutoffTracker.getCutoff() : Double.POSITIVE_INFINITY);
+						
+						values[i] = fitFun.valueOf(pop[i]);
+						
+						if (cutoffTracker != null) {
+							cutoffTracker.add(values[i]);
+							if (fitFun.wasLastEvaluationCutOff())
+								cutoffTracker.addCutOff(pop[i], fitFun.getLastStepsSaved());
+						}
+					}
+				}
+			}));
+		}
+
+		//Wait for all workers to finish
+		try {
+			for (Future<?> result : results)
+				result.get();
+		}
+		catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new RuntimeException("Interrupted during population evaluation", e);
+		}
+		catch (ExecutionException e) {
+			throw new RuntimeException("Fitness evaluation failed", e.getCause());
+		}
+	}
+
+	/**
+	 * Stops worker threads. Evaluator may not be used after this is called.
+	 */
+	@Override
+	public void shutdown() {
+		executor.shutdownNow();
+	}
+}
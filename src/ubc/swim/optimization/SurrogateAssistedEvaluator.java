@@ -0,0 +1,336 @@
+package ubc.swim.optimization;
+
+import java.util.Arrays;
+import java.util.Comparator;
+
+import fr.inria.optimization.cmaes.fitness.IObjectiveFunctionParallel;
+
+/**
+ * Cuts the number of true (simulated) evaluations per CMA population by pre-ranking candidates with
+ * a quadratic model fit to recently evaluated points, in the spirit of local meta-model CMA-ES.
+ *
+ * For each population, the model ranks all candidates, and the best ranked ones are evaluated for real
+ * in batches. After each batch, the model is refit with the new values. Evaluation stops once the order
+ * of the mu best candidates doesn't change when the model is refit and the best ranked candidate has a
+ * true value. Remaining candidates keep their model values, which only affects how CMA weighs
+ * candidates it doesn't select.
+ *
+ * The model is a full quadratic in the candidate coordinates when the dimension is small enough, and
+ * otherwise a separable quadratic (linear and squared terms only, which matches the diagonal covariance
+ * used for swimmer optimization). Until the archive holds enough points for a fit, every candidate is
+ * evaluated for real.
+ *
+ * With a cost cutoff (see setCostCutoffTracker()), values of candidates stopped by the cutoff are only
+ * extrapolated bounds, so they're given to CMA but kept out of the archive.
+ *
+ * @author Ben Humberston
+ *
+ */
+public class SurrogateAssistedEvaluator implements SwimPopulationEvaluator {
+	/** Largest number of model coefficients for which a full quadratic is used */
+	protected static final int MAX_FULL_QUADRATIC_FEATURES = 100;
+	/** Tikhonov regularization, relative to mean diagonal of the normal equations */
+	protected static final double RIDGE = 1e-8;
+
+	protected final IObjectiveFunctionParallel trueEvaluator;
+	protected final int dimension;
+	protected final int numSelected;
+	protected final boolean fullQuadratic;
+	protected final int numFeatures;
+
+	//Ring buffer of most recent true evaluations
+	protected final double[][] archiveX;
+	protected final double[] archiveF;
+	protected int archiveSize = 0;
+	protected int archiveNext = 0;
+
+	protected double initialFraction = 0.25;
+	protected double batchFraction = 0.1;
+
+	//Coordinate normalization for the current population, and current model coefficients
+	protected final double[] center;
+	protected final double[] scale;
+	protected double[] coeffs;
+
+	protected long numTrueEvaluations = 0;
+	protected long numCandidates = 0;
+	protected int lastNumTrueEvaluations = 0;
+
+	protected CostCutoffTracker cutoffTracker = null;
+
+	/**
+	 * @param trueEvaluator evaluator for true (simulated) values
+	 * @param dimension number of control dimensions
+	 * @param numSelected number of candidates CMA selects from each population (mu)
+	 */
+	public SurrogateAssistedEvaluator(IObjectiveFunctionParallel trueEvaluator, int dimension, int numSelected) {
+		this.trueEvaluator = trueEvaluator;
+		this.dimension = dimension;
+		this.numSelected = numSelected;
+
+		int numFullFeatures = 1 + dimension + dimension * (dimension + 1) / 2;
+		fullQuadratic = numFullFeatures <= MAX_FULL_QUADRATIC_FEATURES;
+		numFeatures = fullQuadratic ? numFullFeatures : 1 + 2 * dimension;
+
+		int archiveCapacity = 2 * numFeatures;
+		archiveX = new double[archiveCapacity][];
+		archiveF = new double[archiveCapacity];
+		center = new double[dimension];
+		scale = new double[dimension];
+	}
+
+	/** Sets fraction of each population that is always evaluated for real (once the model is in use) */
+	public void setInitialFraction(double val) { this.initialFraction = val; }
+
+	/** Sets fraction of each population evaluated for real per batch while the ranking is unsettled */
+	public void setBatchFraction(double val) { this.batchFraction = val; }
+
+	/**
+	 * Sets tracker of the current generation's cost cutoff, shared with the true evaluator; candidates
+	 * it reports cut off aren't added to the archive. Null if there's no cutoff.
+	 */
+	public void setCostCutoffTracker(CostCutoffTracker val) { this.cutoffTracker = val; }
+
+	/** Returns fraction of all candidates so far that were evaluated for real */
+	public double getTrueEvaluationFraction() {
+		return numCandidates == 0 ? 0 : (double)numTrueEvaluations / numCandidates;
+	}
+
+	/** Returns total number of true evaluations so far */
+	public long getNumTrueEvaluations() { return numTrueEvaluations; }
+
+	/** Returns number of true evaluations in last valuesOf() call */
+	public int getLastNumTrueEvaluations() { return lastNumTrueEvaluations; }
+
+	@Override
+	public double[] valuesOf(double[][] pop) {
+		int n = pop.length;
+		numCandidates += n;
+		lastNumTrueEvaluations = 0;
+
+		//Evaluate everything until there are enough points to fit a model
+		if (archiveSize < numFeatures || !fitModel(pop)) {
+			int[] all = new int[n];
+			for (int i = 0; i < n; i++)
+				all[i] = i;
+			double[] values = new double[n];
+			evaluate(pop, all, values);
+			return values;
+		}
+
+		double[] values = new double[n];
+		boolean[] evaluated = new boolean[n];
+		for (int i = 0; i < n; i++)
+			values[i] = predict(pop[i]);
+
+		int numInitial = Math.max(1, (int)Math.ceil(initialFraction * n));
+		int batchSize = Math.max(1, (int)Math.ceil(batchFraction * n));
+		int numEvaluated = 0;
+		int nextBatchSize = numInitial;
+		while (numEvaluated < n) {
+			int[] rankingBefore = topRanked(values, numSelected);
+
+			//Evaluate best ranked candidates that don't have true values yet
+			int[] batch = new int[Math.min(nextBatchSize, n - numEvaluated)];
+			int[] order = topRanked(values, n);
+			int b = 0;
+			for (int k = 0; k < n && b < batch.length; k++) {
+				if (!evaluated[order[k]])
+					batch[b++] = order[k];
+			}
+			evaluate(pop, batch, values);
+			for (int idx : batch)
+				evaluated[idx] = true;
+			numEvaluated += batch.length;
+			nextBatchSize = batchSize;
+
+			//Refit with new points; stop if the mu best are unchanged and the best one is a true value
+			if (!fitModel(pop))
+				continue;
+			for (int i = 0; i < n; i++) {
+				if (!evaluated[i])
+					values[i] = predict(pop[i]);
+			}
+			int[] rankingAfter = topRanked(values, numSelected);
+			if (Arrays.equals(rankingBefore, rankingAfter) && evaluated[rankingAfter[0]])
+				break;
+		}
+
+		return values;
+	}
+
+	/**
+	 * Evaluates given candidates for real, storing values and adding those that weren't cut off to the archive
+	 */
+	protected void evaluate(double[][] pop, int[] indices, double[] values) {
+		double[][] batch = new double[indices.length][];
+		for (int i = 0; i < indices.length; i++)
+			batch[i] = pop[indices[i]];
+
+		double[] batchValues = trueEvaluator.valuesOf(batch);
+		for (int i = 0; i < indices.length; i++) {
+			values[indices[i]] = batchValues[i];
+			if (cutoffTracker == null || !cutoffTracker.isCutOff(batch[i]))
+				addToArchive(batch[i], batchValues[i]);
+		}
+
+		numTrueEvaluations += indices.length;
+		lastNumTrueEvaluations += indices.length;
+	}
+
+	protected void addToArchive(double[] x, double f) {
+		//Non-finite values (eg: failed simulations) would wreck the fit
+		if (Double.isNaN(f) || Double.isInfinite(f))
+			return;
+
+		archiveX[archiveNext] = x.clone();
+		archiveF[archiveNext] = f;
+		archiveNext = (archiveNext + 1) % archiveX.length;
+		archiveSize = Math.min(archiveSize + 1, archiveX.length);
+	}
+
+	/**
+	 * Fits model coefficients to the archive by regularized least squares, with coordinates
+	 * normalized by the mean and spread of given population. Returns false if the fit failed.
+	 */
+	protected boolean fitModel(double[][] pop) {
+		//Normalize coordinates to the current population, so the fit is well conditioned as CMA's step size shrinks
+		for (int d = 0; d < dimension; d++) {
+			double sum = 0, sumSq = 0;
+			for (double[] x : pop) {
+				sum += x[d];
+				sumSq += x[d] * x[d];
+			}
+			center[d] = sum / pop.length;
+			double variance = sumSq / pop.length - center[d] * center[d];
+			scale[d] = variance > 0 ? Math.sqrt(variance) : 1;
+		}
+
+		//Normal equations: (Phi^T Phi) c = Phi^T f
+		double[][] ata = new double[numFeatures][numFeatures];
+		double[] atf = new double[numFeatures];
+		double[] phi = new double[numFeatures];
+		for (int p = 0; p < archiveSize; p++) {
+			computeFeatures(archiveX[p], phi);
+			for (int i = 0; i < numFeatures; i++) {
+				atf[i] += phi[i] * archiveF[p];
+				for (int j = 0; j <= i; j++)
+					ata[i][j] += phi[i] * phi[j];
+			}
+		}
+
+		double trace = 0;
+		for (int i = 0; i < numFeatures; i++)
+			trace += ata[i][i];
+		double ridge = RIDGE * trace / numFeatures;
+		for (int i = 0; i < numFeatures; i++)
+			ata[i][i] += ridge;
+
+		coeffs = solveCholesky(ata, atf);
+		return coeffs != null;
+	}
+
+	/** Returns model value at given point */
+	protected double predict(double[] x) {
+		double[] phi = new double[numFeatures];
+		computeFeatures(x, phi);
+		double value = 0;
+		for (int i = 0; i < numFeatures; i++)
+			value += coeffs[i] * phi[i];
+		return value;
+	}
+
+	/** Fills given array with model features (constant, linear and quadratic terms) of given point */
+	protected void computeFeatures(double[] x, double[] phi) {
+		int k = 0;
+		phi[k++] = 1;
+		for (int d = 0; d < dimension; d++)
+			phi[k++] = (x[d] - center[d]) / scale[d];
+
+		if (fullQuadratic) {
+			for (int i = 0; i < dimension; i++) {
+				for (int j = i; j < dimension; j++)
+					phi[k++] = phi[1 + i] * phi[1 + j];
+			}
+		}
+		else {
+			for (int d = 0; d < dimension; d++)
+				phi[k++] = phi[1 + d] * phi[1 + d];
+		}
+	}
+
+	/**
+	 * Solves A x = b for symmetric positive definite A, given by its lower triangle (overwritten).
+	 * Returns null if A is not positive definite.
+	 */
+	protected static double[] solveCholesky(double[][] a, double[] b) {
+		int n = b.length;
+		for (int j = 0; j < n; j++) {
+			double diag = a[j][j];
+			for (int k = 0; k < j; k++)
+				diag -= a[j][k] * a[j][k];
+			if (!(diag > 0))
+				return null;
+			a[j][j] = Math.sqrt(diag);
+
+			for (int i = j + 1; i < n; i++) {
+				double sum = a[i][j];
+				for (int k = 0; k < j; k++)
+					sum -= a[i][k] * a[j][k];
+				a[i][j] = sum / a[j][j];
+			}
+		}
+
+		//Forward, then back substitution
+		double[] y = new double[n];
+		for (int i = 0; i < n; i++) {
+			double sum = b[i];
+			for (int k = 0; k < i; k++)
+				sum -= a[i][k] * y[k];
+			y[i] = sum / a[i][i];
+		}
+		double[] x = new double[n];
+		for (int i = n - 1; i >= 0; i--) {
+			double sum = y[i];
+			for (int k = i + 1; k < n; k++)
+				sum -= a[k][i] * x[k];
+			x[i] = sum / a[i][i];
+		}
+		return x;
+	}
+
+	/** Returns indices of the num lowest values, in order */
+	protected static int[] topRanked(final double[] values, int num) {
+		Integer[] order = new Integer[values.length];
+		for (int i = 0; i < order.length; i++)
+			order[i] = i;
+		Arrays.sort(order, new Comparator<Integer>() {
+			@Override
+			public int compare(Integer i, Integer j) {
+				return Double.compare(values[i], values[j]);
+			}
+		});
+
+		int[] result = new int[Math.min(num, order.length)];
+		for (int i = 0; i < result.length; i++)
+			result[i] = order[i];
+		return result;
+	}
+
+	/**
+	 * Returns a string summarizing how many true evaluations were needed
+	 */
+	public String getStatisticsString() {
+		return String.format("  surrogate: evaluated %d candidates of last population, %.0f%% of %d candidates so far",
+				lastNumTrueEvaluations, 100 * getTrueEvaluationFraction(), numCandidates);
+	}
+
+	/**
+	 * Shuts down the true evaluator, if it holds resources
+	 */
+	@Override
+	public void shutdown() {
+		if (trueEvaluator instanceof SwimPopulationEvaluator)
+			((SwimPopulationEvaluator) trueEvaluator).shutdown();
+	}
+}
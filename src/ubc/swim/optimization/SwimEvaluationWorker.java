@@ -0,0 +1,139 @@
+package ubc.swim.optimization;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.net.ConnectException;
+import java.net.Socket;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Worker side of distributed fitness evaluation. Connects to a coordinator 
+ * (see DistributedSwimFitnessFunction), receives the fitness function configuration,
+ * then evaluates control vectors one at a time until told to shut down.
+ * 
+ * @author Ben Humberston
+ *
+ */
+public class SwimEvaluationWorker {
+	private static final Logger log = LoggerFactory.getLogger(SwimEvaluationWorker.class);
+	
+	//How long to keep retrying while the coordinator isn't up yet
+	protected static final long CONNECT_TIMEOUT_MILLIS = 30000;
+	protected static final long CONNECT_RETRY_MILLIS = 250;
+	
+	protected final String host;
+	protected final int port;
+	
+	public SwimEvaluationWorker(String host, int port) {
+		this.host = host;
+		this.port = port;
+	}
+	
+	/**
+	 * Connects to coordinator and evaluates candidates until the coordinator
+	 * shuts down or disconnects
+	 * @throws IOException if coordinator can't be reached or protocol is violated
+	 */
+	public void run() throws IOException {
+		Socket socket = connect();
+		try {
+			socket.setTcpNoDelay(true);
+			DataInputStream in = new DataInputStream(new BufferedInputStream(socket.getInputStream()));
+			DataOutputStream out = new DataOutputStream(new BufferedOutputStream(socket.getOutputStream()));
+			
+			//Handshake: get fitness function configuration
+			if (in.readInt() != EvaluationProtocol.MSG_CONFIG)
+				throw new IOException("Expected configuration message from coordinator");
+			int version = in.readInt();
+			if (version != EvaluationProtocol.VERSION)
+				throw new IOException("Coordinator uses protocol version " + version + "; worker uses " + EvaluationProtocol.VERSION);
+			SwimFitnessFunctionA fitFun = SwimFitnessFunctionA.readConfig(in);
+			
+			log.info("Connected to coordinator at " + host + ":" + port + "; evaluating " + fitFun.charID);
+			
+			while (true) {
+				int msgType = in.readInt();
+				if (msgType == EvaluationProtocol.MSG_SHUTDOWN)
+					break;
+				if (msgType != EvaluationProtocol.MSG_EVALUATE)
+					throw new IOException("Unexpected message type from coordinator: " + msgType);
+				
+				int candidateIdx = in.readInt();
+				double[] x = EvaluationProtocol.readControls(in);
+				
+				try {
+					double cost = fitFun.valueOf(x);
+					out.writeInt(EvaluationProtocol.MSG_RESULT);
+					out.writeInt(candidateIdx);
+					out.writeDouble(cost);
+					out.writeUTF(fitFun.getCharacter().getStatisticsString());
+				}
+				catch (RuntimeException e) {
+					log.error("Evaluation of candidate " + candidateIdx + " failed", e);
+					out.writeInt(EvaluationProtocol.MSG_ERROR);
+					out.writeInt(candidateIdx);
+					out.writeUTF(String.valueOf(e));
+				}
+				out.flush();
+			}
+		}
+		finally {
+			socket.close();
+		}
+	}
+	
+	/**
+	 * Opens connection to coordinator, retrying for a while in case it's still starting up
+	 */
+	protected Socket connect() throws IOException {
+		long deadline = System.currentTimeMillis() + CONNECT_TIMEOUT_MILLIS;
+		while (true) {
+			try {
+				return new Socket(host, port);
+			}
+			catch (ConnectException e) {
+				if (System.currentTimeMillis() > deadline)
+					throw e;
+			}
+			
+			try {
+				Thread.sleep(CONNECT_RETRY_MILLIS);
+			}
+			catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				throw new IOException("Interrupted while connecting to coordinator");
+			}
+		}
+	}
+	
+	/**
+	 * Starts a worker in a new local JVM (same java executable and classpath as this one),
+	 * connected to coordinator on given port. Worker output is sent to this process's console.
+	 * @param port
+	 * @return the worker process
+	 * @throws IOException
+	 */
+	public static Process launchLocalWorker(int port) throws IOException {
+		String javaBin = System.getProperty("java.home") + File.separator + "bin" + File.separator + "java";
+		
+		List<String> command = new ArrayList<String>();
+		command.add(javaBin);
+		command.add("-cp");
+		command.add(System.getProperty("java.class.path"));
+		command.add("ubc.swim.SwimOptimizeMain");
+		command.add("--worker=localhost:" + port);
+		
+		ProcessBuilder builder = new ProcessBuilder(command);
+		builder.redirectErrorStream(true);
+		builder.redirectOutput(ProcessBuilder.Redirect.INHERIT);
+		return builder.start();
+	}
+}
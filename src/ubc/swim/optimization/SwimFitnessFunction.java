@@ -13,6 +13,11 @@ import fr.inria.optimization.cmaes.fitness.IObjectiveFunction;
 public abstract class SwimFitnessFunction implements IObjectiveFunction {
 	protected SwimCharacter character;
 	
+	//Evaluation stops early once cost exceeds this (see setCostCutoff())
+	protected double costCutoff = Double.POSITIVE_INFINITY;
+	protected boolean lastEvaluationCutOff = false;
+	protected int lastStepsSaved = 0;
+	
 	@Override
 	public abstract double valueOf(double[] x);
 
@@ -29,5 +34,25 @@ public abstract class SwimFitnessFunction implements IObjectiveFunction {
 	 * @return
 	 */
 	public abstract int getNumControlDimensions();
+	
+	/**
+	 * Returns a new fitness function with the same configuration as this one, but with
+	 * its own simulation state. Used to give each parallel worker a private copy.
+	 * @return
+	 */
+	public abstract SwimFitnessFunction copy();
+	
+	/**
+	 * Sets cost above which a candidate can no longer be of use to the optimizer. Functions that
+	 * support it may then stop simulating early and return a penalized value that is still greater
+	 * than the cutoff. Positive infinity (the default) disables the cutoff.
+	 */
+	public void setCostCutoff(double val) { this.costCutoff = val; }
+	
+	/** Returns true if last valueOf() call was stopped early by the cost cutoff */
+	public boolean wasLastEvaluationCutOff() { return lastEvaluationCutOff; }
+	
+	/** Returns number of simulation steps skipped by the cost cutoff on last valueOf() call */
+	public int getLastStepsSaved() { return lastStepsSaved; }
 
 }
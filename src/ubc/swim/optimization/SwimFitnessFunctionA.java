@@ -1,14 +1,20 @@
 package ubc.swim.optimization;
 
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.File;
+import java.io.IOException;
 import java.util.ArrayList;
 import java.util.List;
 
 import org.jbox2d.dynamics.Body;
 
-import ubc.swim.gui.SwimSettings;
+import ubc.swim.gui.CompiledSwimSettings;
 import ubc.swim.world.characters.SwimCharacter;
+import ubc.swim.world.scenario.LockStepPaddleSimulator;
 import ubc.swim.world.scenario.Scenario;
 import ubc.swim.world.scenario.ScenarioLibrary;
+import ubc.swim.world.scenario.ScenarioRecorder;
 
 /**
  * Basic function for scoring fitness of virtual swimmer control strategies
@@ -22,10 +28,19 @@ public class SwimFitnessFunctionA extends SwimFitnessFunction {
 	
 	protected String charID;
 	protected Scenario scenario;
+	protected CompiledSwimSettings settings;
 	
 	protected float goalSpeed = 0.2f;
 	protected float goalDisplacement = 0.0f;
 	protected float maxRuntime = 5.0f; //5 seconds
+	protected boolean usePackedFluidKernel = false;
+	protected boolean useMotorTables = false;
+	protected boolean useImplicitDrag = false;
+	protected boolean useFlatBroadPhase = false;
+	protected boolean useArticulatedSolver = false;
+	protected float simulationHz = (float)CompiledSwimSettings.DEFAULT_HZ;
+	protected int velocityIterations = 0; //0 uses default engine value
+	protected int positionIterations = 0;
 	
 	//Weight terms (assigned default vals)
 	protected float speedTermWeight = 10.0f;
@@ -48,6 +63,27 @@ public class SwimFitnessFunctionA extends SwimFitnessFunction {
 	public void setGoalDisplacement(float val) {this.goalDisplacement = val;}
 	/** Set how long simulation is run in order to gather cost data */
 	public void setMaxRuntime(float val) {this.maxRuntime = val;}
+	/** Set whether the scenario computes fluid forces with the packed kernel (see PackedFluidController) */
+	public void setUsePackedFluidKernel(boolean val) {this.usePackedFluidKernel = val;}
+	/** Set whether character motors read torques from tables precomputed at the simulation step (see TorqueMotor.setTorqueTable()) */
+	public void setUseMotorTables(boolean val) {this.useMotorTables = val;}
+	/** Set whether fluid drag is integrated implicitly, which allows lower simulation rates (see FluidController.implicitDrag) */
+	public void setUseImplicitDrag(boolean val) {this.useImplicitDrag = val;}
+	/** Set whether the scenario's world uses the array-backed broad-phase tree (see DynamicTreeFlatNodes) */
+	public void setUseFlatBroadPhase(boolean val) {this.useFlatBroadPhase = val;}
+	/** Set whether character joints are solved in reduced coordinates, without solver iterations (see World.setArticulatedSolving()) */
+	public void setUseArticulatedSolver(boolean val) {this.useArticulatedSolver = val;}
+	/** Set simulation steps per second used during evaluation */
+	public void setSimulationHz(float val) {this.simulationHz = val; this.settings = null;}
+	/** Set constraint solver iterations used during evaluation; 0 uses the default engine value */
+	public void setSolverIterations(int velocityIterations, int positionIterations) {
+		this.velocityIterations = velocityIterations; 
+		this.positionIterations = positionIterations;
+		this.settings = null;
+	}
+	
+	public float getMaxRuntime() {return maxRuntime;}
+	public float getSimulationHz() {return simulationHz;}
 	
 	/** Sets the weight assigned to the horizontal speed cost term */
 	public void setSpeedTermWeight(float val) {this.speedTermWeight = val;}
@@ -58,6 +94,96 @@ public class SwimFitnessFunctionA extends SwimFitnessFunction {
 	/** Sets the weight assigned to the cost term for deviation of the character root body from its original angle*/
 	public void setRootAngleTermWeight(float val) {this.rootAngleTermWeight = val;}
 	
+	@Override
+	public SwimFitnessFunction copy() {
+		SwimFitnessFunctionA fitFun = new SwimFitnessFunctionA(charID);
+		fitFun.goalSpeed = goalSpeed;
+		fitFun.goalDisplacement = goalDisplacement;
+		fitFun.maxRuntime = maxRuntime;
+		fitFun.usePackedFluidKernel = usePackedFluidKernel;
+		fitFun.useMotorTables = useMotorTables;
+		fitFun.useImplicitDrag = useImplicitDrag;
+		fitFun.useFlatBroadPhase = useFlatBroadPhase;
+		fitFun.useArticulatedSolver = useArticulatedSolver;
+		fitFun.simulationHz = simulationHz;
+		fitFun.velocityIterations = velocityIterations;
+		fitFun.positionIterations = positionIterations;
+		fitFun.speedTermWeight = speedTermWeight;
+		fitFun.displacementTermWeight = displacementTermWeight;
+		fitFun.energyTermWeight = energyTermWeight;
+		fitFun.rootAngleTermWeight = rootAngleTermWeight;
+		return fitFun;
+	}
+	
+	/**
+	 * Writes the configuration of this fitness function (character, goals and weights)
+	 * so that an identical function can be rebuilt elsewhere with readConfig()
+	 * @param out
+	 * @throws IOException
+	 */
+	public void writeConfig(DataOutput out) throws IOException {
+		out.writeUTF(charID);
+		out.writeFloat(goalSpeed);
+		out.writeFloat(goalDisplacement);
+		out.writeFloat(maxRuntime);
+		out.writeBoolean(usePackedFluidKernel);
+		out.writeBoolean(useMotorTables);
+		out.writeBoolean(useImplicitDrag);
+		out.writeBoolean(useFlatBroadPhase);
+		out.writeBoolean(useArticulatedSolver);
+		out.writeFloat(simulationHz);
+		out.writeInt(velocityIterations);
+		out.writeInt(positionIterations);
+		out.writeFloat(speedTermWeight);
+		out.writeFloat(displacementTermWeight);
+		out.writeFloat(energyTermWeight);
+		out.writeFloat(rootAngleTermWeight);
+	}
+	
+	/**
+	 * Creates a fitness function from configuration written by writeConfig()
+	 * @param in
+	 * @return
+	 * @throws IOException
+	 */
+	public static SwimFitnessFunctionA readConfig(DataInput in) throws IOException {
+		SwimFitnessFunctionA fitFun = new SwimFitnessFunctionA(in.readUTF());
+		fitFun.goalSpeed = in.readFloat();
+		fitFun.goalDisplacement = in.readFloat();
+		fitFun.maxRuntime = in.readFloat();
+		fitFun.usePackedFluidKernel = in.readBoolean();
+		fitFun.useMotorTables = in.readBoolean();
+		fitFun.useImplicitDrag = in.readBoolean();
+		fitFun.useFlatBroadPhase = in.readBoolean();
+		fitFun.useArticulatedSolver = in.readBoolean();
+		fitFun.simulationHz = in.readFloat();
+		fitFun.velocityIterations = in.readInt();
+		fitFun.positionIterations = in.readInt();
+		fitFun.speedTermWeight = in.readFloat();
+		fitFun.displacementTermWeight = in.readFloat();
+		fitFun.energyTermWeight = in.readFloat();
+		fitFun.rootAngleTermWeight = in.readFloat();
+		return fitFun;
+	}
+	
+	/**
+	 * Returns default engine settings, with this function's simulation rate and solver iterations
+	 */
+	protected CompiledSwimSettings getSettings() {
+		if (settings == null) {
+			CompiledSwimSettings defaults = CompiledSwimSettings.getDefaults();
+			if (simulationHz == defaults.hz && velocityIterations <= 0 && positionIterations <= 0)
+				settings = defaults;
+			else
+				settings = new CompiledSwimSettings(simulationHz, 
+						positionIterations > 0 ? positionIterations : defaults.positionIterations, 
+						velocityIterations > 0 ? velocityIterations : defaults.velocityIterations,
+						defaults.warmStarting, defaults.continuousCollision,
+						defaults.fluidDensity, defaults.fluidDrag, defaults.fluidVelocity);
+		}
+		return settings;
+	}
+
 	@Override
 	public int getNumControlDimensions() {
 		//Not the most efficient solution, but oh well...
@@ -71,12 +197,24 @@ public class SwimFitnessFunctionA extends SwimFitnessFunction {
 	 */
 	@Override
 	public double valueOf(double[] x) {
-		//For now, just recreate complete scenario (don't try to reset)
-		List<String> charIDs = new ArrayList<String>();
-		charIDs.add(charID);
-		scenario = ScenarioLibrary.getBasicScenario(charIDs);
+		//Build scenario on first use; afterwards, just restore its initial state
+		if (scenario == null)
+			scenario = createScenario(1);
+		else
+			scenario.reset();
+		
+		lastEvaluationCutOff = false;
+		lastStepsSaved = 0;
+		
+		//Cutoff is only safe if cost can never decrease, ie: all weights are non-negative
+		boolean useCutoff = costCutoff < Double.POSITIVE_INFINITY && speedTermWeight >= 0 
+				&& displacementTermWeight >= 0 && energyTermWeight >= 0 && rootAngleTermWeight >= 0;
+		
+		CompiledSwimSettings settings = getSettings();
+		float dt = settings.timeStep;
 		
 		character = scenario.getCharacters().get(0); 
+		character.setMotorTables(useMotorTables ? dt : 0, true);
 		character.setControlParams(x);
 		Body rootBody = character.getRootBody();
 		float rootAngleOrig = rootBody.getAngle();
@@ -87,42 +225,230 @@ public class SwimFitnessFunctionA extends SwimFitnessFunction {
 		//TODO: run for 5 seconds, assign bad score if no motion; 
 		//otherwise, run 5 more seconds and score based on that? May help long term stroke stability
 		
-		SwimSettings settings = new SwimSettings();
-		float hz = (float)settings.getSetting(SwimSettings.Hz).value;
-		float dt = hz > 0f ? 1f / hz : 0;
-		
 		while (time < maxRuntime) {
 			//Do a single simulation step
 			scenario.step(settings, dt);
 			
 			//Then, update cost evaluation so far
+			evaluation = addStepCost(evaluation, character, rootAngleOrig);
 			
-			//Minimize distance from target speed
-			if (speedTermWeight != 0) {
-				float speedError = Math.abs(rootBody.getLinearVelocity().x - goalSpeed);
-				evaluation += speedTermWeight * speedError;
-			}
+			time += dt;
 			
-			//Minimize total applied torques
-			if (energyTermWeight != 0) {
-				float torquesApplied = Math.abs(character.getPrevTorque());
-				evaluation += energyTermWeight * torquesApplied;
+			//Give up on hopeless candidates; final cost could only be higher
+			if (useCutoff && evaluation > costCutoff && time < maxRuntime) {
+				lastEvaluationCutOff = true;
+				lastStepsSaved = (int)Math.ceil((maxRuntime - time) / dt);
+				
+				//Extrapolate running cost over the full runtime; always > cutoff, so ranking of candidates under the cutoff is unaffected
+				return (double)evaluation * maxRuntime / time;
 			}
-			
-			//Minimize root angle rotation outside some threshold value
-			if (rootAngleTermWeight != 0) {
-				float rootAngleDeviation = (float)Math.abs((rootBody.getAngle() % TWO_PI) - rootAngleOrig);
-				if (rootAngleDeviation > SwimCharacter.ROOT_BODY_ANGLE_DEVIATION_THRESHOLD)
-					evaluation += rootAngleTermWeight * rootAngleDeviation;
+		}
+		
+		return addFinalCost(evaluation, character);
+	}
+	
+	/**
+	 * Simulates given control strategy as valueOf() does (without the cost cutoff), recording the
+	 * initial state and each step to given file (see ScenarioRecorder). Returns cost of strategy.
+	 * @param x
+	 * @param file
+	 * @throws IOException if recording can't be written
+	 */
+	public double record(double[] x, File file) throws IOException {
+		if (scenario == null)
+			scenario = createScenario(1);
+		else
+			scenario.reset();
+		
+		CompiledSwimSettings settings = getSettings();
+		float dt = settings.timeStep;
+		
+		character = scenario.getCharacters().get(0);
+		character.setMotorTables(useMotorTables ? dt : 0, true);
+		character.setControlParams(x);
+		float rootAngleOrig = character.getRootBody().getAngle();
+		
+		List<String> charIDs = new ArrayList<String>();
+		charIDs.add(charID);
+		ScenarioRecorder recorder = new ScenarioRecorder(file, scenario, charIDs, dt);
+		try {
+			float evaluation = 0.0f;
+			float time = 0.0f;
+			recorder.recordStep(time);
+			while (time < maxRuntime) {
+				scenario.step(settings, dt);
+				evaluation = addStepCost(evaluation, character, rootAngleOrig);
+				time += dt;
+				recorder.recordStep(time);
 			}
+			return addFinalCost(evaluation, character);
+		}
+		finally {
+			recorder.close();
+		}
+	}
+	
+	/**
+	 * Returns fitness scores for each control strategy in given population. Each strategy drives
+	 * its own copy of the character, and all copies are simulated together in given scenario,
+	 * which must come from createScenario(pop.length) and is left in its final state.
+	 * Characters start in the same place but never collide with each other (and the broad-phase
+	 * drops their pairs), so each score matches valueOf() for the same strategy exactly.
+	 * Cost cutoff isn't applied, since all characters are stepped together.
+	 */
+	public double[] valuesOf(double[][] pop, Scenario batchScenario) {
+		List<SwimCharacter> characters = batchScenario.getCharacters();
+		if (characters.size() != pop.length)
+			throw new IllegalArgumentException("Scenario has " + characters.size() + " characters for " + pop.length + " candidates");
+		
+		lastEvaluationCutOff = false;
+		lastStepsSaved = 0;
+		
+		CompiledSwimSettings settings = getSettings();
+		float dt = settings.timeStep;
+		
+		float[] rootAnglesOrig = new float[pop.length];
+		for (int i = 0; i < pop.length; i++) {
+			SwimCharacter batchChar = characters.get(i);
+			batchChar.setMotorTables(useMotorTables ? dt : 0, true);
+			batchChar.setControlParams(pop[i]);
+			rootAnglesOrig[i] = batchChar.getRootBody().getAngle();
+		}
+		
+		float[] evaluations = new float[pop.length];
+		float time = 0.0f;
+		while (time < maxRuntime) {
+			batchScenario.step(settings, dt);
+			
+			for (int i = 0; i < pop.length; i++)
+				evaluations[i] = addStepCost(evaluations[i], characters.get(i), rootAnglesOrig[i]);
 			
 			time += dt;
 		}
 		
+		double[] values = new double[pop.length];
+		for (int i = 0; i < pop.length; i++)
+			values[i] = addFinalCost(evaluations[i], characters.get(i));
+		return values;
+	}
+	
+	/**
+	 * Returns fitness scores for each control strategy in given population, simulating all of them
+	 * in lock step with given simulator (see createLockStepSimulator()). Each score matches valueOf()
+	 * for the same strategy exactly. As with valuesOf(double[][], Scenario), cost cutoff isn't applied, 
+	 * and getCharacter() isn't updated since no character is simulated.
+	 */
+	public double[] valuesOf(double[][] pop, LockStepPaddleSimulator simulator) {
+		lastEvaluationCutOff = false;
+		lastStepsSaved = 0;
+		
+		CompiledSwimSettings settings = getSettings();
+		float dt = settings.timeStep;
+		
+		simulator.setMotorTables(useMotorTables ? dt : 0, true);
+		simulator.reset(pop);
+		
+		float[] rootAnglesOrig = new float[pop.length];
+		for (int i = 0; i < pop.length; i++)
+			rootAnglesOrig[i] = simulator.getRootAngle(i);
+		
+		float[] evaluations = new float[pop.length];
+		float time = 0.0f;
+		while (time < maxRuntime) {
+			simulator.step(settings, dt);
+			
+			for (int i = 0; i < pop.length; i++)
+				evaluations[i] = addStepCost(evaluations[i], simulator.getRootLinearVelocityX(i), 
+						simulator.getPrevTorque(i), simulator.getRootAngle(i), rootAnglesOrig[i]);
+			
+			time += dt;
+		}
+		
+		double[] values = new double[pop.length];
+		for (int i = 0; i < pop.length; i++)
+			values[i] = addFinalCost(evaluations[i], simulator.getRootPositionX(i));
+		return values;
+	}
+	
+	/**
+	 * Returns a simulator that evaluates populations of this function's character in lock step,
+	 * or null if the character or fluid options aren't supported by it (see LockStepPaddleSimulator.supports())
+	 */
+	public LockStepPaddleSimulator createLockStepSimulator() {
+		if (usePackedFluidKernel || useImplicitDrag || useArticulatedSolver)
+			return null;
+		
+		Scenario template = createScenario(1);
+		if (!LockStepPaddleSimulator.supports(template))
+			return null;
+		return new LockStepPaddleSimulator(template);
+	}
+	
+	/**
+	 * Creates a scenario holding given number of copies of this function's character, with
+	 * the same fluid and broad-phase options used by valueOf()
+	 */
+	public Scenario createScenario(int numChars) {
+		List<String> charIDs = new ArrayList<String>();
+		for (int i = 0; i < numChars; i++)
+			charIDs.add(charID);
+		Scenario newScenario = ScenarioLibrary.getBasicScenario(charIDs, usePackedFluidKernel, useFlatBroadPhase);
+		newScenario.setUseImplicitDrag(useImplicitDrag);
+		newScenario.setUseArticulatedSolver(useArticulatedSolver);
+		return newScenario;
+	}
+	
+	/**
+	 * Returns given running cost plus the cost terms of given character for the step just taken
+	 */
+	protected float addStepCost(float evaluation, SwimCharacter stepChar, float rootAngleOrig) {
+		Body rootBody = stepChar.getRootBody();
+		return addStepCost(evaluation, rootBody.getLinearVelocity().x, stepChar.getPrevTorque(), rootBody.getAngle(), rootAngleOrig);
+	}
+	
+	/**
+	 * Returns given running cost plus the cost terms for the step just taken, given the root body's
+	 * horizontal velocity and angle and the torque applied by the character's controls
+	 */
+	protected float addStepCost(float evaluation, float rootVelX, float prevTorque, float rootAngle, float rootAngleOrig) {
+		//Minimize distance from target speed
+		if (speedTermWeight != 0) {
+			float speedError = Math.abs(rootVelX - goalSpeed);
+			evaluation += speedTermWeight * speedError;
+		}
+		
+		//Minimize total applied torques
+		if (energyTermWeight != 0) {
+			float torquesApplied = Math.abs(prevTorque);
+			evaluation += energyTermWeight * torquesApplied;
+		}
+		
+		//Minimize root angle rotation outside some threshold value
+		if (rootAngleTermWeight != 0) {
+			float rootAngleDeviation = (float)Math.abs((rootAngle % TWO_PI) - rootAngleOrig);
+			if (rootAngleDeviation > SwimCharacter.ROOT_BODY_ANGLE_DEVIATION_THRESHOLD)
+				evaluation += rootAngleTermWeight * rootAngleDeviation;
+		}
+		
+		return evaluation;
+	}
+	
+	/**
+	 * Returns given running cost plus the cost terms evaluated once at the end of the simulation
+	 */
+	protected float addFinalCost(float evaluation, SwimCharacter finalChar) {
+		return addFinalCost(evaluation, finalChar.getRootBody().getPosition().x);
+	}
+	
+	/**
+	 * Returns given running cost plus the cost terms evaluated once at the end of the simulation,
+	 * given the root body's final horizontal position
+	 */
+	protected float addFinalCost(float evaluation, float rootPosX) {
 		//Alternative locomotion measure... 
 		//Find how far off final goal displacement the character ended up
 		if (displacementTermWeight != 0) {
-			float goalDispError = goalDisplacement - rootBody.getPosition().x;
+			float goalDispError = goalDisplacement - rootPosX;
 			evaluation += displacementTermWeight * Math.abs(goalDispError);
 		}
 		
@@ -0,0 +1,18 @@
+package ubc.swim.optimization;
+
+import fr.inria.optimization.cmaes.fitness.IObjectiveFunctionParallel;
+
+/**
+ * Evaluates whole CMA populations at once, using resources (threads, worker processes)
+ * that must be released when optimization is done
+ * 
+ * @author Ben Humberston
+ *
+ */
+public interface SwimPopulationEvaluator extends IObjectiveFunctionParallel {
+	
+	/**
+	 * Releases resources held by this evaluator. Evaluator may not be used after this is called.
+	 */
+	public void shutdown();
+}
@@ -1,14 +1,21 @@
 package ubc.swim.optimization;
 
 import java.io.BufferedReader;
+import java.io.File;
 import java.io.FileReader;
 import java.io.FileWriter;
 import java.io.IOException;
 import java.util.ArrayList;
 import java.util.List;
 import java.util.StringTokenizer;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
 
 import fr.inria.optimization.cmaes.CMAEvolutionStrategy;
+import ubc.swim.world.scenario.ScenarioRecorder;
 
 /**
  * 
@@ -22,6 +29,19 @@ public class SwimmerOptimization {
 	protected int maxIters = 100;
 	protected double minStoppingCost = 1e-14;
 	protected int iterationsPerOutput = 150;
+	protected int numThreads = 1;
+	protected int coordinatorPort = -1;
+	protected int numLocalWorkers = 0;
+	protected File checkpointFile = null;
+	protected int iterationsPerCheckpoint = 1;
+	protected boolean resume = false;
+	protected boolean useCostCutoff = false;
+	protected List<FidelityStage> fidelityStages = new ArrayList<FidelityStage>();
+	protected int calibrationInterval = 10;
+	protected boolean useSurrogate = false;
+	protected boolean useBatchWorld = false;
+	protected boolean useLockStep = false;
+	protected File recordingDir = null;
 	
 	/** Sets maximum number of CMA iterations used by this optimizer. */
 	public void setMaxIters(int val) { this.maxIters = val;}
@@ -32,13 +52,95 @@ public class SwimmerOptimization {
 	/** Sets how many CMA iterations are run between each logging output of optimizer progress */
 	public void setIterationsPerOutput(int val) { this.iterationsPerOutput = val;}
 	
+	/** Sets how many worker threads are used to evaluate each CMA population (1 evaluates serially) */
+	public void setNumThreads(int val) { this.numThreads = val;}
+	
+	/** 
+	 * Sets port on which to listen for SwimEvaluationWorker processes; when set (>= 0), each CMA 
+	 * population is evaluated by remote workers instead of local threads 
+	 */
+	public void setCoordinatorPort(int val) { this.coordinatorPort = val;}
+	
+	/** Sets how many worker processes to start on this machine when acting as coordinator */
+	public void setNumLocalWorkers(int val) { this.numLocalWorkers = val;}
+	
+	/** Sets file to which CMA state is periodically saved (see CMACheckpoint; null disables checkpointing) */
+	public void setCheckpointFile(File val) { this.checkpointFile = val;}
+	
+	/** Sets how many CMA iterations are run between each checkpoint */
+	public void setIterationsPerCheckpoint(int val) { this.iterationsPerCheckpoint = val;}
+	
+	/** 
+	 * If true, optimization continues from the checkpoint file instead of starting over (when the file exists).
+	 * CMA options, such as the iteration limit, come from this optimizer's settings rather than the checkpoint.
+	 */
+	public void setResume(boolean val) { this.resume = val;}
+	
+	/** 
+	 * If true, simulation of a candidate stops as soon as its cost shows it can't be selected by CMA
+	 * (ie: can't be among the mu best of its generation). Selection, and therefore the search, is unchanged.
+	 * The cutoff is fixed by the first mu candidates of each generation (see CostCutoffTracker), so
+	 * serial and threaded runs give the same fitness values. With screening stages or the surrogate model,
+	 * only full fidelity, simulated values fix it, once per generation, and cut-off values are kept out of
+	 * the surrogate model. Not supported with batch or distributed evaluation.
+	 */
+	public void setUseCostCutoff(boolean val) { this.useCostCutoff = val;}
+	
+	/**
+	 * Adds a cheap screening stage; candidates are screened by each added stage in turn and only
+	 * those promoted by all stages are evaluated at full fidelity (see MultiFidelityEvaluator). Each stage
+	 * promotes at least mu candidates, so CMA always selects on full fidelity values.
+	 * Requires a SwimFitnessFunctionA (optionally wrapped by a CachedSwimFitnessFunction).
+	 */
+	public void addFidelityStage(FidelityStage stage) { this.fidelityStages.add(stage);}
+	
+	/** Sets how often (in iterations) screening stages are checked against full fidelity evaluation of a whole population */
+	public void setCalibrationInterval(int val) { this.calibrationInterval = val;}
+	
+	/**
+	 * If true, each population is pre-ranked with a quadratic model of recent evaluations and only
+	 * as many candidates as needed to settle the ranking are simulated (see SurrogateAssistedEvaluator).
+	 * The model archive isn't checkpointed, so a resumed run rebuilds it from scratch.
+	 */
+	public void setUseSurrogate(boolean val) { this.useSurrogate = val;}
+	
+	/**
+	 * If true, each population is simulated in a single world holding one character per candidate
+	 * (see BatchSwimFitnessFunction), with the characters solved on the worker threads. Ignored for
+	 * distributed evaluation; screening stages still evaluate candidates one at a time. Can't be combined with the cost cutoff.
+	 * Requires a SwimFitnessFunctionA (optionally wrapped by a CachedSwimFitnessFunction). Off by default,
+	 * since it's usually no faster than one-at-a-time evaluation (see BatchSwimFitnessFunction).
+	 */
+	public void setUseBatchWorld(boolean val) { this.useBatchWorld = val;}
+	
+	/**
+	 * If true (along with setUseBatchWorld()), populations of paddle characters are simulated in lock step
+	 * without a world (see LockStepPaddleSimulator); other characters still use the shared world
+	 */
+	public void setUseLockStep(boolean val) { this.useLockStep = val;}
+	
+	/**
+	 * Sets directory to which the best candidate of each generation is recorded, as genNNNNN.swrec
+	 * (see ScenarioRecorder, PlaybackSwimTest); null disables recording. Candidates are re-simulated on a
+	 * background thread, so recording costs about one extra evaluation per generation but doesn't hold up the search.
+	 * Requires a SwimFitnessFunctionA (optionally wrapped by a CachedSwimFitnessFunction).
+	 */
+	public void setRecordingDir(File val) { this.recordingDir = val;}
+	
 	/**
 	 * Executes CMA control optimization using given function, returning 
 	 * best control strategy found
 	 * @param fitFun
 	 */
 	public double[] optimize(SwimFitnessFunction fitFun) {
-		CMAEvolutionStrategy cma = new CMAEvolutionStrategy();
+		CMAEvolutionStrategy cma;
+		double[] fitness;
+		
+		//Batch worlds step all candidates to the end, and workers don't take a cutoff
+		if (useCostCutoff && (useBatchWorld || coordinatorPort >= 0))
+			throw new IllegalArgumentException("Cost cutoff isn't supported with batch or distributed evaluation");
+		
+		cma = new CMAEvolutionStrategy();
 		
 		//read options, see file CMAEvolutionStrategy.properties
 		cma.readProperties(); 
@@ -52,16 +154,74 @@ public class SwimmerOptimization {
 		cma.options.diagonalCovarianceMatrix = 1; //keep diagonal covariance
 
 		// Initialize CMA and get fitness array
-		double[] fitness = cma.init();
+		fitness = cma.init();
+		
+		if (resume && checkpointFile != null && checkpointFile.exists()) {
+			// Continue from saved state; output files are appended to
+			readCheckpoint(cma);
+			cma.println("Resuming from " + checkpointFile + " at iteration " + cma.getCountIter());
+		}
+		else {
+			// Write output file initial header
+			cma.writeToDefaultFilesHeaders(0); // 0 == overwrites old files
+		}
 
-		// Write output file initial header
-		cma.writeToDefaultFilesHeaders(0); // 0 == overwrites old files
+		// Evaluate populations across worker processes or threads if requested
+		// (multi-fidelity and surrogate evaluation work on whole populations, so they also use a thread pool when serial)
+		SwimPopulationEvaluator parallelFitFun = null;
+		ParallelSwimFitnessFunction threadedFitFun = null;
+		if (coordinatorPort >= 0)
+			parallelFitFun = createDistributedFitnessFunction(fitFun);
+		else if (useBatchWorld) {
+			BatchSwimFitnessFunction batchFitFun = new BatchSwimFitnessFunction(fitFun);
+			batchFitFun.setUseLockStep(useLockStep);
+			if (numThreads > 1)
+				batchFitFun.setIslandPool(new ForkJoinPool(numThreads));
+			parallelFitFun = batchFitFun;
+		}
+		else if (numThreads > 1 || !fidelityStages.isEmpty() || useSurrogate) {
+			threadedFitFun = new ParallelSwimFitnessFunction(fitFun, numThreads);
+			parallelFitFun = threadedFitFun;
+		}
+		
+		MultiFidelityEvaluator multiFidelityFitFun = null;
+		if (!fidelityStages.isEmpty()) {
+			multiFidelityFitFun = createMultiFidelityEvaluator(fitFun, parallelFitFun, cma.parameters.getMu());
+			parallelFitFun = multiFidelityFitFun;
+			for (int i = 0; i < fidelityStages.size(); i++)
+				cma.println("Screening stage " + (i+1) + ": " + fidelityStages.get(i));
+		}
+		
+		SurrogateAssistedEvaluator surrogateFitFun = null;
+		if (useSurrogate) {
+			surrogateFitFun = new SurrogateAssistedEvaluator(parallelFitFun, fitFun.getNumControlDimensions(), cma.parameters.getMu());
+			parallelFitFun = surrogateFitFun;
+		}
+		
+		ExecutorService recordingExecutor = null;
+		SwimFitnessFunctionA recordingFitFun = null;
+		if (recordingDir != null) {
+			recordingFitFun = createRecordingFitnessFunction(fitFun);
+			if (recordingFitFun != null)
+				recordingExecutor = createRecordingExecutor();
+			else
+				cma.println("Recording requires a SwimFitnessFunctionA; generations won't be recorded");
+		}
+		
+		long totalStepsSaved = 0;
 
 		// Run optimization iterations until a stop condition is met
 		while(cma.stopConditions.getNumber() == 0) {
 			//Get a list of sampled control strategies
 			double[][] controlPop = cma.samplePopulation(); 
 			
+			//One cutoff per generation, fixed by values that reach CMA unchanged (simulated at full fidelity)
+			CostCutoffTracker cutoffTracker = useCostCutoff ? new CostCutoffTracker(cma.parameters.getMu()) : null;
+			if (threadedFitFun != null)
+				threadedFitFun.setCostCutoffTracker(cutoffTracker);
+			if (surrogateFitFun != null)
+				surrogateFitFun.setCostCutoffTracker(cutoffTracker);
+			
 			//Check fitness of each strategy
 			for (int i = 0; i < controlPop.length; ++i) {    
 				//If strategy is disallowed, resample (watch for infinite loops here...)
@@ -69,22 +229,61 @@ public class SwimmerOptimization {
 					controlPop[i] = cma.resampleSingle(i);    
                                                      
                 // compute fitness/objective value (to be minimized)
-				fitness[i] = fitFun.valueOf(controlPop[i]); 
+				if (parallelFitFun == null) {
+					if (cutoffTracker != null)
+						fitFun.setCostCutoff(cutoffTracker.getCutoff());
+					
+					fitness[i] = fitFun.valueOf(controlPop[i]); 
+					
+					if (cutoffTracker != null) {
+						cutoffTracker.add(fitness[i]);
+						if (fitFun.wasLastEvaluationCutOff())
+							cutoffTracker.addCutOff(controlPop[i], fitFun.getLastStepsSaved());
+					}
+				}
 			}
 			
+			//Or evaluate whole population at once, in parallel
+			if (parallelFitFun != null)
+				fitness = parallelFitFun.valuesOf(controlPop);
+			long stepsSaved = cutoffTracker != null ? cutoffTracker.getStepsSaved() : 0;
+			totalStepsSaved += stepsSaved;
+			
 			// Pass fitness array to update search distribution
 			cma.updateDistribution(fitness);         
+			
+			if (useCostCutoff)
+				cma.println("  cost cutoff skipped " + stepsSaved + " simulation steps in iteration " + cma.getCountIter());
+			
+			// Queue best candidate of this generation to be recorded
+			if (recordingExecutor != null)
+				recordBest(recordingExecutor, recordingFitFun, cma, controlPop, fitness);
+			
+			// Save progress so an interrupted run can be resumed
+			if (checkpointFile != null && cma.getCountIter() % iterationsPerCheckpoint == 0)
+				writeCheckpoint(cma);
 
 			// Update output to console/files
 			cma.writeToDefaultFiles();
 			//Print table headers and stats every so often
 			if (cma.getCountIter() % (15*iterationsPerOutput) == 1)
 				cma.printlnAnnotation(); 
-			if (cma.getCountIter() % iterationsPerOutput == 1)
+			if (cma.getCountIter() % iterationsPerOutput == 1) {
 				cma.println(); 
+				if (multiFidelityFitFun != null)
+					cma.println(multiFidelityFitFun.getStatisticsString());
+				if (surrogateFitFun != null)
+					cma.println(surrogateFitFun.getStatisticsString());
+			}
 		}
 		
+		if (parallelFitFun != null)
+			parallelFitFun.shutdown();
+		if (recordingExecutor != null)
+			finishRecordings(recordingExecutor, cma);
+		
 		// Set best-ever solution to mean control strategy (which is best guess for optimal strategy)
+		fitFun.setCostCutoff(Double.POSITIVE_INFINITY);
 		cma.setFitnessOfMeanX(fitFun.valueOf(cma.getMeanX())); 
 
 		// Write final output
@@ -95,10 +294,149 @@ public class SwimmerOptimization {
 			cma.println("  " + s);
 		cma.println("best function value " + cma.getBestFunctionValue() 
 				+ " at evaluation " + cma.getBestEvaluationNumber());
+		if (useCostCutoff)
+			cma.println("cost cutoff skipped " + totalStepsSaved + " simulation steps in total");
+		if (multiFidelityFitFun != null)
+			cma.println(multiFidelityFitFun.getStatisticsString());
+		if (surrogateFitFun != null)
+			cma.println("surrogate model: " + surrogateFitFun.getNumTrueEvaluations() + " candidates simulated in total");
 		
 		return cma.getBestX();
 	}
 	
+	/**
+	 * Returns a copy of given function (unwrapped from any cache) for recording candidates, or null if
+	 * it isn't a SwimFitnessFunctionA
+	 */
+	protected SwimFitnessFunctionA createRecordingFitnessFunction(SwimFitnessFunction fitFun) {
+		if (fitFun instanceof CachedSwimFitnessFunction)
+			fitFun = ((CachedSwimFitnessFunction) fitFun).getFitnessFunction();
+		
+		if (!(fitFun instanceof SwimFitnessFunctionA))
+			return null;
+		return (SwimFitnessFunctionA) fitFun.copy();
+	}
+	
+	/** Returns single background thread on which candidates are recorded, in generation order */
+	protected ExecutorService createRecordingExecutor() {
+		return Executors.newSingleThreadExecutor(new ThreadFactory() {
+			@Override
+			public Thread newThread(Runnable r) {
+				Thread thread = new Thread(r, "SwimRecorder");
+				thread.setDaemon(true);
+				return thread;
+			}
+		});
+	}
+	
+	/**
+	 * Queues lowest cost candidate of the generation just evaluated to be recorded to recordingDir
+	 */
+	protected void recordBest(ExecutorService executor, final SwimFitnessFunctionA recordingFitFun, final CMAEvolutionStrategy cma,
+			double[][] controlPop, double[] fitness) {
+		int bestIdx = 0;
+		for (int i = 1; i < fitness.length; i++) {
+			if (fitness[i] < fitness[bestIdx])
+				bestIdx = i;
+		}
+		
+		//CMA reuses population arrays, so keep a copy for the recording thread
+		final double[] x = controlPop[bestIdx].clone();
+		final File file = new File(recordingDir, String.format("gen%05d", cma.getCountIter()) + ScenarioRecorder.FILE_EXTENSION);
+		executor.execute(new Runnable() {
+			@Override
+			public void run() {
+				try {
+					recordingFitFun.record(x, file);
+				}
+				catch (IOException e) {
+					//Not fatal; optimization can carry on without recordings
+					cma.println("Failed to record " + file + ": " + e);
+				}
+			}
+		});
+	}
+	
+	/** Waits for queued recordings to be written, then stops the recording thread */
+	protected void finishRecordings(ExecutorService executor, CMAEvolutionStrategy cma) {
+		executor.shutdown();
+		try {
+			if (!executor.awaitTermination(10, TimeUnit.MINUTES))
+				cma.println("Timed out waiting for recordings in " + recordingDir);
+		}
+		catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+	}
+	
+	protected void writeCheckpoint(CMAEvolutionStrategy cma) {
+		try {
+			CMACheckpoint.write(cma, checkpointFile);
+		}
+		catch (IOException e) {
+			//Not fatal; optimization can carry on without checkpoints
+			cma.println("Failed to write checkpoint " + checkpointFile + ": " + e);
+		}
+	}
+	
+	protected void readCheckpoint(CMAEvolutionStrategy cma) {
+		try {
+			CMACheckpoint.read(cma, checkpointFile);
+		}
+		catch (IOException e) {
+			throw new RuntimeException("Failed to read checkpoint " + checkpointFile, e);
+		}
+	}
+	
+	/**
+	 * Creates coordinator for distributed evaluation with given fitness function, 
+	 * starting local worker processes if requested
+	 */
+	protected SwimPopulationEvaluator createDistributedFitnessFunction(SwimFitnessFunction fitFun) {
+		//Workers have no access to a local cache; they just need the underlying function
+		if (fitFun instanceof CachedSwimFitnessFunction)
+			fitFun = ((CachedSwimFitnessFunction) fitFun).getFitnessFunction();
+		
+		if (!(fitFun instanceof SwimFitnessFunctionA))
+			throw new IllegalArgumentException("Distributed evaluation requires a SwimFitnessFunctionA");
+		
+		try {
+			DistributedSwimFitnessFunction distFitFun = new DistributedSwimFitnessFunction((SwimFitnessFunctionA) fitFun, coordinatorPort);
+			distFitFun.launchLocalWorkers(numLocalWorkers);
+			return distFitFun;
+		}
+		catch (IOException e) {
+			throw new RuntimeException("Failed to start distributed evaluation coordinator", e);
+		}
+	}
+	
+	/**
+	 * Creates evaluator that screens populations with the configured fidelity stages before 
+	 * passing the best candidates to given full fidelity evaluator. Screening runs on local threads.
+	 * @param numSelected number of candidates CMA selects from each population (mu); every stage promotes at least this many
+	 */
+	protected MultiFidelityEvaluator createMultiFidelityEvaluator(SwimFitnessFunction fitFun, SwimPopulationEvaluator fullEvaluator, int numSelected) {
+		//Stage functions share the cache (if any) of the full function; cache keys include the stage config
+		CachedSwimFitnessFunction cachedFitFun = null;
+		if (fitFun instanceof CachedSwimFitnessFunction) {
+			cachedFitFun = (CachedSwimFitnessFunction) fitFun;
+			fitFun = cachedFitFun.getFitnessFunction();
+		}
+		
+		if (!(fitFun instanceof SwimFitnessFunctionA))
+			throw new IllegalArgumentException("Multi-fidelity evaluation requires a SwimFitnessFunctionA");
+		
+		MultiFidelityEvaluator evaluator = new MultiFidelityEvaluator(fullEvaluator, numSelected);
+		evaluator.setCalibrationInterval(calibrationInterval);
+		for (FidelityStage stage : fidelityStages) {
+			SwimFitnessFunction stageFitFun = stage.createFitnessFunction((SwimFitnessFunctionA) fitFun);
+			if (cachedFitFun != null)
+				stageFitFun = new CachedSwimFitnessFunction((SwimFitnessFunctionA) stageFitFun, cachedFitFun.getCache());
+			evaluator.addStage(stage, new ParallelSwimFitnessFunction(stageFitFun, numThreads));
+		}
+		return evaluator;
+	}
+	
 	/**
 	 * Writes given control values to a comma-separated value file with given path and name
 	 * (.csv extension will be automatically appended)
@@ -0,0 +1,258 @@
+package ubc.swim.tests;
+
+import java.io.File;
+import java.io.FileFilter;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.jbox2d.common.Color3f;
+import org.jbox2d.common.Vec2;
+import org.jbox2d.dynamics.Body;
+
+import ubc.swim.gui.CompiledSwimSettings;
+import ubc.swim.gui.SwimModel;
+import ubc.swim.gui.SwimSettings;
+import ubc.swim.world.characters.SwimCharacter;
+import ubc.swim.world.scenario.ScenarioRecorder;
+import ubc.swim.world.scenario.ScenarioRecording;
+
+/**
+ * Plays back a recording made by ScenarioRecorder (eg: the best candidate of each generation
+ * of an optimization; see SwimmerOptimization.setRecordingDir()). Characters are rebuilt from
+ * the IDs in the recording and posed from its frames; the world is never stepped, so any point
+ * in the recording can be shown instantly.
+ *
+ * Keys: ',' and '.' step one frame back/forward, 'a' and 'd' seek one second back/forward,
+ * 'h' returns to the start, '-' and '=' halve/double playback speed, 'v' reverses playback,
+ * 'l' toggles looping, and 'n' and 'p' switch to the next/previous recording in the directory.
+ *
+ * @author Ben Humberston
+ *
+ */
+public class PlaybackSwimTest extends SwimTest {
+	protected static final float SEEK_TIME = 1.0f;
+
+	private final String ID;
+	private final File path;
+
+	private List<File> files = new ArrayList<File>();
+	private int fileIdx = -1; //-1 opens the most recent file
+	private ScenarioRecording recording;
+	private String loadError;
+
+	private float playTime = 0;
+	private float playSpeed = 1;
+	private boolean looping = true;
+	private int frame = 0;
+	private final Vec2 position = new Vec2();
+
+	/**
+	 * @param ID
+	 * @param path recording file, or directory of recordings (files are ordered by name)
+	 */
+	public PlaybackSwimTest(String ID, String path) {
+		super();
+
+		this.ID = ID;
+		this.path = new File(path);
+	}
+
+	@Override
+	public void init(SwimModel argModel) {
+		//Characters are rebuilt from the recording, so it has to be opened before the scenario is created
+		openRecording();
+
+		charIDs.clear();
+		suffixes.clear();
+		if (recording != null) {
+			charIDs.addAll(recording.getCharIDs());
+			for (int i = 0; i < charIDs.size(); i++)
+				suffixes.add("");
+		}
+
+		super.init(argModel);
+	}
+
+	private void openRecording() {
+		files.clear();
+		if (path.isDirectory()) {
+			File[] dirFiles = path.listFiles(new FileFilter() {
+				@Override
+				public boolean accept(File file) {
+					return file.isFile() && file.getName().endsWith(ScenarioRecorder.FILE_EXTENSION);
+				}
+			});
+			Arrays.sort(dirFiles);
+			files.addAll(Arrays.asList(dirFiles));
+		}
+		else if (path.isFile())
+			files.add(path);
+
+		recording = null;
+		loadError = null;
+		if (files.isEmpty()) {
+			loadError = "No recordings found at " + path;
+			return;
+		}
+
+		if (fileIdx < 0 || fileIdx >= files.size())
+			fileIdx = files.size() - 1;
+
+		try {
+			recording = new ScenarioRecording(files.get(fileIdx));
+		}
+		catch (IOException e) {
+			loadError = "Can't read " + files.get(fileIdx) + ": " + e.getMessage();
+		}
+	}
+
+	@Override
+	public void initTest() {
+		//Same debug colors as BasicSwimTest
+		Color3f[] debugColors = new Color3f[]{
+				new Color3f(1.0f, 0.0f, 0.0f),
+				new Color3f(0.0f, 1.0f, 0.0f),
+				new Color3f(0.0f, 0.0f, 1.0f)
+		};
+		List<SwimCharacter> characters = scenario.getCharacters();
+		for (int i = 0; i < characters.size(); i++)
+			characters.get(i).setDebugColor(debugColors[i % debugColors.length]);
+
+		if (recording != null) {
+			for (int i = 0; i < characters.size(); i++) {
+				if (characters.get(i).getBodies().size() != recording.getNumBodies(i))
+					loadError = "Character " + charIDs.get(i) + " doesn't match recording; wrong version?";
+			}
+		}
+
+		playTime = recording != null && recording.getNumFrames() > 0 ? recording.getTime(0) : 0;
+		seek();
+	}
+
+	@Override
+	protected void stepScenario(CompiledSwimSettings settings, float dt) {
+		if (recording == null || recording.getNumFrames() == 0 || loadError != null)
+			return;
+
+		playTime += dt * playSpeed;
+		seek();
+	}
+
+	/**
+	 * Wraps or clamps play time to the recording, then shows the frame at that time
+	 */
+	private void seek() {
+		if (recording == null || recording.getNumFrames() == 0 || loadError != null)
+			return;
+
+		float start = recording.getTime(0), end = recording.getDuration();
+		if (playTime > end || playTime < start) {
+			if (looping && end > start) {
+				float length = end - start + recording.getTimeStep();
+				playTime = start + (((playTime - start) % length) + length) % length;
+			}
+			else
+				playTime = Math.max(start, Math.min(end, playTime));
+		}
+
+		showFrame();
+	}
+
+	/**
+	 * Poses characters as in the frame at the current play time
+	 */
+	private void showFrame() {
+		frame = recording.getFrameAt(playTime);
+		List<SwimCharacter> characters = scenario.getCharacters();
+		for (int i = 0; i < characters.size(); i++) {
+			List<Body> bodies = characters.get(i).getBodies();
+			for (int b = 0; b < bodies.size(); b++) {
+				position.set(recording.getBodyX(frame, i, b), recording.getBodyY(frame, i, b));
+				bodies.get(b).setTransform(position, recording.getBodyAngle(frame, i, b));
+			}
+		}
+	}
+
+	@Override
+	public void step(SwimSettings settings) {
+		super.step(settings);
+
+		//Add playback info
+		if (loadError != null)
+			addTextLine(loadError);
+		else if (recording != null && recording.getNumFrames() > 0) {
+			addTextLine(String.format("%s: frame %d/%d, time %.2f/%.2f s, speed x%.2f%s", recording.getFile().getName(),
+					frame + 1, recording.getNumFrames(), recording.getTime(frame), recording.getDuration(),
+					playSpeed, looping ? ", looping" : ""));
+			for (int i = 0; i < recording.getNumCharacters(); i++) {
+				addTextLine(String.format("%s: avg speed %.3f, torque %.2f (total %.1f), root angle deviation %.1f",
+						charIDs.get(i),
+						recording.getStat(frame, i, ScenarioRecorder.STAT_AVG_ROOT_SPEED),
+						recording.getStat(frame, i, ScenarioRecorder.STAT_PREV_TORQUE),
+						recording.getStat(frame, i, ScenarioRecorder.STAT_TOTAL_TORQUE),
+						recording.getStat(frame, i, ScenarioRecorder.STAT_TOTAL_ROOT_ANGLE_DEVIATION)));
+			}
+		}
+	}
+
+	@Override
+	public void keyPressed(char argKeyChar, int argKeyCode) {
+		//Switch recordings even if the current one can't be played
+		if (argKeyChar == 'n' || argKeyChar == 'p') {
+			if (!files.isEmpty())
+				fileIdx = argKeyChar == 'n' ? Math.min(fileIdx + 1, files.size() - 1) : Math.max(fileIdx - 1, 0);
+			reset();
+			return;
+		}
+		if (recording == null || recording.getNumFrames() == 0)
+			return;
+
+		float timeStep = recording.getTimeStep();
+		switch (argKeyChar) {
+			case ',':
+				playTime = recording.getTime(frame) - timeStep / 2;
+				break;
+			case '.':
+				playTime = recording.getTime(frame) + 1.5f * timeStep;
+				break;
+			case 'a':
+				playTime -= SEEK_TIME;
+				break;
+			case 'd':
+				playTime += SEEK_TIME;
+				break;
+			case 'h':
+				playTime = recording.getTime(0);
+				break;
+			case '-':
+				playSpeed /= 2;
+				break;
+			case '=':
+				playSpeed *= 2;
+				break;
+			case 'v':
+				playSpeed = -playSpeed;
+				break;
+			case 'l':
+				looping = !looping;
+				break;
+			default:
+				return;
+		}
+
+		//Seeking applies right away, even while paused
+		seek();
+	}
+
+	@Override
+	public String getTestName() {
+		return "Playback: " + ID;
+	}
+
+	@Override
+	public String getTestID() {
+		return ID;
+	}
+}
@@ -55,7 +55,9 @@ import org.jbox2d.dynamics.joints.MouseJoint;
 import org.jbox2d.dynamics.joints.MouseJointDef;
 
 import ubc.swim.dynamics.controllers.DynamicsController;
+import ubc.swim.gui.CompiledSwimSettings;
 import ubc.swim.gui.ContactPoint;
+import ubc.swim.gui.FrameSnapshot;
 import ubc.swim.gui.SwimModel;
 import ubc.swim.gui.SwimSettings;
 import ubc.swim.world.characters.SwimCharacter;
@@ -122,7 +124,8 @@ public abstract class SwimTest implements ContactListener {
 	
 	private boolean dialogOnSaveLoadErrors = true;
 
-	private boolean resetPending = false;
+	//Set by the GUI thread, read by the physics thread
+	private volatile boolean resetPending = false;
 	
 	/** List of IDs for characters that appear in this test */
 	protected ArrayList<String> charIDs;
@@ -152,7 +155,7 @@ public abstract class SwimTest implements ContactListener {
 			}
 		};
 		 
-		scenario = ScenarioLibrary.getBasicScenario(charIDs);
+		scenario = ScenarioLibrary.getBasicScenario(charIDs, false, true);
 
 		bomb = null;
 		mouseJoint = null;
@@ -368,11 +371,16 @@ public abstract class SwimTest implements ContactListener {
 
 	public void update() {
 		if (resetPending) {
-			_reset();
+			//Cleared first, so a reset requested while this one runs isn't lost
 			resetPending = false;
+			_reset();
 		}
 
 		textLine = 30;
+		
+		//When drawing is done separately (see captureFrame()), only text from the last step before it is shown
+		if (!drawingEnabled)
+			textList.clear();
 
 		// process our input
 		if (!inputQueue.isEmpty()) {
@@ -381,7 +389,10 @@ public abstract class SwimTest implements ContactListener {
 					QueueItem i = inputQueue.pop();
 					switch (i.type) {
 					case KeyPressed:
-						keyPressed(i.c, i.code);
+						if (i.c == ' ')
+							lanchBomb();
+						else
+							keyPressed(i.c, i.code);
 						break;
 					case KeyReleased:
 						keyReleased(i.c, i.code);
@@ -421,8 +432,7 @@ public abstract class SwimTest implements ContactListener {
 	 * Returns time step to be used on next simulation update based on given settings
 	 */
 	protected float getTimeStep(SwimSettings settings) {
-		float hz = (float)settings.getSetting(SwimSettings.Hz).value;
-		float dt = hz > 0f ? 1f / hz : 0;
+		float dt = settings.getCompiled().timeStep;
 		
 		if (settings.pause && settings.singleStep == false) 
 			dt = 0;
@@ -434,7 +444,7 @@ public abstract class SwimTest implements ContactListener {
 	 * Executes a world update and (if enabled) rendering of the test.
 	 * @param settings
 	 */
-	public synchronized void step(SwimSettings settings) {
+	public void step(SwimSettings settings) {
 		float dt = getTimeStep(settings);
 		
 		if (settings.singleStep && !settings.pause)
@@ -443,14 +453,13 @@ public abstract class SwimTest implements ContactListener {
 		if (settings.pause && settings.singleStep)
 			settings.singleStep = false;
 
-		getWorld().setWarmStarting(settings
-				.getSetting(SwimSettings.WarmStarting).enabled);
-		getWorld().setContinuousPhysics(settings
-				.getSetting(SwimSettings.ContinuousCollision).enabled);
+		CompiledSwimSettings compiledSettings = settings.getCompiled();
+		getWorld().setWarmStarting(compiledSettings.warmStarting);
+		getWorld().setContinuousPhysics(compiledSettings.continuousCollision);
 
 		pointCount = 0;
 		
-		scenario.step(settings, dt);
+		stepScenario(compiledSettings, dt);
 		
 		if (drawingEnabled)
 			debugDraw(settings);
@@ -459,16 +468,32 @@ public abstract class SwimTest implements ContactListener {
 			frameCount++;
 	}
 	
+	/**
+	 * Advances the test's scenario by given time step (0 when paused). Default simulates it
+	 */
+	protected void stepScenario(CompiledSwimSettings settings, float dt) {
+		scenario.step(settings, dt);
+	}
+	
 	/** 
 	 * Renders the current world & debugging details for this test
 	 * @arg settings
 	 */
 	public void debugDraw(SwimSettings settings) {
-		float hz = (float)settings.getSetting(SwimSettings.Hz).value;
-		float timeStep = hz > 0f ? 1f / hz : 0;
+		debugDraw(settings, model.getDebugDraw(), true);
+	}
+	
+	/** 
+	 * Renders the current world & debugging details for this test to given debug draw
+	 * @arg settings
+	 * @arg draw
+	 * @arg drawBodies if false, world and character body shapes are left out (see captureFrame())
+	 */
+	public void debugDraw(SwimSettings settings, DebugDraw draw, boolean drawBodies) {
+		float timeStep = settings.getCompiled().timeStep;
 		
 		if (settings.pause) {
-			model.getDebugDraw().drawString(5, textLine, "****PAUSED****", Color3f.WHITE);
+			draw.drawString(5, textLine, "****PAUSED****", Color3f.WHITE);
 			textLine += 15;
 		}
 
@@ -485,10 +510,13 @@ public abstract class SwimTest implements ContactListener {
 				: 0;
 		flags += settings.getSetting(SwimSettings.DrawTree).enabled ? DebugDraw.e_dynamicTreeBit
 				: 0;
-		model.getDebugDraw().setFlags(flags);
+		if (!drawBodies)
+			flags &= ~DebugDraw.e_shapeBit;
+		draw.setFlags(flags);
 		
 		World world = getWorld();
 		
+		world.setDebugDraw(draw);
 		world.drawDebugData();
 
 		if (timeStep > 0f) {
@@ -497,16 +525,16 @@ public abstract class SwimTest implements ContactListener {
 
 		if (settings.getSetting(SwimSettings.DrawStats).enabled) {
 			if (title != null)
-				model.getDebugDraw().drawString(model.getPanelWidth() / 2, 15, title, Color3f.WHITE);
+				draw.drawString(model.getPanelWidth() / 2, 15, title, Color3f.WHITE);
 			
 			// Vec2.watchCreations = true;
-			model.getDebugDraw().drawString(5, textLine, "Engine Info",
+			draw.drawString(5, textLine, "Engine Info",
 					color4);
 			textLine += 15;
-			model.getDebugDraw().drawString(5, textLine,
+			draw.drawString(5, textLine,
 					"Framerate: " + model.getCalculatedFps(), Color3f.WHITE);
 			textLine += 15;
-			model.getDebugDraw().drawString(
+			draw.drawString(
 					5,
 					textLine,
 					"bodies/contacts/joints/proxies = "
@@ -518,35 +546,34 @@ public abstract class SwimTest implements ContactListener {
 		}
 
 		if (settings.getSetting(SwimSettings.DrawHelp).enabled) {
-			model.getDebugDraw().drawString(5, textLine, "Help", color4);
+			draw.drawString(5, textLine, "Help", color4);
 			textLine += 15;
-			model.getDebugDraw().drawString(5, textLine,
+			draw.drawString(5, textLine,
 					"Click and drag the left mouse button to move objects.",
 					Color3f.WHITE);
 			textLine += 15;
-			model.getDebugDraw().drawString(5, textLine,
+			draw.drawString(5, textLine,
 					"Shift-Click to aim a bullet, or press space.",
 					Color3f.WHITE);
 			textLine += 15;
-			model.getDebugDraw().drawString(5, textLine,
+			draw.drawString(5, textLine,
 					"Click and drag the right mouse button to move the view.",
 					Color3f.WHITE);
 			textLine += 15;
-			model.getDebugDraw().drawString(5, textLine,
+			draw.drawString(5, textLine,
 					"Scroll to zoom in/out.", Color3f.WHITE);
 			textLine += 15;
-			model.getDebugDraw().drawString(5, textLine,
+			draw.drawString(5, textLine,
 					"Press '[' or ']' to change tests, and 'r' to restart.",
 					Color3f.WHITE);
 			textLine += 20;
 		}
 
 		if (!textList.isEmpty()) {
-			model.getDebugDraw().drawString(5, textLine, "Test Info", color4);
+			draw.drawString(5, textLine, "Test Info", color4);
 			textLine += 15;
 			for (String s : textList) {
-				model.getDebugDraw()
-						.drawString(5, textLine, s, Color3f.WHITE);
+				draw.drawString(5, textLine, s, Color3f.WHITE);
 				textLine += 15;
 			}
 			textList.clear();
@@ -556,11 +583,11 @@ public abstract class SwimTest implements ContactListener {
 			mouseJoint.getAnchorB(p1);
 			Vec2 p2 = mouseJoint.getTarget();
 
-			model.getDebugDraw().drawSegment(p1, p2, mouseColor);
+			draw.drawSegment(p1, p2, mouseColor);
 		}
 
 		if (bombSpawning) {
-			model.getDebugDraw().drawSegment(bombSpawnPoint, mouseWorld,
+			draw.drawSegment(bombSpawnPoint, mouseWorld,
 					Color3f.WHITE);
 		}
 
@@ -572,31 +599,78 @@ public abstract class SwimTest implements ContactListener {
 				ContactPoint point = points[i];
 
 				if (point.state == PointState.ADD_STATE) {
-					model.getDebugDraw().drawPoint(point.position, 10f, color1);
+					draw.drawPoint(point.position, 10f, color1);
 				} else if (point.state == PointState.PERSIST_STATE) {
-					model.getDebugDraw().drawPoint(point.position, 5f, color2);
+					draw.drawPoint(point.position, 5f, color2);
 				}
 
 				if (settings.getSetting(SwimSettings.DrawNormals).enabled) {
 					p1.set(point.position);
 					p2.set(point.normal).mulLocal(axisScale).addLocal(p1);
-					model.getDebugDraw().drawSegment(p1, p2, color3);
+					draw.drawSegment(p1, p2, color3);
 				}
 			}
 		}
 		
 		//Draw controller debug info
 		for (DynamicsController controller : scenario.getDynamicsControllers()) {
-			controller.draw(model.getDebugDraw(), settings);
+			controller.draw(draw, settings.getCompiled());
 		}
 		
 		//Draw character debug info
-		if (settings.getSetting(SwimSettings.DrawDebugChars).enabled) {
+		if (drawBodies && settings.getSetting(SwimSettings.DrawDebugChars).enabled) {
 			for (SwimCharacter character : scenario.getCharacters())
-				character.debugDraw(model.getDebugDraw());
+				character.debugDraw(draw);
 		}
 	}
 
+	/**
+	 * Captures what's needed to draw the current world on another thread: poses of drawn
+	 * bodies, and a recording of everything else debugDraw() would draw. Call after a step;
+	 * poses before the step should have been saved with FrameSnapshot.capturePrevPoses().
+	 * @param settings
+	 * @param snapshot
+	 */
+	public void captureFrame(SwimSettings settings, FrameSnapshot snapshot) {
+		snapshot.clear();
+		snapshot.testID = getTestID();
+		snapshot.frameCount = frameCount;
+		
+		World world = getWorld();
+		if (settings.getSetting(SwimSettings.DrawShapes).enabled) {
+			for (Body b = world.getBodyList(); b != null; b = b.getNext()) {
+				//Same colors as World.drawDebugData()
+				if (b.isActive() == false)
+					snapshotColor.set(0.5f, 0.5f, 0.3f);
+				else if (b.getType() == BodyType.STATIC)
+					snapshotColor.set(0.5f, 0.9f, 0.3f);
+				else if (b.getType() == BodyType.KINEMATIC)
+					snapshotColor.set(0.5f, 0.5f, 0.9f);
+				else if (b.isAwake() == false)
+					snapshotColor.set(0.5f, 0.5f, 0.5f);
+				else
+					snapshotColor.set(0.9f, 0.7f, 0.7f);
+				snapshot.addWorldBody(b, snapshotColor);
+			}
+		}
+		
+		if (settings.getSetting(SwimSettings.DrawDebugChars).enabled) {
+			for (SwimCharacter character : scenario.getCharacters()) {
+				snapshotBodies.clear();
+				snapshotColors.clear();
+				character.getDebugBodies(snapshotBodies, snapshotColors);
+				for (int i = 0; i < snapshotBodies.size(); i++)
+					snapshot.addCharacterBody(snapshotBodies.get(i), snapshotColors.get(i));
+			}
+		}
+		
+		debugDraw(settings, snapshot.getOverlay(), false);
+	}
+	
+	private final Color3f snapshotColor = new Color3f();
+	private final ArrayList<Body> snapshotBodies = new ArrayList<Body>();
+	private final ArrayList<Color3f> snapshotColors = new ArrayList<Color3f>();
+
 	public void queueShiftMouseDown(Vec2 p) {
 		synchronized (inputQueue) {
 			inputQueue.addLast(new QueueItem(QueueItemType.ShiftMouseDown, p));
@@ -11,8 +11,17 @@ public class Edge {
 	public Vec2 pA = new Vec2();
 	public Vec2 pB = new Vec2();
 	
+	public Edge() {
+	}
+	
 	public Edge(float pAx, float pAy, float pBx, float pBy) {
+		set(pAx, pAy, pBx, pBy);
+	}
+	
+	/** Sets both endpoints of this edge */
+	public Edge set(float pAx, float pAy, float pBx, float pBy) {
 		pA.set(pAx, pAy);
 		pB.set(pBx, pBy);
+		return this;
 	}
 }
@@ -0,0 +1,54 @@
+package ubc.swim.world;
+
+/**
+ * A growable list of edges. Edge objects are kept after clear() and reused by 
+ * later add() calls, so a list that is refilled on every simulation step stops 
+ * allocating once it has reached its working size.
+ * @author Ben Humberston
+ *
+ */
+public class EdgeList {
+	protected Edge[] edges;
+	protected int size = 0;
+	
+	public EdgeList() {
+		this(16);
+	}
+	
+	public EdgeList(int initialCapacity) {
+		edges = new Edge[Math.max(initialCapacity, 1)];
+	}
+	
+	/**
+	 * Appends an edge with given endpoints and returns it
+	 */
+	public Edge add(float pAx, float pAy, float pBx, float pBy) {
+		if (size == edges.length) {
+			Edge[] newEdges = new Edge[edges.length * 2];
+			System.arraycopy(edges, 0, newEdges, 0, edges.length);
+			edges = newEdges;
+		}
+		
+		Edge edge = edges[size];
+		if (edge == null) {
+			edge = new Edge();
+			edges[size] = edge;
+		}
+		size++;
+		
+		return edge.set(pAx, pAy, pBx, pBy);
+	}
+	
+	/** Returns the i'th edge; only valid until the next clear() */
+	public Edge get(int i) {
+		assert (i < size);
+		return edges[i];
+	}
+	
+	public int size() { return size; }
+	
+	/** Empties the list, keeping edge objects for reuse */
+	public void clear() {
+		size = 0;
+	}
+}
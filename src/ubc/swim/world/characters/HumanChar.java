@@ -1,17 +1,15 @@
 package ubc.swim.world.characters;
 
 import java.util.ArrayList;
+import java.util.List;
 
-import org.jbox2d.callbacks.DebugDraw;
 import org.jbox2d.collision.shapes.PolygonShape;
 import org.jbox2d.common.Color3f;
-import org.jbox2d.common.Transform;
 import org.jbox2d.common.Vec2;
 import org.jbox2d.dynamics.Body;
 import org.jbox2d.dynamics.BodyDef;
 import org.jbox2d.dynamics.BodyType;
 import org.jbox2d.dynamics.Filter;
-import org.jbox2d.dynamics.Fixture;
 import org.jbox2d.dynamics.World;
 import org.jbox2d.dynamics.joints.Joint;
 import org.jbox2d.dynamics.joints.RevoluteJoint;
@@ -19,7 +17,7 @@ import org.jbox2d.dynamics.joints.RevoluteJointDef;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
-import ubc.swim.gui.SwimSettings;
+import ubc.swim.gui.CompiledSwimSettings;
 import ubc.swim.world.motors.GaussianTorqueMotor;
 import ubc.swim.world.motors.TorqueMotor;
 
@@ -60,6 +58,9 @@ public class HumanChar extends SwimCharacter {
 	
 	protected Stroke stroke;
 	
+	private static final Color3f LEFT_DEBUG_COLOR = new Color3f(0.2f, 0.9f, 0.2f);
+	private static final Color3f RIGHT_DEBUG_COLOR = new Color3f(0.9f, 0.2f, 0.2f);
+	
 	protected ArrayList<Body> rightBodies;
 	protected ArrayList<Body> leftBodies;
 	
@@ -346,10 +347,11 @@ public class HumanChar extends SwimCharacter {
 			}
 		}
 		
+		compileMotors();
 	}
 	
 	@Override
-	public void step(SwimSettings settings, float dt) {
+	public void step(CompiledSwimSettings settings, float dt) {
 		if (dt == 0) return;
 		
 		prevTorque = 0.0f;
@@ -359,29 +361,27 @@ public class HumanChar extends SwimCharacter {
 //			motor.applyTorque(runtime);
 	}
 	
+	@Override
+	public void reset() {
+		super.reset();
+		prevTorque = 0.0f;
+	}
+	
 	@Override
 	public float getPrevTorque() {
 		return prevTorque;
 	}
 	
 	@Override
-	public void debugDraw(DebugDraw debugDraw) {
-		Transform transform = new Transform();
-		Color3f color = new Color3f();
-		
-		
+	public void getDebugBodies(List<Body> bodiesOut, List<Color3f> colorsOut) {
 		//Draw left/right coloring (note: left is drawn below right side... it's on the character side *away* from the viewer)
 		for (Body body : leftBodies) {
-			transform.set(body.getTransform());
-			color.set(0.2f, 0.9f, 0.2f);
-			for (Fixture fixture = body.getFixtureList(); fixture != null; fixture = fixture.getNext())
-				drawPolygon((PolygonShape) fixture.getShape(), transform, color, debugDraw, true);
+			bodiesOut.add(body);
+			colorsOut.add(LEFT_DEBUG_COLOR);
 		}
 		for (Body body : rightBodies) {
-			transform.set(body.getTransform());
-			color.set(0.9f, 0.2f, 0.2f);
-			for (Fixture fixture = body.getFixtureList(); fixture != null; fixture = fixture.getNext())
-				drawPolygon((PolygonShape) fixture.getShape(), transform, color, debugDraw, true);
+			bodiesOut.add(body);
+			colorsOut.add(RIGHT_DEBUG_COLOR);
 		}
 	}
 }
@@ -15,7 +15,7 @@ import org.jbox2d.dynamics.joints.RevoluteJointDef;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
-import ubc.swim.gui.SwimSettings;
+import ubc.swim.gui.CompiledSwimSettings;
 import ubc.swim.world.motors.GaussianTorqueMotor;
 import ubc.swim.world.motors.TorqueMotor;
 
@@ -110,8 +110,34 @@ public class PaddleChar extends SwimCharacter {
 		//Add motor for each joint
 		for (Joint joint : joints) {
 			RevoluteJoint rjoint = (RevoluteJoint) joint;
-			GaussianTorqueMotor motor = new GaussianTorqueMotor(rjoint.getBodyA(), rjoint.getBodyB(), MAX_DEFAULT_TORQUE, NUM_GAUSSIANS_PER_MOTOR);
-			motors.add(motor);
+			motors.add(createMotor(rjoint.getBodyA(), rjoint.getBodyB()));
+		}
+	}
+	
+	/**
+	 * Creates a motor like the one driving this character's joint, applying torques to given bodies
+	 * (which may be null if the motor is only used to compute torques; see GaussianTorqueMotor.computeTorque())
+	 */
+	public static GaussianTorqueMotor createMotor(Body bodyA, Body bodyB) {
+		return new GaussianTorqueMotor(bodyA, bodyB, MAX_DEFAULT_TORQUE, NUM_GAUSSIANS_PER_MOTOR);
+	}
+	
+	/**
+	 * Sets period and Gaussian params of given motor from the NUM_PARAMS_PER_MOTOR control params starting at offset
+	 */
+	public static void setMotorParams(GaussianTorqueMotor motor, double[] params, int offset) {
+		float period = (float) params[offset] * MAX_STROKE_PERIOD;
+		period = motor.setPeriod(period);
+		
+		//Update params of each Gaussian basis function
+		for (int j = 0; j < NUM_GAUSSIANS_PER_MOTOR; j++) {
+			int gaussOffset = offset + j * NUM_PARAMS_PER_GAUSSIAN;
+			
+			float weight 	= (float) params[gaussOffset + 1]; //weight is used in range [0,1]
+			float stdDev 	= Math.abs((float) params[gaussOffset + 3] * MAX_STROKE_PERIOD);
+			float mean 		= (float) params[gaussOffset + 2] * MAX_STROKE_PERIOD;
+
+			motor.setGaussianParams(j, weight, mean, stdDev);
 		}
 	}
 	
@@ -129,29 +155,15 @@ public class PaddleChar extends SwimCharacter {
 		//    -For some params, we map the original [0,1] range of each parameter into the final control ranges here
 		int motorIdx = 0;
 		for (int i = 0; i < params.length; i += NUM_PARAMS_PER_MOTOR) {
-			GaussianTorqueMotor motor = (GaussianTorqueMotor)motors.get(motorIdx);
-			
-			float period = (float) params[i] * MAX_STROKE_PERIOD;
-			period = motor.setPeriod(period);
-			
-			//Update params of each Gaussian basis function
-			for (int j = 0; j < NUM_GAUSSIANS_PER_MOTOR; j++) {
-				int offset = j * NUM_PARAMS_PER_GAUSSIAN;
-				
-				float weight 	= (float) params[i + offset + 1]; //weight is used in range [0,1]
-				float stdDev 	= Math.abs((float) params[i + offset + 3] * MAX_STROKE_PERIOD);
-				float mean 		= (float) params[i + offset + 2] * MAX_STROKE_PERIOD;
-
-				motor.setGaussianParams(j, weight, mean, stdDev);
-			}
-			
+			setMotorParams((GaussianTorqueMotor)motors.get(motorIdx), params, i);
 			motorIdx++;
 		}
 		
+		compileMotors();
 	}
 	
 	@Override
-	public void step(SwimSettings settings, float dt) {
+	public void step(CompiledSwimSettings settings, float dt) {
 		if (dt == 0) return;
 		
 		prevTorque = 0.0f;
@@ -161,6 +173,12 @@ public class PaddleChar extends SwimCharacter {
 			prevTorque += Math.abs(motor.applyTorque(runtime));
 	}
 	
+	@Override
+	public void reset() {
+		super.reset();
+		prevTorque = 0.0f;
+	}
+	
 	@Override
 	public float getPrevTorque() {
 		return prevTorque;
@@ -1,17 +1,16 @@
 package ubc.swim.world.characters;
 
 import java.util.ArrayList;
+import java.util.List;
 
 import org.jbox2d.callbacks.DebugDraw;
 import org.jbox2d.collision.shapes.PolygonShape;
 import org.jbox2d.common.Color3f;
-import org.jbox2d.common.Transform;
 import org.jbox2d.common.Vec2;
 import org.jbox2d.dynamics.Body;
 import org.jbox2d.dynamics.BodyDef;
 import org.jbox2d.dynamics.BodyType;
 import org.jbox2d.dynamics.Filter;
-import org.jbox2d.dynamics.Fixture;
 import org.jbox2d.dynamics.World;
 import org.jbox2d.dynamics.joints.Joint;
 import org.jbox2d.dynamics.joints.RevoluteJoint;
@@ -19,7 +18,7 @@ import org.jbox2d.dynamics.joints.RevoluteJointDef;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
-import ubc.swim.gui.SwimSettings;
+import ubc.swim.gui.CompiledSwimSettings;
 import ubc.swim.world.trajectory.PolynomialTrajectory;
 import ubc.swim.world.trajectory.RefTrajectory;
 import ubc.swim.world.trajectory.SineTrajectory;
@@ -71,6 +70,9 @@ public class RefTrajHumanChar extends SwimCharacter {
 	
 	protected float shoulderPeriod; //time period over which shoulders go through full rotation
 	
+	private static final Color3f LEFT_DEBUG_COLOR = new Color3f(0.2f, 0.9f, 0.2f);
+	private static final Color3f RIGHT_DEBUG_COLOR = new Color3f(0.9f, 0.2f, 0.2f);
+	
 	protected ArrayList<Body> rightBodies;
 	protected ArrayList<Body> leftBodies;
 	
@@ -404,7 +406,7 @@ public class RefTrajHumanChar extends SwimCharacter {
 	}
 	
 	@Override
-	public void step(SwimSettings settings, float dt) {
+	public void step(CompiledSwimSettings settings, float dt) {
 		if (dt == 0) return;
 		
 		prevTorque = 0.0f;
@@ -470,6 +472,13 @@ public class RefTrajHumanChar extends SwimCharacter {
 		}
 	}
 	
+	@Override
+	public void reset() {
+		super.reset();
+		prevTorque = 0.0f;
+		targetRightShoulderPhase = 0.0f;
+	}
+	
 	@Override
 	public float getPrevTorque() {
 		return prevTorque;
@@ -489,23 +498,21 @@ public class RefTrajHumanChar extends SwimCharacter {
 
 	
 	@Override
-	public void debugDraw(DebugDraw debugDraw) {
-		Transform transform = new Transform();
-		Color3f color = new Color3f();
-		
+	public void getDebugBodies(List<Body> bodiesOut, List<Color3f> colorsOut) {
 		//Draw left/right coloring (note: left is drawn below right side... it's on the character side *away* from the viewer)
 		for (Body body : leftBodies) {
-			transform.set(body.getTransform());
-			color.set(0.2f, 0.9f, 0.2f);
-			for (Fixture fixture = body.getFixtureList(); fixture != null; fixture = fixture.getNext())
-				drawPolygon((PolygonShape) fixture.getShape(), transform, color, debugDraw, true);
+			bodiesOut.add(body);
+			colorsOut.add(LEFT_DEBUG_COLOR);
 		}
 		for (Body body : rightBodies) {
-			transform.set(body.getTransform());
-			color.set(0.9f, 0.2f, 0.2f);
-			for (Fixture fixture = body.getFixtureList(); fixture != null; fixture = fixture.getNext())
-				drawPolygon((PolygonShape) fixture.getShape(), transform, color, debugDraw, true);
+			bodiesOut.add(body);
+			colorsOut.add(RIGHT_DEBUG_COLOR);
 		}
+	}
+	
+	@Override
+	public void debugDraw(DebugDraw debugDraw) {
+		super.debugDraw(debugDraw);
 		
 //		//Draw current phase if using right shoulder phase
 //		if (USE_RIGHT_SHOULDER_ANGLE_AS_PHASE) {
@@ -1,9 +1,10 @@
 package ubc.swim.world.characters;
 
 import java.util.ArrayList;
+import java.util.List;
 
-import org.jbox2d.callbacks.DebugDraw;
 import org.jbox2d.collision.shapes.PolygonShape;
+import org.jbox2d.common.Color3f;
 import org.jbox2d.common.Vec2;
 import org.jbox2d.dynamics.Body;
 import org.jbox2d.dynamics.BodyDef;
@@ -14,7 +15,7 @@ import org.jbox2d.dynamics.joints.Joint;
 import org.jbox2d.dynamics.joints.RevoluteJoint;
 import org.jbox2d.dynamics.joints.RevoluteJointDef;
 
-import ubc.swim.gui.SwimSettings;
+import ubc.swim.gui.CompiledSwimSettings;
 import ubc.swim.world.trajectory.TrajectoryUtil;
 
 /**
@@ -107,44 +108,21 @@ public class RefTrajPaddleChar extends SwimCharacter {
 	}
 	
 	@Override
-	public void step(SwimSettings settings, float dt) {
+	public void step(CompiledSwimSettings settings, float dt) {
 		if (dt == 0) return;
 		
 		prevTorque = 0.0f;
 		
 		if (dt == 0) return;
 		
-		float period = 2.0f;
-		float timePerRefAngle = period / NUM_REF_ANGLES;
-		
-		final float PD_GAIN = 1.0f;
-		final float PD_DAMPING = 0.01f;
-		
 		for (int i = 0; i < joints.size(); i++) {
 			RevoluteJoint joint = (RevoluteJoint) joints.get(i);
 			
 			float jointAngle = joint.getJointAngle() % (float)(2 * Math.PI);
 			float jointSpeed = joint.getJointSpeed();
 			
-			float[] targetAngles = new float[NUM_REF_ANGLES];
 			for (int j = 0; j < controlParams.length; j += NUM_REF_ANGLES) {
-				for (int k = 0; k < NUM_REF_ANGLES; k++)
-					targetAngles[k] = (float)(2 * Math.PI * controlParams[j + k]);
-				
-				int prevTargIdx = (int)Math.floor((runtime % period) / timePerRefAngle);
-				int nextTargIdx = (prevTargIdx + 1) % NUM_REF_ANGLES;
-				
-				float prevTargAngle = targetAngles[prevTargIdx];
-				float nextTargAngle = targetAngles[nextTargIdx];
-				while (nextTargAngle < prevTargAngle) //map next angle to be greater than prev
-					nextTargAngle += (float)(2 * Math.PI);
-				
-				float targAngle = (prevTargAngle + nextTargAngle) * 0.5f;
-				
-				float distFromTargAngle = TrajectoryUtil.distanceBetweenAngles(jointAngle, targAngle); //handles cyclic nature of angles
-				
-				//PD controller
-				float torque = -PD_GAIN * (distFromTargAngle) - PD_DAMPING * jointSpeed;
+				float torque = computeTorque(controlParams, j, runtime, jointAngle, jointSpeed);
 				
 				joint.getBodyA().applyTorque(torque);
 				joint.getBodyB().applyTorque(-torque);
@@ -154,13 +132,53 @@ public class RefTrajPaddleChar extends SwimCharacter {
 		}
 	}
 	
+	/** Returns number of control params read by each computeTorque() call */
+	public static int getNumRefAngles() {
+		return NUM_REF_ANGLES;
+	}
+
+	/**
+	 * Returns PD controller torque driving a joint towards the reference angle given by the
+	 * NUM_REF_ANGLES control params starting at offset
+	 * @param jointAngle current joint angle, modulo 2*PI
+	 * @param jointSpeed current joint speed
+	 */
+	public static float computeTorque(double[] controlParams, int offset, float runtime, float jointAngle, float jointSpeed) {
+		float period = 2.0f;
+		float timePerRefAngle = period / NUM_REF_ANGLES;
+		
+		final float PD_GAIN = 1.0f;
+		final float PD_DAMPING = 0.01f;
+		
+		int prevTargIdx = (int)Math.floor((runtime % period) / timePerRefAngle);
+		int nextTargIdx = (prevTargIdx + 1) % NUM_REF_ANGLES;
+		
+		float prevTargAngle = (float)(2 * Math.PI * controlParams[offset + prevTargIdx]);
+		float nextTargAngle = (float)(2 * Math.PI * controlParams[offset + nextTargIdx]);
+		while (nextTargAngle < prevTargAngle) //map next angle to be greater than prev
+			nextTargAngle += (float)(2 * Math.PI);
+		
+		float targAngle = (prevTargAngle + nextTargAngle) * 0.5f;
+		
+		float distFromTargAngle = TrajectoryUtil.distanceBetweenAngles(jointAngle, targAngle); //handles cyclic nature of angles
+		
+		//PD controller
+		return -PD_GAIN * (distFromTargAngle) - PD_DAMPING * jointSpeed;
+	}
+	
+	@Override
+	public void reset() {
+		super.reset();
+		prevTorque = 0.0f;
+	}
+	
 	@Override
 	public float getPrevTorque() {
 		return prevTorque;
 	}
 	
 	@Override
-	public void debugDraw(DebugDraw debugDraw) {
-		
+	public void getDebugBodies(List<Body> bodiesOut, List<Color3f> colorsOut) {
+		//Not drawn
 	}
 }
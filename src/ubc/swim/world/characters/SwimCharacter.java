@@ -14,7 +14,7 @@ import org.jbox2d.dynamics.Fixture;
 import org.jbox2d.dynamics.World;
 import org.jbox2d.pooling.arrays.Vec2Array;
 
-import ubc.swim.gui.SwimSettings;
+import ubc.swim.gui.CompiledSwimSettings;
 import ubc.swim.world.motors.TorqueMotor;
 
 /**
@@ -64,6 +64,10 @@ public abstract class SwimCharacter {
 	/** Total simulation time run by this character */
 	protected float runtime = 0.0f;
 	
+	/** Sample spacing of precomputed motor torque tables, or 0 if motors evaluate torques directly */
+	protected float motorTableTimeStep = 0.0f;
+	protected boolean interpolateMotorTables = true;
+	
 	/** 
 	 * Color used to draw this character in GUI
 	 */
@@ -113,6 +117,30 @@ public abstract class SwimCharacter {
 	 */
 	public abstract void setControlParams(double[] params);
 	
+	/**
+	 * Makes motors of this character read torques from tables precomputed over one period
+	 * each time control params are set, rather than evaluating their functions every step.
+	 * Use the simulation step size as timeStep so that table samples land on step times;
+	 * a timeStep of 0 restores direct evaluation. Takes effect at next setControlParams().
+	 * @param timeStep
+	 * @param interpolate if true, off-grid times are interpolated between table samples
+	 */
+	public void setMotorTables(float timeStep, boolean interpolate) {
+		this.motorTableTimeStep = timeStep;
+		this.interpolateMotorTables = interpolate;
+	}
+	
+	/**
+	 * Rebuilds motor torque tables (if enabled) for current motor params.
+	 * Should be called by subclasses at the end of setControlParams()
+	 */
+	protected void compileMotors() {
+		for (TorqueMotor motor : motors) {
+			motor.setTorqueTable(motorTableTimeStep, interpolateMotorTables);
+			motor.compile();
+		}
+	}
+	
 	/**
 	 * Moves whole character to given world position
 	 * @param x
@@ -132,7 +160,7 @@ public abstract class SwimCharacter {
 	 * @param dt size of simulation step
 	 * @param runtime Total world simulation time so far
 	 */
-	public void step(SwimSettings settings, float dt) {
+	public void step(CompiledSwimSettings settings, float dt) {
 		
 	}
 	
@@ -162,6 +190,20 @@ public abstract class SwimCharacter {
 	}
 	
 	
+	/**
+	 * Restores running stats and controller state of this character to their values
+	 * before the first step. Body state is restored separately by the owning scenario.
+	 * Subclasses with extra per-step state should override and call super.reset().
+	 */
+	public void reset() {
+		rootAngleOrig = 0.0f;
+		rootAngleOrigSet = false;
+		totalTorque = 0.0f;
+		totalRootOrientationDeviation = 0.0f;
+		totalRootBodySpeedTimesDt = 0.0f;
+		runtime = 0.0f;
+	}
+	
 	/**
 	 * Returns total torque applied on previous step by this character
 	 * @return
@@ -194,11 +236,27 @@ public abstract class SwimCharacter {
 	 */
 	public void debugDraw(DebugDraw debugDraw) {
 		Transform transform = new Transform();
+		List<Body> drawnBodies = new ArrayList<Body>();
+		List<Color3f> colors = new ArrayList<Color3f>();
+		getDebugBodies(drawnBodies, colors);
 		
-		for (Body body : bodies) {
+		for (int i = 0; i < drawnBodies.size(); i++) {
+			Body body = drawnBodies.get(i);
 			transform.set(body.getTransform());
 			for (Fixture fixture = body.getFixtureList(); fixture != null; fixture = fixture.getNext())
-				drawPolygon((PolygonShape) fixture.getShape(), transform, debugColor, debugDraw, true);
+				drawPolygon((PolygonShape) fixture.getShape(), transform, colors.get(i), debugDraw, true);
+		}
+	}
+	
+	/**
+	 * Adds bodies drawn by debugDraw() to given list, in drawing order, and the color each is drawn with
+	 * to the other. Lets the GUI draw bodies at interpolated positions (see FrameSnapshot).
+	 * Default is all bodies in the debug color
+	 */
+	public void getDebugBodies(List<Body> bodiesOut, List<Color3f> colorsOut) {
+		for (Body body : bodies) {
+			bodiesOut.add(body);
+			colorsOut.add(debugColor);
 		}
 	}
 	
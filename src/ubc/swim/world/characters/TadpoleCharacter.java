@@ -1,9 +1,10 @@
 package ubc.swim.world.characters;
 
 import java.util.ArrayList;
+import java.util.List;
 
-import org.jbox2d.callbacks.DebugDraw;
 import org.jbox2d.collision.shapes.PolygonShape;
+import org.jbox2d.common.Color3f;
 import org.jbox2d.common.Vec2;
 import org.jbox2d.dynamics.Body;
 import org.jbox2d.dynamics.BodyDef;
@@ -16,7 +17,7 @@ import org.jbox2d.dynamics.joints.RevoluteJointDef;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
-import ubc.swim.gui.SwimSettings;
+import ubc.swim.gui.CompiledSwimSettings;
 import ubc.swim.world.trajectory.RefTrajectory;
 import ubc.swim.world.trajectory.SineTrajectory;
 import ubc.swim.world.trajectory.TrajectoryUtil;
@@ -145,7 +146,7 @@ public class TadpoleCharacter extends SwimCharacter {
 	}
 	
 	@Override
-	public void step(SwimSettings settings, float dt) {
+	public void step(CompiledSwimSettings settings, float dt) {
 		if (dt == 0) return;
 		
 		prevTorque = 0.0f;
@@ -175,13 +176,19 @@ public class TadpoleCharacter extends SwimCharacter {
 		}
 	}
 	
+	@Override
+	public void reset() {
+		super.reset();
+		prevTorque = 0.0f;
+	}
+	
 	@Override
 	public float getPrevTorque() {
 		return prevTorque;
 	}
 	
 	@Override
-	public void debugDraw(DebugDraw debugDraw) {
-		
+	public void getDebugBodies(List<Body> bodiesOut, List<Color3f> colorsOut) {
+		//Not drawn
 	}
 }
@@ -1,7 +1,5 @@
 package ubc.swim.world.motors;
 
-import java.util.ArrayList;
-
 import org.jbox2d.dynamics.Body;
 
 /**
@@ -20,9 +18,13 @@ public class GaussianTorqueMotor extends TorqueMotor {
 	protected Body bodyB;
 	
 	/** Gaussian parameters (one entry to Gaussian function) */
-	protected ArrayList<Float> weights;
-	protected ArrayList<Float> means;
-	protected ArrayList<Float> stdDevs;
+	protected float[] weights;
+	protected float[] means;
+	protected float[] stdDevs;
+	
+	/** Precomputed torques over one period (see TorqueMotor.setTorqueTable()) */
+	protected float[] torqueTable = new float[0];
+	protected float torqueTableStep;
 	
 	/**
 	 * Max torque that may be applied by this motor
@@ -54,15 +56,12 @@ public class GaussianTorqueMotor extends TorqueMotor {
 		
 		this.maxTorque = maxTorque;
 		
-		weights = new ArrayList<Float>();
-		means = new ArrayList<Float>();
-		stdDevs = new ArrayList<Float>();
+		weights = new float[numGaussians];
+		means = new float[numGaussians];
+		stdDevs = new float[numGaussians];
 		
-		for (int i = 0; i < numGaussians; i++) {
-			weights.add(0.0f);
-			means.add(0.0f);
-			stdDevs.add(MIN_STD_DEV);
-		}
+		for (int i = 0; i < numGaussians; i++)
+			stdDevs[i] = MIN_STD_DEV;
 	}
 	
 	@Override
@@ -79,6 +78,7 @@ public class GaussianTorqueMotor extends TorqueMotor {
 		//Never allow tiny periods
 		if (this.period < MIN_PERIOD) 
 			this.period = MIN_PERIOD;
+		tableDirty = true;
 		return this.period;
 	}
 	
@@ -91,27 +91,72 @@ public class GaussianTorqueMotor extends TorqueMotor {
 	 */
 	public void setGaussianParams(int funcNum, float weight, float mean, float stdDev)
 	{
-		weights.set(funcNum, weight);
-		means.set(funcNum, mean);
+		weights[funcNum] = weight;
+		means[funcNum] = mean;
 		
 		if (stdDev < MIN_STD_DEV) 
 			stdDev = MIN_STD_DEV;
-		stdDevs.set(funcNum, stdDev);
+		stdDevs[funcNum] = stdDev;
+		tableDirty = true;
 	}
 	
 	@Override
 	public float applyTorque(float runtime) {
+		float torque = computeTorque(runtime);
+		
+		//Apply equal and opposite torques to each body
+		//TODO: not sure if this is quite correct yet...
+		//Should the torque be applied to both, or just one body?
+		//Is applying a torque at the body's CoM equivalent to applying it at the joint?
+		if (torque != 0.0f) {
+			bodyA.applyTorque(torque);
+			bodyB.applyTorque(-torque);
+		}
+		
+		prevTorque = torque;
+		
+		return torque;
+	}
+	
+	/**
+	 * Returns torque for given runtime without applying it to any bodies
+	 * (e.g.: for simulators that keep body state outside of jbox2d)
+	 */
+	public float computeTorque(float runtime) {
 		float time = runtime;
 		if (time > period) 
 			time = time % period;
 		
+		if (tableTimeStep > 0) {
+			compile();
+			return readTable(torqueTable, torqueTableStep, period, time, interpolateTable);
+		}
+		else
+			return evaluate(time);
+	}
+	
+	@Override
+	protected void buildTable() {
+		torqueTableStep = getTableStep(period);
+		int numSamples = getNumTableSamples(period, torqueTableStep);
+		if (torqueTable.length != numSamples)
+			torqueTable = new float[numSamples];
+		
+		for (int k = 0; k < numSamples; k++)
+			torqueTable[k] = evaluate(Math.min(k * torqueTableStep, period));
+	}
+	
+	/**
+	 * Returns torque of the Gaussian mixture at given time within the period
+	 */
+	protected float evaluate(float time) {
 		float torque = 0.0f;
 		
 		//Add contribution from each Gaussian
-		for (int i = 0; i < weights.size(); i++) {
-			float w = weights.get(i);
-			float mean = means.get(i);
-			float stdDev = stdDevs.get(i);
+		for (int i = 0; i < weights.length; i++) {
+			float w = weights[i];
+			float mean = means[i];
+			float stdDev = stdDevs[i];
 			
 			float distFromMean = time - mean;
 			//The torque contribution is max torque weighted by Gaussian value (maps from [0,1] control range into larger torques)
@@ -120,20 +165,7 @@ public class GaussianTorqueMotor extends TorqueMotor {
 			torque += amplitudeTerm * Math.exp(expTerm);
 		}
 		
-		torque = Math.min(torque, maxTorque);
-		
-		//Apply equal and opposite torques to each body
-		//TODO: not sure if this is quite correct yet...
-		//Should the torque be applied to both, or just one body?
-		//Is applying a torque at the body's CoM equivalent to applying it at the joint?
-		if (torque != 0.0f) {
-			bodyA.applyTorque(torque);
-			bodyB.applyTorque(-torque);
-		}
-		
-		prevTorque = torque;
-		
-		return torque;
+		return Math.min(torque, maxTorque);
 	}
 	
 }
@@ -1,7 +1,5 @@
 package ubc.swim.world.motors;
 
-import java.util.ArrayList;
-
 import org.jbox2d.dynamics.Body;
 
 /**
@@ -18,9 +16,16 @@ public class SineTorqueMotor extends TorqueMotor {
 	protected Body bodyB;
 	
 	/** Sine parameters (one entry to function) */
-	protected ArrayList<Float> weights;
-	protected ArrayList<Float> periods;
-	protected ArrayList<Float> phaseOffsets;
+	protected float[] weights;
+	protected float[] periods;
+	protected float[] phaseOffsets;
+	
+	/** 
+	 * Precomputed values of each weighted sine over its own period (see TorqueMotor.setTorqueTable()).
+	 * Functions have different periods, so each gets its own table and they are summed at lookup.
+	 */
+	protected float[][] sineTables;
+	protected float[] sineTableSteps;
 	
 	/**
 	 * Max torque that may be applied by this motor
@@ -46,15 +51,15 @@ public class SineTorqueMotor extends TorqueMotor {
 		
 		this.maxTorque = maxTorque;
 		
-		weights = new ArrayList<Float>();
-		periods = new ArrayList<Float>();
-		phaseOffsets = new ArrayList<Float>();
+		weights = new float[numFuncs];
+		periods = new float[numFuncs];
+		phaseOffsets = new float[numFuncs];
 		
-		for (int i = 0; i < numFuncs; i++) {
-			weights.add(0.0f);
-			periods.add(MIN_PERIOD);
-			phaseOffsets.add(0.0f);
-		}
+		for (int i = 0; i < numFuncs; i++)
+			periods[i] = MIN_PERIOD;
+		
+		sineTables = new float[numFuncs][0];
+		sineTableSteps = new float[numFuncs];
 	}
 	
 	@Override
@@ -69,26 +74,37 @@ public class SineTorqueMotor extends TorqueMotor {
 	 */
 	public void setSineParams(int funcNum, float weight, float period, float phaseOffset)
 	{
-		weights.set(funcNum, weight);
+		weights[funcNum] = weight;
 		
 		if (period < MIN_PERIOD) 
 			period = MIN_PERIOD;
-		periods.set(funcNum, period);
+		periods[funcNum] = period;
 		
-		phaseOffsets.set(funcNum, phaseOffset);
+		phaseOffsets[funcNum] = phaseOffset;
+		tableDirty = true;
 	}
 	
 	@Override
 	public float applyTorque(float runtime) {
 		float torque = 0.0f;
 		
-		//Add contribution from each sine
-		for (int i = 0; i < weights.size(); i++) {
-			float weight = weights.get(i);
-			float period = periods.get(i);
-			float phaseOffset = phaseOffsets.get(i);
+		if (tableTimeStep > 0) {
+			compile();
 			
-			torque += weight * (float)Math.sin((2 * Math.PI * runtime) / period + phaseOffset);
+			//Add contribution from each sine table, read at time within that sine's period
+			for (int i = 0; i < weights.length; i++) {
+				float period = periods[i];
+				float time = runtime;
+				if (time > period)
+					time = time % period;
+				
+				torque += readTable(sineTables[i], sineTableSteps[i], period, time, interpolateTable);
+			}
+		}
+		else {
+			//Add contribution from each sine
+			for (int i = 0; i < weights.length; i++)
+				torque += evaluate(i, runtime);
 		}
 		
 		torque = Math.min(torque, maxTorque);
@@ -107,4 +123,27 @@ public class SineTorqueMotor extends TorqueMotor {
 		return torque;
 	}
 	
+	@Override
+	protected void buildTable() {
+		for (int i = 0; i < weights.length; i++) {
+			float period = periods[i];
+			float step = getTableStep(period);
+			int numSamples = getNumTableSamples(period, step);
+			if (sineTables[i].length != numSamples)
+				sineTables[i] = new float[numSamples];
+			
+			float[] table = sineTables[i];
+			for (int k = 0; k < numSamples; k++)
+				table[k] = evaluate(i, Math.min(k * step, period));
+			sineTableSteps[i] = step;
+		}
+	}
+	
+	/**
+	 * Returns value of the funcNum'th weighted sine function at given time
+	 */
+	protected float evaluate(int funcNum, float time) {
+		return weights[funcNum] * (float)Math.sin((2 * Math.PI * time) / periods[funcNum] + phaseOffsets[funcNum]);
+	}
+	
 }
@@ -1,6 +1,16 @@
 package ubc.swim.world.motors;
 
 public abstract class TorqueMotor {
+	/** Upper bound on the number of samples in a precomputed torque table */
+	protected static final int MAX_TABLE_SAMPLES = 1 << 16;
+
+	/** Spacing of precomputed torque table samples, or 0 if torques are evaluated directly */
+	protected float tableTimeStep = 0.0f;
+	/** If true, table reads interpolate between samples; otherwise nearest sample is used */
+	protected boolean interpolateTable = true;
+	/** Set when control params change and table must be rebuilt before next use */
+	protected boolean tableDirty = true;
+
 	/**
 	 * Applies torque to the bodies under this motor's control
 	 * with the magnitude based on given runtime value.
@@ -8,10 +18,82 @@ public abstract class TorqueMotor {
 	 * @param time
 	 */
 	public abstract float applyTorque(float runtime);
-	
+
 	/**
 	 * Returns torque applied at most recent call to applyTorque().
 	 * @return
 	 */
 	public abstract float getPrevTorque();
+
+	/**
+	 * Switches this motor to read torques from a table precomputed over one period
+	 * with samples every timeStep seconds (normally the simulation step size).
+	 * A timeStep of 0 switches back to evaluating torques directly.
+	 * @param timeStep
+	 * @param interpolate if true, off-grid times are linearly interpolated
+	 */
+	public void setTorqueTable(float timeStep, boolean interpolate) {
+		this.tableTimeStep = Math.max(timeStep, 0.0f);
+		this.interpolateTable = interpolate;
+		this.tableDirty = true;
+	}
+
+	/** Returns true if torques are read from a precomputed table */
+	public boolean usesTorqueTable() { return tableTimeStep > 0; }
+
+	/**
+	 * Rebuilds the torque table if control params have changed since it was last built.
+	 * Called lazily by applyTorque(), but characters call it after setting control params
+	 * so that the cost isn't paid on the first simulation step.
+	 */
+	public void compile() {
+		if (tableTimeStep > 0 && tableDirty) {
+			buildTable();
+			tableDirty = false;
+		}
+	}
+
+	/**
+	 * Fills torque table(s) from current control params
+	 */
+	protected abstract void buildTable();
+
+	/**
+	 * Returns sample spacing to use for a table covering given period,
+	 * which is tableTimeStep unless that would exceed MAX_TABLE_SAMPLES
+	 */
+	protected float getTableStep(float period) {
+		return Math.max(tableTimeStep, period / MAX_TABLE_SAMPLES);
+	}
+
+	/**
+	 * Returns number of samples needed for a table covering [0, period] with given spacing.
+	 * The last sample is always taken at the period itself.
+	 */
+	protected static int getNumTableSamples(float period, float step) {
+		return Math.max(1, (int)Math.ceil(period / step)) + 1;
+	}
+
+	/**
+	 * Reads value at given time (in range [0, period]) from a table built with given
+	 * sample spacing. Sample k is at time min(k * step, period).
+	 */
+	protected static float readTable(float[] table, float step, float period, float time, boolean interpolate) {
+		int last = table.length - 1;
+		float pos = time / step;
+
+		if (!interpolate) {
+			int i = (int)(pos + 0.5f);
+			return table[(i < last) ? i : last];
+		}
+
+		int i = (int)pos;
+		if (i >= last)
+			return table[last];
+
+		float t0 = i * step;
+		float t1 = Math.min(t0 + step, period);
+		float frac = (t1 > t0) ? (time - t0) / (t1 - t0) : 0;
+		return table[i] + frac * (table[i + 1] - table[i]);
+	}
 }
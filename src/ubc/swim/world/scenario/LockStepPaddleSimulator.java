@@ -0,0 +1,745 @@
+package ubc.swim.world.scenario;
+
+import java.util.List;
+
+import org.jbox2d.collision.shapes.PolygonShape;
+import org.jbox2d.common.MathUtils;
+import org.jbox2d.common.Settings;
+import org.jbox2d.common.Transform;
+import org.jbox2d.common.Vec2;
+import org.jbox2d.dynamics.Body;
+import org.jbox2d.dynamics.BodyType;
+import org.jbox2d.dynamics.Fixture;
+import org.jbox2d.dynamics.World;
+import org.jbox2d.dynamics.joints.Joint;
+import org.jbox2d.dynamics.joints.RevoluteJoint;
+
+import ubc.swim.dynamics.controllers.DynamicsController;
+import ubc.swim.dynamics.controllers.FluidController;
+import ubc.swim.dynamics.controllers.FluidUtil;
+import ubc.swim.gui.CompiledSwimSettings;
+import ubc.swim.world.Edge;
+import ubc.swim.world.EdgeList;
+import ubc.swim.world.characters.PaddleChar;
+import ubc.swim.world.characters.RefTrajPaddleChar;
+import ubc.swim.world.characters.SwimCharacter;
+import ubc.swim.world.motors.GaussianTorqueMotor;
+
+/**
+ * Simulates many independent copies ("lanes") of a paddle scenario (a PaddleChar or RefTrajPaddleChar,
+ * ie: two bodies joined by one revolute joint, in fluid) in lock step, without building a World per copy.
+ *
+ * Body state of all lanes is kept in parallel float arrays, and each phase of a step (fluid forces,
+ * controls, velocity integration, joint velocity solve, position integration, joint position solve, sleep)
+ * runs across all lanes before the next one starts. Each phase repeats the arithmetic of FluidController,
+ * the character's step(), Island.solve() and RevoluteJoint in the same order, so a lane follows exactly
+ * the same trajectory as the template scenario would for the same controls.
+ *
+ * Only supports the template's explicit drag FluidController and iterative joint solver (see supports());
+ * the broad-phase, contacts and TOI are skipped since the two bodies of a paddle never collide.
+ *
+ * @author Ben Humberston
+ *
+ */
+public class LockStepPaddleSimulator {
+	protected static final int BODIES_PER_LANE = 2;
+
+	protected final boolean refTraj;
+	protected final int rootIdx;
+
+	//Per body constants (index 0 is joint body A, 1 is joint body B)
+	protected final float[] invMass = new float[BODIES_PER_LANE];
+	protected final float[] invI = new float[BODIES_PER_LANE];
+	protected final float[] localCenterX = new float[BODIES_PER_LANE];
+	protected final float[] localCenterY = new float[BODIES_PER_LANE];
+	protected final float[] linearDamping = new float[BODIES_PER_LANE];
+	protected final float[] angularDamping = new float[BODIES_PER_LANE];
+	protected final boolean[] autoSleep = new boolean[BODIES_PER_LANE];
+	protected final float[] density = new float[BODIES_PER_LANE];
+	protected final PolygonShape[] shapes = new PolygonShape[BODIES_PER_LANE];
+
+	//Joint constants: anchors relative to each body's center of mass
+	protected final float anchorAX, anchorAY, anchorBX, anchorBY;
+	protected final float referenceAngle;
+
+	//Environment constants
+	protected final Vec2 gravity = new Vec2();
+	protected final Vec2 fluidNormal = new Vec2();
+	protected final float fluidSurfaceOffset;
+	protected final float fluidVelY;
+	protected final boolean useDensity;
+	protected final boolean allowSleep;
+	protected final boolean warmStarting;
+
+	//Initial state of the template's bodies (sweep, transform and velocity) and joint
+	protected final float[] initState = new float[BODIES_PER_LANE * 10];
+	protected final boolean initAwake;
+	protected final float initImpulseX, initImpulseY, initImpulseZ;
+
+	//Per lane state; body values are at index lane * BODIES_PER_LANE + body
+	protected int numLanes = 0;
+	protected float[] cx = new float[0], cy = new float[0], angle = new float[0];
+	protected float[] vx = new float[0], vy = new float[0], w = new float[0];
+	protected float[] fx = new float[0], fy = new float[0], torque = new float[0];
+	protected float[] cos = new float[0], sin = new float[0], px = new float[0], py = new float[0];
+	protected float[] sleepTime = new float[0];
+	protected boolean[] awake = new boolean[0];
+	protected float[] impulseX = new float[0], impulseY = new float[0], impulseZ = new float[0];
+	protected float[] prevTorque = new float[0];
+	//Effective mass of the joint's point-to-point constraint (2x2, symmetric), set each step
+	protected float[] k11 = new float[0], k12 = new float[0], k22 = new float[0];
+	protected boolean[] positionsSolved = new boolean[0];
+
+	//Controls
+	protected GaussianTorqueMotor[] motors = new GaussianTorqueMotor[0];
+	protected double[][] controls = new double[0][];
+	protected float motorTableTimeStep = 0;
+	protected boolean interpolateMotorTables = true;
+
+	protected float runtime = 0;
+	protected float invDt0 = 0;
+
+	//Scratch objects for submerged area calculations
+	private final Transform xf = new Transform();
+	private final Vec2 subCenterOfShape = new Vec2();
+	private final EdgeList subEdges = new EdgeList();
+
+	/**
+	 * Returns true if given scenario can be simulated by this class: it must hold a single PaddleChar
+	 * or RefTrajPaddleChar (with a free revolute joint) and an explicit drag FluidController
+	 */
+	public static boolean supports(Scenario scenario) {
+		List<SwimCharacter> characters = scenario.getCharacters();
+		if (characters.size() != 1)
+			return false;
+		SwimCharacter character = characters.get(0);
+		if (!(character instanceof PaddleChar) && !(character instanceof RefTrajPaddleChar))
+			return false;
+
+		List<DynamicsController> controllers = scenario.getDynamicsControllers();
+		if (controllers.size() != 1 || controllers.get(0).getClass() != FluidController.class)
+			return false;
+		FluidController fluid = (FluidController) controllers.get(0);
+		if (fluid.implicitDrag || !fluid.useWorldGravity)
+			return false;
+
+		World world = scenario.getWorld();
+		if (world.getBodyCount() != BODIES_PER_LANE || world.getJointCount() != 1 || world.isArticulatedSolving())
+			return false;
+		for (Body body : character.getBodies()) {
+			Fixture fixture = body.getFixtureList();
+			if (body.getType() != BodyType.DYNAMIC || fixture == null || fixture.getNext() != null || !(fixture.getShape() instanceof PolygonShape))
+				return false;
+		}
+
+		Joint joint = world.getJointList();
+		if (!(joint instanceof RevoluteJoint))
+			return false;
+		RevoluteJoint rjoint = (RevoluteJoint) joint;
+		return !rjoint.m_enableMotor && !rjoint.m_enableLimit;
+	}
+
+	/**
+	 * Creates simulator for copies of given scenario, which must be in its initial state
+	 * and for which supports() is true. The scenario itself is not modified.
+	 */
+	public LockStepPaddleSimulator(Scenario template) {
+		if (!supports(template))
+			throw new IllegalArgumentException("Scenario can't be simulated in lock step");
+
+		SwimCharacter character = template.getCharacters().get(0);
+		RevoluteJoint joint = (RevoluteJoint) template.getWorld().getJointList();
+		Body[] bodies = {joint.getBodyA(), joint.getBodyB()};
+
+		refTraj = character instanceof RefTrajPaddleChar;
+		rootIdx = (character.getRootBody() == bodies[0]) ? 0 : 1;
+
+		for (int k = 0; k < BODIES_PER_LANE; k++) {
+			Body body = bodies[k];
+			invMass[k] = body.m_invMass;
+			invI[k] = body.m_invI;
+			localCenterX[k] = body.getLocalCenter().x;
+			localCenterY[k] = body.getLocalCenter().y;
+			linearDamping[k] = body.m_linearDamping;
+			angularDamping[k] = body.m_angularDamping;
+			autoSleep[k] = body.isSleepingAllowed();
+			density[k] = body.getFixtureList().getDensity();
+			shapes[k] = (PolygonShape) body.getFixtureList().getShape();
+
+			int s = k * 10;
+			initState[s] = body.m_sweep.c.x;
+			initState[s + 1] = body.m_sweep.c.y;
+			initState[s + 2] = body.m_sweep.a;
+			initState[s + 3] = body.m_linearVelocity.x;
+			initState[s + 4] = body.m_linearVelocity.y;
+			initState[s + 5] = body.m_angularVelocity;
+			initState[s + 6] = body.getTransform().R.col1.x;
+			initState[s + 7] = body.getTransform().R.col1.y;
+			initState[s + 8] = body.getTransform().position.x;
+			initState[s + 9] = body.getTransform().position.y;
+		}
+		initAwake = bodies[0].isAwake() || bodies[1].isAwake();
+
+		anchorAX = joint.m_localAnchor1.x - localCenterX[0];
+		anchorAY = joint.m_localAnchor1.y - localCenterY[0];
+		anchorBX = joint.m_localAnchor2.x - localCenterX[1];
+		anchorBY = joint.m_localAnchor2.y - localCenterY[1];
+		referenceAngle = joint.m_referenceAngle;
+		initImpulseX = joint.m_impulse.x;
+		initImpulseY = joint.m_impulse.y;
+		initImpulseZ = joint.m_impulse.z;
+
+		World world = template.getWorld();
+		FluidController fluid = (FluidController) template.getDynamicsControllers().get(0);
+		gravity.set(world.getGravity());
+		fluidNormal.set(fluid.normal);
+		fluidSurfaceOffset = fluid.fluidSurfaceOffset;
+		fluidVelY = fluid.fluidVel.y;
+		useDensity = fluid.useDensity;
+		allowSleep = world.isAllowSleep();
+		warmStarting = world.isWarmStarting();
+	}
+
+	/** Returns true if lanes are driven by RefTrajPaddleChar controls rather than PaddleChar motors */
+	public boolean isRefTraj() {return refTraj;}
+
+	public int getNumLanes() {return numLanes;}
+
+	/**
+	 * Makes PaddleChar motors read torques from precomputed tables (see SwimCharacter.setMotorTables()).
+	 * Takes effect at next reset().
+	 */
+	public void setMotorTables(float timeStep, boolean interpolate) {
+		this.motorTableTimeStep = timeStep;
+		this.interpolateMotorTables = interpolate;
+	}
+
+	/**
+	 * Restarts simulation with one lane per given control vector, all in the template's initial state
+	 */
+	public void reset(double[][] laneControls) {
+		ensureCapacity(laneControls.length);
+		numLanes = laneControls.length;
+		runtime = 0;
+		invDt0 = 0;
+
+		for (int lane = 0; lane < numLanes; lane++) {
+			for (int k = 0; k < BODIES_PER_LANE; k++) {
+				int b = lane * BODIES_PER_LANE + k;
+				int s = k * 10;
+				cx[b] = initState[s];
+				cy[b] = initState[s + 1];
+				angle[b] = initState[s + 2];
+				vx[b] = initState[s + 3];
+				vy[b] = initState[s + 4];
+				w[b] = initState[s + 5];
+				cos[b] = initState[s + 6];
+				sin[b] = initState[s + 7];
+				px[b] = initState[s + 8];
+				py[b] = initState[s + 9];
+				fx[b] = 0;
+				fy[b] = 0;
+				torque[b] = 0;
+				sleepTime[b] = 0;
+			}
+			awake[lane] = initAwake;
+			impulseX[lane] = initImpulseX;
+			impulseY[lane] = initImpulseY;
+			impulseZ[lane] = initImpulseZ;
+			prevTorque[lane] = 0;
+
+			controls[lane] = laneControls[lane];
+			if (!refTraj) {
+				if (motors[lane] == null)
+					motors[lane] = PaddleChar.createMotor(null, null);
+				PaddleChar.setMotorParams(motors[lane], laneControls[lane], 0);
+				motors[lane].setTorqueTable(motorTableTimeStep, interpolateMotorTables);
+				motors[lane].compile();
+			}
+		}
+	}
+
+	/**
+	 * Advances all lanes by one step, like Scenario.step()
+	 */
+	public void step(CompiledSwimSettings settings, float dt) {
+		applyFluidForces(settings);
+		if (dt != 0)
+			applyControls();
+
+		//World step
+		float invDt = dt > 0 ? 1.0f / dt : 0.0f;
+		float dtRatio = invDt0 * dt;
+		if (dt > 0) {
+			integrateVelocities(dt);
+			initJointVelocityConstraints(dtRatio);
+			for (int i = 0; i < settings.velocityIterations; i++)
+				solveJointVelocityConstraints();
+			integratePositions(dt);
+			solvePositionConstraints(settings.positionIterations);
+			if (allowSleep)
+				updateSleep(dt);
+			invDt0 = invDt;
+		}
+
+		for (int b = 0; b < numLanes * BODIES_PER_LANE; b++) {
+			fx[b] = 0;
+			fy[b] = 0;
+			torque[b] = 0;
+		}
+
+		runtime += dt;
+	}
+
+	public float getRootPositionX(int lane) {return px[lane * BODIES_PER_LANE + rootIdx];}
+	public float getRootAngle(int lane) {return angle[lane * BODIES_PER_LANE + rootIdx];}
+	public float getRootLinearVelocityX(int lane) {return vx[lane * BODIES_PER_LANE + rootIdx];}
+	/** Returns total torque applied by lane's controls on the last step (see SwimCharacter.getPrevTorque()) */
+	public float getPrevTorque(int lane) {return prevTorque[lane];}
+
+	/** Applies buoyancy and explicit drag to every body, as in FluidController.step() */
+	protected void applyFluidForces(CompiledSwimSettings settings) {
+		final float fluidDensity = settings.fluidDensity;
+		final float linearDrag = settings.fluidDrag;
+		final float fluidVelX = settings.fluidVelocity;
+		final float invNumEdgePoints = 1.0f / 2;
+
+		for (int lane = 0; lane < numLanes; lane++) {
+			for (int k = 0; k < BODIES_PER_LANE; k++) {
+				int b = lane * BODIES_PER_LANE + k;
+
+				xf.R.col1.x = cos[b];
+				xf.R.col2.x = -sin[b];
+				xf.R.col1.y = sin[b];
+				xf.R.col2.y = cos[b];
+				xf.position.x = px[b];
+				xf.position.y = py[b];
+
+				subCenterOfShape.setZero();
+				subEdges.clear();
+				float subAreaOfShape = FluidUtil.computeSubmergedArea(shapes[k], fluidNormal, fluidSurfaceOffset, xf, subCenterOfShape, subEdges);
+
+				float subArea = 0;
+				subArea += subAreaOfShape;
+				float shapeDensity = useDensity ? density[k] : 1;
+				float subMass = 0;
+				subMass += subAreaOfShape*shapeDensity;
+				float subComX = 0, subComY = 0;
+				subComX += subAreaOfShape * subCenterOfShape.x * shapeDensity;
+				subComY += subAreaOfShape * subCenterOfShape.y * shapeDensity;
+
+				//Drag at both endpoints of each submerged edge
+				for (int e = 0; e < subEdges.size(); e++) {
+					Edge edge = subEdges.get(e);
+					float dirX = edge.pB.x - edge.pA.x;
+					float dirY = edge.pB.y - edge.pA.y;
+					float normX = edge.pB.y - edge.pA.y;
+					float normY = -(edge.pB.x - edge.pA.x);
+
+					for (int i = 0; i < 2; i++) {
+						Vec2 edgePoint = (i == 0) ? edge.pA : edge.pB;
+						float relX = edgePoint.x - cx[b];
+						float relY = edgePoint.y - cy[b];
+						float velX = -w[b] * relY;
+						float velY = w[b] * relX;
+						velX += vx[b];
+						velY += vy[b];
+						velX -= fluidVelX;
+						velY -= fluidVelY;
+
+						float velDotNorm = velX * normX + velY * normY;
+						if (velDotNorm > 0) {
+							float normLen = MathUtils.sqrt(normX * normX + normY * normY);
+							if (normLen >= Settings.EPSILON) {
+								float invLen = 1.0f / normLen;
+								normX *= invLen;
+								normY *= invLen;
+							}
+
+							float perpX = velY, perpY = -velX;
+							float perpLen = MathUtils.sqrt(perpX * perpX + perpY * perpY);
+							if (perpLen >= Settings.EPSILON) {
+								float invLen = 1.0f / perpLen;
+								perpX *= invLen;
+								perpY *= invLen;
+							}
+							float projectedEdgeLength = Math.abs(dirX * perpX + dirY * perpY);
+
+							float velAlongNorm = velX * normX + velY * normY;
+							float dragX = normX * velAlongNorm;
+							float dragY = normY * velAlongNorm;
+							float dragScale = -linearDrag*projectedEdgeLength*invNumEdgePoints;
+							dragX *= dragScale;
+							dragY *= dragScale;
+
+							applyForce(lane, b, dragX, dragY, edgePoint.x, edgePoint.y);
+						}
+					}
+				}
+
+				subComX /= subMass;
+				subComY /= subMass;
+
+				//Ignore if total submerged area is small
+				if (subArea < Settings.EPSILON)
+					continue;
+
+				//Buoyancy
+				float buoyancyScale = -fluidDensity*subArea;
+				applyForce(lane, b, gravity.x * buoyancyScale, gravity.y * buoyancyScale, subComX, subComY);
+			}
+		}
+	}
+
+	/** Applies joint torques of each lane's controller, as in the character's step() */
+	protected void applyControls() {
+		for (int lane = 0; lane < numLanes; lane++) {
+			int bA = lane * BODIES_PER_LANE, bB = bA + 1;
+
+			if (refTraj) {
+				float jointAngle = (angle[bB] - angle[bA] - referenceAngle) % (float)(2 * Math.PI);
+				float jointSpeed = w[bB] - w[bA];
+
+				float totalTorque = 0.0f;
+				double[] params = controls[lane];
+				for (int j = 0; j < params.length; j += RefTrajPaddleChar.getNumRefAngles()) {
+					float laneTorque = RefTrajPaddleChar.computeTorque(params, j, runtime, jointAngle, jointSpeed);
+					applyTorque(lane, bA, laneTorque);
+					applyTorque(lane, bB, -laneTorque);
+					totalTorque += laneTorque;
+				}
+				prevTorque[lane] = totalTorque;
+			}
+			else {
+				float laneTorque = motors[lane].computeTorque(runtime);
+				if (laneTorque != 0.0f) {
+					applyTorque(lane, bA, laneTorque);
+					applyTorque(lane, bB, -laneTorque);
+				}
+				prevTorque[lane] = 0.0f + Math.abs(laneTorque);
+			}
+		}
+	}
+
+	/** Integrates forces, gravity and damping into velocities, as in Island.solve() */
+	protected void integrateVelocities(float dt) {
+		for (int lane = 0; lane < numLanes; lane++) {
+			if (!awake[lane])
+				continue;
+
+			for (int k = 0; k < BODIES_PER_LANE; k++) {
+				int b = lane * BODIES_PER_LANE + k;
+				vx[b] += (fx[b] * invMass[k] + gravity.x)*dt;
+				vy[b] += (fy[b] * invMass[k] + gravity.y)*dt;
+				w[b] += dt * invI[k] * torque[b];
+
+				float a = (1.0f - dt * linearDamping[k]);
+				float a1 = (0.0f > (a < 1.0f ? a : 1.0f) ? 0.0f : (a < 1.0f ? a : 1.0f));
+				vx[b] *= a1;
+				vy[b] *= a1;
+
+				float a2 = (1.0f - dt * angularDamping[k]);
+				float b1 = (a2 < 1.0f ? a2 : 1.0f);
+				w[b] *= 0.0f > b1 ? 0.0f : b1;
+			}
+		}
+	}
+
+	/** Computes joint effective mass and applies warm starting impulse, as in RevoluteJoint.initVelocityConstraints() */
+	protected void initJointVelocityConstraints(float dtRatio) {
+		final float m1 = invMass[0], m2 = invMass[1];
+		final float i1 = invI[0], i2 = invI[1];
+
+		for (int lane = 0; lane < numLanes; lane++) {
+			if (!awake[lane])
+				continue;
+			int bA = lane * BODIES_PER_LANE, bB = bA + 1;
+
+			float r1x = cos[bA] * anchorAX + -sin[bA] * anchorAY;
+			float r1y = sin[bA] * anchorAX + cos[bA] * anchorAY;
+			float r2x = cos[bB] * anchorBX + -sin[bB] * anchorBY;
+			float r2y = sin[bB] * anchorBX + cos[bB] * anchorBY;
+
+			k11[lane] = m1 + m2 + r1y * r1y * i1 + r2y * r2y * i2;
+			k12[lane] = -r1y * r1x * i1 - r2y * r2x * i2;
+			k22[lane] = m1 + m2 + r1x * r1x * i1 + r2x * r2x * i2;
+
+			//Motor is disabled, so its impulse is always 0
+			float motorImpulse = 0.0f;
+			if (warmStarting) {
+				impulseX[lane] *= dtRatio;
+				impulseY[lane] *= dtRatio;
+				impulseZ[lane] *= dtRatio;
+				motorImpulse *= dtRatio;
+
+				float pX = impulseX[lane], pY = impulseY[lane];
+				vx[bA] -= pX * m1;
+				vy[bA] -= pY * m1;
+				w[bA] -= i1 * (r1x * pY - r1y * pX + motorImpulse + impulseZ[lane]);
+
+				vx[bB] += pX * m2;
+				vy[bB] += pY * m2;
+				w[bB] += i2 * (r2x * pY - r2y * pX + motorImpulse + impulseZ[lane]);
+			}
+			else {
+				impulseX[lane] = 0;
+				impulseY[lane] = 0;
+				impulseZ[lane] = 0;
+			}
+		}
+	}
+
+	/** One velocity iteration of the joint's point-to-point constraint, as in RevoluteJoint.solveVelocityConstraints() */
+	protected void solveJointVelocityConstraints() {
+		final float m1 = invMass[0], m2 = invMass[1];
+		final float i1 = invI[0], i2 = invI[1];
+
+		for (int lane = 0; lane < numLanes; lane++) {
+			if (!awake[lane])
+				continue;
+			int bA = lane * BODIES_PER_LANE, bB = bA + 1;
+
+			float r1x = cos[bA] * anchorAX + -sin[bA] * anchorAY;
+			float r1y = sin[bA] * anchorAX + cos[bA] * anchorAY;
+			float r2x = cos[bB] * anchorBX + -sin[bB] * anchorBY;
+			float r2y = sin[bB] * anchorBX + cos[bB] * anchorBY;
+
+			float w1 = w[bA], w2 = w[bB];
+			float cdotX = -w2 * r2y, cdotY = w2 * r2x;
+			cdotX += vx[bB];
+			cdotY += vy[bB];
+			cdotX -= vx[bA];
+			cdotY -= vy[bA];
+			cdotX -= -w1 * r1y;
+			cdotY -= w1 * r1x;
+
+			float impX, impY;
+			{
+				float bX = -cdotX, bY = -cdotY;
+				float a11 = k11[lane], a12 = k12[lane], a21 = k12[lane], a22 = k22[lane];
+				float det = a11 * a22 - a12 * a21;
+				if (det != 0.0f)
+					det = 1.0f / det;
+				impX = det * (a22 * bX - a12 * bY);
+				impY = det * (a11 * bY - a21 * bX);
+			}
+
+			impulseX[lane] += impX;
+			impulseY[lane] += impY;
+
+			vx[bA] -= impX * m1;
+			vy[bA] -= impY * m1;
+			w1 -= i1 * (r1x * impY - r1y * impX);
+
+			vx[bB] += impX * m2;
+			vy[bB] += impY * m2;
+			w2 += i2 * (r2x * impY - r2y * impX);
+
+			w[bA] = w1;
+			w[bB] = w2;
+		}
+	}
+
+	/** Clamps velocities and integrates positions, as in Island.solve() */
+	protected void integratePositions(float dt) {
+		for (int lane = 0; lane < numLanes; lane++) {
+			if (!awake[lane])
+				continue;
+
+			for (int k = 0; k < BODIES_PER_LANE; k++) {
+				int b = lane * BODIES_PER_LANE + k;
+
+				float transX = vx[b] * dt, transY = vy[b] * dt;
+				if (transX * transX + transY * transY > Settings.maxTranslationSquared) {
+					float ratio = Settings.maxTranslation / MathUtils.sqrt(transX * transX + transY * transY);
+					vx[b] *= ratio;
+					vy[b] *= ratio;
+				}
+
+				float rotation = dt * w[b];
+				if (rotation * rotation > Settings.maxRotationSquared) {
+					float ratio = Settings.maxRotation / Math.abs(rotation);
+					w[b] *= ratio;
+				}
+
+				cx[b] += vx[b] * dt;
+				cy[b] += vy[b] * dt;
+				angle[b] += dt * w[b];
+
+				synchronizeTransform(k, b);
+			}
+		}
+	}
+
+	/** Position iterations of the joint's point-to-point constraint, as in RevoluteJoint.solvePositionConstraints() */
+	protected void solvePositionConstraints(int positionIterations) {
+		final float invMass1 = invMass[0], invMass2 = invMass[1];
+		final float invI1 = invI[0], invI2 = invI[1];
+		final float allowedStretch = 10.0f * Settings.linearSlop;
+
+		for (int lane = 0; lane < numLanes; lane++)
+			positionsSolved[lane] = !awake[lane];
+
+		for (int i = 0; i < positionIterations; i++) {
+			for (int lane = 0; lane < numLanes; lane++) {
+				//Lanes stop iterating once their position error is small, as in Island.solve()
+				if (positionsSolved[lane])
+					continue;
+				int bA = lane * BODIES_PER_LANE, bB = bA + 1;
+
+				float r1x = cos[bA] * anchorAX + -sin[bA] * anchorAY;
+				float r1y = sin[bA] * anchorAX + cos[bA] * anchorAY;
+				float r2x = cos[bB] * anchorBX + -sin[bB] * anchorBY;
+				float r2y = sin[bB] * anchorBX + cos[bB] * anchorBY;
+
+				float errX = cx[bB] + r2x - cx[bA] - r1x;
+				float errY = cy[bB] + r2y - cy[bA] - r1y;
+				float positionError = MathUtils.sqrt(errX * errX + errY * errY);
+
+				//Handle large detachment with a particle solution (no rotation)
+				if (errX * errX + errY * errY > allowedStretch * allowedStretch) {
+					float m = invMass1 + invMass2;
+					if (m > 0.0f)
+						m = 1.0f / m;
+					float impX = -errX * m, impY = -errY * m;
+					final float beta = 0.5f;
+					cx[bA] -= impX * (beta * invMass1);
+					cy[bA] -= impY * (beta * invMass1);
+					cx[bB] += impX * (beta * invMass2);
+					cy[bB] += impY * (beta * invMass2);
+
+					errX = cx[bB] + r2x - cx[bA] - r1x;
+					errY = cy[bB] + r2y - cy[bA] - r1y;
+				}
+
+				float a11 = invMass1 + invMass2, a12 = 0.0f, a21 = 0.0f, a22 = invMass1 + invMass2;
+				a11 += invI1 * r1y * r1y;
+				a12 += -invI1 * r1x * r1y;
+				a21 += -invI1 * r1x * r1y;
+				a22 += invI1 * r1x * r1x;
+				a11 += invI2 * r2y * r2y;
+				a12 += -invI2 * r2x * r2y;
+				a21 += -invI2 * r2x * r2y;
+				a22 += invI2 * r2x * r2x;
+
+				float bX = -errX, bY = -errY;
+				float det = a11 * a22 - a12 * a21;
+				if (det != 0.0f)
+					det = 1.0f / det;
+				float impY = det * (a11 * bY - a21 * bX);
+				float impX = det * (a22 * bX - a12 * bY);
+
+				cx[bA] -= impX * invMass1;
+				cy[bA] -= impY * invMass1;
+				angle[bA] -= invI1 * (r1x * impY - r1y * impX);
+
+				cx[bB] += impX * invMass2;
+				cy[bB] += impY * invMass2;
+				angle[bB] += invI2 * (r2x * impY - r2y * impX);
+
+				synchronizeTransform(0, bA);
+				synchronizeTransform(1, bB);
+
+				positionsSolved[lane] = positionError <= Settings.linearSlop;
+			}
+		}
+	}
+
+	/** Puts lanes whose bodies have been still for long enough to sleep, as in Island.solve() */
+	protected void updateSleep(float dt) {
+		final float linTolSqr = Settings.linearSleepTolerance * Settings.linearSleepTolerance;
+		final float angTolSqr = Settings.angularSleepTolerance * Settings.angularSleepTolerance;
+
+		for (int lane = 0; lane < numLanes; lane++) {
+			if (!awake[lane])
+				continue;
+
+			float minSleepTime = Float.MAX_VALUE;
+			for (int k = 0; k < BODIES_PER_LANE; k++) {
+				int b = lane * BODIES_PER_LANE + k;
+				if (!autoSleep[k] || w[b] * w[b] > angTolSqr || vx[b] * vx[b] + vy[b] * vy[b] > linTolSqr) {
+					sleepTime[b] = 0.0f;
+					minSleepTime = 0.0f;
+				}
+				else {
+					sleepTime[b] += dt;
+					minSleepTime = MathUtils.min(minSleepTime, sleepTime[b]);
+				}
+			}
+
+			if (minSleepTime >= Settings.timeToSleep) {
+				awake[lane] = false;
+				for (int k = 0; k < BODIES_PER_LANE; k++) {
+					int b = lane * BODIES_PER_LANE + k;
+					sleepTime[b] = 0;
+					vx[b] = 0;
+					vy[b] = 0;
+					w[b] = 0;
+					fx[b] = 0;
+					fy[b] = 0;
+					torque[b] = 0;
+				}
+			}
+		}
+	}
+
+	/** As in Body.applyForce() */
+	protected void applyForce(int lane, int b, float forceX, float forceY, float pointX, float pointY) {
+		wake(lane);
+		fx[b] += forceX;
+		fy[b] += forceY;
+		torque[b] += (pointX - cx[b]) * forceY - (pointY - cy[b]) * forceX;
+	}
+
+	/** As in Body.applyTorque() */
+	protected void applyTorque(int lane, int b, float bodyTorque) {
+		wake(lane);
+		torque[b] += bodyTorque;
+	}
+
+	/** Wakes a sleeping lane; both bodies are woken together, as when World.solve() builds their island */
+	protected void wake(int lane) {
+		if (!awake[lane]) {
+			awake[lane] = true;
+			for (int k = 0; k < BODIES_PER_LANE; k++)
+				sleepTime[lane * BODIES_PER_LANE + k] = 0;
+		}
+	}
+
+	/** As in Body.synchronizeTransform() */
+	protected void synchronizeTransform(int k, int b) {
+		final float c = MathUtils.cos(angle[b]), s = MathUtils.sin(angle[b]);
+		cos[b] = c;
+		sin[b] = s;
+		float x = c * localCenterX[k] + -s * localCenterY[k];
+		float y = s * localCenterX[k] + c * localCenterY[k];
+		x *= -1;
+		y *= -1;
+		x += cx[b];
+		y += cy[b];
+		px[b] = x;
+		py[b] = y;
+	}
+
+	protected void ensureCapacity(int lanes) {
+		if (awake.length >= lanes)
+			return;
+
+		int numBodies = lanes * BODIES_PER_LANE;
+		cx = new float[numBodies]; cy = new float[numBodies]; angle = new float[numBodies];
+		vx = new float[numBodies]; vy = new float[numBodies]; w = new float[numBodies];
+		fx = new float[numBodies]; fy = new float[numBodies]; torque = new float[numBodies];
+		cos = new float[numBodies]; sin = new float[numBodies]; px = new float[numBodies]; py = new float[numBodies];
+		sleepTime = new float[numBodies];
+		awake = new boolean[lanes];
+		impulseX = new float[lanes]; impulseY = new float[lanes]; impulseZ = new float[lanes];
+		prevTorque = new float[lanes];
+		k11 = new float[lanes]; k12 = new float[lanes]; k22 = new float[lanes];
+		positionsSolved = new boolean[lanes];
+
+		GaussianTorqueMotor[] newMotors = new GaussianTorqueMotor[lanes];
+		System.arraycopy(motors, 0, newMotors, 0, motors.length);
+		motors = newMotors;
+		controls = new double[lanes][];
+	}
+}
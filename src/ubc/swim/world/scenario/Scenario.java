@@ -2,14 +2,27 @@ package ubc.swim.world.scenario;
 
 import java.util.ArrayList;
 import java.util.List;
+import java.util.concurrent.ForkJoinPool;
 
+import org.jbox2d.collision.broadphase.BroadPhaseStrategy;
+import org.jbox2d.collision.broadphase.DynamicTree;
+import org.jbox2d.collision.broadphase.DynamicTreeFlatNodes;
+import org.jbox2d.common.Sweep;
+import org.jbox2d.common.Transform;
 import org.jbox2d.common.Vec2;
+import org.jbox2d.common.Vec3;
 import org.jbox2d.dynamics.Body;
 import org.jbox2d.dynamics.World;
+import org.jbox2d.dynamics.joints.Joint;
+import org.jbox2d.dynamics.joints.LimitState;
+import org.jbox2d.dynamics.joints.RevoluteJoint;
+import org.jbox2d.pooling.normal.DefaultWorldPool;
 
+import ubc.swim.dynamics.controllers.FluidController;
 import ubc.swim.dynamics.controllers.FluidControllerDef;
+import ubc.swim.dynamics.controllers.PackedFluidControllerDef;
 import ubc.swim.dynamics.controllers.DynamicsController;
-import ubc.swim.gui.SwimSettings;
+import ubc.swim.gui.CompiledSwimSettings;
 import ubc.swim.world.characters.SwimCharacter;
 
 /** A world scenario for the swimmer app
@@ -29,6 +42,24 @@ public class Scenario {
 	protected World world;
 	protected float runtime = 0.0f;
 	
+	//If true, fluid forces are computed with the packed (structure of arrays) kernel
+	protected boolean usePackedFluidKernel = false;
+	//If true, fluid drag is integrated implicitly (see FluidController.implicitDrag)
+	protected boolean useImplicitDrag = false;
+	//If true, the world's broad-phase uses the array-backed proxy tree (see DynamicTreeFlatNodes)
+	protected boolean useFlatBroadPhase = false;
+	//If set, independent islands (eg: separate characters) are solved concurrently on this pool
+	protected ForkJoinPool islandPool = null;
+	//If true, character joint trees are solved in reduced coordinates (see World.setArticulatedSolving())
+	protected boolean useArticulatedSolver = false;
+	//If true, the world skips broad-phase, contacts and TOI while nothing can collide (see World.setContactFreeStepping())
+	protected boolean useContactFreeStepping = true;
+	
+	//State recorded by saveInitialState() and restored by reset()
+	protected ArrayList<BodyState> initialBodyStates = new ArrayList<BodyState>();
+	protected ArrayList<RevoluteJointState> initialJointStates = new ArrayList<RevoluteJointState>();
+	protected boolean initialStateSaved = false;
+	
 	/** 
 	 * Constructor
 	 */
@@ -46,39 +77,112 @@ public class Scenario {
 		createWorld();
 		
 		runtime = 0.0f;
-//		reset();
 	}
 	
-	//TODO: implement reset to allow object reuse?
-//	/**
-//	 * Resets this scenario to its original configuration
-//	 */
-//	public void reset() {
-//		runtime = 0.0f;
-//		
-//		//Reset controllers
-//		for (DynamicsController controller : dynControllers)
-//			controller.clear();
-//		
-//		//TODO: reset characters
-//		//requires removing bodies & joints from world, recreating?
-//	}
+	/**
+	 * Records the current state of all bodies, joints and characters in this scenario
+	 * so that it can later be restored by reset(). 
+	 * Call once all characters have been added and positioned.
+	 */
+	public void saveInitialState() {
+		initialBodyStates.clear();
+		for (Body body = world.getBodyList(); body != null; body = body.getNext())
+			initialBodyStates.add(new BodyState(body));
+		
+		initialJointStates.clear();
+		for (Joint joint = world.getJointList(); joint != null; joint = joint.getNext()) {
+			if (joint instanceof RevoluteJoint)
+				initialJointStates.add(new RevoluteJointState((RevoluteJoint) joint));
+		}
+		
+		initialStateSaved = true;
+	}
+	
+	/**
+	 * Resets this scenario to the configuration recorded by the last saveInitialState() call.
+	 * Bodies, joints and characters are restored in place, so the world is reused
+	 * rather than rebuilt.
+	 */
+	public void reset() {
+		if (!initialStateSaved)
+			throw new IllegalStateException("saveInitialState() must be called before reset()");
+		
+		runtime = 0.0f;
+		
+		for (BodyState bodyState : initialBodyStates)
+			bodyState.restore();
+		for (RevoluteJointState jointState : initialJointStates)
+			jointState.restore();
+		
+		world.clearForces();
+		world.clearPreviousTimeStep();
+		
+		for (SwimCharacter character : characters)
+			character.reset();
+	}
 	
 	public World getWorld() {return world;}
 	public List<DynamicsController> getDynamicsControllers() {return dynControllers;}
 	public List<SwimCharacter> getCharacters() {return characters;}
 	
+	/** Selects the packed fluid kernel (see PackedFluidController). Must be set before initialize() */
+	public void setUsePackedFluidKernel(boolean val) {this.usePackedFluidKernel = val;}
+	public boolean getUsePackedFluidKernel() {return usePackedFluidKernel;}
+	
+	/** Selects implicit integration of fluid drag, which stays stable at larger time steps (see FluidController.implicitDrag) */
+	public void setUseImplicitDrag(boolean val) {
+		this.useImplicitDrag = val;
+		for (DynamicsController controller : dynControllers) {
+			if (controller instanceof FluidController)
+				((FluidController) controller).implicitDrag = val;
+		}
+	}
+	public boolean getUseImplicitDrag() {return useImplicitDrag;}
+	
+	/** Selects the array-backed broad-phase tree (see DynamicTreeFlatNodes). Must be set before initialize() */
+	public void setUseFlatBroadPhase(boolean val) {this.useFlatBroadPhase = val;}
+	public boolean getUseFlatBroadPhase() {return useFlatBroadPhase;}
+	
+	/** Sets pool that independent islands are solved on, or null to solve them serially (see World.setIslandPool()) */
+	public void setIslandPool(ForkJoinPool pool) {
+		this.islandPool = pool;
+		if (world != null)
+			world.setIslandPool(pool);
+	}
+	public ForkJoinPool getIslandPool() {return islandPool;}
+	
+	/** Selects reduced coordinate solving of character joints, which are then exact and need no solver iterations (see World.setArticulatedSolving()) */
+	public void setUseArticulatedSolver(boolean val) {
+		this.useArticulatedSolver = val;
+		if (world != null)
+			world.setArticulatedSolving(val);
+	}
+	public boolean getUseArticulatedSolver() {return useArticulatedSolver;}
+	
+	/** Selects skipping of broad-phase, contacts and TOI while no fixtures can collide, which is on by default (see World.setContactFreeStepping()) */
+	public void setUseContactFreeStepping(boolean val) {
+		this.useContactFreeStepping = val;
+		if (world != null)
+			world.setContactFreeStepping(val);
+	}
+	public boolean getUseContactFreeStepping() {return useContactFreeStepping;}
+	
 	protected void createWorld() {
 		Vec2 gravity = new Vec2(0, -10f);
-		world = new World(gravity, true);
+		BroadPhaseStrategy broadPhase = useFlatBroadPhase ? new DynamicTreeFlatNodes() : new DynamicTree();
+		world = new World(gravity, true, new DefaultWorldPool(World.WORLD_POOL_SIZE, World.WORLD_POOL_CONTAINER_SIZE), broadPhase);
+		world.setIslandPool(islandPool);
+		world.setArticulatedSolving(useArticulatedSolver);
+		world.setContactFreeStepping(useContactFreeStepping);
 		
 		//Create fluid environment
 		float fluidHeight = 10.0f;
-		FluidControllerDef fluidDef = new FluidControllerDef();
+		FluidControllerDef fluidDef = usePackedFluidKernel ? new PackedFluidControllerDef() : new FluidControllerDef();
 		fluidDef.density = 5.0f;
 		fluidDef.offset = fluidHeight;
 		fluidDef.linearDrag = 100.0f;
 		fluidDef.useDensity = true;
+		fluidDef.implicitDrag = useImplicitDrag;
 		DynamicsController fluid = fluidDef.create();
 		fluid.world = world;
 			
@@ -106,21 +210,75 @@ public class Scenario {
 			controller.addBody(body);
 	}
 	
-	public void step(SwimSettings settings, float dt) {		
+	public void step(CompiledSwimSettings settings, float dt) {		
 		//Apply dynamic controllers
-		for (DynamicsController controller : dynControllers)
-			controller.step(settings);
+		for (int i = 0; i < dynControllers.size(); i++)
+			dynControllers.get(i).step(settings);
 		
 		//Update characters
-		for (SwimCharacter character : characters) {
+		for (int i = 0; i < characters.size(); i++) {
+			SwimCharacter character = characters.get(i);
 			character.step(settings, dt);
 			character.updateStats(dt);
 		}
 
 		world.step(dt,
-				settings.getSetting(SwimSettings.VelocityIterations).getIntValue(),
-				settings.getSetting(SwimSettings.PositionIterations).getIntValue());
+				settings.velocityIterations,
+				settings.positionIterations);
 		
 		runtime += dt;
 	}
+	
+	/** Saved dynamic state of a single body */
+	protected static class BodyState {
+		protected final Body body;
+		protected final Transform xf = new Transform();
+		protected final Sweep sweep = new Sweep();
+		protected final Vec2 linearVelocity = new Vec2();
+		protected final float angularVelocity;
+		protected final int flags;
+		protected final float sleepTime;
+		
+		public BodyState(Body body) {
+			this.body = body;
+			xf.set(body.getTransform());
+			sweep.set(body.m_sweep);
+			linearVelocity.set(body.m_linearVelocity);
+			angularVelocity = body.m_angularVelocity;
+			flags = body.m_flags;
+			sleepTime = body.m_sleepTime;
+		}
+		
+		public void restore() {
+			//setTransform keeps the broad-phase in sync; raw transform is then copied exactly
+			body.setTransform(xf.position, sweep.a);
+			body.m_xf.set(xf);
+			body.m_sweep.set(sweep);
+			body.m_linearVelocity.set(linearVelocity);
+			body.m_angularVelocity = angularVelocity;
+			body.m_flags = flags;
+			body.m_sleepTime = sleepTime;
+		}
+	}
+	
+	/** Saved solver state of a single revolute joint */
+	protected static class RevoluteJointState {
+		protected final RevoluteJoint joint;
+		protected final Vec3 impulse = new Vec3();
+		protected final float motorImpulse;
+		protected final LimitState limitState;
+		
+		public RevoluteJointState(RevoluteJoint joint) {
+			this.joint = joint;
+			impulse.set(joint.m_impulse);
+			motorImpulse = joint.m_motorImpulse;
+			limitState = joint.m_limitState;
+		}
+		
+		public void restore() {
+			joint.m_impulse.set(impulse);
+			joint.m_motorImpulse = motorImpulse;
+			joint.m_limitState = limitState;
+		}
+	}
 }
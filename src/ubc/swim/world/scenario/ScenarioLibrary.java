@@ -7,6 +7,7 @@ import ubc.swim.world.characters.Stroke;
 import ubc.swim.world.characters.TadpoleCharacter;
 import ubc.swim.world.characters.HumanChar;
 import ubc.swim.world.characters.PaddleChar;
+import ubc.swim.world.characters.RefTrajPaddleChar;
 import ubc.swim.world.characters.SwimCharacter;
 
 /**
@@ -23,7 +24,32 @@ public class ScenarioLibrary {
 	 * @return
 	 */
 	public static Scenario getBasicScenario(List<String> charIDs) {
+		return getBasicScenario(charIDs, false);
+	}
+	
+	/**
+	 * Returns scenario with a simple fluid environment and chars
+	 * with given IDs added to the scene
+	 * @param charIDs
+	 * @param usePackedFluidKernel if true, fluid forces use the packed kernel (see PackedFluidController)
+	 * @return
+	 */
+	public static Scenario getBasicScenario(List<String> charIDs, boolean usePackedFluidKernel) {
+		return getBasicScenario(charIDs, usePackedFluidKernel, false);
+	}
+	
+	/**
+	 * Returns scenario with a simple fluid environment and chars
+	 * with given IDs added to the scene
+	 * @param charIDs
+	 * @param usePackedFluidKernel if true, fluid forces use the packed kernel (see PackedFluidController)
+	 * @param useFlatBroadPhase if true, the world uses the array-backed broad-phase tree (see DynamicTreeFlatNodes)
+	 * @return
+	 */
+	public static Scenario getBasicScenario(List<String> charIDs, boolean usePackedFluidKernel, boolean useFlatBroadPhase) {
 		Scenario scenario = new Scenario();
+		scenario.setUsePackedFluidKernel(usePackedFluidKernel);
+		scenario.setUseFlatBroadPhase(useFlatBroadPhase);
 		scenario.initialize();
 		
 		//Add list of characters to the scene
@@ -35,6 +61,8 @@ public class ScenarioLibrary {
 			scenario.addCharacter(character);
 		}
 		
+		scenario.saveInitialState();
+		
 		return scenario;
 	}
 	
@@ -51,6 +79,8 @@ public class ScenarioLibrary {
 		
 		if (charID.equals("paddle")) 
 			character = new PaddleChar();
+		if (charID.equals("refTrajPaddle")) 
+			character = new RefTrajPaddleChar();
 		if (charID.equals("tadpole")) 
 			character = new TadpoleCharacter(4);
 		if (charID.equals("humanCrawl")) 
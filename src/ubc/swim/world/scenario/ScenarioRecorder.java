@@ -0,0 +1,198 @@
+package ubc.swim.world.scenario;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.jbox2d.dynamics.Body;
+import org.jbox2d.dynamics.joints.JointEdge;
+import org.jbox2d.dynamics.joints.RevoluteJoint;
+
+import ubc.swim.world.characters.SwimCharacter;
+import ubc.swim.world.motors.TorqueMotor;
+
+/**
+ * Streams the state of a scenario's characters after each step to a binary file that can be
+ * played back without simulating (see ScenarioRecording). For each character, a frame holds the
+ * transform of every body, the angle of every revolute joint between its bodies, the torque applied
+ * by every motor on the last step and the running stats used for fitness (see SwimCharacter).
+ *
+ * Frames are fixed size and only ever appended, through memory-mapped regions of the file, so
+ * recording a step is a handful of buffer writes with no system calls or allocation. The frame count
+ * in the header is updated after each frame, so a recording cut short (eg: by a crash) can still be read
+ * up to the last complete frame.
+ *
+ * File layout (big-endian): magic, version, frame count, header size, time step, then for each character:
+ * char ID, number of bodies, joints and motors; frames follow the header. Each frame is a float for
+ * simulated time followed by each character's block of floats: x, y and angle per body, angle per joint,
+ * torque per motor, then NUM_STATS stats.
+ *
+ * @author Ben Humberston
+ *
+ */
+public class ScenarioRecorder {
+	public static final String FILE_EXTENSION = ".swrec";
+
+	protected static final int MAGIC = 0x53575243; //"SWRC"
+	protected static final int VERSION = 1;
+	protected static final int FRAME_COUNT_OFFSET = 8;
+
+	/** Stats stored for each character, in order, after its bodies, joints and motors */
+	public static final int STAT_PREV_TORQUE = 0, STAT_TOTAL_TORQUE = 1, STAT_TOTAL_ROOT_ANGLE_DEVIATION = 2,
+		STAT_AVG_ROOT_SPEED = 3, NUM_STATS = 4;
+
+	//Size of each mapped region of the file; rounded down to a whole number of frames
+	protected static final int REGION_SIZE = 1 << 20;
+
+	protected final File file;
+	protected final RandomAccessFile raf;
+	protected final FileChannel channel;
+	protected final List<SwimCharacter> characters;
+	protected final List<List<RevoluteJoint>> joints = new ArrayList<List<RevoluteJoint>>();
+	protected final int headerSize;
+	protected final int frameSize;
+	protected final int framesPerRegion;
+
+	protected MappedByteBuffer header;
+	protected MappedByteBuffer region = null;
+	protected long regionStart;
+	protected int numFrames = 0;
+	protected boolean closed = false;
+
+	/**
+	 * Creates (or replaces) given file and writes its header
+	 * @param file
+	 * @param scenario scenario whose characters are recorded
+	 * @param charIDs ID of each character in scenario, so playback can rebuild them (see ScenarioLibrary)
+	 * @param timeStep simulation step size
+	 * @throws IOException
+	 */
+	public ScenarioRecorder(File file, Scenario scenario, List<String> charIDs, float timeStep) throws IOException {
+		characters = new ArrayList<SwimCharacter>(scenario.getCharacters());
+		if (charIDs.size() != characters.size())
+			throw new IllegalArgumentException("Need one ID per character");
+
+		ByteArrayOutputStream headerBytes = new ByteArrayOutputStream();
+		DataOutputStream out = new DataOutputStream(headerBytes);
+		out.writeInt(MAGIC);
+		out.writeInt(VERSION);
+		out.writeInt(0); //frame count
+		out.writeInt(0); //header size, filled in below
+		out.writeFloat(timeStep);
+		out.writeInt(characters.size());
+
+		int frameFloats = 1;
+		for (int i = 0; i < characters.size(); i++) {
+			SwimCharacter character = characters.get(i);
+			List<RevoluteJoint> charJoints = getJoints(character);
+			joints.add(charJoints);
+
+			out.writeUTF(charIDs.get(i));
+			out.writeInt(character.getBodies().size());
+			out.writeInt(charJoints.size());
+			out.writeInt(character.getMotors().size());
+			frameFloats += 3 * character.getBodies().size() + charJoints.size() + character.getMotors().size() + NUM_STATS;
+		}
+		out.close();
+
+		headerSize = headerBytes.size();
+		frameSize = 4 * frameFloats;
+		framesPerRegion = Math.max(1, REGION_SIZE / frameSize);
+
+		this.file = file;
+		File dir = file.getAbsoluteFile().getParentFile();
+		if (dir != null && !dir.isDirectory() && !dir.mkdirs())
+			throw new IOException("Can't create " + dir);
+		raf = new RandomAccessFile(file, "rw");
+		raf.setLength(0);
+		channel = raf.getChannel();
+
+		header = channel.map(FileChannel.MapMode.READ_WRITE, 0, headerSize);
+		header.put(headerBytes.toByteArray());
+		header.putInt(12, headerSize);
+		regionStart = headerSize;
+	}
+
+	public File getFile() { return file; }
+
+	/** Returns number of frames recorded so far */
+	public int getNumFrames() { return numFrames; }
+
+	/**
+	 * Appends a frame holding the current state of the scenario's characters
+	 * @param time simulated time of frame
+	 * @throws IOException if the file can't be extended
+	 */
+	public void recordStep(float time) throws IOException {
+		if (closed)
+			throw new IllegalStateException("Recorder is closed");
+
+		if (region == null || !region.hasRemaining()) {
+			if (region != null)
+				regionStart += region.capacity();
+			region = channel.map(FileChannel.MapMode.READ_WRITE, regionStart, (long)framesPerRegion * frameSize);
+		}
+
+		region.putFloat(time);
+		for (int i = 0; i < characters.size(); i++) {
+			SwimCharacter character = characters.get(i);
+			for (Body body : character.getBodies()) {
+				region.putFloat(body.getPosition().x);
+				region.putFloat(body.getPosition().y);
+				region.putFloat(body.getAngle());
+			}
+			for (RevoluteJoint joint : joints.get(i))
+				region.putFloat(joint.getJointAngle());
+			for (TorqueMotor motor : character.getMotors())
+				region.putFloat(motor.getPrevTorque());
+
+			region.putFloat(character.getPrevTorque());
+			region.putFloat(character.getTotalTorque());
+			region.putFloat(character.getTotalRootOrientationDeviation());
+			region.putFloat(character.getAvgRootBodySpeed());
+		}
+
+		numFrames++;
+		header.putInt(FRAME_COUNT_OFFSET, numFrames);
+	}
+
+	/**
+	 * Trims unused space off the end of the file and closes it
+	 */
+	public void close() throws IOException {
+		if (closed)
+			return;
+
+		closed = true;
+		try {
+			channel.truncate(headerSize + (long)numFrames * frameSize);
+		}
+		finally {
+			raf.close();
+			header = null;
+			region = null;
+		}
+	}
+
+	/**
+	 * Returns revolute joints connecting bodies of given character, in a fixed order: by the
+	 * character's body list, then by each body's joint list
+	 */
+	public static List<RevoluteJoint> getJoints(SwimCharacter character) {
+		List<RevoluteJoint> charJoints = new ArrayList<RevoluteJoint>();
+		for (Body body : character.getBodies()) {
+			for (JointEdge edge = body.getJointList(); edge != null; edge = edge.next) {
+				//Each joint is listed by both its bodies; only take it from body A
+				if (edge.joint instanceof RevoluteJoint && edge.joint.getBodyA() == body && character.getBodies().contains(edge.other))
+					charJoints.add((RevoluteJoint) edge.joint);
+			}
+		}
+		return charJoints;
+	}
+}
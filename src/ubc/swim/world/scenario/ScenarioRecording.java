@@ -0,0 +1,164 @@
+package ubc.swim.world.scenario;
+
+import java.io.ByteArrayInputStream;
+import java.io.DataInputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Read-only view of a file written by ScenarioRecorder. The whole file is memory-mapped, so any
+ * frame can be read directly, in any order, at no more cost than reading the next one.
+ *
+ * @author Ben Humberston
+ *
+ */
+public class ScenarioRecording {
+	protected final File file;
+	protected final MappedByteBuffer data;
+	protected final float timeStep;
+	protected final int numFrames;
+	protected final int headerSize;
+	protected final int frameSize;
+
+	protected final List<String> charIDs = new ArrayList<String>();
+	protected final int[] numBodies;
+	protected final int[] numJoints;
+	protected final int[] numMotors;
+	//Byte offset of each character's block within a frame
+	protected final int[] charOffsets;
+
+	/**
+	 * Opens given recording
+	 * @param file
+	 * @throws IOException if file is missing, unreadable or not a recording
+	 */
+	public ScenarioRecording(File file) throws IOException {
+		this.file = file;
+
+		RandomAccessFile raf = new RandomAccessFile(file, "r");
+		try {
+			long fileSize = raf.length();
+			if (fileSize > Integer.MAX_VALUE)
+				throw new IOException("Recording " + file + " is too large");
+			data = raf.getChannel().map(FileChannel.MapMode.READ_ONLY, 0, fileSize);
+		}
+		finally {
+			//Mapping stays valid after the file is closed
+			raf.close();
+		}
+
+		if (data.capacity() < 24 || data.getInt(0) != ScenarioRecorder.MAGIC)
+			throw new IOException(file + " is not a scenario recording");
+		int version = data.getInt(4);
+		if (version != ScenarioRecorder.VERSION)
+			throw new IOException("Unsupported recording version " + version + " in " + file);
+
+		headerSize = data.getInt(12);
+		if (headerSize < 24 || headerSize > data.capacity())
+			throw new IOException("Corrupt header in " + file);
+		byte[] headerBytes = new byte[headerSize];
+		data.position(0);
+		data.get(headerBytes);
+		DataInputStream in = new DataInputStream(new ByteArrayInputStream(headerBytes, 16, headerSize - 16));
+
+		timeStep = in.readFloat();
+		int numChars = in.readInt();
+		numBodies = new int[numChars];
+		numJoints = new int[numChars];
+		numMotors = new int[numChars];
+		charOffsets = new int[numChars];
+
+		int offset = 4; //after frame time
+		for (int i = 0; i < numChars; i++) {
+			charIDs.add(in.readUTF());
+			numBodies[i] = in.readInt();
+			numJoints[i] = in.readInt();
+			numMotors[i] = in.readInt();
+			charOffsets[i] = offset;
+			offset += 4 * (3 * numBodies[i] + numJoints[i] + numMotors[i] + ScenarioRecorder.NUM_STATS);
+		}
+		frameSize = offset;
+
+		//Header count may be ahead of the data if the recorder was cut short before closing
+		numFrames = Math.min(data.getInt(ScenarioRecorder.FRAME_COUNT_OFFSET), (data.capacity() - headerSize) / frameSize);
+	}
+
+	public File getFile() { return file; }
+	public int getNumFrames() { return numFrames; }
+	public float getTimeStep() { return timeStep; }
+	public int getNumCharacters() { return charIDs.size(); }
+	public List<String> getCharIDs() { return Collections.unmodifiableList(charIDs); }
+	public int getNumBodies(int charIdx) { return numBodies[charIdx]; }
+	public int getNumJoints(int charIdx) { return numJoints[charIdx]; }
+	public int getNumMotors(int charIdx) { return numMotors[charIdx]; }
+
+	/** Returns simulated time of given frame */
+	public float getTime(int frame) {
+		return data.getFloat(frameStart(frame));
+	}
+
+	/** Returns simulated time of last frame, or 0 if there are none */
+	public float getDuration() {
+		return numFrames > 0 ? getTime(numFrames - 1) : 0;
+	}
+
+	/**
+	 * Returns index of last frame at or before given time, clamped to the recorded frames
+	 */
+	public int getFrameAt(float time) {
+		if (numFrames == 0)
+			return 0;
+
+		//Frames are one time step apart; search near the estimate, since times are accumulated floats
+		int frame = Math.max(0, Math.min(numFrames - 1, (int)((time - getTime(0)) / timeStep)));
+		while (frame + 1 < numFrames && getTime(frame + 1) <= time)
+			frame++;
+		while (frame > 0 && getTime(frame) > time)
+			frame--;
+		return frame;
+	}
+
+	public float getBodyX(int frame, int charIdx, int bodyIdx) {
+		return data.getFloat(charStart(frame, charIdx) + 12 * bodyIdx);
+	}
+
+	public float getBodyY(int frame, int charIdx, int bodyIdx) {
+		return data.getFloat(charStart(frame, charIdx) + 12 * bodyIdx + 4);
+	}
+
+	public float getBodyAngle(int frame, int charIdx, int bodyIdx) {
+		return data.getFloat(charStart(frame, charIdx) + 12 * bodyIdx + 8);
+	}
+
+	public float getJointAngle(int frame, int charIdx, int jointIdx) {
+		return data.getFloat(charStart(frame, charIdx) + 12 * numBodies[charIdx] + 4 * jointIdx);
+	}
+
+	public float getMotorTorque(int frame, int charIdx, int motorIdx) {
+		return data.getFloat(charStart(frame, charIdx) + 12 * numBodies[charIdx] + 4 * (numJoints[charIdx] + motorIdx));
+	}
+
+	/**
+	 * Returns one of the character's running stats at given frame
+	 * @param stat one of the ScenarioRecorder.STAT_* constants
+	 */
+	public float getStat(int frame, int charIdx, int stat) {
+		return data.getFloat(charStart(frame, charIdx) + 12 * numBodies[charIdx] + 4 * (numJoints[charIdx] + numMotors[charIdx] + stat));
+	}
+
+	protected int frameStart(int frame) {
+		if (frame < 0 || frame >= numFrames)
+			throw new IndexOutOfBoundsException("Frame " + frame + " of " + numFrames);
+		return headerSize + frame * frameSize;
+	}
+
+	protected int charStart(int frame, int charIdx) {
+		return frameStart(frame) + charOffsets[charIdx];
+	}
+}